@@ -0,0 +1,185 @@
+package com.moemke.android.popmovies;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.util.ListUpdateCallback;
+import android.util.Log;
+
+import com.moemke.android.popmovies.utilities.ListDiffer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Diffs 5,000 movie {@link MovieStore}s, the data of {@link MovieAdapter}, with
+ * {@link ListDiffer} and counts the cells the changes rebind; notifyDataSetChanged rebinds all
+ * of them. Results are written to logcat under the TestMovieDiffBenchmark tag.
+ * <p>
+ * The dispatched changes are replayed on a copy of the old list of ids, which has to end up as
+ * the new list.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestMovieDiffBenchmark {
+
+    private static final String TAG = TestMovieDiffBenchmark.class.getSimpleName();
+
+    private static final int MOVIES = 5000;
+    private static final int EDITS = 10;
+    private static final int ITERATIONS = 5;
+
+    // id replayed for an inserted position, tmdb ids are positive
+    private static final Integer INSERTED = -1;
+
+    @Test
+    public void refresh_sameMovies_rebindsNothing() {
+        ArrayList<Movie> oldList = movies(0, MOVIES);
+        ArrayList<Movie> newList = movies(0, MOVIES);
+
+        Counts counts = benchmark("refresh, same movies", oldList, newList);
+
+        assertEquals(0, counts.rebound());
+        assertEquals(0, counts.removed);
+    }
+
+    @Test
+    public void refresh_fewEdits_rebindsOnlyEdits() {
+        ArrayList<Movie> oldList = movies(0, MOVIES);
+        ArrayList<Movie> newList = movies(0, MOVIES);
+        for (int i = 0; i < EDITS; i++) {
+            // new posters, removed movies, new movies and movies that moved up
+            newList.set(i * 400, movie(newList.get(i * 400).getId(), "/new" + i + ".jpg"));
+            newList.remove(100 + i * 300);
+            newList.add(200 + i * 300, movie(MOVIES * 2 + i, "/inserted" + i + ".jpg"));
+            newList.add(i, newList.remove(4000 + i * 50));
+        }
+
+        Counts counts = benchmark("refresh, " + EDITS + " of each edit", oldList, newList);
+
+        assertTrue(counts.toString(), counts.rebound() <= 4 * EDITS);
+    }
+
+    @Test
+    public void otherSortOrder_noDiffNeeded() {
+        ArrayList<Movie> oldList = movies(0, MOVIES);
+        ArrayList<Movie> newList = movies(MOVIES, MOVIES);
+
+        Counts counts = benchmark("other sort order", oldList, newList);
+
+        assertEquals(MOVIES, counts.removed);
+        assertEquals(MOVIES, counts.inserted);
+    }
+
+    @Test
+    public void firstPageOverDroppedPages() {
+        // a long scroll, only the window of pages around the last visible one is resident
+        ArrayList<Movie> oldList = movies(0, MOVIES);
+        for (int i = 0; i < MOVIES - 200; i++) {
+            oldList.set(i, null);
+        }
+        ArrayList<Movie> newList = movies(MOVIES - 200, 20);
+
+        Counts counts = benchmark("first page over dropped pages", oldList, newList);
+
+        assertTrue(counts.toString(), counts.rebound() <= 20);
+    }
+
+    private static Counts benchmark(String name, List<Movie> oldList, List<Movie> newList) {
+        MovieStore oldMovies = MovieStore.of(oldList);
+        MovieStore newMovies = MovieStore.of(newList);
+        ListDiffer.Result result = null;
+        long bestNanos = Long.MAX_VALUE;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long start = System.nanoTime();
+            result = ListDiffer.calculate(oldMovies, newMovies);
+            bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+        }
+        Counts counts = new Counts(oldList);
+        result.dispatchUpdatesTo(counts);
+        List<Integer> newIds = ids(newList);
+        assertEquals(newIds.size(), counts.ids.size());
+        for (int i = 0; i < newIds.size(); i++) {
+            if (counts.ids.get(i) != INSERTED) {
+                assertEquals(newIds.get(i), counts.ids.get(i));
+            }
+        }
+        Log.i(TAG, String.format("%s: %d -> %d movies, diff %.1f ms, %s "
+                        + "(notifyDataSetChanged rebinds %d)", name, oldList.size(),
+                newList.size(), bestNanos / 1e6, counts, newList.size()));
+        return counts;
+    }
+
+    private static ArrayList<Movie> movies(int firstId, int count) {
+        ArrayList<Movie> movies = new ArrayList<Movie>(count);
+        for (int id = firstId; id < firstId + count; id++) {
+            movies.add(movie(id, "/poster" + id + ".jpg"));
+        }
+        return movies;
+    }
+
+    private static Movie movie(int id, String posterPath) {
+        return new Movie(posterPath, "overview", "2017-02-02", id, "title " + id, "en",
+                "/backdrop.jpg", 100, 7.5f, 0, null);
+    }
+
+    private static List<Integer> ids(List<Movie> movies) {
+        List<Integer> ids = new ArrayList<Integer>(movies.size());
+        for (Movie movie : movies) {
+            ids.add(movie == null ? null : movie.getId());
+        }
+        return ids;
+    }
+
+    /**
+     * Counts the changes and replays them on the old ids, inserted positions get INSERTED.
+     */
+    private static class Counts implements ListUpdateCallback {
+        final List<Integer> ids;
+        int inserted;
+        int removed;
+        int moved;
+        int changed;
+
+        Counts(List<Movie> oldList) {
+            ids = ids(oldList);
+        }
+
+        int rebound() {
+            return inserted + moved + changed;
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            inserted += count;
+            ids.addAll(position, Collections.nCopies(count, INSERTED));
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            removed += count;
+            ids.subList(position, position + count).clear();
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            moved++;
+            ids.add(toPosition, ids.remove(fromPosition));
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            changed += count;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d inserted, %d removed, %d moved, %d changed",
+                    inserted, removed, moved, changed);
+        }
+    }
+}
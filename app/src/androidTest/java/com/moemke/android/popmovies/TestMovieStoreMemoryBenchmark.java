@@ -0,0 +1,115 @@
+package com.moemke.android.popmovies;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the heap retained by 10,000 paged movies held as an ArrayList of Movie, the grid's
+ * data before, and as a {@link MovieStore}, and the time to read the fields a grid bind uses.
+ * Results are written to logcat under the TestMovieStoreMemoryBenchmark tag.
+ * <p>
+ * The movies are built like the JSON parser builds them: every string is its own instance.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestMovieStoreMemoryBenchmark {
+
+    private static final String TAG = TestMovieStoreMemoryBenchmark.class.getSimpleName();
+
+    private static final int MOVIES = 10000;
+    private static final int PAGE_SIZE = 20;
+    private static final String[] LANGUAGES = {"en", "fr", "ja", "es", "ko", "de"};
+    private static final String OVERVIEW = "The quiet life of a terrier named Max is upended"
+            + " when his owner takes in Duke, a stray whom Max instantly dislikes.";
+
+    // keeps the measured data reachable until the heap is measured
+    private Object mRetained;
+
+    @Test
+    public void heapFootprint_10kMovies() throws InterruptedException {
+        gc();
+        long heapBefore = usedHeap();
+        ArrayList<Movie> list = new ArrayList<Movie>();
+        for (int page = 0; page < MOVIES / PAGE_SIZE; page++) {
+            list.addAll(page(page));
+        }
+        mRetained = list;
+        gc();
+        long listBytes = usedHeap() - heapBefore;
+        long listReadNanos = readList(list);
+        mRetained = null;
+        list = null;
+
+        gc();
+        heapBefore = usedHeap();
+        MovieStore store = new MovieStore();
+        for (int page = 0; page < MOVIES / PAGE_SIZE; page++) {
+            // the page's Movies are garbage right after, as in MovieAdapter
+            store.addAll(page(page));
+        }
+        mRetained = store;
+        gc();
+        long storeBytes = usedHeap() - heapBefore;
+        long storeReadNanos = readStore(store);
+
+        assertEquals(MOVIES, store.size());
+        Log.i(TAG, String.format("%d movies: ArrayList<Movie> %d KB (%d bytes/movie), "
+                        + "MovieStore %d KB (%d bytes/movie); reading ids and posters "
+                        + "%.2f ms vs %.2f ms", MOVIES, listBytes / 1024, listBytes / MOVIES,
+                storeBytes / 1024, storeBytes / MOVIES, listReadNanos / 1e6,
+                storeReadNanos / 1e6));
+        assertTrue("store " + storeBytes + " list " + listBytes, storeBytes < listBytes);
+    }
+
+    private static ArrayList<Movie> page(int page) {
+        ArrayList<Movie> movies = new ArrayList<Movie>(PAGE_SIZE);
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            int id = page * PAGE_SIZE + i;
+            movies.add(new Movie("/WLQN5aiQG8wc9SeKwixW" + id + ".jpg",
+                    new String(OVERVIEW + id), "2016-06-" + (10 + id % 20), id,
+                    "The Secret Life of Pets " + id, new String(LANGUAGES[id % LANGUAGES.length]),
+                    "/lubzBMQLLmG88CLQ4F3TxZr" + id + ".jpg", 1960 + id, 5.8f, 0, null));
+        }
+        return movies;
+    }
+
+    private static long readList(ArrayList<Movie> list) {
+        long start = System.nanoTime();
+        long sum = 0;
+        for (int i = 0; i < list.size(); i++) {
+            Movie movie = list.get(i);
+            sum += movie.getId() + movie.getPoster_path().length();
+        }
+        assertTrue(sum > 0);
+        return System.nanoTime() - start;
+    }
+
+    private static long readStore(MovieStore store) {
+        long start = System.nanoTime();
+        long sum = 0;
+        for (int i = 0; i < store.size(); i++) {
+            sum += store.getId(i) + store.getPosterPath(i).length();
+        }
+        assertTrue(sum > 0);
+        return System.nanoTime() - start;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void gc() throws InterruptedException {
+        System.gc();
+        System.runFinalization();
+        System.gc();
+        Thread.sleep(100);
+    }
+}
@@ -0,0 +1,147 @@
+package com.moemke.android.popmovies;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.moemke.android.popmovies.utilities.ImageSizeSelector;
+import com.squareup.picasso.LruCache;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the heap used by the posters of a 200 poster scroll with the default Picasso setup
+ * (full ARGB_8888 decode into a 1/7 heap cache) and with {@link PosterRequests} (decoded at the
+ * cell size as RGB_565 into a 1/6 heap cache). Results are written to logcat under the
+ * TestPosterMemoryBenchmark tag.
+ * <p>
+ * The decode steps mirror what Picasso does for each request: inSampleSize from the requested
+ * size, then scaling to the requested size.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestPosterMemoryBenchmark {
+
+    private static final String TAG = TestPosterMemoryBenchmark.class.getSimpleName();
+
+    private static final int POSTERS = 200;
+    // a w500 poster
+    private static final int POSTER_WIDTH = 500;
+    private static final int POSTER_HEIGHT = 750;
+    private static final int GRID_COLUMNS = 2;
+
+    // Picasso's default memory cache, a 7th of the heap
+    private static final int DEFAULT_CACHE_FRACTION = 7;
+
+    private static byte[] sPosterJpeg;
+
+    @BeforeClass
+    public static void buildPoster() {
+        Bitmap poster = Bitmap.createBitmap(POSTER_WIDTH, POSTER_HEIGHT, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(poster);
+        Paint paint = new Paint();
+        for (int y = 0; y < POSTER_HEIGHT; y += 10) {
+            paint.setColor(Color.rgb(y % 256, (y * 7) % 256, (y * 13) % 256));
+            canvas.drawRect(0, y, POSTER_WIDTH, y + 10, paint);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        poster.compress(Bitmap.CompressFormat.JPEG, 80, out);
+        poster.recycle();
+        sPosterJpeg = out.toByteArray();
+    }
+
+    @Test
+    public void scroll200Posters_beforeAndAfter() throws Exception {
+        Context context = InstrumentationRegistry.getTargetContext();
+        ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int cellWidth = ImageSizeSelector.cellWidthPx(
+                context.getResources().getDisplayMetrics().widthPixels, GRID_COLUMNS);
+
+        LruCache before = new LruCache(
+                1024 * 1024 * activityManager.getMemoryClass() / DEFAULT_CACHE_FRACTION);
+        long beforeBytes = scroll(before, 0, Bitmap.Config.ARGB_8888);
+
+        LruCache after = new LruCache(PosterRequests.memoryCacheBytes(context));
+        long afterBytes = scroll(after, cellWidth, Bitmap.Config.RGB_565);
+
+        assertTrue("after " + afterBytes + " before " + beforeBytes, afterBytes < beforeBytes);
+    }
+
+    /**
+     * Decodes POSTERS posters into cache, like a scroll through the grid, and logs the memory
+     * used.
+     *
+     * @param widthPx The width the posters are decoded at, 0 for the full poster
+     * @return The bytes per decoded poster
+     */
+    private static long scroll(LruCache cache, int widthPx, Bitmap.Config config)
+            throws InterruptedException {
+        gc();
+        long heapBefore = usedHeap();
+        long nativeBefore = Debug.getNativeHeapAllocatedSize();
+        long bytesPerPoster = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < POSTERS; i++) {
+            Bitmap bitmap = decode(widthPx, config);
+            bytesPerPoster = bitmap.getRowBytes() * bitmap.getHeight();
+            cache.set("poster" + i, bitmap);
+        }
+        long nanos = System.nanoTime() - start;
+        gc();
+        Log.i(TAG, String.format("%s at %s: %d KB/poster, %.2f ms/decode, cache %d/%d KB holds"
+                        + " %d posters (%d evicted), heap +%d KB, native heap +%d KB",
+                config, widthPx > 0 ? widthPx + "px" : "full size", bytesPerPoster / 1024,
+                nanos / 1e6 / POSTERS, cache.size() / 1024, cache.maxSize() / 1024,
+                POSTERS - cache.evictionCount(), cache.evictionCount(),
+                (usedHeap() - heapBefore) / 1024,
+                (Debug.getNativeHeapAllocatedSize() - nativeBefore) / 1024));
+        cache.clear();
+        return bytesPerPoster;
+    }
+
+    private static Bitmap decode(int widthPx, Bitmap.Config config) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = config;
+        if (widthPx <= 0) {
+            return BitmapFactory.decodeByteArray(sPosterJpeg, 0, sPosterJpeg.length, options);
+        }
+        int heightPx = Math.round(widthPx * PosterRequests.POSTER_ASPECT);
+        options.inSampleSize = Math.max(1,
+                Math.min(POSTER_WIDTH / widthPx, POSTER_HEIGHT / heightPx));
+        Bitmap sampled = BitmapFactory.decodeByteArray(sPosterJpeg, 0, sPosterJpeg.length, options);
+        if (sampled.getWidth() <= widthPx) {
+            // onlyScaleDown
+            return sampled;
+        }
+        Bitmap scaled = Bitmap.createScaledBitmap(sampled, widthPx, heightPx, true);
+        if (scaled != sampled) {
+            sampled.recycle();
+        }
+        return scaled;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void gc() throws InterruptedException {
+        System.gc();
+        System.runFinalization();
+        Thread.sleep(100);
+    }
+}
@@ -0,0 +1,213 @@
+package com.moemke.android.popmovies.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures the latency of single movie_id lookups while another thread bulk inserts favorites.
+ * The shared {@link FavoritesDbHelper} (write-ahead logging, one owner) is compared with two
+ * separate connections on a rollback journal database, which is how MainActivity and the
+ * provider used to share the favorites.
+ * Results are written to logcat under the TestFavoritesConcurrencyBenchmark tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestFavoritesConcurrencyBenchmark {
+
+    private static final String TAG = TestFavoritesConcurrencyBenchmark.class.getSimpleName();
+
+    private static final int BATCHES = 10;
+    private static final int FAVORITES_PER_BATCH = 2000;
+    private static final String ROLLBACK_DATABASE_NAME = "favorites_rollback_benchmark.db";
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Before
+    public void setUp() {
+        deleteAllFavorites();
+        mContext.deleteDatabase(ROLLBACK_DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        deleteAllFavorites();
+        mContext.deleteDatabase(ROLLBACK_DATABASE_NAME);
+    }
+
+    @Test
+    public void benchmarkSharedWalHelper() throws Exception {
+        final SQLiteDatabase db = FavoritesDbHelper.getInstance(mContext).getReadableDatabase();
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int batch = 0; batch < BATCHES; batch++) {
+                    mContext.getContentResolver().bulkInsert(
+                            FavoritesContract.FavoritesEntry.CONTENT_URI, batchValues(batch));
+                }
+            }
+        });
+
+        long[] latencies = readWhile(writer, new Lookup() {
+            @Override
+            public boolean isFavorite(int movieId) {
+                return countMovie(db, movieId) > 0;
+            }
+        });
+
+        assertEquals(BATCHES * FAVORITES_PER_BATCH, countFavorites());
+        report("shared helper, WAL", latencies);
+    }
+
+    @Test
+    public void benchmarkSeparateRollbackConnections() throws Exception {
+        File file = mContext.getDatabasePath(ROLLBACK_DATABASE_NAME);
+        final SQLiteDatabase writerDb = SQLiteDatabase.openOrCreateDatabase(file, null);
+        final SQLiteDatabase readerDb = SQLiteDatabase.openOrCreateDatabase(file, null);
+        try {
+            writerDb.execSQL("CREATE TABLE " + FavoritesContract.FavoritesEntry.TABLE_NAME + " ("
+                    + FavoritesContract.FavoritesEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + FavoritesContract.FavoritesEntry.COLUMN_NAME_MOVIE_ID + " INTEGER NOT NULL, "
+                    + FavoritesContract.FavoritesEntry.COLUMN_NAME_POSTER_PATH + " TEXT, "
+                    + FavoritesContract.FavoritesEntry.COLUMN_NAME_OVERVIEW + " TEXT, "
+                    + FavoritesContract.FavoritesEntry.COLUMN_NAME_RELEASE_DATE + " TEXT, "
+                    + FavoritesContract.FavoritesEntry.COLUMN_NAME_ORIGINAL_TITLE + " TEXT NOT NULL, "
+                    + FavoritesContract.FavoritesEntry.COLUMN_NAME_ORIGINAL_LANGUAGE + " TEXT, "
+                    + FavoritesContract.FavoritesEntry.COLUMN_NAME_BACKDROP_PATH + " TEXT, "
+                    + FavoritesContract.FavoritesEntry.COLUMN_NAME_VOTE_COUNT + " INTEGER, "
+                    + FavoritesContract.FavoritesEntry.COLUMN_NAME_VOTE_AVERAGE + " FLOAT, "
+                    + "UNIQUE (" + FavoritesContract.FavoritesEntry.COLUMN_NAME_MOVIE_ID
+                    + ") ON CONFLICT REPLACE);");
+
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int batch = 0; batch < BATCHES; batch++) {
+                        writerDb.beginTransaction();
+                        try {
+                            for (ContentValues values : batchValues(batch)) {
+                                writerDb.insert(FavoritesContract.FavoritesEntry.TABLE_NAME,
+                                        null, values);
+                            }
+                            writerDb.setTransactionSuccessful();
+                        } finally {
+                            writerDb.endTransaction();
+                        }
+                    }
+                }
+            });
+
+            long[] latencies = readWhile(writer, new Lookup() {
+                @Override
+                public boolean isFavorite(int movieId) {
+                    return countMovie(readerDb, movieId) > 0;
+                }
+            });
+
+            report("separate connections, rollback journal", latencies);
+        } finally {
+            readerDb.close();
+            writerDb.close();
+        }
+    }
+
+    private interface Lookup {
+        boolean isFavorite(int movieId);
+    }
+
+    /**
+     * Starts the writer and looks up random movie ids until it is done.
+     *
+     * @return The latency of every lookup, in nanoseconds
+     */
+    private static long[] readWhile(Thread writer, Lookup lookup) throws InterruptedException {
+        Random random = new Random(42);
+        long[] latencies = new long[1024];
+        int count = 0;
+        writer.start();
+        while (writer.isAlive()) {
+            int movieId = random.nextInt(BATCHES * FAVORITES_PER_BATCH);
+            long start = System.nanoTime();
+            lookup.isFavorite(movieId);
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = System.nanoTime() - start;
+        }
+        writer.join();
+        return Arrays.copyOf(latencies, count);
+    }
+
+    private static void report(String setup, long[] latencies) {
+        Arrays.sort(latencies);
+        if (latencies.length == 0) {
+            Log.i(TAG, setup + ": the writer finished before the first lookup");
+            return;
+        }
+        Log.i(TAG, setup + ": " + latencies.length + " lookups during "
+                + BATCHES + " bulk inserts of " + FAVORITES_PER_BATCH
+                + ", p50 " + percentileMicros(latencies, 50)
+                + " us, p95 " + percentileMicros(latencies, 95)
+                + " us, p99 " + percentileMicros(latencies, 99)
+                + " us, max " + latencies[latencies.length - 1] / 1000 + " us");
+    }
+
+    private static long percentileMicros(long[] sortedLatencies, int percentile) {
+        int index = Math.min(sortedLatencies.length - 1,
+                sortedLatencies.length * percentile / 100);
+        return sortedLatencies[index] / 1000;
+    }
+
+    private static long countMovie(SQLiteDatabase db, int movieId) {
+        Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM "
+                        + FavoritesContract.FavoritesEntry.TABLE_NAME + " WHERE "
+                        + FavoritesContract.FavoritesEntry.COLUMN_NAME_MOVIE_ID + " = ?",
+                new String[]{String.valueOf(movieId)});
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static ContentValues[] batchValues(int batch) {
+        ContentValues[] values = new ContentValues[FAVORITES_PER_BATCH];
+        for (int i = 0; i < FAVORITES_PER_BATCH; i++) {
+            values[i] = TestUtilities.createTestFavoritesContentValues();
+            values[i].put(FavoritesContract.FavoritesEntry.COLUMN_NAME_MOVIE_ID,
+                    batch * FAVORITES_PER_BATCH + i);
+        }
+        return values;
+    }
+
+    private int countFavorites() {
+        Cursor cursor = mContext.getContentResolver().query(
+                FavoritesContract.FavoritesEntry.CONTENT_URI,
+                new String[]{FavoritesContract.FavoritesEntry.COLUMN_NAME_MOVIE_ID},
+                null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void deleteAllFavorites() {
+        mContext.getContentResolver()
+                .delete(FavoritesContract.FavoritesEntry.CONTENT_URI, null, null);
+    }
+}
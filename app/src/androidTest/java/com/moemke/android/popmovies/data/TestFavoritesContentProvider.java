@@ -239,11 +239,9 @@ public class TestFavoritesContentProvider {
         ContentValues testFavoritesValues = createTestFavoritesContentValues();
 
         /* Insert ContentValues into database and get a row ID back */
-        long taskRowId = database.insert(
-                /* Table to insert values into */
-                FavoritesContract.FavoritesEntry.TABLE_NAME,
-                null,
-                /* Values to insert into table */
+        long taskRowId = FavoritesDbHelper.insertFavorite(
+                database,
+                /* Values to insert, the overview and genres go to the details table */
                 testFavoritesValues);
 
         String insertFailed = "Unable to insert directly into the database";
@@ -291,11 +289,9 @@ public class TestFavoritesContentProvider {
 
         /* Insert ContentValues into database and get a row ID back
         * using sql, not content provider (since the test is for the delete) */
-        long taskRowId = database.insert(
-                /* Table to insert values into */
-                FavoritesContract.FavoritesEntry.TABLE_NAME,
-                null,
-                /* Values to insert into table */
+        long taskRowId = FavoritesDbHelper.insertFavorite(
+                database,
+                /* Values to insert, the overview and genres go to the details table */
                 testFavoritesValues);
 
         /* Always close the database when you're through with it */
@@ -361,11 +357,9 @@ public class TestFavoritesContentProvider {
         ContentValues testFavoritesValues = createTestFavoritesContentValues();
 
         /* Insert ContentValues into database and get a row ID back */
-        long taskRowId = database.insert(
-                /* Table to insert values into */
-                FavoritesContract.FavoritesEntry.TABLE_NAME,
-                null,
-                /* Values to insert into table */
+        long taskRowId = FavoritesDbHelper.insertFavorite(
+                database,
+                /* Values to insert, the overview and genres go to the details table */
                 testFavoritesValues);
 
         /* Always close the database when you're through with it */
@@ -543,6 +537,71 @@ public class TestFavoritesContentProvider {
         deleteAllRecordsFromFavoritesTable();
     }
 
+    //================================================================================
+    // Test BulkInsert (for the videos of a favorite)
+    //================================================================================
+
+    /**
+     * Tests that a bulkInsert on the videos of a favorite only writes the rows that changed,
+     * and that the rows are deleted with the favorite.
+     */
+    @Test
+    public void testBulkInsertDetailRows() {
+        ContentResolver contentResolver = mContext.getContentResolver();
+        Uri videosUri = FavoritesContract.FavoriteVideosEntry.buildVideosUri(12345);
+
+        /* Nothing is kept for a movie that is not a favorite */
+        assertEquals(0, contentResolver.bulkInsert(videosUri,
+                new ContentValues[]{createTestVideoValues("a", "first")}));
+
+        contentResolver.insert(FavoritesContract.FavoritesEntry.CONTENT_URI,
+                createTestFavoritesContentValues());
+
+        ContentValues[] videos = new ContentValues[]{
+                createTestVideoValues("a", "first"),
+                createTestVideoValues("b", "second"),
+                createTestVideoValues("c", "third")};
+        assertEquals(3, contentResolver.bulkInsert(videosUri, videos));
+
+        /* The same videos again write nothing */
+        assertEquals(0, contentResolver.bulkInsert(videosUri, videos));
+
+        /* One renamed, one gone and one new: three rows written */
+        ContentValues[] newVideos = new ContentValues[]{
+                createTestVideoValues("a", "first"),
+                createTestVideoValues("c", "third, renamed"),
+                createTestVideoValues("d", "fourth")};
+        assertEquals(3, contentResolver.bulkInsert(videosUri, newVideos));
+
+        Cursor cursor = contentResolver.query(videosUri, null, null, null, null);
+        assertEquals(newVideos.length, cursor.getCount());
+        cursor.moveToFirst();
+        for (int i = 0; i < newVideos.length; i++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord("testBulkInsertDetailRows. Error validating video "
+                    + i, cursor, newVideos[i]);
+        }
+        cursor.close();
+
+        /* Deleting the favorite deletes its videos */
+        contentResolver.delete(FavoritesContract.FavoritesEntry.CONTENT_URI,
+                FavoritesContract.FavoritesEntry.COLUMN_NAME_MOVIE_ID + "= ?",
+                new String[]{"12345"});
+        cursor = contentResolver.query(videosUri, null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+    }
+
+    private static ContentValues createTestVideoValues(String videoId, String name) {
+        ContentValues videoValues = new ContentValues();
+        videoValues.put(FavoritesContract.FavoriteVideosEntry.COLUMN_NAME_VIDEO_ID, videoId);
+        videoValues.put(FavoritesContract.FavoriteVideosEntry.COLUMN_NAME_KEY, "key " + videoId);
+        videoValues.put(FavoritesContract.FavoriteVideosEntry.COLUMN_NAME_NAME, name);
+        videoValues.put(FavoritesContract.FavoriteVideosEntry.COLUMN_NAME_SITE, "YouTube");
+        videoValues.put(FavoritesContract.FavoriteVideosEntry.COLUMN_NAME_SIZE, 1080);
+        videoValues.put(FavoritesContract.FavoriteVideosEntry.COLUMN_NAME_TYPE, "Trailer");
+        return videoValues;
+    }
+
     /**
      * This method will clear all rows from the favorites table in our database.
      * <p>
@@ -265,6 +265,121 @@ public class TestFavoritesDatabase {
         database.close();
     }
 
+    /**
+     * Tests that upgrading from version 3, where the overview and genres were columns of the
+     * favorites table, keeps every favorite and moves the long text to the details table
+     * @throws Exception in case the constructor hasn't been implemented yet
+     */
+    @Test
+    public void upgrade_from_version_3_keeps_favorites_test() throws Exception{
+
+        SQLiteOpenHelper dbHelper =
+                (SQLiteOpenHelper) mDbHelperClass.getConstructor(Context.class).newInstance(mContext);
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+
+        /* Put the database back to the version 3 schema */
+        dropDetailRowTables(database);
+        database.execSQL("DROP TABLE " + FavoritesContract.FavoriteDetailsEntry.TABLE_NAME);
+        database.execSQL("DROP TABLE " + FavoritesContract.FavoritesEntry.TABLE_NAME);
+        database.execSQL("CREATE TABLE favorites (" +
+                "_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "movie_id INTEGER NOT NULL, poster_path TEXT, overview TEXT, release_date TEXT, " +
+                "original_title TEXT NOT NULL, original_language TEXT, backdrop_path TEXT, " +
+                "vote_count INTEGER, vote_average FLOAT, genre_list TEXT, " +
+                "timestamp TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
+                "UNIQUE (movie_id) ON CONFLICT REPLACE);");
+        database.execSQL("INSERT INTO favorites (movie_id, original_title, overview, genre_list) " +
+                "VALUES (12345, 'test title', 'test overview', 'Comedy, Family')");
+        database.execSQL("INSERT INTO favorites (movie_id, original_title, overview, genre_list) " +
+                "VALUES (67890, 'other title', 'other overview', 'Drama')");
+
+        dbHelper.onUpgrade(database, 3, 4);
+
+        Cursor favorites = database.query(FavoritesContract.FavoritesEntry.TABLE_NAME,
+                null, null, null, null, null, FavoritesContract.FavoritesEntry.COLUMN_NAME_MOVIE_ID);
+        assertEquals(2, favorites.getCount());
+        assertEquals("The overview should have left the favorites table",
+                -1, favorites.getColumnIndex(FavoritesContract.FavoritesEntry.COLUMN_NAME_OVERVIEW));
+        assertTrue(favorites.moveToFirst());
+        assertEquals(1, favorites.getInt(favorites.getColumnIndex(FavoritesContract.FavoritesEntry._ID)));
+        assertEquals("test title", favorites.getString(favorites.getColumnIndex(
+                FavoritesContract.FavoritesEntry.COLUMN_NAME_ORIGINAL_TITLE)));
+        favorites.close();
+
+        Cursor details = database.query(FavoritesContract.FavoriteDetailsEntry.TABLE_NAME,
+                null, FavoritesContract.FavoriteDetailsEntry.COLUMN_NAME_MOVIE_ID + "=?",
+                new String[]{"12345"}, null, null, null);
+        assertTrue(details.moveToFirst());
+        assertEquals("test overview", details.getString(details.getColumnIndex(
+                FavoritesContract.FavoriteDetailsEntry.COLUMN_NAME_OVERVIEW)));
+        assertEquals("Comedy, Family", details.getString(details.getColumnIndex(
+                FavoritesContract.FavoriteDetailsEntry.COLUMN_NAME_GENRE_LIST)));
+        details.close();
+
+        /* Deleting a favorite deletes its details */
+        database.delete(FavoritesContract.FavoritesEntry.TABLE_NAME,
+                FavoritesContract.FavoritesEntry.COLUMN_NAME_MOVIE_ID + "=?", new String[]{"12345"});
+        details = database.query(FavoritesContract.FavoriteDetailsEntry.TABLE_NAME,
+                null, null, null, null, null, null);
+        assertEquals(1, details.getCount());
+        details.close();
+
+        database.close();
+    }
+
+    /**
+     * Tests that upgrading from version 4 adds the tables of the genres, videos and reviews
+     * and keeps the favorites and their details
+     * @throws Exception in case the constructor hasn't been implemented yet
+     */
+    @Test
+    public void upgrade_from_version_4_adds_detail_rows_test() throws Exception{
+
+        SQLiteOpenHelper dbHelper =
+                (SQLiteOpenHelper) mDbHelperClass.getConstructor(Context.class).newInstance(mContext);
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+
+        /* Put the database back to the version 4 schema */
+        dropDetailRowTables(database);
+        database.execSQL("DROP TABLE " + FavoritesContract.FavoriteDetailsEntry.TABLE_NAME);
+        database.execSQL("CREATE TABLE favorite_details (movie_id INTEGER PRIMARY KEY, " +
+                "overview TEXT, genre_list TEXT);");
+        database.execSQL("INSERT INTO favorites (movie_id, original_title) " +
+                "VALUES (12345, 'test title')");
+        database.execSQL("INSERT INTO favorite_details (movie_id, overview, genre_list) " +
+                "VALUES (12345, 'test overview', 'Comedy | Family')");
+
+        dbHelper.onUpgrade(database, 4, 5);
+
+        Cursor details = database.query(FavoritesContract.FavoriteDetailsEntry.TABLE_NAME,
+                null, null, null, null, null, null);
+        assertTrue(details.moveToFirst());
+        assertEquals("test overview", details.getString(details.getColumnIndex(
+                FavoritesContract.FavoriteDetailsEntry.COLUMN_NAME_OVERVIEW)));
+        assertTrue("The details should not be written yet", details.isNull(details.getColumnIndex(
+                FavoritesContract.FavoriteDetailsEntry.COLUMN_NAME_ROWS_UPDATED)));
+        details.close();
+
+        /* Deleting a favorite deletes its reviews */
+        database.execSQL("INSERT INTO favorite_reviews (movie_id, review_id, position, content) " +
+                "VALUES (12345, 'a', 0, 'test review')");
+        database.delete(FavoritesContract.FavoritesEntry.TABLE_NAME,
+                FavoritesContract.FavoritesEntry.COLUMN_NAME_MOVIE_ID + "=?", new String[]{"12345"});
+        Cursor reviews = database.query(FavoritesContract.FavoriteReviewsEntry.TABLE_NAME,
+                null, null, null, null, null, null);
+        assertEquals(0, reviews.getCount());
+        reviews.close();
+
+        database.close();
+    }
+
+    private static void dropDetailRowTables(SQLiteDatabase database) {
+        database.execSQL("DROP TRIGGER favorites_delete_detail_rows");
+        database.execSQL("DROP TABLE " + FavoritesContract.FavoriteGenresEntry.TABLE_NAME);
+        database.execSQL("DROP TABLE " + FavoritesContract.FavoriteVideosEntry.TABLE_NAME);
+        database.execSQL("DROP TABLE " + FavoritesContract.FavoriteReviewsEntry.TABLE_NAME);
+    }
+
     /**
      * Deletes the entire database.
      */
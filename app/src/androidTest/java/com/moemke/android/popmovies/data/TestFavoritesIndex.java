@@ -0,0 +1,66 @@
+package com.moemke.android.popmovies.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.moemke.android.popmovies.utils.PollingCheck;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertFalse;
+
+/**
+ * Checks that {@link FavoritesIndex} follows inserts and deletes made through the
+ * FavoritesContentProvider.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestFavoritesIndex {
+
+    private static final int MOVIE_ID = 12345;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Before
+    public void setUp() {
+        deleteAllFavorites();
+    }
+
+    @After
+    public void tearDown() {
+        deleteAllFavorites();
+    }
+
+    @Test
+    public void testFollowsInsertAndDelete() {
+        final FavoritesIndex index = FavoritesIndex.getInstance(mContext);
+        waitFor(false, index);
+
+        ContentValues values = TestUtilities.createTestFavoritesContentValues();
+        values.put(FavoritesContract.FavoritesEntry.COLUMN_NAME_MOVIE_ID, MOVIE_ID);
+        mContext.getContentResolver().insert(FavoritesContract.FavoritesEntry.CONTENT_URI, values);
+        waitFor(true, index);
+        assertFalse(index.isFavorite(MOVIE_ID + 1));
+
+        deleteAllFavorites();
+        waitFor(false, index);
+    }
+
+    private static void waitFor(final boolean favorite, final FavoritesIndex index) {
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return index.isFavorite(MOVIE_ID) == favorite;
+            }
+        }.run();
+    }
+
+    private void deleteAllFavorites() {
+        mContext.getContentResolver()
+                .delete(FavoritesContract.FavoritesEntry.CONTENT_URI, null, null);
+    }
+}
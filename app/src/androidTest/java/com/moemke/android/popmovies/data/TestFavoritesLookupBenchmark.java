@@ -0,0 +1,155 @@
+package com.moemke.android.popmovies.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares looking up which movies of a page are favorites with one query per movie against the
+ * in-memory {@link FavoritesIndex}, on a database seeded with 10,000 favorites.
+ * Results are written to logcat under the TestFavoritesLookupBenchmark tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestFavoritesLookupBenchmark {
+
+    private static final String TAG = TestFavoritesLookupBenchmark.class.getSimpleName();
+
+    private static final int SEEDED_FAVORITES = 10000;
+    private static final int ITERATIONS = 5;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Before
+    public void setUp() {
+        deleteAllRecordsFromFavoritesTable();
+        // favorites have the even movie ids 0, 2, ..., 19998
+        ContentValues[] values = new ContentValues[SEEDED_FAVORITES];
+        for (int i = 0; i < SEEDED_FAVORITES; i++) {
+            values[i] = TestUtilities.createTestFavoritesContentValues();
+            values[i].put(FavoritesContract.FavoritesEntry.COLUMN_NAME_MOVIE_ID, i * 2);
+        }
+        int inserted = mContext.getContentResolver()
+                .bulkInsert(FavoritesContract.FavoritesEntry.CONTENT_URI, values);
+        assertEquals(SEEDED_FAVORITES, inserted);
+        // the index sees the seeded favorites before the first lookup
+        FavoritesIndex.getInstance(mContext).reload();
+    }
+
+    @After
+    public void tearDown() {
+        deleteAllRecordsFromFavoritesTable();
+    }
+
+    @Test
+    public void testIndexMatchesDatabase() {
+        String[] movieIds = movieIds(2003);
+        HashSet<Integer> favorites = lookupIndexed(movieIds);
+        assertEquals(lookupPerMovie(movieIds), favorites);
+        assertEquals((movieIds.length + 1) / 2, favorites.size());
+    }
+
+    @Test
+    public void benchmarkPageOf20() {
+        benchmark(20);
+    }
+
+    @Test
+    public void benchmarkPageOf2000() {
+        benchmark(2000);
+    }
+
+    private void benchmark(int pageSize) {
+        String[] movieIds = movieIds(pageSize);
+
+        // warm up the provider process and the statement cache
+        HashSet<Integer> expected = lookupPerMovie(movieIds);
+        assertEquals(expected, lookupIndexed(movieIds));
+
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            lookupPerMovie(movieIds);
+        }
+        long perMovieMs = (SystemClock.elapsedRealtime() - start) / ITERATIONS;
+
+        start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            lookupIndexed(movieIds);
+        }
+        long indexedMs = (SystemClock.elapsedRealtime() - start) / ITERATIONS;
+
+        Log.i(TAG, pageSize + " movies against " + SEEDED_FAVORITES + " favorites: "
+                + "per movie " + perMovieMs + " ms (" + pageSize + " queries), "
+                + "index " + indexedMs + " ms (no query)");
+    }
+
+    /**
+     * @return The ids 0 to count - 1, half of them are favorites
+     */
+    private static String[] movieIds(int count) {
+        String[] movieIds = new String[count];
+        for (int i = 0; i < count; i++) {
+            movieIds[i] = String.valueOf(i);
+        }
+        return movieIds;
+    }
+
+    /**
+     * How MainActivity.setFavorites used to do it, with the cursors closed.
+     */
+    private HashSet<Integer> lookupPerMovie(String[] movieIds) {
+        ContentResolver resolver = mContext.getContentResolver();
+        HashSet<Integer> favorites = new HashSet<Integer>();
+        for (String movieId : movieIds) {
+            Cursor cursor = resolver.query(FavoritesContract.FavoritesEntry.CONTENT_URI,
+                    new String[]{FavoritesContract.FavoritesEntry.COLUMN_NAME_MOVIE_ID},
+                    FavoritesContract.FavoritesEntry.COLUMN_NAME_MOVIE_ID + "= ?",
+                    new String[]{movieId},
+                    null);
+            try {
+                if (cursor.getCount() > 0) {
+                    favorites.add(Integer.valueOf(movieId));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return favorites;
+    }
+
+    /**
+     * How MainActivity.setFavorites does it.
+     */
+    private HashSet<Integer> lookupIndexed(String[] movieIds) {
+        FavoritesIndex index = FavoritesIndex.getInstance(mContext);
+        HashSet<Integer> favorites = new HashSet<Integer>();
+        for (String movieId : movieIds) {
+            int id = Integer.valueOf(movieId);
+            if (index.isFavorite(id)) {
+                favorites.add(id);
+            }
+        }
+        return favorites;
+    }
+
+    private void deleteAllRecordsFromFavoritesTable() {
+        FavoritesDbHelper helper = new FavoritesDbHelper(mContext);
+        SQLiteDatabase database = helper.getWritableDatabase();
+        database.delete(FavoritesContract.FavoritesEntry.TABLE_NAME, null, null);
+        database.close();
+    }
+}
@@ -0,0 +1,136 @@
+package com.moemke.android.popmovies.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.text.TextUtils;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Lists 50,000 favorites the way the grid does (GRID_PROJECTION, ordered by timestamp) and with
+ * every column, the way it was listed before the overview and genres moved to the details table.
+ * Results are written to logcat under the TestFavoritesSchemaBenchmark tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestFavoritesSchemaBenchmark {
+
+    private static final String TAG = TestFavoritesSchemaBenchmark.class.getSimpleName();
+
+    private static final int SEEDED_FAVORITES = 50000;
+    private static final int ITERATIONS = 3;
+
+    // about the length of a tmdb overview
+    private static final String OVERVIEW = "The quiet life of a terrier named Max is upended when"
+            + " his owner takes in Duke, a stray whom Max instantly dislikes. When the two find"
+            + " themselves lost on the streets of New York, they have to put their differences"
+            + " aside to find their way home before their owner comes back.";
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Before
+    public void setUp() {
+        deleteAllFavorites();
+        ContentValues[] values = new ContentValues[SEEDED_FAVORITES];
+        for (int i = 0; i < SEEDED_FAVORITES; i++) {
+            values[i] = TestUtilities.createTestFavoritesContentValues();
+            values[i].put(FavoritesContract.FavoritesEntry.COLUMN_NAME_MOVIE_ID, i);
+            values[i].put(FavoritesContract.FavoritesEntry.COLUMN_NAME_OVERVIEW, OVERVIEW);
+            values[i].put(FavoritesContract.FavoritesEntry.COLUMN_NAME_GENRE_LIST,
+                    "Adventure, Animation, Comedy, Family");
+        }
+        int inserted = mContext.getContentResolver()
+                .bulkInsert(FavoritesContract.FavoritesEntry.CONTENT_URI, values);
+        assertEquals(SEEDED_FAVORITES, inserted);
+    }
+
+    @After
+    public void tearDown() {
+        deleteAllFavorites();
+    }
+
+    @Test
+    public void testGridQuery_isACoveringIndexScan() {
+        FavoritesDbHelper helper = new FavoritesDbHelper(mContext);
+        SQLiteDatabase database = helper.getReadableDatabase();
+        Cursor plan = database.rawQuery("EXPLAIN QUERY PLAN SELECT "
+                + TextUtils.join(", ", FavoritesContract.FavoritesEntry.GRID_PROJECTION)
+                + " FROM " + FavoritesContract.FavoritesEntry.TABLE_NAME
+                + " ORDER BY " + FavoritesContract.FavoritesEntry.COLUMN_NAME_TIMESTAMP, null);
+        StringBuilder details = new StringBuilder();
+        try {
+            int detailIndex = plan.getColumnIndex("detail");
+            while (plan.moveToNext()) {
+                details.append(plan.getString(detailIndex)).append('\n');
+            }
+        } finally {
+            plan.close();
+            database.close();
+        }
+        Log.i(TAG, "grid query plan: " + details);
+        assertTrue(details.toString(), details.toString().contains(
+                "COVERING INDEX " + FavoritesContract.FavoritesEntry.INDEX_NAME_TIMESTAMP));
+        assertTrue(details.toString(), !details.toString().contains("TEMP B-TREE"));
+    }
+
+    @Test
+    public void benchmarkGridQuery() {
+        // warm up the provider process and the page cache
+        assertEquals(SEEDED_FAVORITES, readAll(FavoritesContract.FavoritesEntry.GRID_PROJECTION));
+
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            readAll(null);
+        }
+        long allColumnsMs = (SystemClock.elapsedRealtime() - start) / ITERATIONS;
+
+        start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            readAll(FavoritesContract.FavoritesEntry.GRID_PROJECTION);
+        }
+        long gridMs = (SystemClock.elapsedRealtime() - start) / ITERATIONS;
+
+        Log.i(TAG, SEEDED_FAVORITES + " favorites by timestamp: all columns " + allColumnsMs
+                + " ms, grid projection " + gridMs + " ms");
+    }
+
+    /**
+     * Reads every column of every row, as getAllFavorites does.
+     *
+     * @return The number of rows
+     */
+    private int readAll(String[] projection) {
+        Cursor cursor = mContext.getContentResolver().query(
+                FavoritesContract.FavoritesEntry.CONTENT_URI, projection, null, null,
+                FavoritesContract.FavoritesEntry.COLUMN_NAME_TIMESTAMP);
+        int rows = 0;
+        try {
+            int columns = cursor.getColumnCount();
+            while (cursor.moveToNext()) {
+                for (int column = 0; column < columns; column++) {
+                    cursor.getString(column);
+                }
+                rows++;
+            }
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+
+    private void deleteAllFavorites() {
+        mContext.getContentResolver()
+                .delete(FavoritesContract.FavoritesEntry.CONTENT_URI, null, null);
+    }
+}
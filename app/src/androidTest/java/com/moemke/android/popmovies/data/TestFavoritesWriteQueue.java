@@ -0,0 +1,156 @@
+package com.moemke.android.popmovies.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Toggles favorites through a {@link FavoritesWriteQueue} and checks what reaches the database.
+ * The queue is created with a flush delay longer than the test, so the test decides when it
+ * flushes.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestFavoritesWriteQueue {
+
+    private static final int TOGGLES = 1000;
+    private static final long NEVER = 60 * 60 * 1000;
+
+    private static final int EVEN_MOVIE_ID = 100;
+    private static final int ODD_MOVIE_ID = 200;
+
+    private final Context mContext = InstrumentationRegistry.getTargetContext();
+
+    @Before
+    public void setUp() {
+        deleteAllFavorites();
+    }
+
+    @After
+    public void tearDown() {
+        deleteAllFavorites();
+    }
+
+    @Test
+    public void testToggles_areCoalescedIntoOneTransaction() {
+        FavoritesWriteQueue queue = new FavoritesWriteQueue(mContext, NEVER);
+
+        // an even number of toggles ends where it started, an odd number ends as a favorite
+        for (int i = 0; i < TOGGLES; i++) {
+            toggle(queue, EVEN_MOVIE_ID);
+        }
+        for (int i = 0; i < TOGGLES - 1; i++) {
+            toggle(queue, ODD_MOVIE_ID);
+        }
+
+        // the UI sees the new state before anything is written
+        assertFalse(queue.isFavorite(EVEN_MOVIE_ID));
+        assertTrue(queue.isFavorite(ODD_MOVIE_ID));
+        assertEquals(0, countFavorites());
+
+        queue.flush();
+
+        assertEquals(1, queue.getTransactionCount());
+        assertEquals(1, countFavorites());
+        assertFalse(isFavoriteInDb(EVEN_MOVIE_ID));
+        assertTrue(isFavoriteInDb(ODD_MOVIE_ID));
+        assertFalse(queue.isFavorite(EVEN_MOVIE_ID));
+        assertTrue(queue.isFavorite(ODD_MOVIE_ID));
+
+        // nothing pending, nothing written
+        queue.flush();
+        assertEquals(1, queue.getTransactionCount());
+    }
+
+    @Test
+    public void testChangesAfterAFlush_areWrittenByTheNextOne() {
+        FavoritesWriteQueue queue = new FavoritesWriteQueue(mContext, NEVER);
+
+        queue.addFavorite(EVEN_MOVIE_ID, favoriteValues(EVEN_MOVIE_ID));
+        queue.flush();
+        queue.removeFavorite(EVEN_MOVIE_ID);
+        assertFalse(queue.isFavorite(EVEN_MOVIE_ID));
+        assertTrue(isFavoriteInDb(EVEN_MOVIE_ID));
+
+        queue.flush();
+        assertEquals(2, queue.getTransactionCount());
+        assertFalse(isFavoriteInDb(EVEN_MOVIE_ID));
+    }
+
+    @Test
+    public void testFailedWrite_staysPendingAndIsRetriedLater() {
+        FavoritesWriteQueue queue = new FavoritesWriteQueue(mContext, NEVER);
+
+        // a row the provider refuses makes the whole transaction fail
+        ContentValues badValues = favoriteValues(EVEN_MOVIE_ID);
+        badValues.put("no_such_column", 1);
+        queue.addFavorite(EVEN_MOVIE_ID, badValues);
+        queue.flush();
+
+        assertEquals(0, queue.getTransactionCount());
+        assertTrue(queue.isFavorite(EVEN_MOVIE_ID));
+        long retryDelay = queue.getRetryDelayMillis();
+        assertTrue(retryDelay > 0);
+
+        queue.flush();
+        assertTrue(queue.getRetryDelayMillis() >= retryDelay);
+
+        // a later change replaces the bad one and the next flush writes it
+        queue.addFavorite(EVEN_MOVIE_ID, favoriteValues(EVEN_MOVIE_ID));
+        queue.flush();
+        assertEquals(1, queue.getTransactionCount());
+        assertEquals(0, queue.getRetryDelayMillis());
+        assertTrue(isFavoriteInDb(EVEN_MOVIE_ID));
+    }
+
+    private static void toggle(FavoritesWriteQueue queue, int movieId) {
+        if (queue.isFavorite(movieId)) {
+            queue.removeFavorite(movieId);
+        } else {
+            queue.addFavorite(movieId, favoriteValues(movieId));
+        }
+    }
+
+    private static ContentValues favoriteValues(int movieId) {
+        ContentValues values = TestUtilities.createTestFavoritesContentValues();
+        values.put(FavoritesContract.FavoritesEntry.COLUMN_NAME_MOVIE_ID, movieId);
+        return values;
+    }
+
+    private boolean isFavoriteInDb(int movieId) {
+        Cursor cursor = mContext.getContentResolver().query(
+                FavoritesContract.FavoritesEntry.CONTENT_URI, null,
+                FavoritesContract.FavoritesEntry.COLUMN_NAME_MOVIE_ID + "= ?",
+                new String[]{String.valueOf(movieId)}, null);
+        try {
+            return cursor.getCount() > 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int countFavorites() {
+        Cursor cursor = mContext.getContentResolver().query(
+                FavoritesContract.FavoritesEntry.CONTENT_URI, null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void deleteAllFavorites() {
+        mContext.getContentResolver()
+                .delete(FavoritesContract.FavoritesEntry.CONTENT_URI, null, null);
+    }
+}
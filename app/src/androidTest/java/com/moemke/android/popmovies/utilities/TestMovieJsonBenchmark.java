@@ -0,0 +1,284 @@
+package com.moemke.android.popmovies.utilities;
+
+import android.os.Debug;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.moemke.android.popmovies.Movie;
+import com.moemke.android.popmovies.MovieDetail;
+import com.moemke.android.popmovies.MovieReview;
+import com.moemke.android.popmovies.data.MoviePreferences;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Scanner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the streaming parsers in {@link MovieJsonUtils} with the JSONObject tree parsers.
+ * Results are written to logcat under the TestMovieJsonBenchmark tag.
+ * <p>
+ * The fixtures are the tmdb responses recorded in the Javadoc of MovieJsonUtils and MovieReview,
+ * repeated to the size of a large page and of a detail response with many long reviews.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TestMovieJsonBenchmark {
+
+    private static final String TAG = TestMovieJsonBenchmark.class.getSimpleName();
+
+    private static final int MOVIES_PER_PAGE = 500;
+    private static final int ITERATIONS = 20;
+
+    private static final String MOVIE_JSON = "{"
+            + "\"poster_path\": \"/WLQN5aiQG8wc9SeKwixW7pAR8K.jpg\","
+            + "\"adult\": false,"
+            + "\"overview\": \"The quiet life of a terrier named Max is upended when his owner takes"
+            + " in Duke, a stray whom Max instantly dislikes.\","
+            + "\"release_date\": \"2016-06-18\","
+            + "\"genre_ids\": [12,16,35,10751],"
+            + "\"id\": %d,"
+            + "\"original_title\": \"The Secret Life of Pets\","
+            + "\"original_language\": \"en\","
+            + "\"title\": \"The Secret Life of Pets\","
+            + "\"backdrop_path\": \"/lubzBMQLLmG88CLQ4F3TxZr2Q7N.jpg\","
+            + "\"popularity\": 181.40313,"
+            + "\"vote_count\": 1960,"
+            + "\"video\": false,"
+            + "\"vote_average\": 5.8"
+            + "}";
+
+    private static final int REVIEWS_PER_DETAIL = 40;
+
+    private static final String REVIEW_PARAGRAPH = "Anyone who is fortunate enough to share their"
+            + " life with a companion animal will undoubtedly get a kick out of the latest"
+            + " Illumination animated effort, \u201cThe Secret Life of Pets.\u201d The film soars"
+            + " when it focuses on animals interacting with their human guardians.\r\n\r\n";
+
+    private static final String VIDEO_JSON = "{"
+            + "\"id\": \"571cdc239251414a8700191e\","
+            + "\"iso_639_1\": \"en\","
+            + "\"iso_3166_1\": \"US\","
+            + "\"key\": \"eWI_Jsw9qUs\","
+            + "\"name\": \"Official Trailer #%d\","
+            + "\"site\": \"YouTube\","
+            + "\"size\": 1080,"
+            + "\"type\": \"Trailer\""
+            + "}";
+
+    private static byte[] sListPage;
+    private static byte[] sDetail;
+
+    @BeforeClass
+    public static void buildFixtures() throws Exception {
+        StringBuilder page = new StringBuilder("{\"page\": 1, \"results\": [");
+        for (int i = 0; i < MOVIES_PER_PAGE; i++) {
+            if (i > 0) {
+                page.append(',');
+            }
+            page.append(String.format(MOVIE_JSON, 328111 + i));
+        }
+        page.append("], \"total_results\": 19629, \"total_pages\": 982}");
+        sListPage = page.toString().getBytes("UTF-8");
+
+        // the Screen Zealots review is about 4K characters, these are about 20K each
+        StringBuilder content = new StringBuilder("A SCREEN ZEALOTS REVIEW www.screenzealots.com");
+        while (content.length() < 20 * 1024) {
+            content.append(REVIEW_PARAGRAPH);
+        }
+        StringBuilder detail = new StringBuilder("{\"adult\": false,"
+                + "\"backdrop_path\": \"/lubzBMQLLmG88CLQ4F3TxZr2Q7N.jpg\","
+                + "\"genres\": [{\"id\": 12, \"name\": \"Adventure\"},"
+                + "{\"id\": 16, \"name\": \"Animation\"}, {\"id\": 35, \"name\": \"Comedy\"}],"
+                + "\"id\": 328111, \"original_title\": \"The Secret Life of Pets\","
+                + "\"videos\": {\"results\": [");
+        for (int i = 0; i < 5; i++) {
+            if (i > 0) {
+                detail.append(',');
+            }
+            detail.append(String.format(VIDEO_JSON, i + 1));
+        }
+        detail.append("]}, \"reviews\": {\"page\": 1, \"results\": [");
+        for (int i = 0; i < REVIEWS_PER_DETAIL; i++) {
+            if (i > 0) {
+                detail.append(',');
+            }
+            detail.append("{\"id\": \"579cfaac9251411b3600").append(8316 + i)
+                    .append("\", \"author\": \"Screen Zealots\", \"content\": \"")
+                    .append(content.toString().replace("\r\n", "\\r\\n"))
+                    .append("\", \"url\": \"https://www.themoviedb.org/review/579cfaac9251411b36008316\"}");
+        }
+        detail.append("], \"total_pages\": 1, \"total_results\": ").append(REVIEWS_PER_DETAIL)
+                .append("}}");
+        sDetail = detail.toString().getBytes("UTF-8");
+    }
+
+    @Test
+    public void streamingListParser_matchesTreeParser() throws Exception {
+        ArrayList<Movie> tree = parseListWithTree(new ByteArrayInputStream(sListPage));
+        ArrayList<Movie> stream = MovieJsonUtils.getMovieDataFromJsonStream(
+                new ByteArrayInputStream(sListPage));
+
+        assertEquals(MOVIES_PER_PAGE, stream.size());
+        assertEquals(tree.size(), stream.size());
+        for (int i = 0; i < tree.size(); i++) {
+            assertEquals(tree.get(i).getId(), stream.get(i).getId());
+            assertEquals(tree.get(i).getPoster_path(), stream.get(i).getPoster_path());
+            assertEquals(tree.get(i).getOverview(), stream.get(i).getOverview());
+            assertEquals(tree.get(i).getVote_average(), stream.get(i).getVote_average(), 0.001);
+        }
+    }
+
+    @Test
+    public void streamingDetailParser_matchesTreeParser() throws Exception {
+        MovieDetail tree = MovieJsonUtils.getMovieDetailDataFromJson(new String(sDetail, "UTF-8"));
+        MovieDetail stream = MovieJsonUtils.getMovieDetailDataFromJsonStream(
+                new ByteArrayInputStream(sDetail), Integer.MAX_VALUE);
+
+        assertEquals(tree.getMovieId(), stream.getMovieId());
+        assertEquals(tree.getGenres(), stream.getGenres());
+        assertEquals(tree.getMovieVideos().size(), stream.getMovieVideos().size());
+        assertEquals(tree.getMovieVideos().get(4).getName(), stream.getMovieVideos().get(4).getName());
+        assertEquals(REVIEWS_PER_DETAIL, stream.getMovieReviews().size());
+        for (int i = 0; i < REVIEWS_PER_DETAIL; i++) {
+            MovieReview review = stream.getMovieReviews().get(i);
+            assertEquals(tree.getMovieReviews().get(i).getReviewId(), review.getReviewId());
+            assertEquals(tree.getMovieReviews().get(i).getContent(), review.getContent());
+            assertFalse(review.isTruncated());
+        }
+    }
+
+    @Test
+    public void streamingDetailParser_truncatesReviews() throws Exception {
+        int previewLength = MoviePreferences.REVIEW_PREVIEW_LENGTH;
+        MovieDetail detail = MovieJsonUtils.getMovieDetailDataFromJsonStream(
+                new ByteArrayInputStream(sDetail), previewLength);
+
+        for (MovieReview review : detail.getMovieReviews()) {
+            assertEquals(previewLength, review.getContent().length());
+            assertTrue(review.isTruncated());
+            assertTrue(review.getContent().startsWith("A SCREEN ZEALOTS REVIEW"));
+        }
+    }
+
+    @Test
+    public void benchmarkDetailParsersPeakHeap() throws Exception {
+        final String detailString = new String(sDetail, "UTF-8");
+
+        // the tree parser also needs the response as a String, which is not counted here
+        long treePeak = measurePeakHeap(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    MovieJsonUtils.getMovieDetailDataFromJson(detailString);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        long streamPeak = measurePeakHeap(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    MovieJsonUtils.getMovieDetailDataFromJsonStream(
+                            new ByteArrayInputStream(sDetail),
+                            MoviePreferences.REVIEW_PREVIEW_LENGTH);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        Log.i(TAG, String.format("detail with %d reviews (%d KB): tree parser peak %d KB, "
+                        + "stream parser peak %d KB", REVIEWS_PER_DETAIL, sDetail.length / 1024,
+                treePeak / 1024, streamPeak / 1024));
+    }
+
+    @Test
+    public void benchmarkListParsers() throws Exception {
+        // warm up both code paths
+        parseListWithTree(new ByteArrayInputStream(sListPage));
+        MovieJsonUtils.getMovieDataFromJsonStream(new ByteArrayInputStream(sListPage));
+
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocSize();
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                parseListWithTree(new ByteArrayInputStream(sListPage));
+            }
+            report("tree", System.nanoTime() - start, Debug.getThreadAllocSize());
+
+            Debug.resetThreadAllocSize();
+            start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                MovieJsonUtils.getMovieDataFromJsonStream(new ByteArrayInputStream(sListPage));
+            }
+            report("stream", System.nanoTime() - start, Debug.getThreadAllocSize());
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    /**
+     * The path MainActivity used before: the whole body as a String, then a JSONObject tree.
+     */
+    private static ArrayList<Movie> parseListWithTree(InputStream in) throws Exception {
+        Scanner scanner = new Scanner(in);
+        scanner.useDelimiter("\\A");
+        return MovieJsonUtils.getMovieDataFromJson(scanner.next());
+    }
+
+    /**
+     * Runs the parse while a second thread samples the used heap, and returns the highest
+     * sample above the heap in use before the parse.
+     */
+    private static long measurePeakHeap(Runnable parse) throws InterruptedException {
+        final Runtime runtime = Runtime.getRuntime();
+        long peak = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            runtime.gc();
+            final long baseline = runtime.totalMemory() - runtime.freeMemory();
+            final long[] max = new long[]{baseline};
+            final boolean[] done = new boolean[]{false};
+            Thread sampler = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (true) {
+                        synchronized (done) {
+                            if (done[0]) {
+                                return;
+                            }
+                        }
+                        long used = runtime.totalMemory() - runtime.freeMemory();
+                        if (used > max[0]) {
+                            max[0] = used;
+                        }
+                        Thread.yield();
+                    }
+                }
+            });
+            sampler.start();
+            parse.run();
+            synchronized (done) {
+                done[0] = true;
+            }
+            sampler.join();
+            peak = Math.max(peak, max[0] - baseline);
+        }
+        return peak;
+    }
+
+    private static void report(String parser, long nanos, long allocatedBytes) {
+        Log.i(TAG, String.format("%s parser: %d pages of %d movies (%d KB each), %.2f ms/page, "
+                        + "%d KB allocated/page", parser, ITERATIONS, MOVIES_PER_PAGE,
+                sListPage.length / 1024, nanos / 1e6 / ITERATIONS,
+                allocatedBytes / 1024 / ITERATIONS));
+    }
+}
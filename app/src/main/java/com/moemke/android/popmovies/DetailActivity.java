@@ -15,7 +15,6 @@
  */
 package com.moemke.android.popmovies;
 
-import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.DialogInterface;
@@ -30,8 +29,9 @@ import android.os.Bundle;
 import android.support.v4.app.LoaderManager;
 import android.support.v4.app.NavUtils;
 import android.support.v4.app.ShareCompat;
-import android.support.v4.content.AsyncTaskLoader;
+import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
+import android.support.v4.view.ViewCompat;
 import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.preference.PreferenceManager;
@@ -42,6 +42,7 @@ import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.widget.ImageButton;
 import android.widget.ImageView;
 import android.widget.ProgressBar;
@@ -51,33 +52,74 @@ import android.widget.Toast;
 import com.moemke.android.popmovies.MovieReviewAdapter.MovieReviewAdapterOnClickHandler;
 import com.moemke.android.popmovies.MovieVideoAdapter.MovieVideoAdapterOnClickHandler;
 import com.moemke.android.popmovies.data.FavoritesContract;
+import com.moemke.android.popmovies.data.FavoritesIndex;
+import com.moemke.android.popmovies.data.FavoritesWriteQueue;
 import com.moemke.android.popmovies.data.MoviePreferences;
+import com.moemke.android.popmovies.utilities.BackgroundTask;
+import com.moemke.android.popmovies.utilities.CancellationToken;
+import com.moemke.android.popmovies.utilities.HttpResponse;
+import com.moemke.android.popmovies.utilities.ImagePersistenceExecutor;
+import com.moemke.android.popmovies.utilities.ImageSizeSelector;
 import com.moemke.android.popmovies.utilities.MovieJsonUtils;
 import com.moemke.android.popmovies.utilities.MovieUtils;
 import com.moemke.android.popmovies.utilities.NetworkUtils;
+import com.moemke.android.popmovies.utilities.OfflineImageStore;
+import com.moemke.android.popmovies.utilities.ResponseCache;
+import com.moemke.android.popmovies.utilities.TaskRegistry;
+import com.moemke.android.popmovies.utilities.TaskRunner;
+import com.squareup.picasso.Callback;
 import com.squareup.picasso.Picasso;
+import com.squareup.picasso.RequestCreator;
 import com.squareup.picasso.Target;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
 
 public class DetailActivity extends AppCompatActivity implements
-        LoaderManager.LoaderCallbacks<MovieDetail>, MovieReviewAdapterOnClickHandler,
-        MovieVideoAdapterOnClickHandler, SharedPreferences.OnSharedPreferenceChangeListener {
+        MovieReviewAdapterOnClickHandler, MovieVideoAdapterOnClickHandler, SharedPreferences.OnSharedPreferenceChangeListener {
 
     private static final String TAG = DetailActivity.class.getSimpleName();
 
     private static final String MOVIE_SHARE_HASHTAG = " #PopMoviesApp";
 
-    /* A constant to save and restore the URL that is being displayed */
-    private static final String MOVIE_QUERY_DETAIL_URL_EXTRA = "query_detail";
+    //constant String to identify the task loading the movie reviews and videos
+    private static final String MOVIE_DETAIL_TASK = "detail";
 
-    //constant int to identify movie review and video loader
-    private static final int MOVIE_QUERY_DETAIL_LOADER = 22;
+    //constant String to identify the task reading the stored detail of a favorite
+    private static final String FAVORITE_DETAIL_TASK = "favoriteDetail";
+
+    //constant String to identify the task restoring the movie of an intent, see MovieHandoff
+    private static final String MOVIE_RESTORE_TASK = "movie";
+
+    //prefix of the tasks loading the full text of a review, followed by the review id
+    private static final String REVIEW_CONTENT_TASK = "review:";
+
+    //prefix of the tasks reading the stored full text of a review while offline
+    private static final String STORED_REVIEW_TASK = "storedReview:";
+
+    //tmdb size of the poster shown in the grid, shown until the sharper detail poster is loaded
+    public static final String EXTRA_GRID_POSTER_SIZE = "gridPosterSize";
+    //width of a grid cell, part of the cache key of the grid poster, see PosterRequests
+    public static final String EXTRA_GRID_POSTER_WIDTH = "gridPosterWidth";
+
+    //padding around the YouTube thumbnail in movie_video_item
+    private static final int VIDEO_THUMBNAIL_PADDING_DP = 20;
+
+    //longest wait for the grid poster before the enter transition starts without it
+    private static final long POSTER_TRANSITION_TIMEOUT_MS = 300;
+
+    //constant int to identify the loader for the overview and genres of a favorite
+    private static final int FAVORITE_DETAILS_LOADER = 44;
+
+    //Picasso targets of the favorite images still being downloaded
+    private static final Set<Target> sPendingTargets = new HashSet<Target>();
 
     private ImageView mDetailPoster;
     private ImageView mBackdropPoster;
@@ -93,6 +135,32 @@ public class DetailActivity extends AppCompatActivity implements
 
     private ImageButton mFavorite;
 
+    // the index answers false until its first load, the button is set again once it is done
+    private final FavoritesIndex.OnFavoritesChangedListener mFavoritesChangedListener =
+            new FavoritesIndex.OnFavoritesChangedListener() {
+                @Override
+                public void onFavoritesChanged() {
+                    if (mMovie != null) {
+                        mFavorite.setActivated(isFavorite(mMovie.getId()));
+                    }
+                }
+            };
+
+    // offline, the stored images are shown once the store has verified them
+    private final OfflineImageStore.OnVerifiedListener mImagesVerifiedListener =
+            new OfflineImageStore.OnVerifiedListener() {
+                @Override
+                public void onImagesVerified() {
+                    if (mMovie != null && mOfflineIcon.getVisibility() == View.VISIBLE) {
+                        OfflineImageStore offlineImages = OfflineImageStore.getInstance();
+                        loadOfflineImage(mDetailPoster,
+                                offlineImages.getFile(mMovie.getPoster_path().substring(1)));
+                        loadOfflineImage(mBackdropPoster,
+                                offlineImages.getFile(mMovie.getBackdrop_path().substring(1)));
+                    }
+                }
+            };
+
     //show genres in string form
     private TextView mGenres;
 
@@ -108,11 +176,23 @@ public class DetailActivity extends AppCompatActivity implements
 
     private String mQueryDetailUrlString;
 
+    // loads the detail and the reviews, kept across configuration changes
+    private TaskRegistry mTasks;
+
     private AlertDialog showWifiDialog = null;
 
     //passed from Intent
     private Movie mMovie;
     private String mSortOrder;
+    private String mGridPosterSize;
+    private int mGridPosterWidth;
+    private boolean mPosterTransitionStarted;
+    private final Runnable mPosterTransitionTimeout = new Runnable() {
+        @Override
+        public void run() {
+            startPosterTransition();
+        }
+    };
 
     private MovieDetail mMovieDetailData;
 
@@ -127,7 +207,14 @@ public class DetailActivity extends AppCompatActivity implements
         getSupportActionBar().setDisplayHomeAsUpEnabled(true);
         setupSharedPreferences();
 
+        // the tasks of the previous activity if it was recreated for a configuration change
+        mTasks = (TaskRegistry) getLastCustomNonConfigurationInstance();
+        if (mTasks == null) {
+            mTasks = new TaskRegistry(TaskRunner.getInstance());
+        }
+
         mDetailPoster = (ImageView) findViewById(R.id.iv_detail_poster);
+        ViewCompat.setTransitionName(mDetailPoster, getString(R.string.transition_poster));
         mBackdropPoster = (ImageView) findViewById(R.id.iv_detail_backdrop);
         mDetailTitle = (TextView) findViewById(R.id.tv_detail_title);
         mOfflineIcon = (ImageView) findViewById(R.id.iv_detail_wifi_off);
@@ -139,6 +226,8 @@ public class DetailActivity extends AppCompatActivity implements
         mVideosTitle = (TextView) findViewById((R.id.tv_videos_title));
         mGenres = (TextView) findViewById(R.id.tv_detail_genres);
         mFavorite = (ImageButton) findViewById(R.id.ib_favorite);
+        FavoritesIndex.getInstance(this).addOnFavoritesChangedListener(mFavoritesChangedListener);
+        OfflineImageStore.getInstance().addOnVerifiedListener(mImagesVerifiedListener);
         mReviewsTitle.setVisibility(View.VISIBLE);
         mVideosTitle.setVisibility(View.VISIBLE);
 
@@ -174,22 +263,39 @@ public class DetailActivity extends AppCompatActivity implements
         mrRecyclerView.setAdapter(mMovieReviewAdapter);
         mvRecyclerView.setAdapter(mMovieVideoAdapter);
 
+        // the video list is laid out in full inside the ScrollView, thumbnails are only loaded
+        // for the rows that scroll into view
+        mMovieVideoAdapter.setThumbnailWidth(getResources().getDisplayMetrics().widthPixels
+                - Math.round(2 * VIDEO_THUMBNAIL_PADDING_DP * getResources().getDisplayMetrics().density));
+        mvRecyclerView.getViewTreeObserver().addOnScrollChangedListener(
+                new ViewTreeObserver.OnScrollChangedListener() {
+                    @Override
+                    public void onScrollChanged() {
+                        mMovieVideoAdapter.loadVisibleThumbnails(mvRecyclerView);
+                    }
+                });
+        mvRecyclerView.addOnLayoutChangeListener(new View.OnLayoutChangeListener() {
+            @Override
+            public void onLayoutChange(View v, int left, int top, int right, int bottom,
+                                       int oldLeft, int oldTop, int oldRight, int oldBottom) {
+                mMovieVideoAdapter.loadVisibleThumbnails(mvRecyclerView);
+            }
+        });
+
         Intent intent = getIntent();
 
         if (intent != null) {
-            if (intent.hasExtra("movie")) {
-                mMovie = intent.getParcelableExtra("movie");
-                //check if in favorites file, if yes, then set the favorite button on
-                if (isFavorite(mMovie.getId())) {
-                    mFavorite.setActivated(true);
-                } else {
-                    mFavorite.setActivated(false);
-                }
-            }
             // if favorites, then load from offline if no internet
             if (intent.hasExtra("sortOrder")) {
                 mSortOrder = intent.getStringExtra("sortOrder");
             }
+            mGridPosterSize = intent.getStringExtra(EXTRA_GRID_POSTER_SIZE);
+            mGridPosterWidth = intent.getIntExtra(EXTRA_GRID_POSTER_WIDTH, 0);
+            if (mGridPosterSize != null) {
+                // the poster flies in from the grid once it is set, see loadPoster
+                supportPostponeEnterTransition();
+                mDetailPoster.postDelayed(mPosterTransitionTimeout, POSTER_TRANSITION_TIMEOUT_MS);
+            }
             /*
             * The ProgressBar that will indicate to the user that we are loading data. It will be
             * hidden when no data is loading.
@@ -198,13 +304,17 @@ public class DetailActivity extends AppCompatActivity implements
 
             mFavorite.setOnClickListener(new View.OnClickListener() {
                 public void onClick(View v) {
+                    if (mMovie == null) {
+                        // still being restored, see restoreMovie
+                        return;
+                    }
                     if (!(mFavorite.isActivated())) {
                         addFavorite(mMovie);
                         mFavorite.setActivated(true);
                         Toast.makeText(DetailActivity.this,
                                 getResources().getString(R.string.save_favorite), Toast.LENGTH_SHORT).show();
                     } else {
-                        int removedFave = removeFavorite(mMovie.getId());
+                        removeFavorite(mMovie.getId());
                         mFavorite.setActivated(false);
                         Toast.makeText(DetailActivity.this,
                                 getResources().getString(R.string.remove_favorite), Toast.LENGTH_SHORT).show();
@@ -223,111 +333,389 @@ public class DetailActivity extends AppCompatActivity implements
                 }
             });
 
-            mDetailTitle.setText(mMovie.getOriginal_title());
-            mDetailReleaseDate.setText(MovieUtils.
-                    formatDate(mMovie.getRelease_date(), NetworkUtils.getTMDBDateFormat(),
-                            MoviePreferences.getDefaultDisplayDateFormat()));
-            mDetailOverview.setText(mMovie.getOverview());
-            mDetailVoteAverage.setText(Float.toString(mMovie.vote_average) +
-                    getResources().getString(R.string.over_10));
-            // mDetailVoteAverage.setText(Float.toString(mMovie.vote_average / 2));
-            // mRatingBar.setRating(mMovie.vote_average / 2);
-
-            //Show poster and backdrop
-            if (NetworkUtils.isOnline(this)) { //online
-                if (!NetworkUtils.APIKEYexists()) {
-                    mErrorMessageDisplay.setText(R.string.error_no_apikey);
-                    showMovieReviewErrorMessage();
-                } else {
-                    String imgUrlString = NetworkUtils.buildImageUrlString(
-                            MoviePreferences.getDefaultMoviePosterResolution(), mMovie.getPoster_path());
+            mMovie = MovieHandoff.getMovie(intent);
+            if (mMovie != null) {
+                bindMovie();
+            } else if (MovieHandoff.getMovieId(intent) != MovieStore.NO_ID) {
+                // the process was restarted since the grid handed the movie over
+                restoreMovie(intent);
+            }
+        }
+    }
+
+    /**
+     * Shows mMovie and starts loading its poster, backdrop and details.
+     */
+    private void bindMovie() {
+        //check if in favorites file, if yes, then set the favorite button on
+        if (isFavorite(mMovie.getId())) {
+            mFavorite.setActivated(true);
+        } else {
+            mFavorite.setActivated(false);
+        }
+        mDetailTitle.setText(mMovie.getOriginal_title());
+        mDetailReleaseDate.setText(MovieUtils.
+                formatDate(mMovie.getRelease_date(), NetworkUtils.getTMDBDateFormat(),
+                        MoviePreferences.getDefaultDisplayDateFormat()));
+        mDetailOverview.setText(mMovie.getOverview());
+        if (mMovie.getOverview() == null) {
+            // favorites are listed without their long text, it is read from the details table
+            getSupportLoaderManager().initLoader(FAVORITE_DETAILS_LOADER, null,
+                    mFavoriteDetailsLoaderCallbacks);
+        }
+        mDetailVoteAverage.setText(Float.toString(mMovie.vote_average) +
+                getResources().getString(R.string.over_10));
+        // mDetailVoteAverage.setText(Float.toString(mMovie.vote_average / 2));
+        // mRatingBar.setRating(mMovie.vote_average / 2);
 
-                    Picasso.with(mDetailPoster.getContext()).load(imgUrlString)
-                            .error(R.drawable.ic_movie_placeholder)
-                            .into(mDetailPoster);
+        //Show poster and backdrop
+        if (NetworkUtils.isOnline(this)) { //online
+            if (!NetworkUtils.APIKEYexists()) {
+                mErrorMessageDisplay.setText(R.string.error_no_apikey);
+                showMovieReviewErrorMessage();
+            } else {
+                // the poster takes half of the screen width, the backdrop all of it
+                int screenWidth = getResources().getDisplayMetrics().widthPixels;
+                String posterSize = ImageSizeSelector.selectPosterSize(screenWidth / 2);
+                RequestCreator detailRequest = PosterRequests.fitWidth(
+                        Picasso.with(this).load(NetworkUtils.buildImageUrlString(posterSize,
+                                mMovie.getPoster_path())),
+                        screenWidth / 2, PosterRequests.POSTER_ASPECT);
+                RequestCreator gridRequest = null;
+                if (mGridPosterSize != null) {
+                    // the same request as the grid, so it is found in the memory cache
+                    gridRequest = PosterRequests.grid(Picasso.with(this).load(
+                            NetworkUtils.buildImageUrlString(mGridPosterSize,
+                                    mMovie.getPoster_path())), mGridPosterWidth);
+                    if (ImageSizeSelector.widthOf(mGridPosterSize)
+                            >= ImageSizeSelector.widthOf(posterSize)) {
+                        detailRequest = null;
+                    }
+                }
+                loadPoster(gridRequest, detailRequest);
 
-                    String imgBackdropUrlString = NetworkUtils.buildImageUrlString(
-                            MoviePreferences.getDefaultMoviePosterResolution(), mMovie.getBackdrop_path());
+                String imgBackdropUrlString = NetworkUtils.buildImageUrlString(
+                        ImageSizeSelector.selectBackdropSize(screenWidth), mMovie.getBackdrop_path());
 
-                    Picasso.with(mBackdropPoster.getContext()).load(imgBackdropUrlString)
-                            .error(R.drawable.ic_movie_placeholder)
-                            .into(mBackdropPoster);
-                    mOfflineIcon.setVisibility(View.INVISIBLE);
-                    loadMovieDetailData(mMovie.getId());
+                // decoded at the screen width instead of the full backdrop
+                PosterRequests.fitWidth(Picasso.with(mBackdropPoster.getContext())
+                        .load(imgBackdropUrlString), screenWidth, PosterRequests.BACKDROP_ASPECT)
+                        .error(R.drawable.ic_movie_placeholder)
+                        .into(mBackdropPoster);
+                mOfflineIcon.setVisibility(View.INVISIBLE);
+                if (isFavorite(mMovie.getId())) {
+                    loadFavoriteDetail();
+                } else {
+                    loadMovieDetailData(mMovie.getId(), true);
                 }
-            } else { //offline -- if favorites, show, else, the error is displayed
-                if (mSortOrder.equalsIgnoreCase(MainActivity.SORTORDER_FAVORITES)) {
-                    mGenres.setText(mMovie.getGenre_str());
-
-                    //load from file in internal storage
-                    File pImgFile = new File(this.getFilesDir(), mMovie.getPoster_path().substring(1));
-                    //Log.v(TAG, "displaying file from internal dir" + imgFile.toString() + " of length:" + imgFile.length() / 1024 + "kb");
-                    mDetailPoster.setImageURI(Uri.parse(pImgFile.toString()));
-
-                    File bImgFile = new File(this.getFilesDir(), mMovie.getBackdrop_path().substring(1));
-                    mBackdropPoster.setImageURI(Uri.parse(bImgFile.toString()));
-                    mOfflineIcon.setVisibility(View.VISIBLE);
-                    mVideosTitle.setVisibility(View.INVISIBLE);
-                    mReviewsTitle.setVisibility(View.INVISIBLE);
+            }
+        } else { //offline -- if favorites, show, else, the error is displayed
+            if (mSortOrder.equalsIgnoreCase(MainActivity.SORTORDER_FAVORITES)
+                    || isFavorite(mMovie.getId())) {
+                mGenres.setText(mMovie.getGenre_str());
+
+                //load from the offline image store, missing or broken files show the placeholder
+                OfflineImageStore offlineImages = OfflineImageStore.getInstance();
+                File posterFile = offlineImages.getFile(mMovie.getPoster_path().substring(1));
+                if (posterFile == null) {
+                    loadOfflineImage(mDetailPoster, null);
+                    startPosterTransition();
                 } else {
-                    mErrorMessageDisplay.setText(R.string.error_no_internet);
-                    showWifiDialog();
+                    // the grid loaded the same file, see MovieAdapter
+                    loadPoster(mGridPosterSize == null ? null : PosterRequests.grid(
+                                    Picasso.with(this).load(posterFile), mGridPosterWidth),
+                            Picasso.with(this).load(posterFile));
                 }
+                loadOfflineImage(mBackdropPoster,
+                        offlineImages.getFile(mMovie.getBackdrop_path().substring(1)));
+                mOfflineIcon.setVisibility(View.VISIBLE);
+                mVideosTitle.setVisibility(View.INVISIBLE);
+                mReviewsTitle.setVisibility(View.INVISIBLE);
+                // the videos and reviews are shown if they were stored with the favorite
+                loadFavoriteDetail();
+            } else {
+                mErrorMessageDisplay.setText(R.string.error_no_internet);
+                showWifiDialog();
             }
         }
     }
 
-    public Loader<MovieDetail> onCreateLoader(int id, final Bundle args) {
-        return new AsyncTaskLoader<MovieDetail>(this) {
+    /**
+     * Shows the poster the grid loaded, which is usually in Picasso's memory cache already so it
+     * is set before the first frame, and then replaces it with the sharper detail poster.
+     * The postponed shared element transition starts as soon as the grid poster is shown.
+     *
+     * @param gridRequest   The request the grid loaded the poster with, null if not started
+     *                      from the grid
+     * @param detailRequest The request for the detail poster, null if the grid poster is as sharp
+     */
+    private void loadPoster(RequestCreator gridRequest, final RequestCreator detailRequest) {
+        if (gridRequest == null) {
+            detailRequest.error(R.drawable.ic_movie_placeholder)
+                    .into(mDetailPoster);
+            return;
+        }
+        gridRequest.error(R.drawable.ic_movie_placeholder)
+                .into(mDetailPoster, new Callback() {
+                    @Override
+                    public void onSuccess() {
+                        startPosterTransition();
+                        if (detailRequest != null) {
+                            detailRequest.noPlaceholder()
+                                    .into(mDetailPoster);
+                        }
+                    }
+
+                    @Override
+                    public void onError() {
+                        startPosterTransition();
+                        if (detailRequest != null) {
+                            detailRequest.error(R.drawable.ic_movie_placeholder)
+                                    .into(mDetailPoster);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Starts the enter transition postponed in onCreate, once the poster is shown or after
+     * POSTER_TRANSITION_TIMEOUT_MS if the grid poster has to come from the network.
+     */
+    private void startPosterTransition() {
+        if (mPosterTransitionStarted) {
+            return;
+        }
+        mPosterTransitionStarted = true;
+        mDetailPoster.removeCallbacks(mPosterTransitionTimeout);
+        supportStartPostponedEnterTransition();
+    }
+
+    private static void loadOfflineImage(ImageView imageView, File imgFile) {
+        if (imgFile == null) {
+            imageView.setImageResource(R.drawable.ic_movie_placeholder);
+            return;
+        }
+        Picasso.with(imageView.getContext()).load(imgFile)
+                .error(R.drawable.ic_movie_placeholder)
+                .into(imageView);
+    }
 
-            // Create a member variable to store the cached result in
-            MovieDetail movieDetail = null;
+    /**
+     * Loads the reviews and videos of a movie from tmdb. Holds no reference to the activity, so
+     * it can outlive it across a rotation.
+     */
+    private static class MovieDetailTask implements BackgroundTask<MovieDetail> {
 
-            @Override
-            public void deliverResult(MovieDetail data) {
-                movieDetail = data;
-                mLoadingIndicator.setVisibility(View.INVISIBLE);
-                mMovieDetailData = data;
-                super.deliverResult(movieDetail);
+        private final String mUrlString;
+
+        MovieDetailTask(String urlString) {
+            mUrlString = urlString;
+        }
+
+        @Override
+        public MovieDetail run(CancellationToken token) throws IOException {
+            HttpResponse response = NetworkUtils.getHttpResponse(new URL(mUrlString));
+            try {
+                // reviews are cut to a preview while reading, see onReadMore
+                return MovieJsonUtils.getMovieDetailDataFromJsonStream(
+                        response.getBody(), MoviePreferences.REVIEW_PREVIEW_LENGTH);
+            } finally {
+                response.close();
             }
+        }
+    }
 
-            // Just call deliverResult if the cache isn't null
-            @Override
-            protected void onStartLoading() {
-                super.onStartLoading();
-                if (args == null) {
-                    return;
+    private final TaskRunner.Callback<MovieDetail> mMovieDetailCallback =
+            new TaskRunner.Callback<MovieDetail>() {
+                @Override
+                public void onResult(MovieDetail movieDetail) {
+                    if (movieDetail != null) {
+                        keepFullReviews(movieDetail);
+                        if (isFavorite(mMovie.getId())) {
+                            // only the rows that changed since the last load are written
+                            FavoritesWriteQueue.getInstance(DetailActivity.this).updateDetailRows(
+                                    mMovie.getId(), FavoriteDetails.toRows(movieDetail));
+                        }
+                    }
+                    onMovieDetailLoaded(movieDetail);
                 }
-                mLoadingIndicator.setVisibility(View.VISIBLE);
-                if (movieDetail == null)
-                    forceLoad();
-                else
-                    deliverResult(movieDetail);
-            }
 
-            @Override
-            public MovieDetail loadInBackground() {
-                String movieDetailUrlString = args.getString(MOVIE_QUERY_DETAIL_URL_EXTRA);
-                if (movieDetailUrlString == null || TextUtils.isEmpty(movieDetailUrlString)) {
-                    return null;
+                @Override
+                public void onError(Exception e) {
+                    Log.e(TAG, "Failed to load the movie detail", e);
+                    onMovieDetailLoaded(null);
+                }
+            };
+
+    /**
+     * Reads the genres, videos and reviews stored with a favorite, see {@link FavoriteDetails}.
+     */
+    private static class FavoriteDetailTask implements BackgroundTask<FavoriteDetails> {
+
+        private final Context mContext;
+        private final int mMovieId;
+
+        FavoriteDetailTask(Context context, int movieId) {
+            mContext = context.getApplicationContext();
+            mMovieId = movieId;
+        }
+
+        @Override
+        public FavoriteDetails run(CancellationToken token) {
+            return FavoriteDetails.read(mContext.getContentResolver(), mMovieId);
+        }
+    }
+
+    private final TaskRunner.Callback<FavoriteDetails> mFavoriteDetailCallback =
+            new TaskRunner.Callback<FavoriteDetails>() {
+                @Override
+                public void onResult(FavoriteDetails favoriteDetails) {
+                    onFavoriteDetailLoaded(favoriteDetails);
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    Log.e(TAG, "Failed to read the favorite detail", e);
+                    onFavoriteDetailLoaded(null);
                 }
+            };
+
+    /**
+     * Shows the detail stored with a favorite without any network call. Online, a detail that
+     * was never stored or is stale is loaded from tmdb, which replaces the stored one on screen
+     * and in the favorites database.
+     */
+    private void loadFavoriteDetail() {
+        mLoadingIndicator.setVisibility(View.VISIBLE);
+        mTasks.startOrAttach(FAVORITE_DETAIL_TASK, Integer.toString(mMovie.getId()),
+                TaskRunner.POOL_IO, new FavoriteDetailTask(this, mMovie.getId()),
+                mFavoriteDetailCallback);
+    }
+
+    private void onFavoriteDetailLoaded(FavoriteDetails favoriteDetails) {
+        mLoadingIndicator.setVisibility(View.INVISIBLE);
+        if (favoriteDetails != null) {
+            onMovieDetailLoaded(favoriteDetails.getMovieDetail());
+        }
+        if ((favoriteDetails == null || favoriteDetails.isStale(System.currentTimeMillis()))
+                && NetworkUtils.isOnline(this) && NetworkUtils.APIKEYexists()) {
+            // the stored detail stays on screen while it is refreshed
+            loadMovieDetailData(mMovie.getId(), favoriteDetails == null);
+        }
+    }
+
+    /**
+     * A detail from tmdb only has previews of long reviews. The reviews that were already read
+     * in full, here or in the stored detail of a favorite, keep their full text.
+     *
+     * @param movieDetail The detail just loaded from tmdb
+     */
+    private void keepFullReviews(MovieDetail movieDetail) {
+        if (mMovieDetailData == null || mMovieDetailData.getMovieReviews() == null
+                || movieDetail.getMovieReviews() == null) {
+            return;
+        }
+        HashMap<String, MovieReview> fullReviews = new HashMap<String, MovieReview>();
+        for (MovieReview review : mMovieDetailData.getMovieReviews()) {
+            if (!review.isTruncated()) {
+                fullReviews.put(review.getReviewId(), review);
+            }
+        }
+        for (MovieReview review : movieDetail.getMovieReviews()) {
+            MovieReview fullReview = review.isTruncated() ? fullReviews.get(review.getReviewId())
+                    : null;
+            if (fullReview != null) {
+                review.setContent(fullReview.getContent());
+                review.setTruncated(false);
+            }
+        }
+    }
+
+    /**
+     * Reads the movie of an intent whose handoff was lost with the process: from the favorites,
+     * or else from the movie's detail response, which the detail task then gets from the
+     * response cache.
+     */
+    private static class MovieRestoreTask implements BackgroundTask<Movie> {
+
+        private final Context mContext;
+        private final int mMovieId;
+
+        MovieRestoreTask(Context context, int movieId) {
+            mContext = context.getApplicationContext();
+            mMovieId = movieId;
+        }
+
+        @Override
+        public Movie run(CancellationToken token) throws IOException {
+            Cursor cursor = mContext.getContentResolver().query(
+                    FavoritesContract.FavoritesEntry.CONTENT_URI,
+                    FavoritesContract.FavoritesEntry.GRID_PROJECTION,
+                    FavoritesContract.FavoritesEntry.COLUMN_NAME_MOVIE_ID + "=?",
+                    new String[]{Integer.toString(mMovieId)},
+                    null);
+            if (cursor != null) {
                 try {
-                    URL movieDetailURL = new URL(movieDetailUrlString);
-                    String jsonMovieDetailResponse = NetworkUtils.getResponseFromHttpUrl(movieDetailURL);
-                    mMovieDetailData = MovieJsonUtils.getMovieDetailDataFromJson(jsonMovieDetailResponse);
-                    return mMovieDetailData;
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    return null;
+                    ArrayList<Movie> favorites = MainActivity.getAllFavorites(cursor);
+                    if (favorites != null) {
+                        return favorites.get(0);
+                    }
+                } finally {
+                    cursor.close();
                 }
             }
-        };
+            token.throwIfCancelled();
+            HttpResponse response = NetworkUtils.getHttpResponse(
+                    NetworkUtils.buildMovieDetailsUrl(mMovieId));
+            try {
+                return MovieJsonUtils.getMovieFromJsonStream(response.getBody());
+            } finally {
+                response.close();
+            }
+        }
+    }
+
+    private final TaskRunner.Callback<Movie> mMovieRestoreCallback =
+            new TaskRunner.Callback<Movie>() {
+                @Override
+                public void onResult(Movie movie) {
+                    onMovieRestored(movie);
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    Log.e(TAG, "Failed to restore the movie", e);
+                    onMovieRestored(null);
+                }
+            };
+
+    private void restoreMovie(Intent intent) {
+        mLoadingIndicator.setVisibility(View.VISIBLE);
+        int movieId = MovieHandoff.getMovieId(intent);
+        mTasks.startOrAttach(MOVIE_RESTORE_TASK, Integer.toString(movieId), TaskRunner.POOL_IO,
+                new MovieRestoreTask(this, movieId), mMovieRestoreCallback);
+    }
+
+    private void onMovieRestored(Movie movie) {
+        mLoadingIndicator.setVisibility(View.INVISIBLE);
+        if (movie == null) {
+            showMovieReviewErrorMessage();
+            return;
+        }
+        // found again by the next onCreate, e.g. after a rotation
+        MovieHandoff.restore(getIntent(), movie);
+        mMovie = movie;
+        bindMovie();
+        supportInvalidateOptionsMenu();
     }
 
     // Hide the loading indicator; Show the data or the error message
-    @Override
-    public void onLoadFinished(Loader<MovieDetail> loader, MovieDetail movieDetailData) {
+    private void onMovieDetailLoaded(MovieDetail movieDetailData) {
         mLoadingIndicator.setVisibility(View.INVISIBLE);
+        if (movieDetailData == null && mMovieDetailData != null) {
+            // a failed refresh keeps the stored detail of a favorite on screen
+            return;
+        }
         String genreStr = "";
         mMovieDetailData = movieDetailData;
         if (movieDetailData != null) {
@@ -364,10 +752,182 @@ public class DetailActivity extends AppCompatActivity implements
         }
     }
 
-    // Override onLoaderReset as it is part of the interface we implement, but don't do anything in this method
-    @Override
-    public void onLoaderReset(Loader<MovieDetail> loader) {
+    /**
+     * Loads the overview and genres of a favorite from the favorite details, for movies that
+     * come from the favorites grid (which only reads FavoritesEntry.GRID_PROJECTION).
+     */
+    private final LoaderManager.LoaderCallbacks<Cursor> mFavoriteDetailsLoaderCallbacks =
+            new LoaderManager.LoaderCallbacks<Cursor>() {
+
+                @Override
+                public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+                    return new CursorLoader(DetailActivity.this,
+                            FavoritesContract.FavoriteDetailsEntry.buildDetailsUri(mMovie.getId()),
+                            new String[]{FavoritesContract.FavoriteDetailsEntry.COLUMN_NAME_OVERVIEW,
+                                    FavoritesContract.FavoriteDetailsEntry.COLUMN_NAME_GENRE_LIST},
+                            null, null, null);
+                }
+
+                @Override
+                public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+                    if (data == null || !data.moveToFirst()) {
+                        return;
+                    }
+                    mMovie.setOverview(data.getString(0));
+                    mMovie.setGenre_str(data.getString(1));
+                    mDetailOverview.setText(mMovie.getOverview());
+                    // online, the genres come with the movie detail from tmdb
+                    if (mMovieDetailData == null) {
+                        mGenres.setText(mMovie.getGenre_str());
+                    }
+                }
+
+                @Override
+                public void onLoaderReset(Loader<Cursor> loader) {
+
+                }
+            };
+
+    /**
+     * Loads the full text of a review whose preview was truncated when the movie detail was
+     * parsed.
+     */
+    private static class ReviewContentTask implements BackgroundTask<MovieReview> {
+
+        private final String mReviewId;
 
+        ReviewContentTask(String reviewId) {
+            mReviewId = reviewId;
+        }
+
+        @Override
+        public MovieReview run(CancellationToken token) throws IOException {
+            HttpResponse response = NetworkUtils.getHttpResponse(
+                    NetworkUtils.buildReviewDetailUrl(mReviewId));
+            try {
+                return MovieJsonUtils.getMovieReviewFromJsonStream(response.getBody());
+            } finally {
+                response.close();
+            }
+        }
+    }
+
+    /**
+     * Hands the full text of a review to the review adapter, which replaces the preview.
+     */
+    private final TaskRunner.Callback<MovieReview> mReviewContentCallback =
+            new TaskRunner.Callback<MovieReview>() {
+                @Override
+                public void onResult(MovieReview movieReview) {
+                    if (movieReview != null && movieReview.getContent() != null) {
+                        mMovieReviewAdapter.setFullReviewContent(movieReview.getReviewId(),
+                                movieReview.getContent());
+                        storeFullReview(movieReview);
+                    }
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    Log.e(TAG, "Failed to load the review", e);
+                }
+            };
+
+    /**
+     * Reads the full text of a review without going to the network: from the response cache if
+     * it was loaded before, else from the stored detail of a favorite.
+     */
+    private static class StoredReviewTask implements BackgroundTask<MovieReview> {
+
+        private final Context mContext;
+        private final int mMovieId;
+        private final String mReviewId;
+
+        StoredReviewTask(Context context, int movieId, String reviewId) {
+            mContext = context.getApplicationContext();
+            mMovieId = movieId;
+            mReviewId = reviewId;
+        }
+
+        @Override
+        public MovieReview run(CancellationToken token) throws IOException {
+            ResponseCache responseCache = NetworkUtils.getResponseCache();
+            URL reviewUrl = NetworkUtils.buildReviewDetailUrl(mReviewId);
+            HttpResponse response = responseCache != null && reviewUrl != null
+                    ? responseCache.getCached(reviewUrl) : null;
+            if (response != null) {
+                try {
+                    MovieReview review = MovieJsonUtils.getMovieReviewFromJsonStream(
+                            response.getBody());
+                    if (review != null && review.getContent() != null) {
+                        return review;
+                    }
+                } finally {
+                    response.close();
+                }
+            }
+
+            FavoriteDetails favoriteDetails = FavoriteDetails.read(
+                    mContext.getContentResolver(), mMovieId);
+            if (favoriteDetails == null
+                    || favoriteDetails.getMovieDetail().getMovieReviews() == null) {
+                return null;
+            }
+            for (MovieReview review : favoriteDetails.getMovieDetail().getMovieReviews()) {
+                if (review.getReviewId().equals(mReviewId) && !review.isTruncated()) {
+                    return review;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Shows the stored full text of a review, or tells the user it needs the network.
+     */
+    private final TaskRunner.Callback<MovieReview> mStoredReviewCallback =
+            new TaskRunner.Callback<MovieReview>() {
+                @Override
+                public void onResult(MovieReview movieReview) {
+                    if (movieReview != null) {
+                        mMovieReviewAdapter.setFullReviewContent(movieReview.getReviewId(),
+                                movieReview.getContent());
+                        storeFullReview(movieReview);
+                    } else {
+                        showReviewOffline();
+                    }
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    Log.e(TAG, "Failed to read the stored review", e);
+                    showReviewOffline();
+                }
+            };
+
+    private void showReviewOffline() {
+        Toast.makeText(this, getResources().getString(R.string.review_offline),
+                Toast.LENGTH_LONG).show();
+    }
+
+    /**
+     * Keeps the full text of a review of a favorite, so it can be read offline too. Only the
+     * row of the review is written.
+     *
+     * @param fullReview The review with its full text
+     */
+    private void storeFullReview(MovieReview fullReview) {
+        if (mMovieDetailData == null || mMovieDetailData.getMovieReviews() == null
+                || !isFavorite(mMovie.getId())) {
+            return;
+        }
+        for (MovieReview review : mMovieDetailData.getMovieReviews()) {
+            if (review.getReviewId().equals(fullReview.getReviewId())) {
+                review.setContent(fullReview.getContent());
+                review.setTruncated(false);
+            }
+        }
+        FavoritesWriteQueue.getInstance(this).updateDetailRows(mMovie.getId(),
+                FavoriteDetails.toRows(mMovieDetailData));
     }
 
     public static String genresToString(ArrayList<String> genreStrings) {
@@ -384,31 +944,22 @@ public class DetailActivity extends AppCompatActivity implements
     /**
      * This method will get the movieid, and then tell some
      * background method to get the movie detail data (reviews and videos) in the background.
+     *
+     * @param showProgress False if a stored detail is shown while it loads
      */
-    private void loadMovieDetailData(int movieId) {
+    private void loadMovieDetailData(int movieId, boolean showProgress) {
         mQueryDetailUrlString = NetworkUtils.buildMovieDetailsUrl(movieId).toString();
         // If no url passed, indicate that there isn't anything to search for and return
         if (TextUtils.isEmpty(mQueryDetailUrlString)) {
             mErrorMessageDisplay.setText(R.string.error_no_query_string);
             return;
         }
-        // Create a bundle called queryBundle
-        Bundle detailQueryBundle = new Bundle();
-        // Use putString with MOVIE_QUERY_REVIEW_URL_EXTRA as the key and the String
-        // value of the URL as the value
-        detailQueryBundle.putString(MOVIE_QUERY_DETAIL_URL_EXTRA, mQueryDetailUrlString);
-
-        // Call getSupportLoaderManager and store it in a LoaderManager variable
-        LoaderManager loaderManager = getSupportLoaderManager();
-        // Get our Loader by calling getLoader and passing the ID we specified
-        Loader<ArrayList<MovieDetail>> MovieDetailSearchLoader =
-                loaderManager.getLoader(MOVIE_QUERY_DETAIL_LOADER);
-        // If the Loader was null, initialize it. Else, restart it.
-        if (MovieDetailSearchLoader == null) {
-            loaderManager.initLoader(MOVIE_QUERY_DETAIL_LOADER, detailQueryBundle, this);
-        } else {
-            loaderManager.restartLoader(MOVIE_QUERY_DETAIL_LOADER, detailQueryBundle, this);
+        if (showProgress) {
+            mLoadingIndicator.setVisibility(View.VISIBLE);
         }
+        // after a rotation the running or finished request is picked up again
+        mTasks.startOrAttach(MOVIE_DETAIL_TASK, mQueryDetailUrlString, TaskRunner.POOL_IO,
+                new MovieDetailTask(mQueryDetailUrlString), mMovieDetailCallback);
     }
 
     // Display the menu and implement the movie sharing functionality
@@ -424,13 +975,13 @@ public class DetailActivity extends AppCompatActivity implements
         //allow the user to share the first trailer’s YouTube URL from the movie details screen
         Intent shareIntent;
         // no detail or no videos
-        if (mMovieDetailData == null) {
+        if (mMovieDetailData == null || mMovieDetailData.getMovieVideos().isEmpty()) {
             //Toast.makeText(DetailActivity.this, getResources().getString(R.string.details_loading),
             //  Toast.LENGTH_LONG).show();
             shareIntent = ShareCompat.IntentBuilder.from(this)
                     .setType("text/plain")
                     .setText(getResources().getString(R.string.check_out_movie) + "-- " +
-                            mMovie.toString() + "--" + MOVIE_SHARE_HASHTAG)
+                            String.valueOf(mMovie) + "--" + MOVIE_SHARE_HASHTAG)
                     .getIntent();
         } else {
             // Log.v(TAG, "num of videos " + String.valueOf(mMovieDetailData.getMovieVideos().size()));
@@ -445,7 +996,7 @@ public class DetailActivity extends AppCompatActivity implements
             shareIntent = ShareCompat.IntentBuilder.from(this)
                     .setType("text/plain")
                     .setText(getResources().getString(R.string.check_out_video) + "--'" +
-                            mMovie.toString() + "'-- at " +
+                            String.valueOf(mMovie) + "'-- at " +
                             url.toString() + "  " + MOVIE_SHARE_HASHTAG)
                     .getIntent();
         }
@@ -539,6 +1090,25 @@ public class DetailActivity extends AppCompatActivity implements
         // Log.v(TAG, "clicked " + chosenMovieReview.describeContents());
     }
 
+    /**
+     * Only a preview of each review is kept when the movie detail is parsed, the full text is
+     * loaded here when the user asks for it.
+     *
+     * @param truncatedMovieReview The review whose "read more" was clicked
+     */
+    @Override
+    public void onReadMore(MovieReview truncatedMovieReview) {
+        String reviewId = truncatedMovieReview.getReviewId();
+        if (!NetworkUtils.isOnline(this)) {
+            // the full text may have been read before, see StoredReviewTask
+            mTasks.startOrAttach(STORED_REVIEW_TASK + reviewId, reviewId, TaskRunner.POOL_IO,
+                    new StoredReviewTask(this, mMovie.getId(), reviewId), mStoredReviewCallback);
+            return;
+        }
+        mTasks.startOrAttach(REVIEW_CONTENT_TASK + reviewId, reviewId, TaskRunner.POOL_IO,
+                new ReviewContentTask(reviewId), mReviewContentCallback);
+    }
+
     /**
      * This method is overridden by our MainActivity class in order to handle
      * RecyclerView item clicks.
@@ -564,12 +1134,12 @@ public class DetailActivity extends AppCompatActivity implements
 
     /**
      * Called when the user touches the favorite button
-     * Adds a new favorite to the mFavoritesDb including the current timestamp
+     * Adds a new favorite to the favorites database including the current timestamp
      *
      * @param movie
      * @return void
      */
-    private long addFavorite(Movie movie) {
+    private void addFavorite(Movie movie) {
         // Inside, create a ContentValues instance to pass the values onto the insert query
         ContentValues cv = new ContentValues();
 
@@ -583,126 +1153,100 @@ public class DetailActivity extends AppCompatActivity implements
         cv.put(FavoritesContract.FavoritesEntry.COLUMN_NAME_BACKDROP_PATH, movie.getBackdrop_path());
         cv.put(FavoritesContract.FavoritesEntry.COLUMN_NAME_VOTE_COUNT, movie.getVote_count());
         cv.put(FavoritesContract.FavoritesEntry.COLUMN_NAME_VOTE_AVERAGE, movie.getVote_average());
-        cv.put(FavoritesContract.FavoritesEntry.COLUMN_NAME_GENRE_LIST, genresToString(mMovieDetailData.getGenres()));
+        if (mMovieDetailData != null && mMovieDetailData.getGenres() != null) {
+            cv.put(FavoritesContract.FavoritesEntry.COLUMN_NAME_GENRE_LIST,
+                    genresToString(mMovieDetailData.getGenres()));
+        }
 
         //download poster path and backdrop path to internal memory
         //REFER:http://stackoverflow.com/questions/4181774/show-image-view-from-file-path
-        //source is imgUrlString, write to internal storage with filename poster_path (remove /)
+        //source is imgUrlString, stored in the OfflineImageStore with key poster_path (remove /)
         String imgUrlString = NetworkUtils.buildImageUrlString(
-                MoviePreferences.getDefaultMoviePosterResolution(), mMovie.getPoster_path());
-        imageDownload(this, imgUrlString, movie.getPoster_path().substring(1));
+                MoviePreferences.getOfflinePosterResolution(), mMovie.getPoster_path());
+        imageDownload(this, imgUrlString, movie.getPoster_path().substring(1),
+                ImagePersistenceExecutor.PRIORITY_VISIBLE);
 
         imgUrlString = NetworkUtils.buildImageUrlString(
-                MoviePreferences.getDefaultMoviePosterResolution(), mMovie.getBackdrop_path());
-        imageDownload(this, imgUrlString, movie.getBackdrop_path().substring(1));
+                MoviePreferences.getOfflineBackdropResolution(), mMovie.getBackdrop_path());
+        imageDownload(this, imgUrlString, movie.getBackdrop_path().substring(1),
+                ImagePersistenceExecutor.PRIORITY_BACKGROUND);
 
         // Using regular SQL commands:
         // add insert to run an insert query on TABLE_NAME with the ContentValues created
         // return MainActivity.mFavoritesDb.insert(FavoritesContract.FavoritesEntry.TABLE_NAME, null, cv);
 
-        // Using Content Provider:
-        // Insert the content values via a ContentResolver
-        Uri uri = getContentResolver().insert(FavoritesContract.FavoritesEntry.CONTENT_URI, cv);
-
-        // Display the URI that's returned with a Toast
-        // [Hint] Don't forget to call finish() to return to MainActivity after this insert is complete
-        long idval = 0l;
-        if (uri != null) {
-            //Log.v(TAG, uri.toString()0;
-        } else {
-            //get the _id and save
-            idval = ContentUris.parseId(uri);
-        }
-
-        // If necessary, Finish activity (this returns back to MainActivity)
-        //finish();
-        return idval;
+        // Using the write-behind queue:
+        // the insert runs on a background thread, batched with other favorite changes, and the
+        // genres, videos and reviews are written with it so the favorite opens offline
+        FavoritesWriteQueue.getInstance(this).addFavorite(movie.getId(), cv,
+                mMovieDetailData == null ? null : FavoriteDetails.toRows(mMovieDetailData));
     }
 
     // Create a new function called removeFavorite that takes long id as input and returns a boolean
 
     /**
-     * Removes the record with the specified id
+     * Removes the record with the specified id. The delete runs on a background thread, after
+     * which the poster and backdrop may be evicted from the offline images, see
+     * {@link FavoritesWriteQueue}
      *
      * @param movieId the movieId to be removed
-     * @return True: if removed successfully, False: if failed
      */
-    private int removeFavorite(int movieId) {
+    private void removeFavorite(int movieId) {
         // Using SQL:
         // Inside, call mDb.delete to pass in the TABLE_NAME and the condition that WaitlistEntry._ID equals id
         // return MainActivity.mFavoritesDb.delete(FavoritesContract.FavoritesEntry.TABLE_NAME,
         //                FavoritesContract.FavoritesEntry.COLUMN_NAME_MOVIE_ID + "=" + movieId, null) > 0;
-        Uri uri = FavoritesContract.FavoritesEntry.CONTENT_URI;
-        String whereClause = FavoritesContract.FavoritesEntry.COLUMN_NAME_MOVIE_ID + "= ?";
-        String[] whereArgs = new String[]{String.valueOf(movieId)};
-        int numDeleted = getContentResolver().delete(uri, whereClause, whereArgs);
-
-        //delete poster and backdrop file in local filesystem
-        DetailActivity.this.deleteFile(mMovie.getPoster_path().substring(1));
-        DetailActivity.this.deleteFile(mMovie.getBackdrop_path().substring(1));
-
-        return numDeleted;
+        FavoritesWriteQueue.getInstance(this).removeFavorite(movieId,
+                mMovie.getPoster_path().substring(1), mMovie.getBackdrop_path().substring(1));
     }
 
     /**
-     * Removes the record with the specified id
+     * Checks the in-memory favorite ids and the changes not written yet, no database access on
+     * the UI thread
      *
-     * @param movieId the movieId to be removed
-     * @return True: if removed successfully, False: if failed
+     * @param movieId the movieId to check
+     * @return True: if the movie is a favorite
      */
-
     private boolean isFavorite(int movieId) {
-        String[] tableColumns = new String[]{FavoritesContract.FavoritesEntry.COLUMN_NAME_MOVIE_ID};
-        String whereClause = FavoritesContract.FavoritesEntry.COLUMN_NAME_MOVIE_ID + "= ?";
-        String[] whereArgs = new String[]{String.valueOf(movieId)};
-
-        Cursor c = MainActivity.mFavoritesDb.query(
-                FavoritesContract.FavoritesEntry.TABLE_NAME,
-                tableColumns,
-                whereClause, whereArgs, null, null, null, null);
-        if (c.getCount() > 0)
-            return true;
-        else
-            return false;
+        return FavoritesWriteQueue.getInstance(this).isFavorite(movieId);
     }
 
     //Save image from Picasso
     //REFER:http://stackoverflow.com/questions/32799353/saving-image-from-url-using-picasso
     //save image
-    public static void imageDownload(Context ctx, String sourceUrl, String filename) {
+    public static void imageDownload(Context ctx, String sourceUrl, String filename, int priority) {
+        Target target = getTarget(filename, priority);
+        // Picasso only keeps a weak reference to the target
+        synchronized (sPendingTargets) {
+            sPendingTargets.add(target);
+        }
         Picasso.with(ctx)
                 .load(sourceUrl)
-                .into(getTarget(ctx, filename));
+                .into(target);
     }
 
-    //target to save
-    private static Target getTarget(final Context context, final String filename) {
+    //target to save, the JPEG is written by the ImagePersistenceExecutor threads
+    private static Target getTarget(final String filename, final int priority) {
         Target target = new Target() {
 
             @Override
             public void onBitmapLoaded(final Bitmap bitmap, Picasso.LoadedFrom from) {
-                new Thread(new Runnable() {
-
-                    @Override
-                    public void run() {
-
-                        File file = new File(context.getFilesDir(), filename);
-                        try {
-                            file.createNewFile();
-                            FileOutputStream ostream = new FileOutputStream(file);
-                            //compress quality 0-100, 100 is max quality
-                            bitmap.compress(Bitmap.CompressFormat.JPEG, 80, ostream);
-                            ostream.flush();
-                            ostream.close();
-                        } catch (IOException e) {
-                            Log.e("IOException", e.getLocalizedMessage());
-                        }
-                    }
-                }).start();
+                release(this);
+                ImagePersistenceExecutor.getInstance().submit(filename, priority,
+                        new ImagePersistenceExecutor.ImageWriter() {
+                            @Override
+                            public void writeTo(OutputStream out) throws IOException {
+                                //compress quality 0-100, 100 is max quality
+                                if (!bitmap.compress(Bitmap.CompressFormat.JPEG, 80, out)) {
+                                    throw new IOException("Cannot compress " + filename);
+                                }
+                            }
+                        });
             }
 
             @Override
             public void onBitmapFailed(Drawable errorDrawable) {
+                release(this);
             }
 
             @Override
@@ -712,6 +1256,12 @@ public class DetailActivity extends AppCompatActivity implements
         return target;
     }
 
+    private static void release(Target target) {
+        synchronized (sPendingTargets) {
+            sPendingTargets.remove(target);
+        }
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         switch (item.getItemId()) {
@@ -747,7 +1297,10 @@ public class DetailActivity extends AppCompatActivity implements
 
     private void showMovieVideosPreference() {
         if (mShowVideos) {
-            mMovieVideoAdapter.notifyDataSetChanged();
+            // the videos may not have been handed to the adapter while they were hidden
+            if (mMovieDetailData != null) {
+                mMovieVideoAdapter.setMovieVideoData(mMovieDetailData.getMovieVideos());
+            }
             showMovieVideoDataView();
             mVideosTitle.setVisibility(View.VISIBLE);
         } else {
@@ -757,7 +1310,9 @@ public class DetailActivity extends AppCompatActivity implements
 
     private void showMovieReviewsPreference() {
         if (mShowReviews) {
-            mMovieReviewAdapter.notifyDataSetChanged();
+            if (mMovieDetailData != null) {
+                mMovieReviewAdapter.setMovieReviewData(mMovieDetailData.getMovieReviews());
+            }
             showMovieVideoDataView();
             mReviewsTitle.setVisibility(View.VISIBLE);
         } else {
@@ -765,10 +1320,22 @@ public class DetailActivity extends AppCompatActivity implements
         }
     }
 
+    // Hand the running tasks to the activity recreated for the configuration change
+    @Override
+    public Object onRetainCustomNonConfigurationInstance() {
+        mTasks.detachAll();
+        return mTasks;
+    }
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        if (!isChangingConfigurations()) {
+            mTasks.cancelAll();
+        }
         PreferenceManager.getDefaultSharedPreferences(this).unregisterOnSharedPreferenceChangeListener(this);
+        FavoritesIndex.getInstance(this).removeOnFavoritesChangedListener(mFavoritesChangedListener);
+        OfflineImageStore.getInstance().removeOnVerifiedListener(mImagesVerifiedListener);
     }
 
     @Override
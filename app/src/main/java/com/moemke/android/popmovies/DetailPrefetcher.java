@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moemke.android.popmovies;
+
+import android.content.Context;
+import android.support.v7.widget.GridLayoutManager;
+import android.support.v7.widget.RecyclerView;
+
+import com.moemke.android.popmovies.data.FavoritesWriteQueue;
+import com.moemke.android.popmovies.utilities.HttpResponse;
+import com.moemke.android.popmovies.utilities.NetworkUtils;
+import com.moemke.android.popmovies.utilities.VisiblePrefetcher;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fetches the detail responses of the movies on screen into the response cache, so
+ * DetailActivity usually opens without waiting on the network.
+ * <p>
+ * Fetches start once the grid comes to rest, on a couple of low priority threads. On wifi all
+ * visible movies are fetched, on a metered network only the first METERED_PREFETCH_LIMIT, and
+ * nothing offline. Fetches of movies that scroll out of view are cancelled. Favorites are not
+ * fetched, their detail is read from the favorites database, see {@link FavoriteDetails}.
+ */
+public class DetailPrefetcher extends RecyclerView.OnScrollListener {
+
+    private static final String TAG = DetailPrefetcher.class.getSimpleName();
+
+    private static final int PREFETCH_THREADS = 2;
+    private static final int METERED_PREFETCH_LIMIT = 2;
+    // movies remembered as fetched, about the detail responses the response cache holds
+    private static final int MAX_PREFETCHED = 200;
+
+    private final Context mContext;
+    private final MovieAdapter mAdapter;
+    private final GridLayoutManager mLayoutManager;
+    private final VisiblePrefetcher mPrefetcher;
+    private final FavoritesWriteQueue mFavorites;
+
+    private int mFirst = RecyclerView.NO_POSITION;
+    private int mLast = RecyclerView.NO_POSITION;
+
+    /**
+     * @param context       Used to check the network
+     * @param adapter       The adapter of the grid
+     * @param layoutManager The layout manager of the grid
+     */
+    public DetailPrefetcher(Context context, MovieAdapter adapter, GridLayoutManager layoutManager) {
+        mContext = context.getApplicationContext();
+        mAdapter = adapter;
+        mLayoutManager = layoutManager;
+        mFavorites = FavoritesWriteQueue.getInstance(mContext);
+        final AtomicInteger threadNumber = new AtomicInteger();
+        mPrefetcher = new VisiblePrefetcher(Executors.newFixedThreadPool(PREFETCH_THREADS,
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable,
+                                TAG + "-" + threadNumber.incrementAndGet());
+                        // behind the UI thread and the pages of the grid
+                        thread.setPriority(Thread.MIN_PRIORITY);
+                        return thread;
+                    }
+                }), new VisiblePrefetcher.Loader() {
+            @Override
+            public void load(int movieId) throws IOException {
+                // the response cache keeps the body, see DetailActivity.loadMovieDetailData
+                HttpResponse response = NetworkUtils.getHttpResponse(
+                        NetworkUtils.buildMovieDetailsUrl(movieId));
+                response.close();
+            }
+        }, MAX_PREFETCHED);
+    }
+
+    @Override
+    public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+        if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+            update(true);
+        }
+    }
+
+    @Override
+    public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+        // also called with 0, 0 after a layout, i.e. when the first page arrives
+        update(recyclerView.getScrollState() == RecyclerView.SCROLL_STATE_IDLE);
+    }
+
+    /**
+     * Cancels all fetches and stops the threads, i.e. when the activity is destroyed.
+     */
+    public void shutdown() {
+        mPrefetcher.shutdown();
+    }
+
+    private void update(boolean idle) {
+        int first = mLayoutManager.findFirstVisibleItemPosition();
+        int last = mLayoutManager.findLastVisibleItemPosition();
+        boolean moved = first != mFirst || last != mLast;
+        mFirst = first;
+        mLast = last;
+        if (!idle && !moved) {
+            return;
+        }
+        int[] ids = new int[0];
+        if (first != RecyclerView.NO_POSITION) {
+            ids = new int[last - first + 1];
+            int count = 0;
+            for (int position = first; position <= last; position++) {
+                int movieId = mAdapter.getMovieId(position);
+                if (movieId != -1 && !mFavorites.isFavorite(movieId)) {
+                    ids[count++] = movieId;
+                }
+            }
+            if (count < ids.length) {
+                int[] loaded = new int[count];
+                System.arraycopy(ids, 0, loaded, 0, count);
+                ids = loaded;
+            }
+        }
+        // while scrolling only movies that left the screen are cancelled
+        mPrefetcher.setVisible(ids, idle ? getLimit(ids.length) : 0);
+    }
+
+    private int getLimit(int visibleCount) {
+        if (NetworkUtils.isOnUnmeteredNetwork(mContext)) {
+            return visibleCount;
+        }
+        if (NetworkUtils.isOnline(mContext)) {
+            return METERED_PREFETCH_LIMIT;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moemke.android.popmovies;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.moemke.android.popmovies.data.FavoritesContract.FavoriteDetailsEntry;
+import com.moemke.android.popmovies.data.FavoritesContract.FavoriteGenresEntry;
+import com.moemke.android.popmovies.data.FavoritesContract.FavoriteReviewsEntry;
+import com.moemke.android.popmovies.data.FavoritesContract.FavoriteVideosEntry;
+import com.moemke.android.popmovies.data.FavoritesWriteQueue;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@link MovieDetail} of a favorite as kept in the favorites database: its genres, videos
+ * and reviews, one row each. They are written when the movie is made a favorite and whenever
+ * its detail is loaded from tmdb again, so the detail screen of a favorite is shown without any
+ * network call and only refreshed in the background once the rows are older than
+ * {@link #REFRESH_INTERVAL_MILLIS}.
+ */
+public final class FavoriteDetails {
+
+    private static final String TAG = FavoriteDetails.class.getSimpleName();
+
+    // reviews and videos of a movie rarely change, a day old copy is shown as is
+    static final long REFRESH_INTERVAL_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private static final String[] GENRE_PROJECTION = {FavoriteGenresEntry.COLUMN_NAME_NAME};
+
+    private static final String[] VIDEO_PROJECTION = {
+            FavoriteVideosEntry.COLUMN_NAME_VIDEO_ID,
+            FavoriteVideosEntry.COLUMN_NAME_KEY,
+            FavoriteVideosEntry.COLUMN_NAME_NAME,
+            FavoriteVideosEntry.COLUMN_NAME_SITE,
+            FavoriteVideosEntry.COLUMN_NAME_SIZE,
+            FavoriteVideosEntry.COLUMN_NAME_TYPE
+    };
+
+    private static final String[] REVIEW_PROJECTION = {
+            FavoriteReviewsEntry.COLUMN_NAME_REVIEW_ID,
+            FavoriteReviewsEntry.COLUMN_NAME_AUTHOR,
+            FavoriteReviewsEntry.COLUMN_NAME_CONTENT,
+            FavoriteReviewsEntry.COLUMN_NAME_URL,
+            FavoriteReviewsEntry.COLUMN_NAME_TRUNCATED
+    };
+
+    private final MovieDetail mMovieDetail;
+    private final long mUpdatedMillis;
+
+    private FavoriteDetails(MovieDetail movieDetail, long updatedMillis) {
+        mMovieDetail = movieDetail;
+        mUpdatedMillis = updatedMillis;
+    }
+
+    public MovieDetail getMovieDetail() {
+        return mMovieDetail;
+    }
+
+    /**
+     * @param nowMillis The current time, see System.currentTimeMillis
+     * @return True if the detail should be loaded from tmdb again
+     */
+    public boolean isStale(long nowMillis) {
+        // a clock that was set back makes the rows stale too
+        return nowMillis - mUpdatedMillis > REFRESH_INTERVAL_MILLIS || nowMillis < mUpdatedMillis;
+    }
+
+    /**
+     * Reads the genres, videos and reviews of a favorite. Runs queries, call it in the
+     * background.
+     *
+     * @param resolver The resolver of the favorites provider
+     * @param movieId  The tmdb id of the movie
+     * @return The stored detail, null if the movie is not a favorite or its detail was never
+     * written
+     */
+    public static FavoriteDetails read(ContentResolver resolver, int movieId) {
+        long updatedMillis;
+        Cursor cursor = resolver.query(FavoriteDetailsEntry.buildDetailsUri(movieId),
+                new String[]{FavoriteDetailsEntry.COLUMN_NAME_ROWS_UPDATED}, null, null, null);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            if (!cursor.moveToFirst() || cursor.isNull(0)) {
+                return null;
+            }
+            updatedMillis = cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+
+        ArrayList<String> genres = new ArrayList<String>();
+        cursor = resolver.query(FavoriteGenresEntry.buildGenresUri(movieId), GENRE_PROJECTION,
+                null, null, null);
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    genres.add(cursor.getString(0));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        ArrayList<MovieVideo> videos = new ArrayList<MovieVideo>();
+        cursor = resolver.query(FavoriteVideosEntry.buildVideosUri(movieId), VIDEO_PROJECTION,
+                null, null, null);
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    videos.add(new MovieVideo(cursor.getString(0), cursor.getString(1),
+                            cursor.getString(2), cursor.getString(3), cursor.getInt(4),
+                            cursor.getString(5)));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        ArrayList<MovieReview> reviews = new ArrayList<MovieReview>();
+        cursor = resolver.query(FavoriteReviewsEntry.buildReviewsUri(movieId), REVIEW_PROJECTION,
+                null, null, null);
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    reviews.add(new MovieReview(cursor.getString(0), cursor.getString(1),
+                            cursor.getString(2), cursor.getString(3), cursor.getInt(4) != 0));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        return new FavoriteDetails(new MovieDetail(movieId, genres, videos, reviews),
+                updatedMillis);
+    }
+
+    /**
+     * Copies a detail into the rows written by {@link FavoritesWriteQueue}. The copy is taken
+     * now, later changes to the detail are not written.
+     *
+     * @param movieDetail The detail of a favorite
+     * @return Its genres, videos and reviews as rows
+     */
+    public static FavoritesWriteQueue.DetailRows toRows(MovieDetail movieDetail) {
+        ArrayList<String> genres = movieDetail.getGenres();
+        ContentValues[] genreRows = new ContentValues[genres == null ? 0 : genres.size()];
+        for (int i = 0; i < genreRows.length; i++) {
+            genreRows[i] = new ContentValues();
+            genreRows[i].put(FavoriteGenresEntry.COLUMN_NAME_NAME, genres.get(i));
+        }
+
+        ArrayList<MovieVideo> videos = movieDetail.getMovieVideos();
+        ContentValues[] videoRows = new ContentValues[videos == null ? 0 : videos.size()];
+        for (int i = 0; i < videoRows.length; i++) {
+            MovieVideo video = videos.get(i);
+            videoRows[i] = new ContentValues();
+            videoRows[i].put(FavoriteVideosEntry.COLUMN_NAME_VIDEO_ID, video.getTrailerId());
+            videoRows[i].put(FavoriteVideosEntry.COLUMN_NAME_KEY, video.getKey());
+            videoRows[i].put(FavoriteVideosEntry.COLUMN_NAME_NAME, video.getName());
+            videoRows[i].put(FavoriteVideosEntry.COLUMN_NAME_SITE, video.getSite());
+            videoRows[i].put(FavoriteVideosEntry.COLUMN_NAME_SIZE, video.getSize());
+            videoRows[i].put(FavoriteVideosEntry.COLUMN_NAME_TYPE, video.getType());
+        }
+
+        ArrayList<MovieReview> reviews = movieDetail.getMovieReviews();
+        ContentValues[] reviewRows = new ContentValues[reviews == null ? 0 : reviews.size()];
+        for (int i = 0; i < reviewRows.length; i++) {
+            MovieReview review = reviews.get(i);
+            reviewRows[i] = new ContentValues();
+            reviewRows[i].put(FavoriteReviewsEntry.COLUMN_NAME_REVIEW_ID, review.getReviewId());
+            reviewRows[i].put(FavoriteReviewsEntry.COLUMN_NAME_AUTHOR, review.getAuthor());
+            reviewRows[i].put(FavoriteReviewsEntry.COLUMN_NAME_CONTENT, review.getContent());
+            reviewRows[i].put(FavoriteReviewsEntry.COLUMN_NAME_URL, review.getReviewUrl());
+            reviewRows[i].put(FavoriteReviewsEntry.COLUMN_NAME_TRUNCATED,
+                    review.isTruncated() ? 1 : 0);
+        }
+
+        return new FavoritesWriteQueue.DetailRows(genreRows, videoRows, reviewRows);
+    }
+}
@@ -5,13 +5,12 @@ import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
 import android.net.wifi.WifiManager;
 import android.os.Bundle;
-import android.support.v4.app.LoaderManager;
-import android.support.v4.content.AsyncTaskLoader;
-import android.support.v4.content.Loader;
+import android.support.v4.app.ActivityCompat;
+import android.support.v4.app.ActivityOptionsCompat;
 import android.support.v4.view.MenuItemCompat;
+import android.support.v4.view.ViewCompat;
 import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.preference.PreferenceManager;
@@ -24,18 +23,30 @@ import android.view.MenuItem;
 import android.view.View;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
+import android.widget.ImageView;
 import android.widget.ProgressBar;
 import android.widget.Spinner;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import com.moemke.android.popmovies.MovieAdapter.MovieAdapterOnClickHandler;
 import com.moemke.android.popmovies.data.FavoritesContract;
-import com.moemke.android.popmovies.data.FavoritesDbHelper;
+import com.moemke.android.popmovies.data.FavoritesIndex;
 import com.moemke.android.popmovies.data.MoviePreferences;
+import com.moemke.android.popmovies.utilities.BackgroundTask;
+import com.moemke.android.popmovies.utilities.CancellationToken;
+import com.moemke.android.popmovies.utilities.HttpResponse;
+import com.moemke.android.popmovies.utilities.ImageSizeSelector;
 import com.moemke.android.popmovies.utilities.MovieJsonUtils;
 import com.moemke.android.popmovies.utilities.NetworkUtils;
-
-import java.net.URL;
+import com.moemke.android.popmovies.utilities.OfflineImageStore;
+import com.moemke.android.popmovies.utilities.OfflinePageStore;
+import com.moemke.android.popmovies.utilities.TaskRegistry;
+import com.moemke.android.popmovies.utilities.TaskRunner;
+import com.squareup.picasso.Picasso;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 
 import static com.moemke.android.popmovies.data.MoviePreferences.getDefaultSortOrder;
@@ -46,18 +57,29 @@ import static com.moemke.android.popmovies.data.MoviePreferences.getDefaultSortO
 
 //Based on S04-03-Solution-AddMapAndSharing of ud851-Sunshine exercises/
 public class MainActivity extends AppCompatActivity implements MovieAdapterOnClickHandler,
-        LoaderManager.LoaderCallbacks<ArrayList<Movie>>,
         AdapterView.OnItemSelectedListener,
         SharedPreferences.OnSharedPreferenceChangeListener {
 
     private static final String TAG = MainActivity.class.getSimpleName();
 
-    //constant int to identify loader
-    private static final int MOVIE_LOADER = 11;
+    //constant String to identify the task loading the first page
+    private static final String MOVIE_TASK = "movies";
+
+    //constant String to identify the task reading the pages of the offline store
+    private static final String STORED_MOVIE_TASK = "storedMovies";
+
+    // Paging: at most 2 page requests at a time, the next page is requested when the last visible
+    // poster is within 10 of the end, and 5 pages are kept on each side of the visible pages
+    private static final int MAX_PAGES_IN_FLIGHT = 2;
+    private static final int PAGE_PREFETCH_DISTANCE = 10;
+    private static final int PAGE_WINDOW = 5;
+
+    // columns of the poster grid, and rows of posters fetched ahead in the scroll direction
+    private static final int GRID_SPAN_COUNT = 2;
+    private static final int POSTER_PREFETCH_ROWS = 2;
 
     /* A constant to save and restore the URL that is being displayed */
     private static final String MOVIE_QUERY_URL_EXTRA = "query";
-    private static final String SORT_ORDER_EXTRA = "sortOrder";
 
     //This constant String will be used to store the chosen sort order, i.e. popular or top_rated
     private static final String SORTORDER_TEXT_KEY = "sortOrder";
@@ -70,6 +92,19 @@ public class MainActivity extends AppCompatActivity implements MovieAdapterOnCli
 
     private static MovieAdapter mMovieAdapter;
 
+    // loads the first page, kept across configuration changes
+    private TaskRegistry mTasks;
+
+    // loads the pages after the first one as the grid is scrolled
+    private MoviePager mMoviePager;
+
+    // pauses, cancels and prefetches the poster downloads of the grid
+    private PosterScheduler mPosterScheduler;
+    // fetches the details of the movies on screen into the response cache
+    private DetailPrefetcher mDetailPrefetcher;
+    // the poster that carries the shared element transition name, see startDetailActivity
+    private ImageView mTransitionPosterView;
+
     private static TextView mErrorMessageDisplay;
 
     private ProgressBar mLoadingIndicator;
@@ -81,6 +116,11 @@ public class MainActivity extends AppCompatActivity implements MovieAdapterOnCli
 
     private String mQueryUrlString;
 
+    // the grid shows pages of the offline store, which the movie task has not replaced yet
+    private boolean mShowingStoredPages;
+    // the movie task has delivered, the stored pages are not shown after it
+    private boolean mMoviesLoaded;
+
     private AlertDialog showWifiDialog = null;
 
     // Add a private static boolean flag for preference updates and initialize it to false
@@ -88,20 +128,13 @@ public class MainActivity extends AppCompatActivity implements MovieAdapterOnCli
 
     Context context = this;
 
-    //Create a local field SQLiteDatabase called mFavoritesDb
-    public static SQLiteDatabase mFavoritesDb;
-
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_movies);
 
-        // Create a DB helper (this will create the DB if run for the first time)
-        FavoritesDbHelper dbHelper = new FavoritesDbHelper(this);
-        // Get a writable database reference using getWritableDatabase and store it in mFavoritesDb
-        // Keep a reference to the mDb until paused or killed. Get a writable database
-        // because you will be adding favorites
-        mFavoritesDb = dbHelper.getWritableDatabase();
+        // The favorites database is owned by FavoritesDbHelper.getInstance and only accessed
+        // through the FavoritesContentProvider
 
         /*
          * Using findViewById, we get a reference to our RecyclerView from xml. This allows us to
@@ -116,7 +149,7 @@ public class MainActivity extends AppCompatActivity implements MovieAdapterOnCli
        /* GridLayoutManager
           A RecyclerView.LayoutManager implementation that lays out items in a grid.
         */
-        GridLayoutManager layoutManager = new GridLayoutManager(this, 2);
+        GridLayoutManager layoutManager = new GridLayoutManager(this, GRID_SPAN_COUNT);
 
         mRecyclerView.setLayoutManager(layoutManager);
 
@@ -132,8 +165,66 @@ public class MainActivity extends AppCompatActivity implements MovieAdapterOnCli
          */
         mMovieAdapter = new MovieAdapter(this);
 
+        /*
+         * Poster size: estimated from the screen width until the grid is measured, so the first
+         * posters are not loaded twice on a typical full width grid
+         */
+        mMovieAdapter.setPosterWidth(ImageSizeSelector.cellWidthPx(
+                getResources().getDisplayMetrics().widthPixels, GRID_SPAN_COUNT));
+        mRecyclerView.addOnLayoutChangeListener(new View.OnLayoutChangeListener() {
+            @Override
+            public void onLayoutChange(View v, int left, int top, int right, int bottom,
+                                       int oldLeft, int oldTop, int oldRight, int oldBottom) {
+                int width = right - left - v.getPaddingLeft() - v.getPaddingRight();
+                if (width > 0 && right - left != oldRight - oldLeft) {
+                    mMovieAdapter.setPosterWidth(ImageSizeSelector.cellWidthPx(width, GRID_SPAN_COUNT));
+                }
+            }
+        });
+
         /* Setting the adapter attaches it to the RecyclerView in our layout. */
         mRecyclerView.setAdapter(mMovieAdapter);
+        FavoritesIndex.getInstance(this).addOnFavoritesChangedListener(mMovieAdapter);
+        OfflineImageStore.getInstance().addOnVerifiedListener(mMovieAdapter);
+
+        // the tasks of the previous activity if it was recreated for a configuration change
+        mTasks = (TaskRegistry) getLastCustomNonConfigurationInstance();
+        if (mTasks == null) {
+            mTasks = new TaskRegistry(TaskRunner.getInstance());
+        }
+
+        mMoviePager = new MoviePager(new MoviePager.PageSource() {
+            @Override
+            public MoviePage loadPage(String sortOrder, int page) throws IOException {
+                try {
+                    return loadListPage(context, sortOrder, page);
+                } catch (IOException e) {
+                    // offline, a stored page that was dropped can still be scrolled back to
+                    MoviePage storedPage = readStoredPage(context, sortOrder, page);
+                    if (storedPage == null) {
+                        throw e;
+                    }
+                    return storedPage;
+                }
+            }
+        }, TaskRunner.getInstance(), mMovieAdapter, MAX_PAGES_IN_FLIGHT, PAGE_PREFETCH_DISTANCE,
+                PAGE_WINDOW);
+
+        mPosterScheduler = new PosterScheduler(Picasso.with(this), mMovieAdapter, layoutManager,
+                POSTER_PREFETCH_ROWS);
+        mRecyclerView.addOnScrollListener(mPosterScheduler);
+        mDetailPrefetcher = new DetailPrefetcher(this, mMovieAdapter, layoutManager);
+        mRecyclerView.addOnScrollListener(mDetailPrefetcher);
+
+        final GridLayoutManager gridLayoutManager = layoutManager;
+        mRecyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                mMoviePager.onVisibleRangeChanged(
+                        gridLayoutManager.findFirstVisibleItemPosition(),
+                        gridLayoutManager.findLastVisibleItemPosition());
+            }
+        });
 
         switch (mSortOrder) {
             case SORTORDER_POPULAR:
@@ -182,7 +273,7 @@ public class MainActivity extends AppCompatActivity implements MovieAdapterOnCli
         mLoadingIndicator = (ProgressBar) findViewById(R.id.pb_loading_indicator);
 
         /* Once all of our views are setup, we can load the movie data. */
-        loadMovieData(mSortOrder);
+        loadMovieData(mSortOrder, false);
         /*
          * Register MainActivity as an OnPreferenceChangedListener to receive a callback when a
          * SharedPreference has changed. Please note that we must unregister MainActivity as an
@@ -192,81 +283,215 @@ public class MainActivity extends AppCompatActivity implements MovieAdapterOnCli
                 .registerOnSharedPreferenceChangeListener(this);
     }
 
-    public Loader<ArrayList<Movie>> onCreateLoader(int id, final Bundle args) {
-        return new AsyncTaskLoader<ArrayList<Movie>>(this) {
-
-            // Create a member variable to store the cached result in
-            ArrayList<Movie> moviesJson = null;
+    /**
+     * Loads the first page of the sort order, from tmdb or from the FavoritesContentProvider.
+     * From tmdb, as many pages are loaded as the offline store has, so all the stored pages the
+     * grid may show are revalidated.
+     * Only holds the application context, so it can outlive the activity across a rotation.
+     */
+    private static class MoviePageTask implements BackgroundTask<MoviePage> {
 
-            @Override
-            public void deliverResult(ArrayList<Movie> data) {
-                moviesJson = data;
-                mLoadingIndicator.setVisibility(View.INVISIBLE);
-                super.deliverResult(moviesJson);
-            }
+        private final Context mContext;
+        private final String mSortOrder;
+        private final String mUrlString;
 
-            // Just call deliverResult if the cache isn't null
-            @Override
-            protected void onStartLoading() {
-                super.onStartLoading();
-                if (args == null) {
-                    return;
-                }
-                mLoadingIndicator.setVisibility(View.VISIBLE);
-                if (moviesJson == null)
-                    forceLoad();
-                else
-                    deliverResult(moviesJson);
-            }
+        MoviePageTask(Context context, String sortOrder, String urlString) {
+            mContext = context.getApplicationContext();
+            mSortOrder = sortOrder;
+            mUrlString = urlString;
+        }
 
-            @Override
-            public ArrayList<Movie> loadInBackground() {
-                ArrayList<Movie> jsonMoviesData;
+        @Override
+        public MoviePage run(CancellationToken token) throws IOException {
+            if (mSortOrder.equalsIgnoreCase(SORTORDER_POPULAR) ||
+                    mSortOrder.equalsIgnoreCase(SORTORDER_TOP_RATED)) {
                 //loading movieData from tmdb
-                String chosenSortOrder = args.getString(SORT_ORDER_EXTRA);
-                if (chosenSortOrder.equalsIgnoreCase(SORTORDER_POPULAR) ||
-                        chosenSortOrder.equalsIgnoreCase(SORTORDER_TOP_RATED)) {
-                    String movieUrlString = args.getString(MOVIE_QUERY_URL_EXTRA);
-                    if (movieUrlString == null || TextUtils.isEmpty(movieUrlString)) {
-                        return null;
-                    }
+                if (TextUtils.isEmpty(mUrlString)) {
+                    return null;
+                }
+                MoviePage firstPage = loadListPage(mContext, mSortOrder, 1);
+                if (firstPage == null) {
+                    return null;
+                }
+                ArrayList<Movie> movies = new ArrayList<Movie>(firstPage.getMovies());
+                int pages = 1;
+                int storedPages = OfflinePageStore.getInstance().getPageCount(mSortOrder);
+                while (pages < storedPages && pages < firstPage.getTotalPages()) {
+                    token.throwIfCancelled();
+                    MoviePage moviePage;
                     try {
-                        URL movieURL = new URL(movieUrlString);
-                        String jsonMoviesResponse = NetworkUtils.getResponseFromHttpUrl(movieURL);
-                        jsonMoviesData = MovieJsonUtils.getMovieDataFromJson(jsonMoviesResponse);
-                        return jsonMoviesData;
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                        return null;
+                        moviePage = loadListPage(mContext, mSortOrder, pages + 1);
+                    } catch (IOException e) {
+                        // the pages so far are shown, the pager loads the rest
+                        break;
                     }
-                } else {
-                    //load movieData from FavoritesContentProvider
-                    try {
-                        Cursor cursor = getContentResolver().query(FavoritesContract.FavoritesEntry.CONTENT_URI,
-                                null,
-                                null,
-                                null,
-                                FavoritesContract.FavoritesEntry.COLUMN_NAME_TIMESTAMP);
-                        jsonMoviesData = getAllFavorites(cursor);
-                        return jsonMoviesData;
-                    } catch (Exception e) {
-                        Log.e(TAG, "Failed to asynchronously load data.");
-                        e.printStackTrace();
-                        return null;
+                    if (moviePage == null || moviePage.getMovies().isEmpty()) {
+                        break;
                     }
+                    movies.addAll(moviePage.getMovies());
+                    pages++;
                 }
+                token.throwIfCancelled();
+                return new MoviePage(pages, firstPage.getTotalPages(), movies);
+            }
+            //load movieData from FavoritesContentProvider
+            Cursor cursor = mContext.getContentResolver().query(
+                    FavoritesContract.FavoritesEntry.CONTENT_URI,
+                    FavoritesContract.FavoritesEntry.GRID_PROJECTION,
+                    null,
+                    null,
+                    FavoritesContract.FavoritesEntry.COLUMN_NAME_TIMESTAMP);
+            if (cursor == null) {
+                return null;
+            }
+            ArrayList<Movie> favorites = getAllFavorites(cursor);
+            if (favorites == null) {
+                return null;
+            }
+            // favorites are never paged
+            return new MoviePage(1, 1, favorites);
+        }
+    }
+
+    /**
+     * Reads the pages of the sort order that the offline store has, from page 1 on.
+     */
+    private static class StoredPagesTask implements BackgroundTask<MoviePage> {
+
+        private final Context mContext;
+        private final String mSortOrder;
+
+        StoredPagesTask(Context context, String sortOrder) {
+            mContext = context.getApplicationContext();
+            mSortOrder = sortOrder;
+        }
+
+        @Override
+        public MoviePage run(CancellationToken token) throws IOException {
+            ArrayList<Movie> movies = new ArrayList<Movie>();
+            int pages = 0;
+            int totalPages = 0;
+            MoviePage moviePage;
+            while ((moviePage = readStoredPage(mContext, mSortOrder, pages + 1)) != null
+                    && !moviePage.getMovies().isEmpty()) {
+                movies.addAll(moviePage.getMovies());
+                totalPages = Math.max(totalPages, moviePage.getTotalPages());
+                pages++;
             }
-        };
+            return pages == 0 ? null : new MoviePage(pages, totalPages, movies);
+        }
+    }
+
+    /**
+     * Loads a page of a tmdb list and keeps it in the offline store if it is one of the first.
+     */
+    private static MoviePage loadListPage(Context context, String sortOrder, int page)
+            throws IOException {
+        HttpResponse response = NetworkUtils.getHttpResponse(
+                NetworkUtils.buildUrl(sortOrder, page));
+        byte[] body;
+        try {
+            // in memory already, see NetworkUtils.getHttpResponse
+            body = response.bodyAsBytes();
+        } finally {
+            response.close();
+        }
+        MoviePage moviePage = MovieJsonUtils.getMoviePageFromJsonStream(
+                new ByteArrayInputStream(body));
+        if (moviePage != null) {
+            OfflinePageStore.getInstance().put(sortOrder, page, body);
+            setFavorites(context, moviePage.getMovies());
+        }
+        return moviePage;
     }
 
+    /**
+     * @return The page as the offline store has it, or null if it is not stored
+     */
+    private static MoviePage readStoredPage(Context context, String sortOrder, int page)
+            throws IOException {
+        byte[] body = OfflinePageStore.getInstance().get(sortOrder, page);
+        if (body == null) {
+            return null;
+        }
+        MoviePage moviePage = MovieJsonUtils.getMoviePageFromJsonStream(
+                new ByteArrayInputStream(body));
+        if (moviePage != null) {
+            setFavorites(context, moviePage.getMovies());
+        }
+        return moviePage;
+    }
+
+    private final TaskRunner.Callback<MoviePage> mStoredPagesCallback =
+            new TaskRunner.Callback<MoviePage>() {
+                @Override
+                public void onResult(MoviePage storedPages) {
+                    onStoredPagesLoaded(storedPages);
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    Log.e(TAG, "Failed to read the stored movies", e);
+                    onStoredPagesLoaded(null);
+                }
+            };
+
+    // Show the stored pages until the movie task replaces them, or for good when offline
+    private void onStoredPagesLoaded(MoviePage storedPages) {
+        if (mMoviesLoaded) {
+            return;
+        }
+        if (storedPages == null) {
+            if (!mTasks.isRunning(MOVIE_TASK)) {
+                // offline, and nothing stored
+                onMoviePageLoaded(null);
+                showWifiDialog();
+            }
+            return;
+        }
+        mShowingStoredPages = true;
+        mLoadingIndicator.setVisibility(View.INVISIBLE);
+        showMovieDataView();
+        mMovieAdapter.setMovieData(storedPages.getMovies());
+        mMoviePager.reset(mSortOrder, storedPages);
+    }
+
+    private final TaskRunner.Callback<MoviePage> mMoviePageCallback =
+            new TaskRunner.Callback<MoviePage>() {
+                @Override
+                public void onResult(MoviePage moviePage) {
+                    onMoviePageLoaded(moviePage);
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    Log.e(TAG, "Failed to load the movies", e);
+                    onMoviePageLoaded(null);
+                }
+            };
+
     // Hide the loading indicator; Show the data or the error message
-    @Override
-    public void onLoadFinished(Loader<ArrayList<Movie>> loader, ArrayList<Movie> movieData) {
+    private void onMoviePageLoaded(MoviePage moviePage) {
         mLoadingIndicator.setVisibility(View.INVISIBLE);
-        if (movieData != null) {
+        mMoviesLoaded = true;
+        if (moviePage != null && moviePage.getMovies() != null) {
+            mShowingStoredPages = false;
+            // the pages read before are older than these, they are read again when needed
+            mTasks.cancel(STORED_MOVIE_TASK);
             showMovieDataView();
-            mMovieAdapter.setMovieData(movieData);
+            // copied into the adapter's MovieStore, which grows as pages are appended; diffed
+            // against the stored pages if they are shown
+            mMovieAdapter.setMovieData(moviePage.getMovies());
+            if (mSortOrder.equalsIgnoreCase(SORTORDER_FAVORITES)) {
+                mMoviePager.stop();
+            } else {
+                mMoviePager.reset(mSortOrder, moviePage);
+            }
+        } else if (mShowingStoredPages) {
+            // the revalidation failed, i.e. the network went away, the stored pages stay
+            Log.d(TAG, "Showing the stored " + mSortOrder + " movies");
         } else {
+            mMoviePager.stop();
             if (!NetworkUtils.APIKEYexists()) {
                 mErrorMessageDisplay.setText(R.string.error_no_apikey);
                 showErrorMessage();
@@ -289,27 +514,6 @@ public class MainActivity extends AppCompatActivity implements MovieAdapterOnCli
         }
     }
 
-    // Override onLoaderReset as it is part of the interface we implement, but don't do anything in this method
-    @Override
-    public void onLoaderReset(Loader<ArrayList<Movie>> loader) {
-
-    }
-
-    private void loadFavorites() {
-        //load favorites offline and update recycler view
-        ArrayList<Movie> favoriteMoviesData;
-        //load movieData from FavoritesContentProvider
-        Cursor cursor = getContentResolver().query(FavoritesContract.FavoritesEntry.CONTENT_URI,
-                null,
-                null,
-                null,
-                FavoritesContract.FavoritesEntry.COLUMN_NAME_TIMESTAMP);
-        favoriteMoviesData = getAllFavorites(cursor);
-        showMovieDataView();
-        if (!(favoriteMoviesData == null))
-            mMovieAdapter.setMovieData(favoriteMoviesData);
-    }
-
     @Override
     protected void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
@@ -325,36 +529,59 @@ public class MainActivity extends AppCompatActivity implements MovieAdapterOnCli
      * @param chosenMovie The movie that was clicked
      */
     @Override
-    public void onClick(Movie chosenMovie) {
+    public void onClick(Movie chosenMovie, ImageView posterView) {
         // Log.v(TAG, "Clicked Movie " + chosenMovie.getOriginal_title());
         Context context = this;
         Class destinationClass = DetailActivity.class;
         Intent intent = new Intent(context, destinationClass);
-        intent.putExtra("movie", chosenMovie);
+        // the movie is handed over by reference, the intent only carries its id and key
+        MovieHandoff.putExtras(intent, chosenMovie);
         intent.putExtra("sortOrder", mSortOrder);
+        intent.putExtra(DetailActivity.EXTRA_GRID_POSTER_SIZE, mMovieAdapter.getPosterSize());
+        intent.putExtra(DetailActivity.EXTRA_GRID_POSTER_WIDTH, mMovieAdapter.getPosterWidth());
         // startActivity(intent);
         // need to know when the activity returns so that it is reloaded to the correct sort order
         // on click, also need to check if offline because it shouldn't continue to detail activity
         // if so (except if Favorites -- in which case the offline data is accessed)
         if (NetworkUtils.isOnline(context)) {
-            startActivityForResult(intent, MoviePreferences.DETAIL_REQUEST_CODE);
+            startDetailActivity(intent, posterView);
         } else {
             if (mSortOrder.equalsIgnoreCase(SORTORDER_FAVORITES)) {
-                startActivityForResult(intent, MoviePreferences.DETAIL_REQUEST_CODE);
+                startDetailActivity(intent, posterView);
             } else {
-                mErrorMessageDisplay.setText(R.string.error_no_internet);
-                showErrorMessage();
-                showWifiDialog();
+                // the stored grid the user is browsing stays on screen
+                Toast.makeText(context, R.string.error_no_internet, Toast.LENGTH_SHORT).show();
             }
         }
     }
 
+    /**
+     * Starts DetailActivity with the clicked poster as shared element, so the detail screen
+     * starts from the bitmap already on screen (on API 21 and up, a plain start below).
+     */
+    private void startDetailActivity(Intent intent, ImageView posterView) {
+        String transitionName = getString(R.string.transition_poster);
+        // only the clicked poster may carry the name, or the return transition picks another one
+        if (mTransitionPosterView != null && mTransitionPosterView != posterView) {
+            ViewCompat.setTransitionName(mTransitionPosterView, null);
+        }
+        mTransitionPosterView = posterView;
+        ViewCompat.setTransitionName(posterView, transitionName);
+        ActivityOptionsCompat options = ActivityOptionsCompat.makeSceneTransitionAnimation(this,
+                posterView, transitionName);
+        ActivityCompat.startActivityForResult(this, intent, MoviePreferences.DETAIL_REQUEST_CODE,
+                options.toBundle());
+    }
+
     @Override
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
         // Check which request we're responding to
-        // need to reload to previous order (popular, toprated, favorites) on return from detail
-        if (requestCode == MoviePreferences.DETAIL_REQUEST_CODE) {
-            loadMovieData(mSortOrder);
+        // the favorites list may have changed in the detail screen, reload it; the popular and
+        // top rated pages stay as loaded, with their scroll position, the detail screen reads
+        // the favorite state itself
+        if (requestCode == MoviePreferences.DETAIL_REQUEST_CODE
+                && mSortOrder.equalsIgnoreCase(SORTORDER_FAVORITES)) {
+            loadMovieData(mSortOrder, true);
         }
     }
 
@@ -436,8 +663,16 @@ public class MainActivity extends AppCompatActivity implements MovieAdapterOnCli
     /**
      * This method will get the user's default sort order, and then tell some
      * background method to get the movie data in the background.
+     *
+     * @param reload false to attach to a running or finished load of the same query, i.e. after
+     *               a rotation
      */
-    private void loadMovieData(String sortOrder) {
+    private void loadMovieData(String sortOrder, boolean reload) {
+        mMoviesLoaded = false;
+        if (!reload) {
+            mShowingStoredPages = false;
+        }
+        boolean favorites = sortOrder.equalsIgnoreCase(SORTORDER_FAVORITES);
         //if online, load all from web
         if (NetworkUtils.isOnline(context)) {
             if (!NetworkUtils.APIKEYexists()) {
@@ -450,34 +685,50 @@ public class MainActivity extends AppCompatActivity implements MovieAdapterOnCli
                     mErrorMessageDisplay.setText(R.string.error_no_query_string);
                     return;
                 }
-                // Create a bundle called queryBundle
-                Bundle queryBundle = new Bundle();
-                // Use putString with MOVIE_QUERY_URL_EXTRA as the key and the String value of the URL as the value
-                queryBundle.putString(SORT_ORDER_EXTRA, mSortOrder);
-                queryBundle.putString(MOVIE_QUERY_URL_EXTRA, mQueryUrlString);
-
-                // Call getSupportLoaderManager and store it in a LoaderManager variable
-                LoaderManager loaderManager = getSupportLoaderManager();
-                // Get our Loader by calling getLoader and passing the ID we specified
-                Loader<ArrayList<Movie>> movieSearchLoader = loaderManager.getLoader(MOVIE_LOADER);
-                // If the Loader was null, initialize it. Else, restart it.
-                if (movieSearchLoader == null) {
-                    loaderManager.initLoader(MOVIE_LOADER, queryBundle, this);
-                } else {
-                    loaderManager.restartLoader(MOVIE_LOADER, queryBundle, this);
+                startMovieTask(mQueryUrlString, reload);
+                if (!reload && !favorites) {
+                    // shown right away, until the movie task has revalidated them; attached
+                    // after it, so a result kept across a rotation is not replaced by them
+                    startStoredPagesTask(sortOrder, false);
                 }
             }
         } else {//offline
-            if (!(mSortOrder.equalsIgnoreCase(SORTORDER_FAVORITES))) { //not favorites, show error
-                mErrorMessageDisplay.setText(R.string.error_no_internet);
-                showErrorMessage();
-                showWifiDialog();
+            if (!favorites) { //not favorites, show the stored pages or the error
+                // a request of the sort order before must not replace them
+                mTasks.cancel(MOVIE_TASK);
+                startStoredPagesTask(sortOrder, reload);
             } else {//favorites, load adapter from favorites db locally
-                loadFavorites();
+                startMovieTask(null, reload);
             }
         }
     }
 
+    private void startMovieTask(String urlString, boolean reload) {
+        mLoadingIndicator.setVisibility(View.VISIBLE);
+        // the favorites are a local query, they don't wait behind network requests
+        int pool = mSortOrder.equalsIgnoreCase(SORTORDER_FAVORITES)
+                ? TaskRunner.POOL_CPU : TaskRunner.POOL_IO;
+        MoviePageTask task = new MoviePageTask(this, mSortOrder, urlString);
+        String argument = mSortOrder + " " + urlString;
+        if (reload) {
+            mTasks.start(MOVIE_TASK, argument, pool, task, mMoviePageCallback);
+        } else {
+            mTasks.startOrAttach(MOVIE_TASK, argument, pool, task, mMoviePageCallback);
+        }
+    }
+
+    private void startStoredPagesTask(String sortOrder, boolean reload) {
+        // a local read, it does not wait behind network requests
+        StoredPagesTask task = new StoredPagesTask(this, sortOrder);
+        if (reload) {
+            mTasks.start(STORED_MOVIE_TASK, sortOrder, TaskRunner.POOL_CPU, task,
+                    mStoredPagesCallback);
+        } else {
+            mTasks.startOrAttach(STORED_MOVIE_TASK, sortOrder, TaskRunner.POOL_CPU, task,
+                    mStoredPagesCallback);
+        }
+    }
+
     /**
      * This method is used when we are resetting data, so that at one point in time during a
      * refresh of our data, you can see that there is no data showing.
@@ -505,7 +756,7 @@ public class MainActivity extends AppCompatActivity implements MovieAdapterOnCli
                 spinner.setSelection(2);
                 break;
         }
-        loadMovieData(mSortOrder);
+        loadMovieData(mSortOrder, false);
 //        mMovieAdapter.notifyDataSetChanged();
         return;
     }
@@ -545,15 +796,30 @@ public class MainActivity extends AppCompatActivity implements MovieAdapterOnCli
          */
         if (PREFERENCES_HAVE_BEEN_UPDATED) {
             Log.d(TAG, "onStart: preferences were updated");
-            getSupportLoaderManager().restartLoader(MOVIE_LOADER, null, this);
+            loadMovieData(mSortOrder, true);
             PREFERENCES_HAVE_BEEN_UPDATED = false;
         }
     }
 
+    // Hand the running tasks to the activity recreated for the configuration change
+    @Override
+    public Object onRetainCustomNonConfigurationInstance() {
+        mTasks.detachAll();
+        return mTasks;
+    }
+
     // Override onDestroy and unregister MainActivity as a SharedPreferenceChangedListener
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        if (!isChangingConfigurations()) {
+            mTasks.cancelAll();
+        }
+        mMoviePager.stop();
+        mPosterScheduler.cancelAll();
+        mDetailPrefetcher.shutdown();
+        FavoritesIndex.getInstance(this).removeOnFavoritesChangedListener(mMovieAdapter);
+        OfflineImageStore.getInstance().removeOnVerifiedListener(mMovieAdapter);
         /* Unregister MainActivity as an OnPreferenceChangedListener to avoid any memory leaks. */
         PreferenceManager.getDefaultSharedPreferences(this)
                 .unregisterOnSharedPreferenceChangeListener(this);
@@ -587,11 +853,11 @@ public class MainActivity extends AppCompatActivity implements MovieAdapterOnCli
     //  Create a private method called getAllFavorites that returns a cursor
 
     /**
-     * Query the mFavoritesDb and get all the favorites from the favorites table
+     * Read all the favorites from a query on the favorites table
      *
      * @return Cursor containing the list of favorite Movies
      */
-    private ArrayList<Movie> getAllFavorites(Cursor cursor) {
+    static ArrayList<Movie> getAllFavorites(Cursor cursor) {
         // Inside, call query on mFavoritesDb passing in the table name and projection String []
         // order by COLUMN_TIMESTAMP
         //        USED FOR SQLite DB commands
@@ -626,8 +892,9 @@ public class MainActivity extends AppCompatActivity implements MovieAdapterOnCli
                 do {
                     pp = cursor.getString(cursor.getColumnIndex
                             (FavoritesContract.FavoritesEntry.COLUMN_NAME_POSTER_PATH));
-                    ov = cursor.getString(cursor.getColumnIndex
-                            (FavoritesContract.FavoritesEntry.COLUMN_NAME_OVERVIEW));
+                    // the overview and genres are not in GRID_PROJECTION, the detail screen
+                    // loads them from the favorite details
+                    ov = getStringOrNull(cursor, FavoritesContract.FavoritesEntry.COLUMN_NAME_OVERVIEW);
                     rd = cursor.getString(cursor.getColumnIndex
                             (FavoritesContract.FavoritesEntry.COLUMN_NAME_RELEASE_DATE));
                     id = cursor.getInt(cursor.getColumnIndex
@@ -642,8 +909,7 @@ public class MainActivity extends AppCompatActivity implements MovieAdapterOnCli
                             (FavoritesContract.FavoritesEntry.COLUMN_NAME_VOTE_COUNT));
                     va = cursor.getFloat(cursor.getColumnIndex
                             (FavoritesContract.FavoritesEntry.COLUMN_NAME_VOTE_AVERAGE));
-                    gs = cursor.getString(cursor.getColumnIndex
-                            (FavoritesContract.FavoritesEntry.COLUMN_NAME_GENRE_LIST));
+                    gs = getStringOrNull(cursor, FavoritesContract.FavoritesEntry.COLUMN_NAME_GENRE_LIST);
                     movie = new Movie(pp, ov, rd, id, ot, ol,
                             bp, vc, va, 1, gs); //is_favorite - set to 1
 
@@ -658,44 +924,28 @@ public class MainActivity extends AppCompatActivity implements MovieAdapterOnCli
         }
     }
 
+    private static String getStringOrNull(Cursor cursor, String columnName) {
+        int index = cursor.getColumnIndex(columnName);
+        return index == -1 ? null : cursor.getString(index);
+    }
+
     /**
-     * Update the movieData list with favorites from the favorites file
-     * Adds a new favorite to the mFavoritesDb including the current timestamp
+     * Update the movieData list with favorites from the in-memory favorite ids,
+     * see {@link FavoritesIndex}.
      *
-     * @param movieData
-     * @return id of new record added
+     * @param movieData The movies to mark, may contain null (dropped) entries
+     * @return movieData, with is_favorite set on every movie
      */
     //If the movie id is in the favorites table, then set the movie is_favorite to 1
-    private ArrayList<Movie> setFavorites(ArrayList<Movie> movieData) {
-        // create a ContentValues instance to pass the values onto the insert query
-        Cursor c;
-        int i = 0;
-        String[] tableColumns;
-        String whereClause;
-        String[] whereArgs;
+    private static ArrayList<Movie> setFavorites(Context context, ArrayList<Movie> movieData) {
+        if (movieData == null) {
+            return null;
+        }
+        FavoritesIndex favoritesIndex = FavoritesIndex.getInstance(context);
         for (Movie m : movieData) {
-            tableColumns = new String[]{FavoritesContract.FavoritesEntry.COLUMN_NAME_MOVIE_ID};
-            whereClause = FavoritesContract.FavoritesEntry.COLUMN_NAME_MOVIE_ID + "= ?";
-            whereArgs = new String[]{String.valueOf(m.getId())};
-            //Using sql
-            // c = mFavoritesDb.query(FavoritesContract.FavoritesEntry.TABLE_NAME,
-            //                    tableColumns,
-            //                    whereClause,
-            //                    whereArgs,
-            //                    null, null, null, null);
-            // Using contentProvider
-            Cursor cursor = getContentResolver().query(FavoritesContract.FavoritesEntry.CONTENT_URI,
-                    tableColumns,
-                    whereClause,
-                    whereArgs,
-                    FavoritesContract.FavoritesEntry.COLUMN_NAME_TIMESTAMP);
-
-            if (cursor.getCount() > 0) {
-                movieData.get(i).setIs_favorite(1);
-            } else {
-                movieData.get(i).setIs_favorite(0);
+            if (m != null) {
+                m.setIs_favorite(favoritesIndex.isFavorite(m.getId()) ? 1 : 0);
             }
-            i++;
         }
         return movieData;
     }
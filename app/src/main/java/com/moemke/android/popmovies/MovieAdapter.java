@@ -16,18 +16,24 @@
 package com.moemke.android.popmovies;
 
 import android.content.Context;
-import android.net.Uri;
 import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
 
+import com.moemke.android.popmovies.data.FavoritesIndex;
+import com.moemke.android.popmovies.utilities.ImageSizeSelector;
+import com.moemke.android.popmovies.utilities.ListDiffer;
 import com.moemke.android.popmovies.utilities.NetworkUtils;
+import com.moemke.android.popmovies.utilities.OfflineImageStore;
+import com.moemke.android.popmovies.utilities.TaskRunner;
+import com.squareup.picasso.NetworkPolicy;
 import com.squareup.picasso.Picasso;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.List;
 
 import static com.moemke.android.popmovies.data.MoviePreferences.getDefaultMoviePosterResolution;
 
@@ -40,14 +46,30 @@ import static com.moemke.android.popmovies.data.MoviePreferences.getDefaultMovie
  * {@link android.support.v7.widget.RecyclerView}
  */
 
-public class MovieAdapter extends RecyclerView.Adapter<MovieAdapter.MovieAdapterViewHolder> {
+public class MovieAdapter extends RecyclerView.Adapter<MovieAdapter.MovieAdapterViewHolder>
+        implements MoviePager.Listener, FavoritesIndex.OnFavoritesChangedListener,
+        OfflineImageStore.OnVerifiedListener {
 
     private static final String TAG = MovieAdapter.class.getSimpleName();
 
-    ArrayList<Movie> mMovieData;
+    // partial bind that only updates the favorite badge, the poster is left alone
+    private static final Object PAYLOAD_FAVORITE = new Object();
+
+    // the movies of the grid, read by position without allocating
+    MovieStore mMovieData = new MovieStore();
+
+    // the movies shown once the running diff is dispatched
+    private final ListDiffer mDiffer = new ListDiffer(TaskRunner.getInstance());
+    private MovieStore mPendingMovieData;
 
     Context context;
 
+    private FavoritesIndex mFavoritesIndex;
+
+    // tmdb size of the posters, picked for a grid cell, and the cell width
+    private String mPosterSize = getDefaultMoviePosterResolution();
+    private int mPosterWidthPx;
+
     /*
      * An on-click handler that we've defined to make it easy for an Activity to interface with
      * our RecyclerView
@@ -58,7 +80,7 @@ public class MovieAdapter extends RecyclerView.Adapter<MovieAdapter.MovieAdapter
      * The interface that receives onClick messages.
      */
     public interface MovieAdapterOnClickHandler {
-        void onClick(Movie chosenMovie);
+        void onClick(Movie chosenMovie, ImageView posterView);
     }
 
     /**
@@ -77,12 +99,14 @@ public class MovieAdapter extends RecyclerView.Adapter<MovieAdapter.MovieAdapter
     public class MovieAdapterViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
 
         public final ImageView mPosterImageView;
+        public final ImageView mFavoriteBadge;
 
         public MovieAdapterViewHolder(View view) {
             super(view);
             context = view.getContext();
 
             mPosterImageView = (ImageView) view.findViewById(R.id.iv_movie_thumbnail);
+            mFavoriteBadge = (ImageView) view.findViewById(R.id.iv_favorite_badge);
             view.setOnClickListener(this);
         }
 
@@ -94,8 +118,14 @@ public class MovieAdapter extends RecyclerView.Adapter<MovieAdapter.MovieAdapter
         @Override
         public void onClick(View v) {
             int adapterPosition = getAdapterPosition();
-            Movie chosenMovie = mMovieData.get(adapterPosition);
-            mClickHandler.onClick(chosenMovie);
+            if (adapterPosition == RecyclerView.NO_POSITION) {
+                return;
+            }
+            Movie chosenMovie = mMovieData.getMovie(adapterPosition);
+            // null while a dropped page is loaded again
+            if (chosenMovie != null) {
+                mClickHandler.onClick(chosenMovie, mPosterImageView);
+            }
         }
     }
 
@@ -118,9 +148,26 @@ public class MovieAdapter extends RecyclerView.Adapter<MovieAdapter.MovieAdapter
         boolean shouldAttachToParentImmediately = false;
 
         View view = inflater.inflate(layoutIdForListItem, viewGroup, shouldAttachToParentImmediately);
+        if (mFavoritesIndex == null) {
+            mFavoritesIndex = FavoritesIndex.getInstance(context);
+        }
         return new MovieAdapter.MovieAdapterViewHolder(view);
     }
 
+    /**
+     * Only updates the favorite badge when the item was changed with PAYLOAD_FAVORITE, so the
+     * posters are not loaded again when the favorites change.
+     */
+    @Override
+    public void onBindViewHolder(MovieAdapter.MovieAdapterViewHolder movieAdapterViewHolder, int position,
+                                 List<Object> payloads) {
+        if (!payloads.isEmpty() && payloads.contains(PAYLOAD_FAVORITE)) {
+            bindFavoriteBadge(movieAdapterViewHolder, position);
+            return;
+        }
+        onBindViewHolder(movieAdapterViewHolder, position);
+    }
+
     /**
      * OnBindViewHolder is called by the RecyclerView to display the data at the specified
      * position. In this method, we update the contents of the ViewHolder to display the movie
@@ -135,7 +182,13 @@ public class MovieAdapter extends RecyclerView.Adapter<MovieAdapter.MovieAdapter
     @Override
     public void onBindViewHolder(MovieAdapter.MovieAdapterViewHolder movieAdapterViewHolder, int position) {
 
-        Movie chosenMovie = mMovieData.get(position);
+        bindFavoriteBadge(movieAdapterViewHolder, position);
+        if (!mMovieData.isLoaded(position)) {
+            // the page of this position was dropped by the MoviePager and is being loaded again
+            Picasso.with(context).cancelRequest(movieAdapterViewHolder.mPosterImageView);
+            movieAdapterViewHolder.mPosterImageView.setImageResource(R.drawable.ic_movie_placeholder);
+            return;
+        }
 
         // Use Picasso to return poster image
         // The base URL will look like: http://image.tmdb.org/t/p/.
@@ -152,27 +205,112 @@ public class MovieAdapter extends RecyclerView.Adapter<MovieAdapter.MovieAdapter
         //      .error(R.drawable.user_placeholder_error).into(imageView);
 
         if (NetworkUtils.isOnline(context)) {
-            String imgUrlString = NetworkUtils.buildImageUrlString(getDefaultMoviePosterResolution(),
-                    chosenMovie.getPoster_path());
+            String imgUrlString = NetworkUtils.buildImageUrlString(mPosterSize,
+                    mMovieData.getPosterPath(position));
             // Original no error handling:
             // Picasso.with(movieAdapterViewHolder.mPosterImageView.getContext()).load(imgUrlString)
             //                .into(movieAdapterViewHolder.mPosterImageView);
-            Picasso.with(movieAdapterViewHolder.mPosterImageView.getContext()).load(imgUrlString)
+            // tagged with the adapter, so the PosterScheduler can pause it during a fling
+            // decoded at the cell size, see PosterRequests
+            PosterRequests.grid(Picasso.with(movieAdapterViewHolder.mPosterImageView.getContext())
+                    .load(imgUrlString), mPosterWidthPx)
                     //.placeholder(R.drawable.ic_movie_placeholder)  not nice:shows placeholder while loading
                     .error(R.drawable.ic_movie_placeholder)
+                    .tag(this)
                     .into(movieAdapterViewHolder.mPosterImageView);
         } else {
             if (MainActivity.mSortOrder.equalsIgnoreCase(MainActivity.SORTORDER_FAVORITES)) {
-                File imgFile = new File(context.getFilesDir(), chosenMovie.getPoster_path().substring(1));
-                //Log.v(TAG, "displaying file from internal dir" + imgFile.toString() + " of length:" +
-                //        imgFile.length() / 1024 + "kb");
-                movieAdapterViewHolder.mPosterImageView.setImageURI(Uri.parse(imgFile.toString()));
+                // only verified files are returned, a missing or broken poster shows the placeholder
+                File imgFile = OfflineImageStore.getInstance()
+                        .getFile(mMovieData.getPosterPath(position).substring(1));
+                if (imgFile != null) {
+                    PosterRequests.grid(Picasso.with(movieAdapterViewHolder.mPosterImageView.getContext())
+                            .load(imgFile), mPosterWidthPx)
+                            .error(R.drawable.ic_movie_placeholder)
+                            .tag(this)
+                            .into(movieAdapterViewHolder.mPosterImageView);
+                } else {
+                    movieAdapterViewHolder.mPosterImageView.setImageResource(R.drawable.ic_movie_placeholder);
+                }
+            } else if (mMovieData.getPosterPath(position) != null) {
+                // the stored popular/top_rated pages: posters seen before are in the image
+                // cache, OFFLINE reads them from there without trying the network
+                PosterRequests.grid(Picasso.with(movieAdapterViewHolder.mPosterImageView.getContext())
+                        .load(NetworkUtils.buildImageUrlString(mPosterSize,
+                                mMovieData.getPosterPath(position))), mPosterWidthPx)
+                        .networkPolicy(NetworkPolicy.OFFLINE)
+                        .error(R.drawable.ic_movie_placeholder)
+                        .tag(this)
+                        .into(movieAdapterViewHolder.mPosterImageView);
             } else {
                 movieAdapterViewHolder.mPosterImageView.setImageResource(R.drawable.ic_movie_placeholder);
             }
         }
     }
 
+    /**
+     * A recycled holder shows another movie next, so its poster is no longer needed.
+     */
+    @Override
+    public void onViewRecycled(MovieAdapter.MovieAdapterViewHolder movieAdapterViewHolder) {
+        Picasso.with(movieAdapterViewHolder.mPosterImageView.getContext())
+                .cancelRequest(movieAdapterViewHolder.mPosterImageView);
+    }
+
+    /**
+     * @param position The position of a movie in the grid
+     * @return The URL onBindViewHolder would load the poster of position from, or null if it
+     * is not loaded from the network (offline, not loaded yet, no poster)
+     */
+    public String getPosterUrl(int position) {
+        if (!mMovieData.isLoaded(position) || context == null) {
+            return null;
+        }
+        String posterPath = mMovieData.getPosterPath(position);
+        if (posterPath == null || !NetworkUtils.isOnline(context)) {
+            return null;
+        }
+        return NetworkUtils.buildImageUrlString(mPosterSize, posterPath);
+    }
+
+    /**
+     * @param position The position of a movie in the grid
+     * @return The tmdb id of the movie at position, or -1 if it is not loaded
+     */
+    public int getMovieId(int position) {
+        return mMovieData.getId(position);
+    }
+
+    /**
+     * Picks the poster size for the width of a grid cell. Posters bound afterwards use it.
+     *
+     * @param widthPx The width of one cell in pixels
+     */
+    public void setPosterWidth(int widthPx) {
+        mPosterSize = ImageSizeSelector.selectPosterSize(widthPx);
+        mPosterWidthPx = widthPx;
+    }
+
+    /**
+     * @return The width of a grid cell in pixels, the posters are decoded at this width
+     */
+    public int getPosterWidth() {
+        return mPosterWidthPx;
+    }
+
+    /**
+     * @return The tmdb size the posters are loaded with, i.e. "w342"
+     */
+    public String getPosterSize() {
+        return mPosterSize;
+    }
+
+    private void bindFavoriteBadge(MovieAdapter.MovieAdapterViewHolder movieAdapterViewHolder, int position) {
+        boolean favorite = mMovieData.isLoaded(position) && mFavoritesIndex != null
+                && mFavoritesIndex.isFavorite(mMovieData.getId(position));
+        movieAdapterViewHolder.mFavoriteBadge.setVisibility(favorite ? View.VISIBLE : View.GONE);
+    }
+
     /**
      * This method simply returns the number of items to display. It is used behind the scenes
      * to help layout our Views and for animations.
@@ -181,7 +319,6 @@ public class MovieAdapter extends RecyclerView.Adapter<MovieAdapter.MovieAdapter
      */
     @Override
     public int getItemCount() {
-        if (null == mMovieData) return 0;
         return mMovieData.size();
     }
 
@@ -190,10 +327,102 @@ public class MovieAdapter extends RecyclerView.Adapter<MovieAdapter.MovieAdapter
      * created one. This is handy when we get new data from the web but don't want to create a
      * new MovieAdapter to display it.
      *
-     * @param movieData The new movie data to be displayed.
+     * The new data is diffed with the shown data in the background, only the movies that
+     * changed are rebound once the diff is done.
+     *
+     * @param movieData The new movie data to be displayed, copied into a {@link MovieStore}
      */
     public void setMovieData(ArrayList<Movie> movieData) {
-        mMovieData = movieData;
-        this.notifyDataSetChanged();
+        final MovieStore movies = movieData == null ? new MovieStore() : MovieStore.of(movieData);
+        mPendingMovieData = movies;
+        mDiffer.submit(mMovieData, movies, new ListDiffer.Listener() {
+            @Override
+            public void onDiffed(ListDiffer.Result result) {
+                mMovieData = movies;
+                mPendingMovieData = null;
+                result.dispatchUpdatesTo(MovieAdapter.this);
+            }
+        });
+    }
+
+    /**
+     * Shows the data of a running diff right away, before the shown data is changed in place.
+     */
+    private void applyPendingMovieData() {
+        if (!mDiffer.isPending()) {
+            return;
+        }
+        mDiffer.cancel();
+        mMovieData = mPendingMovieData;
+        mPendingMovieData = null;
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Adds the next page of movies at the end of the grid.
+     *
+     * @param positionStart The position of the first new movie, i.e. the current item count
+     * @param movies        The movies of the page
+     */
+    @Override
+    public void onMoviesAppended(int positionStart, ArrayList<Movie> movies) {
+        // the pager's positions are those of the newest data
+        applyPendingMovieData();
+        // positionStart is the end of the grid
+        mMovieData.addAll(movies);
+        notifyItemRangeInserted(positionStart, movies.size());
+    }
+
+    /**
+     * Fills the positions of a page that was dropped and loaded again.
+     *
+     * @param positionStart The position of the first movie of the page
+     * @param movies        The movies of the page
+     */
+    @Override
+    public void onMoviesRestored(int positionStart, ArrayList<Movie> movies) {
+        applyPendingMovieData();
+        int count = Math.min(movies.size(), mMovieData.size() - positionStart);
+        for (int i = 0; i < count; i++) {
+            mMovieData.set(positionStart + i, movies.get(i));
+        }
+        notifyItemRangeChanged(positionStart, count);
+    }
+
+    /**
+     * Releases the movies of a page far away from the visible positions. The positions stay in
+     * the grid so nothing shifts, they show a placeholder if they are scrolled to before the page
+     * is loaded again.
+     *
+     * @param positionStart The position of the first movie of the page
+     * @param itemCount     The number of movies in the page
+     */
+    @Override
+    public void onMoviesDropped(int positionStart, int itemCount) {
+        applyPendingMovieData();
+        int count = Math.min(itemCount, mMovieData.size() - positionStart);
+        for (int i = 0; i < count; i++) {
+            mMovieData.clear(positionStart + i);
+        }
+        notifyItemRangeChanged(positionStart, count);
+    }
+
+    /**
+     * Refreshes the favorite badges of the grid.
+     */
+    @Override
+    public void onFavoritesChanged() {
+        notifyItemRangeChanged(0, getItemCount(), PAYLOAD_FAVORITE);
+    }
+
+    /**
+     * The offline favorites were bound with the placeholder until their posters were verified.
+     */
+    @Override
+    public void onImagesVerified() {
+        if (context != null && !NetworkUtils.isOnline(context)
+                && MainActivity.mSortOrder.equalsIgnoreCase(MainActivity.SORTORDER_FAVORITES)) {
+            notifyItemRangeChanged(0, getItemCount());
+        }
     }
 }
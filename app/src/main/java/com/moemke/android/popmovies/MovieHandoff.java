@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moemke.android.popmovies;
+
+import android.content.Intent;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Hands the clicked movie from MainActivity to DetailActivity without parceling it. The intent
+ * carries the movie id and the key the movie is kept under in this process-wide store, a few
+ * dozen bytes however long the movie's texts are and however many movies the grid holds.
+ * <p>
+ * The store lives as long as the process. An intent that is redelivered after the process was
+ * killed finds nothing under its key, the detail screen then restores the movie from its id and
+ * puts it back with {@link #restore(Intent, Movie)}.
+ */
+public final class MovieHandoff {
+
+    private static final String TAG = MovieHandoff.class.getSimpleName();
+
+    public static final String EXTRA_MOVIE_ID = "movieId";
+    public static final String EXTRA_MOVIE_KEY = "movieKey";
+
+    // detail screens that may still be in the back stack, or in recents
+    static final int MAX_MOVIES = 16;
+
+    // keys of an earlier process never match the keys of this one
+    private static final String PROCESS_TAG = Long.toString(System.currentTimeMillis(), 36);
+
+    // guarded by sMovies, least recently used first
+    private static final Map<String, Movie> sMovies =
+            new LinkedHashMap<String, Movie>(MAX_MOVIES, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Movie> eldest) {
+                    return size() > MAX_MOVIES;
+                }
+            };
+    private static int sNextKey;
+
+    private MovieHandoff() {
+    }
+
+    /**
+     * Keeps the movie in the store and puts its handle into the intent.
+     *
+     * @param intent The intent starting the detail screen
+     * @param movie  The movie to show, passed by reference
+     */
+    public static void putExtras(Intent intent, Movie movie) {
+        intent.putExtra(EXTRA_MOVIE_ID, movie.getId());
+        intent.putExtra(EXTRA_MOVIE_KEY, put(movie));
+    }
+
+    /**
+     * @param intent The intent of the detail screen
+     * @return The id of the movie of the intent, MovieStore.NO_ID if it has none
+     */
+    public static int getMovieId(Intent intent) {
+        return intent.getIntExtra(EXTRA_MOVIE_ID, MovieStore.NO_ID);
+    }
+
+    /**
+     * @param intent The intent of the detail screen
+     * @return The movie of the intent, or null if it is not in the store (anymore)
+     */
+    public static Movie getMovie(Intent intent) {
+        Movie movie = get(intent.getStringExtra(EXTRA_MOVIE_KEY));
+        return movie != null && movie.getId() == getMovieId(intent) ? movie : null;
+    }
+
+    /**
+     * Keeps a movie that was restored from its id under the key of the intent, so the detail
+     * screen finds it when it is recreated.
+     */
+    public static void restore(Intent intent, Movie movie) {
+        String key = intent.getStringExtra(EXTRA_MOVIE_KEY);
+        if (key != null) {
+            synchronized (sMovies) {
+                sMovies.put(key, movie);
+            }
+        }
+    }
+
+    static String put(Movie movie) {
+        synchronized (sMovies) {
+            String key = PROCESS_TAG + ":" + sNextKey++;
+            sMovies.put(key, movie);
+            return key;
+        }
+    }
+
+    static Movie get(String key) {
+        if (key == null) {
+            return null;
+        }
+        synchronized (sMovies) {
+            return sMovies.get(key);
+        }
+    }
+}
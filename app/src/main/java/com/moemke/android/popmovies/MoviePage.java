@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moemke.android.popmovies;
+
+import java.util.ArrayList;
+
+/**
+ * One page of a tmdb movie list (popular, top_rated).
+ * https://api.themoviedb.org/3/movie/popular?api_key=YOUR_API_KEY&page=1
+ * <p>
+ * "page": 1,
+ * "results": [...],
+ * "total_results": 19629,
+ * "total_pages": 982
+ */
+public class MoviePage {
+
+    private final int page;
+    private final int totalPages;
+    private final ArrayList<Movie> movies;
+
+    public MoviePage(int page, int totalPages, ArrayList<Movie> movies) {
+        this.page = page;
+        this.totalPages = totalPages;
+        this.movies = movies;
+    }
+
+    /**
+     * @return The page number, starting at 1
+     */
+    public int getPage() {
+        return page;
+    }
+
+    public int getTotalPages() {
+        return totalPages;
+    }
+
+    public ArrayList<Movie> getMovies() {
+        return movies;
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moemke.android.popmovies;
+
+import com.moemke.android.popmovies.utilities.BackgroundTask;
+import com.moemke.android.popmovies.utilities.CancellationToken;
+import com.moemke.android.popmovies.utilities.TaskRunner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * Pages through a tmdb movie list as the grid is scrolled. The next page is requested when the
+ * last visible position gets close to the end of the loaded movies, and at most
+ * maxPagesInFlight requests run at the same time.
+ * <p>
+ * To keep memory bounded, pages more than windowPages away from the visible pages are dropped:
+ * their positions stay in the grid (so nothing shifts) but their movies are released, and the
+ * page is loaded again if it is scrolled back into view.
+ * <p>
+ * Pages are loaded on the io pool of the {@link TaskRunner}. All methods must be called on the
+ * main thread; a reset or stop cancels the requests still running, so their results are never
+ * delivered.
+ */
+public class MoviePager {
+
+    private static final String TAG = MoviePager.class.getSimpleName();
+
+    /**
+     * Loads one page of a movie list, called on a pool thread.
+     */
+    public interface PageSource {
+        MoviePage loadPage(String sortOrder, int page) throws IOException;
+    }
+
+    /**
+     * Receives the changes to the list of movies shown in the grid.
+     */
+    public interface Listener {
+        /**
+         * A new page was added at the end of the list.
+         */
+        void onMoviesAppended(int positionStart, ArrayList<Movie> movies);
+
+        /**
+         * A page that was dropped was loaded again, movies replaces the empty positions.
+         */
+        void onMoviesRestored(int positionStart, ArrayList<Movie> movies);
+
+        /**
+         * A page far from the visible positions was released, its positions are now empty.
+         */
+        void onMoviesDropped(int positionStart, int itemCount);
+    }
+
+    private final PageSource mPageSource;
+    private final TaskRunner mTaskRunner;
+    private final Listener mListener;
+    private final int mMaxPagesInFlight;
+    private final int mPrefetchDistance;
+    private final int mWindowPages;
+
+    private String mSortOrder;
+
+    private int mPageSize;
+    private int mTotalPages;
+    private int mAppendedPages;
+    private int mItemCount;
+
+    // bit p is set if page p is loaded and shown in the grid
+    private final BitSet mResidentPages = new BitSet();
+    // the requests running, by page
+    private final HashMap<Integer, CancellationToken> mPagesInFlight =
+            new HashMap<Integer, CancellationToken>();
+    // pages that arrived before the page in front of them
+    private final HashMap<Integer, ArrayList<Movie>> mPendingAppends =
+            new HashMap<Integer, ArrayList<Movie>>();
+
+    private int mFirstVisible;
+    private int mLastVisible;
+
+    /**
+     * @param pageSource       Loads the pages
+     * @param taskRunner       Runs pageSource and delivers its results on the main thread
+     * @param listener         Usually the {@link MovieAdapter} of the grid
+     * @param maxPagesInFlight Maximum number of pages requested at the same time
+     * @param prefetchDistance The next page is requested when the last visible position is
+     *                         this close to the end of the list
+     * @param windowPages      Pages kept before and after the visible pages
+     */
+    public MoviePager(PageSource pageSource, TaskRunner taskRunner, Listener listener,
+                      int maxPagesInFlight, int prefetchDistance, int windowPages) {
+        mPageSource = pageSource;
+        mTaskRunner = taskRunner;
+        mListener = listener;
+        mMaxPagesInFlight = maxPagesInFlight;
+        mPrefetchDistance = prefetchDistance;
+        mWindowPages = windowPages;
+    }
+
+    /**
+     * Starts paging a new list, whose first pages are already shown in the grid.
+     *
+     * @param sortOrder The sort order of the list, "popular" or "top_rated"
+     * @param firstPage The first page, or the first pages in one MoviePage whose page number is
+     *                  the last of them; null to stop paging
+     */
+    public void reset(String sortOrder, MoviePage firstPage) {
+        mSortOrder = sortOrder;
+        mResidentPages.clear();
+        for (CancellationToken token : mPagesInFlight.values()) {
+            token.cancel();
+        }
+        mPagesInFlight.clear();
+        mPendingAppends.clear();
+        mFirstVisible = 0;
+        mLastVisible = 0;
+        if (firstPage == null || firstPage.getMovies() == null
+                || firstPage.getMovies().isEmpty()) {
+            mPageSize = 0;
+            mTotalPages = 0;
+            mAppendedPages = 0;
+            mItemCount = 0;
+            return;
+        }
+        // only the last of the pages may be short
+        int pages = Math.max(1, firstPage.getPage());
+        mItemCount = firstPage.getMovies().size();
+        mPageSize = (mItemCount + pages - 1) / pages;
+        mTotalPages = firstPage.getTotalPages();
+        mAppendedPages = pages;
+        mResidentPages.set(1, pages + 1);
+    }
+
+    /**
+     * Stops paging and cancels the requests still running.
+     */
+    public void stop() {
+        reset(null, null);
+    }
+
+    /**
+     * Called when the grid scrolls.
+     *
+     * @param firstVisible The first visible adapter position
+     * @param lastVisible  The last visible adapter position
+     */
+    public void onVisibleRangeChanged(int firstVisible, int lastVisible) {
+        mFirstVisible = firstVisible;
+        mLastVisible = lastVisible;
+        loadAndTrim();
+    }
+
+    public int getPagesInFlight() {
+        return mPagesInFlight.size();
+    }
+
+    public int getResidentPageCount() {
+        return mResidentPages.cardinality();
+    }
+
+    public int getItemCount() {
+        return mItemCount;
+    }
+
+    private void loadAndTrim() {
+        if (mPageSize == 0 || mFirstVisible < 0 || mLastVisible < 0) {
+            return;
+        }
+        int firstVisiblePage = pageOf(mFirstVisible);
+        int lastVisiblePage = pageOf(mLastVisible);
+
+        // visible pages that were dropped come first
+        for (int page = firstVisiblePage; page <= Math.min(lastVisiblePage, mAppendedPages);
+             page++) {
+            if (!mResidentPages.get(page)) {
+                request(page);
+            }
+        }
+
+        // then the next pages, if the end of the list is close
+        if (mLastVisible >= mItemCount - mPrefetchDistance) {
+            for (int page = mAppendedPages + 1;
+                 page <= mTotalPages && page <= mAppendedPages + mMaxPagesInFlight; page++) {
+                if (!mPendingAppends.containsKey(page)) {
+                    request(page);
+                }
+            }
+        }
+
+        // and release the pages outside the window
+        for (int page = mResidentPages.nextSetBit(0); page >= 0;
+             page = mResidentPages.nextSetBit(page + 1)) {
+            if (!isInWindow(page)) {
+                mResidentPages.clear(page);
+                mListener.onMoviesDropped(positionOf(page), itemCountOf(page));
+            }
+        }
+    }
+
+    private void request(final int page) {
+        if (mPagesInFlight.containsKey(page) || mPagesInFlight.size() >= mMaxPagesInFlight) {
+            return;
+        }
+        final String sortOrder = mSortOrder;
+        mPagesInFlight.put(page, mTaskRunner.submit(TaskRunner.POOL_IO,
+                new BackgroundTask<MoviePage>() {
+                    @Override
+                    public MoviePage run(CancellationToken token) throws IOException {
+                        return mPageSource.loadPage(sortOrder, page);
+                    }
+                }, new TaskRunner.Callback<MoviePage>() {
+                    @Override
+                    public void onResult(MoviePage result) {
+                        onPageLoaded(page, result);
+                    }
+
+                    @Override
+                    public void onError(Exception e) {
+                        onPageLoaded(page, null);
+                    }
+                }));
+    }
+
+    private void onPageLoaded(int page, MoviePage moviePage) {
+        mPagesInFlight.remove(page);
+        if (moviePage == null || moviePage.getMovies() == null) {
+            // failed, it is requested again on the next scroll
+            return;
+        }
+        ArrayList<Movie> movies = moviePage.getMovies();
+
+        if (page <= mAppendedPages) {
+            if (isInWindow(page) && !mResidentPages.get(page)) {
+                // the list may have changed on the server, only the old positions are filled
+                int count = Math.min(movies.size(), itemCountOf(page));
+                mResidentPages.set(page);
+                mListener.onMoviesRestored(positionOf(page),
+                        new ArrayList<Movie>(movies.subList(0, count)));
+            }
+        } else if (page <= mTotalPages) {
+            if (moviePage.getTotalPages() > 0) {
+                mTotalPages = moviePage.getTotalPages();
+            }
+            mPendingAppends.put(page, movies);
+            ArrayList<Movie> next;
+            while ((next = mPendingAppends.remove(mAppendedPages + 1)) != null) {
+                if (next.isEmpty()) {
+                    mTotalPages = mAppendedPages;
+                    break;
+                }
+                mAppendedPages++;
+                mResidentPages.set(mAppendedPages);
+                int positionStart = mItemCount;
+                mItemCount += next.size();
+                mListener.onMoviesAppended(positionStart, next);
+                if (next.size() < mPageSize) {
+                    // a short page is the last one
+                    mTotalPages = mAppendedPages;
+                    break;
+                }
+            }
+            if (mAppendedPages == mTotalPages) {
+                mPendingAppends.clear();
+            }
+        }
+        loadAndTrim();
+    }
+
+    /**
+     * The window reaches at least as far ahead as the prefetch, so prefetched pages are not
+     * dropped before they are scrolled to.
+     */
+    private boolean isInWindow(int page) {
+        int windowAhead = Math.max(mWindowPages, mMaxPagesInFlight);
+        return page >= pageOf(mFirstVisible) - mWindowPages
+                && page <= pageOf(mLastVisible) + windowAhead;
+    }
+
+    private int pageOf(int position) {
+        return position / mPageSize + 1;
+    }
+
+    private int positionOf(int page) {
+        return (page - 1) * mPageSize;
+    }
+
+    private int itemCountOf(int page) {
+        return Math.min(mPageSize, mItemCount - positionOf(page));
+    }
+}
@@ -27,6 +27,7 @@ public class MovieReview implements Parcelable{
     String author;      //"author": "Screen Zealots",
     String content;     //"content": "A SCREEN ZEALOTS REVIEW www.screenzealots.com\r"
     String reviewUrl;   //"url": "https://www.themoviedb.org/review/579cfaac9251411b36008316"
+    boolean truncated;  //content only holds a preview, the full text is loaded on "read more"
 
     public MovieReview(String ri, String au, String co, String ru){
         this.reviewId = ri;
@@ -35,11 +36,17 @@ public class MovieReview implements Parcelable{
         this.reviewUrl = ru;
         }
 
+    public MovieReview(String ri, String au, String co, String ru, boolean truncated) {
+        this(ri, au, co, ru);
+        this.truncated = truncated;
+    }
+
     private MovieReview(Parcel in) {
         reviewId = in.readString();
         author = in.readString();
         content = in.readString();
         reviewUrl = in.readString();
+        truncated = in.readByte() != 0;
     }
 
     @Override
@@ -57,6 +64,7 @@ public class MovieReview implements Parcelable{
         parcel.writeString(author);
         parcel.writeString(content);
         parcel.writeString(reviewUrl);
+        parcel.writeByte((byte) (truncated ? 1 : 0));
     }
 
     public static final Parcelable.Creator<MovieReview> CREATOR = new Parcelable.Creator<MovieReview>() {
@@ -102,4 +110,12 @@ public class MovieReview implements Parcelable{
     public void setReviewUrl(String reviewUrl) {
         this.reviewUrl = reviewUrl;
     }
+
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    public void setTruncated(boolean truncated) {
+        this.truncated = truncated;
+    }
 }
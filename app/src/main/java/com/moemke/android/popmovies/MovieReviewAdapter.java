@@ -23,7 +23,12 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
+import com.moemke.android.popmovies.utilities.ListDiffer;
+import com.moemke.android.popmovies.utilities.TaskRunner;
+
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Created by aureamoemke on 02/02/2017.
@@ -38,7 +43,31 @@ class MovieReviewAdapter extends RecyclerView.Adapter<MovieReviewAdapter.MovieRe
 
     private static final String TAG = MovieReviewAdapter.class.getSimpleName();
 
+    // reviews are matched by tmdb review id, a truncated and a full review differ
+    static final ListDiffer.ItemCallback<MovieReview> REVIEW_ITEMS =
+            new ListDiffer.ItemCallback<MovieReview>() {
+                @Override
+                public Object getKey(MovieReview review) {
+                    return review.getReviewId();
+                }
+
+                @Override
+                public boolean areContentsTheSame(MovieReview oldReview, MovieReview newReview) {
+                    return oldReview.isTruncated() == newReview.isTruncated()
+                            && equals(oldReview.getAuthor(), newReview.getAuthor())
+                            && equals(oldReview.getContent(), newReview.getContent());
+                }
+
+                private boolean equals(String a, String b) {
+                    return a == null ? b == null : a.equals(b);
+                }
+            };
+
     ArrayList<MovieReview> mMovieReviewData;
+
+    // the list shown once the running diff is dispatched
+    private final ListDiffer mDiffer = new ListDiffer(TaskRunner.getInstance());
+    private ArrayList<MovieReview> mPendingMovieReviewData;
     /*
      * An on-click handler that we've defined to make it easy for an Activity to interface with
      * our RecyclerView
@@ -50,6 +79,11 @@ class MovieReviewAdapter extends RecyclerView.Adapter<MovieReviewAdapter.MovieRe
      */
     public interface MovieReviewAdapterOnClickHandler {
         void onClick(MovieReview chosenMovieReview);
+
+        /**
+         * Called when "read more" is tapped on a review that only holds a preview of its text.
+         */
+        void onReadMore(MovieReview truncatedMovieReview);
     }
 
     /**
@@ -95,6 +129,13 @@ class MovieReviewAdapter extends RecyclerView.Adapter<MovieReviewAdapter.MovieRe
                     mReadAll.setVisibility(View.INVISIBLE);
                     mContentView.setMaxLines(Integer.MAX_VALUE);
                     mReadMore.setVisibility(View.INVISIBLE);
+                    int adapterPosition = getAdapterPosition();
+                    if (adapterPosition != RecyclerView.NO_POSITION) {
+                        MovieReview movieReview = mMovieReviewData.get(adapterPosition);
+                        if (movieReview.isTruncated()) {
+                            mClickHandler.onReadMore(movieReview);
+                        }
+                    }
                 }
             });
 
@@ -155,7 +196,11 @@ class MovieReviewAdapter extends RecyclerView.Adapter<MovieReviewAdapter.MovieRe
     public void onBindViewHolder(MovieReviewAdapter.MovieReviewAdapterViewHolder movieAdapterViewHolder, int position) {
         MovieReview chosenMovieReview = mMovieReviewData.get(position);
 
-        movieAdapterViewHolder.mContentView.setText(chosenMovieReview.content);
+        if (chosenMovieReview.isTruncated()) {
+            movieAdapterViewHolder.mContentView.setText(chosenMovieReview.content + "\u2026");
+        } else {
+            movieAdapterViewHolder.mContentView.setText(chosenMovieReview.content);
+        }
         //movieAdapterViewHolder.mReadAll.setText(chosenMovieReview.content);
         movieAdapterViewHolder.mAuthorView.setText(chosenMovieReview.author);
 //        int height    = movieAdapterViewHolder.mReadAll.getHeight();
@@ -188,10 +233,50 @@ class MovieReviewAdapter extends RecyclerView.Adapter<MovieReviewAdapter.MovieRe
      * created one. This is handy when we get new data from the web but don't want to create a
      * new MovieAdapter to display it.
      *
+     * Only the reviews that changed are rebound, see {@link ListDiffer}.
+     *
      * @param movieReviewData The new movie review data to be displayed.
      */
-    public void setMovieReviewData(ArrayList<MovieReview> movieReviewData) {
-        mMovieReviewData = movieReviewData;
-        notifyDataSetChanged();
+    public void setMovieReviewData(final ArrayList<MovieReview> movieReviewData) {
+        mPendingMovieReviewData = movieReviewData;
+        mDiffer.submit(listOf(mMovieReviewData), listOf(movieReviewData), REVIEW_ITEMS,
+                new ListDiffer.Listener() {
+                    @Override
+                    public void onDiffed(ListDiffer.Result result) {
+                        mMovieReviewData = movieReviewData;
+                        mPendingMovieReviewData = null;
+                        result.dispatchUpdatesTo(MovieReviewAdapter.this);
+                    }
+                });
+    }
+
+    private static List<MovieReview> listOf(ArrayList<MovieReview> reviews) {
+        return reviews == null ? Collections.<MovieReview>emptyList() : reviews;
+    }
+
+    /**
+     * Replaces the preview of a review with its full text once it has been loaded.
+     *
+     * @param reviewId The id of the review
+     * @param content  The full text of the review
+     */
+    public void setFullReviewContent(String reviewId, String content) {
+        if (mDiffer.isPending()) {
+            // the review is changed in the list that is about to be shown
+            mDiffer.cancel();
+            mMovieReviewData = mPendingMovieReviewData;
+            mPendingMovieReviewData = null;
+            notifyDataSetChanged();
+        }
+        if (null == mMovieReviewData) return;
+        for (int i = 0; i < mMovieReviewData.size(); i++) {
+            MovieReview movieReview = mMovieReviewData.get(i);
+            if (movieReview.getReviewId().equals(reviewId)) {
+                movieReview.setContent(content);
+                movieReview.setTruncated(false);
+                notifyItemChanged(i);
+                return;
+            }
+        }
     }
 }
@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moemke.android.popmovies;
+
+import com.moemke.android.popmovies.utilities.ListDiffer;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The movies of the grid, stored column by column: ids, vote counts and vote averages in
+ * primitive arrays, each string field in an array of its own. A list of Movie objects costs a
+ * Movie and up to eight Strings per movie; with paging to thousands of movies the store is a
+ * few arrays instead of tens of thousands of small objects for the GC to trace.
+ * <p>
+ * The original language is kept as an index into the table of the languages seen, the genres
+ * of the favorites are shared between movies with the same genres. The overview, the longest
+ * field and only shown on the detail screen, is kept as UTF-8 bytes and only decoded when it is
+ * read.
+ * <p>
+ * Positions without a movie, the dropped pages of the {@link MoviePager}, have the id NO_ID.
+ * Positions are read by index without allocating, {@link #getMovie(int)} builds a Movie for the
+ * detail screen.
+ */
+public class MovieStore implements ListDiffer.Rows {
+
+    private static final String TAG = MovieStore.class.getSimpleName();
+
+    public static final int NO_ID = -1;
+
+    private static final int MIN_CAPACITY = 20;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private int mSize;
+
+    private int[] mIds;
+    private int[] mVoteCounts;
+    private float[] mVoteAverages;
+    private byte[] mFavorites;
+    private short[] mLanguages;
+    private String[] mPosterPaths;
+    private String[] mBackdropPaths;
+    private String[] mTitles;
+    private String[] mReleaseDates;
+    private String[] mGenres;
+    private byte[][] mOverviews;
+
+    // the distinct languages, mLanguages holds their index
+    private final ArrayList<String> mLanguageTable = new ArrayList<String>();
+    private final HashMap<String, Short> mLanguageIndex = new HashMap<String, Short>();
+    private final HashMap<String, String> mGenrePool = new HashMap<String, String>();
+
+    public MovieStore() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * @param capacity The number of movies the store holds before it grows
+     */
+    public MovieStore(int capacity) {
+        capacity = Math.max(capacity, MIN_CAPACITY);
+        mIds = new int[capacity];
+        mVoteCounts = new int[capacity];
+        mVoteAverages = new float[capacity];
+        mFavorites = new byte[capacity];
+        mLanguages = new short[capacity];
+        mPosterPaths = new String[capacity];
+        mBackdropPaths = new String[capacity];
+        mTitles = new String[capacity];
+        mReleaseDates = new String[capacity];
+        mGenres = new String[capacity];
+        mOverviews = new byte[capacity][];
+    }
+
+    /**
+     * @param movies The movies, null entries become empty positions
+     * @return A store holding movies
+     */
+    public static MovieStore of(List<Movie> movies) {
+        MovieStore store = new MovieStore(movies.size());
+        store.addAll(movies);
+        return store;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Adds movies at the end.
+     *
+     * @param movies The movies, null entries become empty positions
+     */
+    public void addAll(List<Movie> movies) {
+        ensureCapacity(mSize + movies.size());
+        for (int i = 0; i < movies.size(); i++) {
+            mSize++;
+            set(mSize - 1, movies.get(i));
+        }
+    }
+
+    /**
+     * @param position A position below size()
+     * @param movie    The movie for position, null to empty it
+     */
+    public void set(int position, Movie movie) {
+        checkPosition(position);
+        if (movie == null) {
+            clear(position);
+            return;
+        }
+        mIds[position] = movie.getId();
+        mVoteCounts[position] = movie.getVote_count();
+        mVoteAverages[position] = movie.getVote_average();
+        mFavorites[position] = (byte) movie.getIs_favorite();
+        mLanguages[position] = languageIndexOf(movie.getOriginal_language());
+        mPosterPaths[position] = movie.getPoster_path();
+        mBackdropPaths[position] = movie.getBackdrop_path();
+        mTitles[position] = movie.getOriginal_title();
+        mReleaseDates[position] = movie.getRelease_date();
+        mGenres[position] = pooledGenres(movie.getGenre_str());
+        String overview = movie.getOverview();
+        mOverviews[position] = overview == null ? null : overview.getBytes(UTF_8);
+    }
+
+    /**
+     * Empties position and releases its strings, the position stays.
+     */
+    public void clear(int position) {
+        checkPosition(position);
+        mIds[position] = NO_ID;
+        mVoteCounts[position] = 0;
+        mVoteAverages[position] = 0;
+        mFavorites[position] = 0;
+        mLanguages[position] = -1;
+        mPosterPaths[position] = null;
+        mBackdropPaths[position] = null;
+        mTitles[position] = null;
+        mReleaseDates[position] = null;
+        mGenres[position] = null;
+        mOverviews[position] = null;
+    }
+
+    /**
+     * @return true if position holds a movie
+     */
+    public boolean isLoaded(int position) {
+        return position >= 0 && position < mSize && mIds[position] != NO_ID;
+    }
+
+    /**
+     * @return The tmdb id at position, NO_ID if position holds no movie
+     */
+    public int getId(int position) {
+        return isLoaded(position) ? mIds[position] : NO_ID;
+    }
+
+    public String getPosterPath(int position) {
+        checkPosition(position);
+        return mPosterPaths[position];
+    }
+
+    public String getBackdropPath(int position) {
+        checkPosition(position);
+        return mBackdropPaths[position];
+    }
+
+    public String getOriginalTitle(int position) {
+        checkPosition(position);
+        return mTitles[position];
+    }
+
+    public String getReleaseDate(int position) {
+        checkPosition(position);
+        return mReleaseDates[position];
+    }
+
+    public String getOriginalLanguage(int position) {
+        checkPosition(position);
+        short index = mLanguages[position];
+        return index < 0 ? null : mLanguageTable.get(index);
+    }
+
+    public int getVoteCount(int position) {
+        checkPosition(position);
+        return mVoteCounts[position];
+    }
+
+    public float getVoteAverage(int position) {
+        checkPosition(position);
+        return mVoteAverages[position];
+    }
+
+    public int getIsFavorite(int position) {
+        checkPosition(position);
+        return mFavorites[position];
+    }
+
+    public String getGenres(int position) {
+        checkPosition(position);
+        return mGenres[position];
+    }
+
+    /**
+     * @return The overview at position, decoded on every call
+     */
+    public String getOverview(int position) {
+        checkPosition(position);
+        byte[] overview = mOverviews[position];
+        return overview == null ? null : new String(overview, UTF_8);
+    }
+
+    /**
+     * @return A Movie with the fields of position, i.e. for the detail screen, null if position
+     * holds no movie
+     */
+    public Movie getMovie(int position) {
+        if (!isLoaded(position)) {
+            return null;
+        }
+        return new Movie(mPosterPaths[position], getOverview(position), mReleaseDates[position],
+                mIds[position], mTitles[position], getOriginalLanguage(position),
+                mBackdropPaths[position], mVoteCounts[position], mVoteAverages[position],
+                mFavorites[position], mGenres[position]);
+    }
+
+    @Override
+    public Object getKey(int position) {
+        return isLoaded(position) ? Integer.valueOf(mIds[position]) : null;
+    }
+
+    /**
+     * A grid cell only shows the poster (and the favorite badge, which is not part of a diff).
+     */
+    @Override
+    public boolean isContentTheSame(int position, ListDiffer.Rows newRows, int newPosition) {
+        String posterPath = mPosterPaths[position];
+        String newPosterPath = ((MovieStore) newRows).mPosterPaths[newPosition];
+        return posterPath == null ? newPosterPath == null : posterPath.equals(newPosterPath);
+    }
+
+    private short languageIndexOf(String language) {
+        if (language == null) {
+            return -1;
+        }
+        Short index = mLanguageIndex.get(language);
+        if (index == null) {
+            index = (short) mLanguageTable.size();
+            mLanguageTable.add(language);
+            mLanguageIndex.put(language, index);
+        }
+        return index;
+    }
+
+    private String pooledGenres(String genres) {
+        if (genres == null) {
+            return null;
+        }
+        String pooled = mGenrePool.get(genres);
+        if (pooled == null) {
+            mGenrePool.put(genres, genres);
+            pooled = genres;
+        }
+        return pooled;
+    }
+
+    private void checkPosition(int position) {
+        if (position < 0 || position >= mSize) {
+            throw new IndexOutOfBoundsException("position " + position + ", size " + mSize);
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mIds.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, mIds.length * 2);
+        mIds = Arrays.copyOf(mIds, newCapacity);
+        mVoteCounts = Arrays.copyOf(mVoteCounts, newCapacity);
+        mVoteAverages = Arrays.copyOf(mVoteAverages, newCapacity);
+        mFavorites = Arrays.copyOf(mFavorites, newCapacity);
+        mLanguages = Arrays.copyOf(mLanguages, newCapacity);
+        mPosterPaths = Arrays.copyOf(mPosterPaths, newCapacity);
+        mBackdropPaths = Arrays.copyOf(mBackdropPaths, newCapacity);
+        mTitles = Arrays.copyOf(mTitles, newCapacity);
+        mReleaseDates = Arrays.copyOf(mReleaseDates, newCapacity);
+        mGenres = Arrays.copyOf(mGenres, newCapacity);
+        mOverviews = Arrays.copyOf(mOverviews, newCapacity);
+    }
+}
@@ -17,6 +17,7 @@ package com.moemke.android.popmovies;
 
 import android.content.Context;
 import android.content.Intent;
+import android.graphics.Bitmap;
 import android.net.Uri;
 import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
@@ -26,10 +27,15 @@ import android.widget.Button;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import com.moemke.android.popmovies.utilities.ListDiffer;
 import com.moemke.android.popmovies.utilities.NetworkUtils;
+import com.moemke.android.popmovies.utilities.TaskRunner;
+import com.moemke.android.popmovies.utilities.YoutubeThumbnails;
 import com.squareup.picasso.Picasso;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Created by aureamoemke on 02/02/2017.
@@ -47,8 +53,34 @@ class MovieVideoAdapter extends RecyclerView.Adapter<MovieVideoAdapter.MovieVide
     private Context context;
     private String mVideoUriStr;
 
+    // videos are matched by tmdb video id, a row shows the name and the thumbnail of the key
+    static final ListDiffer.ItemCallback<MovieVideo> VIDEO_ITEMS =
+            new ListDiffer.ItemCallback<MovieVideo>() {
+                @Override
+                public Object getKey(MovieVideo video) {
+                    return video.getTrailerId();
+                }
+
+                @Override
+                public boolean areContentsTheSame(MovieVideo oldVideo, MovieVideo newVideo) {
+                    return equals(oldVideo.getKey(), newVideo.getKey())
+                            && equals(oldVideo.getName(), newVideo.getName())
+                            && equals(oldVideo.getSite(), newVideo.getSite());
+                }
+
+                private boolean equals(String a, String b) {
+                    return a == null ? b == null : a.equals(b);
+                }
+            };
+
     ArrayList<MovieVideo> mMovieVideoData;
 
+    private final ListDiffer mDiffer = new ListDiffer(TaskRunner.getInstance());
+
+    // width of the thumbnail views, 0 until DetailActivity knows it
+    private int mThumbnailWidthPx;
+    private final int[] mLocation = new int[2];
+
     /*
      * An on-click handler that we've defined to make it easy for an Activity to interface with
      * our RecyclerView
@@ -83,6 +115,9 @@ class MovieVideoAdapter extends RecyclerView.Adapter<MovieVideoAdapter.MovieVide
         //final TextView mVideoUrl;
         final ImageView mTrailerImgView;
         final TextView mPlayButtonTv;
+        // the thumbnail of the bound video, null if it has none, and whether it was requested
+        String mThumbnailUrl;
+        boolean mThumbnailRequested;
         //final VideoView mTrailerVideoView;
 
         MovieVideoAdapterViewHolder(View view) {
@@ -147,12 +182,75 @@ class MovieVideoAdapter extends RecyclerView.Adapter<MovieVideoAdapter.MovieVide
         MovieVideo chosenMovieVideo = mMovieVideoData.get(position);
         movieVideoAdapterViewHolder.mTrailerNameTv.setText(chosenMovieVideo.name);
 
-        String youtubeImgUrlString = NetworkUtils.buildYoutubeImageUrlString(chosenMovieVideo.key);
-        Picasso.with(movieVideoAdapterViewHolder.mTrailerImgView.getContext()).load(youtubeImgUrlString)
+        Picasso.with(movieVideoAdapterViewHolder.mTrailerImgView.getContext())
+                .cancelRequest(movieVideoAdapterViewHolder.mTrailerImgView);
+        movieVideoAdapterViewHolder.mThumbnailRequested = false;
+        if (!YoutubeThumbnails.hasThumbnail(chosenMovieVideo.site)) {
+            movieVideoAdapterViewHolder.mThumbnailUrl = null;
+            movieVideoAdapterViewHolder.mTrailerImgView.setImageResource(R.drawable.ic_movie_placeholder);
+            return;
+        }
+        // the smallest variant covering the row, the same url for a clip in every movie
+        movieVideoAdapterViewHolder.mThumbnailUrl = NetworkUtils.buildYoutubeImageUrlString(
+                chosenMovieVideo.key, YoutubeThumbnails.selectVariant(mThumbnailWidthPx));
+        movieVideoAdapterViewHolder.mTrailerImgView.setImageDrawable(null);
+        // the list is laid out in full inside the ScrollView, so rows further down wait for
+        // loadVisibleThumbnails
+        loadThumbnailIfVisible(movieVideoAdapterViewHolder);
+    }
+
+    @Override
+    public void onViewRecycled(MovieVideoAdapter.MovieVideoAdapterViewHolder movieVideoAdapterViewHolder) {
+        Picasso.with(movieVideoAdapterViewHolder.mTrailerImgView.getContext())
+                .cancelRequest(movieVideoAdapterViewHolder.mTrailerImgView);
+    }
+
+    /**
+     * Loads the thumbnails of the rows that are on screen, or half a screen away from it, and
+     * not loaded yet. Called when the detail screen scrolls or the list is laid out.
+     *
+     * @param recyclerView The RecyclerView this adapter is set on
+     */
+    public void loadVisibleThumbnails(RecyclerView recyclerView) {
+        for (int i = 0; i < recyclerView.getChildCount(); i++) {
+            MovieVideoAdapter.MovieVideoAdapterViewHolder holder =
+                    (MovieVideoAdapter.MovieVideoAdapterViewHolder) recyclerView.getChildViewHolder(
+                            recyclerView.getChildAt(i));
+            loadThumbnailIfVisible(holder);
+        }
+    }
+
+    /**
+     * @param widthPx The width the thumbnails are shown at, picks the YouTube variant
+     */
+    public void setThumbnailWidth(int widthPx) {
+        mThumbnailWidthPx = widthPx;
+    }
+
+    private void loadThumbnailIfVisible(MovieVideoAdapter.MovieVideoAdapterViewHolder holder) {
+        if (holder.mThumbnailUrl == null || holder.mThumbnailRequested
+                || !isNearScreen(holder.itemView)) {
+            return;
+        }
+        holder.mThumbnailRequested = true;
+        ImageView imageView = holder.mTrailerImgView;
+        PosterRequests.fitWidth(Picasso.with(imageView.getContext()).load(holder.mThumbnailUrl),
+                mThumbnailWidthPx, YoutubeThumbnails.aspectOf(mThumbnailWidthPx))
+                .config(Bitmap.Config.RGB_565)
 //                .placeholder(R.drawable.ic_movie_placeholder)  not nice:shows placeholder while loading
                 .error(R.drawable.ic_movie_placeholder)
-                .into(movieVideoAdapterViewHolder.mTrailerImgView);
+                .into(imageView);
+    }
 
+    private boolean isNearScreen(View view) {
+        if (view.getHeight() == 0) {
+            // not laid out yet
+            return false;
+        }
+        view.getLocationOnScreen(mLocation);
+        int screenHeight = view.getResources().getDisplayMetrics().heightPixels;
+        int margin = screenHeight / 2;
+        return mLocation[1] < screenHeight + margin && mLocation[1] + view.getHeight() > -margin;
     }
 
     /**
@@ -172,11 +270,23 @@ class MovieVideoAdapter extends RecyclerView.Adapter<MovieVideoAdapter.MovieVide
      * created one. This is handy when we get new data from the web but don't want to create a
      * new MovieAdapter to display it.
      *
+     * Only the videos that changed are rebound, see {@link ListDiffer}.
+     *
      * @param MovieVideoData The new movie review data to be displayed.
      */
-    public void setMovieVideoData(ArrayList<MovieVideo> MovieVideoData) {
-        mMovieVideoData = MovieVideoData;
-        notifyDataSetChanged();
+    public void setMovieVideoData(final ArrayList<MovieVideo> MovieVideoData) {
+        mDiffer.submit(listOf(mMovieVideoData), listOf(MovieVideoData), VIDEO_ITEMS,
+                new ListDiffer.Listener() {
+                    @Override
+                    public void onDiffed(ListDiffer.Result result) {
+                        mMovieVideoData = MovieVideoData;
+                        result.dispatchUpdatesTo(MovieVideoAdapter.this);
+                    }
+                });
+    }
+
+    private static List<MovieVideo> listOf(ArrayList<MovieVideo> videos) {
+        return videos == null ? Collections.<MovieVideo>emptyList() : videos;
     }
 
 }
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moemke.android.popmovies;
+
+import android.app.Application;
+import android.database.Cursor;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.moemke.android.popmovies.data.FavoritesContract;
+import com.moemke.android.popmovies.data.FavoritesIndex;
+import com.moemke.android.popmovies.utilities.HttpEngineDownloader;
+import com.moemke.android.popmovies.utilities.ImagePersistenceExecutor;
+import com.moemke.android.popmovies.utilities.NetworkUtils;
+import com.moemke.android.popmovies.utilities.OfflineImageStore;
+import com.moemke.android.popmovies.utilities.OfflinePageStore;
+import com.moemke.android.popmovies.utilities.ResponseCache;
+import com.moemke.android.popmovies.utilities.TaskRunner;
+import com.squareup.picasso.LruCache;
+import com.squareup.picasso.Picasso;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sets up the process wide objects shared by all activities.
+ */
+public class PopMoviesApplication extends Application {
+
+    // Cached tmdb json responses, see NetworkUtils.getTtlPolicy for how long they stay fresh
+    private static final String RESPONSE_CACHE_DIR = "tmdb-responses";
+    private static final long RESPONSE_CACHE_MEMORY_BYTES = 1024 * 1024;
+    private static final long RESPONSE_CACHE_DISK_BYTES = 10 * 1024 * 1024;
+
+    // YouTube thumbnails of the trailer rows, cached apart from the tmdb responses
+    private static final String THUMBNAIL_CACHE_DIR = "youtube-thumbnails";
+    private static final long THUMBNAIL_CACHE_MEMORY_BYTES = 256 * 1024;
+    private static final long THUMBNAIL_CACHE_DISK_BYTES = 5 * 1024 * 1024;
+
+    // Posters and backdrops from tmdb, so the grid of the stored pages is shown without the
+    // network. Decoded posters are kept in Picasso's own memory cache.
+    private static final String TMDB_IMAGE_CACHE_DIR = "tmdb-images";
+    private static final long TMDB_IMAGE_CACHE_MEMORY_BYTES = 256 * 1024;
+    private static final long TMDB_IMAGE_CACHE_DISK_BYTES = 30 * 1024 * 1024;
+
+    // The first pages of popular and top_rated as last fetched, shown on launch and offline
+    private static final String OFFLINE_PAGE_DIR = "offline-pages";
+    private static final int OFFLINE_PAGES = 3;
+
+    // Poster and backdrop files of the favorites, written one or two at a time. Images of
+    // removed favorites stay until the store exceeds its budget.
+    private static final String OFFLINE_IMAGE_DIR = "offline-images";
+    private static final long OFFLINE_IMAGE_BYTES = 50 * 1024 * 1024;
+    private static final int IMAGE_WRITE_THREADS = 2;
+    private static final int IMAGE_WRITE_ATTEMPTS = 3;
+
+    // Threads of the TaskRunner: requests wait on the network, local work on the cpu
+    private static final int IO_THREADS = 4;
+    private static final int CPU_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private static final long POOL_KEEP_ALIVE_SECONDS = 30;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        NetworkUtils.setResponseCache(new ResponseCache(
+                new File(getCacheDir(), RESPONSE_CACHE_DIR), RESPONSE_CACHE_MEMORY_BYTES,
+                RESPONSE_CACHE_DISK_BYTES, NetworkUtils.getTtlPolicy()));
+        OfflinePageStore.setInstance(new OfflinePageStore(
+                new File(getFilesDir(), OFFLINE_PAGE_DIR), OFFLINE_PAGES));
+
+        // Posters go through the same pooled connections as the movie data, and are kept
+        // decoded in a cache sized from the heap of this device. Posters and thumbnails also
+        // keep their jpegs on disk.
+        Map<String, ResponseCache> hostCaches = new HashMap<String, ResponseCache>();
+        hostCaches.put(NetworkUtils.getTmdbImageHost(), new ResponseCache(
+                new File(getCacheDir(), TMDB_IMAGE_CACHE_DIR), TMDB_IMAGE_CACHE_MEMORY_BYTES,
+                TMDB_IMAGE_CACHE_DISK_BYTES, NetworkUtils.getTmdbImageTtlPolicy()));
+        hostCaches.put(NetworkUtils.getYoutubeImageHost(), new ResponseCache(
+                new File(getCacheDir(), THUMBNAIL_CACHE_DIR), THUMBNAIL_CACHE_MEMORY_BYTES,
+                THUMBNAIL_CACHE_DISK_BYTES, NetworkUtils.getYoutubeThumbnailTtlPolicy()));
+        Picasso picasso = new Picasso.Builder(this)
+                .downloader(new HttpEngineDownloader(NetworkUtils.getHttpEngine(), hostCaches))
+                .memoryCache(new LruCache(PosterRequests.memoryCacheBytes(this)))
+                .build();
+        Picasso.setSingletonInstance(picasso);
+
+        // Results of the background work are posted to the main thread
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        Executor mainExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                mainHandler.post(command);
+            }
+        };
+
+        // the grid and the detail screen show the stored images again once they are verified
+        final OfflineImageStore offlineImages = new OfflineImageStore(
+                new File(getFilesDir(), OFFLINE_IMAGE_DIR), OFFLINE_IMAGE_BYTES, mainExecutor);
+        OfflineImageStore.setInstance(offlineImages);
+        ImagePersistenceExecutor.setInstance(new ImagePersistenceExecutor(
+                offlineImages, IMAGE_WRITE_THREADS, IMAGE_WRITE_ATTEMPTS));
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                offlineImages.verify();
+                importLegacyImages(offlineImages);
+            }
+        });
+
+        // Background work of the activities
+        TaskRunner.setInstance(new TaskRunner(
+                newPool("io", IO_THREADS), newPool("cpu", CPU_THREADS), mainExecutor));
+
+        // Start reading the favorite ids before the first grid is bound
+        FavoritesIndex.getInstance(this);
+    }
+
+    /**
+     * @return A pool of threads named after name, whose threads stop when they are idle
+     */
+    private static ThreadPoolExecutor newPool(final String name, int threads) {
+        final AtomicInteger threadNumber = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads,
+                POOL_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable,
+                                "TaskRunner-" + name + "-" + threadNumber.incrementAndGet());
+                        thread.setPriority(Thread.NORM_PRIORITY - 1);
+                        return thread;
+                    }
+                });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Moves the images saved as flat files in getFilesDir() before the OfflineImageStore
+     * existed into the store.
+     */
+    private void importLegacyImages(OfflineImageStore offlineImages) {
+        Cursor cursor = getContentResolver().query(FavoritesContract.FavoritesEntry.CONTENT_URI,
+                new String[]{FavoritesContract.FavoritesEntry.COLUMN_NAME_POSTER_PATH,
+                        FavoritesContract.FavoritesEntry.COLUMN_NAME_BACKDROP_PATH},
+                null, null, null);
+        if (cursor == null) {
+            return;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                for (int column = 0; column < cursor.getColumnCount(); column++) {
+                    String path = cursor.getString(column);
+                    if (path == null || path.length() < 2) {
+                        continue;
+                    }
+                    String key = path.substring(1);
+                    File legacyFile = new File(getFilesDir(), key);
+                    if (legacyFile.isFile() && offlineImages.getFile(key) == null) {
+                        offlineImages.importFile(key, legacyFile, true);
+                    }
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moemke.android.popmovies;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.graphics.Bitmap;
+
+import com.squareup.picasso.RequestCreator;
+
+/**
+ * How posters and backdrops are decoded, and how much memory the decoded images may use.
+ * <p>
+ * Every image is decoded at the size of its view: Picasso picks the inSampleSize from the
+ * requested size, so a w500 poster for a 270px cell is decoded at half size and only then
+ * scaled, instead of being decoded in full. Grid posters are decoded without alpha (RGB_565),
+ * which halves them again; posters have no transparency and the cells are small.
+ * <p>
+ * The same grid request has to be used wherever a grid poster is loaded (bind, prefetch, the
+ * first poster on the detail screen), because the size and config are part of Picasso's cache key.
+ */
+public final class PosterRequests {
+
+    // tmdb posters are 2:3, backdrops 16:9
+    public static final float POSTER_ASPECT = 1.5f;
+    public static final float BACKDROP_ASPECT = 9f / 16f;
+
+    // share of the heap for decoded images, with RGB_565 grid posters
+    private static final int MEMORY_CACHE_FRACTION = 6;
+
+    private PosterRequests() {
+    }
+
+    /**
+     * @param request     A request for a poster shown in the grid
+     * @param cellWidthPx The width of a grid cell in pixels, 0 if unknown
+     * @return request, decoded at the cell size and without alpha
+     */
+    public static RequestCreator grid(RequestCreator request, int cellWidthPx) {
+        return fitWidth(request.config(Bitmap.Config.RGB_565), cellWidthPx, POSTER_ASPECT);
+    }
+
+    /**
+     * @param request A request for an image shown widthPx wide
+     * @param widthPx The width of the view in pixels, 0 if unknown
+     * @param aspect  Height divided by width of the image
+     * @return request, decoded at most at widthPx
+     */
+    public static RequestCreator fitWidth(RequestCreator request, int widthPx, float aspect) {
+        if (widthPx <= 0) {
+            return request;
+        }
+        return request.resize(widthPx, Math.round(widthPx * aspect))
+                .centerCrop()
+                .onlyScaleDown();
+    }
+
+    /**
+     * @return The size of the decoded image cache: a share of the heap the device gives the app
+     */
+    public static int memoryCacheBytes(Context context) {
+        ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        boolean largeHeap =
+                (context.getApplicationInfo().flags & ApplicationInfo.FLAG_LARGE_HEAP) != 0;
+        int memoryClass = largeHeap
+                ? activityManager.getLargeMemoryClass() : activityManager.getMemoryClass();
+        return (int) (1024L * 1024L * memoryClass / MEMORY_CACHE_FRACTION);
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moemke.android.popmovies;
+
+import android.support.v7.widget.GridLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.view.View;
+
+import com.squareup.picasso.Picasso;
+
+/**
+ * Schedules the poster downloads of the grid around scrolling.
+ * <p>
+ * All poster requests of the grid are tagged with the adapter. While the grid is flinging the
+ * tag is paused, so the posters that fly past are not downloaded; once the grid settles or the
+ * user touches it again the requests resume, and the posters the user stopped on are the only
+ * ones left. Holders that are recycled cancel their request (see
+ * MovieAdapter.onViewRecycled). When the grid comes to rest or is dragged slowly, the posters of
+ * the next rows in the scroll direction are fetched at low priority so they are in the cache
+ * before they are bound; nothing is fetched during a fling or a fast drag.
+ */
+public class PosterScheduler extends RecyclerView.OnScrollListener {
+
+    private static final String TAG = PosterScheduler.class.getSimpleName();
+
+    private final Picasso mPicasso;
+    private final MovieAdapter mAdapter;
+    private final GridLayoutManager mLayoutManager;
+    private final int mPrefetchRows;
+
+    private boolean mPaused;
+    private int mScrollState = RecyclerView.SCROLL_STATE_IDLE;
+    // 1 if the grid last scrolled down, -1 up, 0 before the first scroll
+    private int mLastDirection;
+
+    // positions fetched by the last prefetch, not fetched again while they stay ahead
+    private int mPrefetchedFrom = RecyclerView.NO_POSITION;
+    private int mPrefetchedTo = RecyclerView.NO_POSITION;
+
+    /**
+     * @param picasso       The Picasso instance the adapter loads its posters with
+     * @param adapter       The adapter, also the tag of all its poster requests
+     * @param layoutManager The layout manager of the grid
+     * @param prefetchRows  Number of rows ahead of the visible ones that are fetched
+     */
+    public PosterScheduler(Picasso picasso, MovieAdapter adapter, GridLayoutManager layoutManager,
+                           int prefetchRows) {
+        mPicasso = picasso;
+        mAdapter = adapter;
+        mLayoutManager = layoutManager;
+        mPrefetchRows = prefetchRows;
+    }
+
+    @Override
+    public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+        mScrollState = newState;
+        boolean fling = newState == RecyclerView.SCROLL_STATE_SETTLING;
+        if (fling != mPaused) {
+            mPaused = fling;
+            if (fling) {
+                mPicasso.pauseTag(mAdapter);
+            } else {
+                mPicasso.resumeTag(mAdapter);
+            }
+        }
+        if (newState == RecyclerView.SCROLL_STATE_IDLE && mLastDirection != 0) {
+            // the grid stopped, fetch the rows after the ones the user stopped on
+            prefetch(mLastDirection);
+        }
+    }
+
+    @Override
+    public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+        if (dy == 0) {
+            return;
+        }
+        mLastDirection = dy > 0 ? 1 : -1;
+        // a fetch has no target, so neither cancelTag nor a recycled holder can cancel it:
+        // fetched during a fling, every row flown past would be downloaded once it settles
+        if (mPaused) {
+            return;
+        }
+        if (mScrollState == RecyclerView.SCROLL_STATE_DRAGGING && isFastDrag(dy)) {
+            return;
+        }
+        prefetch(mLastDirection);
+    }
+
+    /**
+     * @param dy The distance of one scroll step
+     * @return True if the step is longer than a row, the rows ahead would then be passed by
+     * before they are downloaded
+     */
+    private boolean isFastDrag(int dy) {
+        int first = mLayoutManager.findFirstVisibleItemPosition();
+        View row = first == RecyclerView.NO_POSITION ? null
+                : mLayoutManager.findViewByPosition(first);
+        return row != null && Math.abs(dy) > row.getHeight();
+    }
+
+    /**
+     * Fetches the posters of the next mPrefetchRows rows in the scroll direction.
+     *
+     * @param direction 1 when scrolling down, -1 when scrolling up
+     */
+    private void prefetch(int direction) {
+        if (mPrefetchRows <= 0) {
+            return;
+        }
+        int first = mLayoutManager.findFirstVisibleItemPosition();
+        int last = mLayoutManager.findLastVisibleItemPosition();
+        if (first == RecyclerView.NO_POSITION) {
+            return;
+        }
+        int ahead = mPrefetchRows * mLayoutManager.getSpanCount();
+        int from;
+        int to;
+        if (direction > 0) {
+            from = last + 1;
+            to = Math.min(mAdapter.getItemCount() - 1, last + ahead);
+        } else {
+            from = Math.max(0, first - ahead);
+            to = first - 1;
+        }
+        for (int position = from; position <= to; position++) {
+            if (position >= mPrefetchedFrom && position <= mPrefetchedTo) {
+                continue;
+            }
+            String url = mAdapter.getPosterUrl(position);
+            if (url != null) {
+                // queued behind the visible posters; the same request as the bind, so the bind
+                // finds it in the memory cache
+                PosterRequests.grid(mPicasso.load(url), mAdapter.getPosterWidth())
+                        .tag(mAdapter)
+                        .priority(Picasso.Priority.LOW)
+                        .fetch();
+            }
+        }
+        mPrefetchedFrom = from;
+        mPrefetchedTo = to;
+    }
+
+    /**
+     * Cancels all poster requests of the adapter, i.e. when the activity is destroyed.
+     */
+    public void cancelAll() {
+        mPicasso.cancelTag(mAdapter);
+    }
+}
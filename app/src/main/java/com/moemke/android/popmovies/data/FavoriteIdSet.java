@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moemke.android.popmovies.data;
+
+/**
+ * An immutable set of movie ids, stored as primitive ints in an open addressing hash table.
+ * <p>
+ * Because it never changes after construction it can be read from any thread without locking,
+ * and {@link #contains(int)} does not allocate (no Integer boxing, unlike a HashSet).
+ */
+public final class FavoriteIdSet {
+
+    public static final FavoriteIdSet EMPTY = new FavoriteIdSet(new int[0], 0);
+
+    // 0 marks an empty slot, whether 0 itself is in the set is kept apart
+    private static final int FREE = 0;
+
+    private final int[] mTable;
+    private final int mMask;
+    private final boolean mHasFree;
+    private final int mSize;
+
+    /**
+     * @param ids   The movie ids, duplicates are allowed
+     * @param count The number of ids to use from the start of the array
+     */
+    public FavoriteIdSet(int[] ids, int count) {
+        // keep the table at most half full so probe sequences stay short
+        int capacity = 2;
+        while (capacity < count * 2) {
+            capacity <<= 1;
+        }
+        mTable = new int[capacity];
+        mMask = capacity - 1;
+
+        boolean hasFree = false;
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            int id = ids[i];
+            if (id == FREE) {
+                if (!hasFree) {
+                    hasFree = true;
+                    size++;
+                }
+                continue;
+            }
+            int slot = hash(id) & mMask;
+            while (mTable[slot] != FREE && mTable[slot] != id) {
+                slot = (slot + 1) & mMask;
+            }
+            if (mTable[slot] == FREE) {
+                mTable[slot] = id;
+                size++;
+            }
+        }
+        mHasFree = hasFree;
+        mSize = size;
+    }
+
+    public boolean contains(int id) {
+        if (id == FREE) {
+            return mHasFree;
+        }
+        int slot = hash(id) & mMask;
+        int value;
+        while ((value = mTable[slot]) != FREE) {
+            if (value == id) {
+                return true;
+            }
+            slot = (slot + 1) & mMask;
+        }
+        return false;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * tmdb ids are mostly consecutive, spread them over the table.
+     */
+    private static int hash(int id) {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
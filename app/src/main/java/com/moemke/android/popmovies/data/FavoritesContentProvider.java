@@ -1,15 +1,21 @@
 package com.moemke.android.popmovies.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
 
 /**
  * Created by aureamoemke on 01/03/2017.
@@ -19,11 +25,23 @@ public class FavoritesContentProvider extends ContentProvider {
 
     private FavoritesDbHelper mFavoritesDbHelper;
 
+    // set while applyBatch runs on this thread, the operations then notify once at the end
+    private final ThreadLocal<boolean[]> mBatchChanged = new ThreadLocal<boolean[]>();
+
     // Define final integer constants for the directory of favorites and a single item.
     // It's convention to use 100, 200, 300, etc for directories,
     // and related ints (101, 102, ..) for items in that directory.
     public static final int FAVORITES = 100;
     public static final int FAVORITE_WITH_ID = 101;
+    public static final int FAVORITE_DETAILS_WITH_ID = 103;
+    public static final int FAVORITE_GENRES_WITH_ID = 104;
+    public static final int FAVORITE_VIDEOS_WITH_ID = 105;
+    public static final int FAVORITE_REVIEWS_WITH_ID = 106;
+
+    // Favorites joined with their overview and genres, for queries that need those columns
+    private static final String FAVORITES_WITH_DETAILS = FavoritesContract.FavoritesEntry.TABLE_NAME
+            + " LEFT OUTER JOIN " + FavoritesContract.FavoriteDetailsEntry.TABLE_NAME
+            + " USING (" + FavoritesContract.FavoritesEntry.COLUMN_NAME_MOVIE_ID + ")";
 
 
     // Declare a static variable for the Uri matcher that you construct
@@ -48,24 +66,38 @@ public class FavoritesContentProvider extends ContentProvider {
         uriMatcher.addURI(FavoritesContract.AUTHORITY, FavoritesContract.PATH_FAVORITES, FAVORITES);
         uriMatcher.addURI(FavoritesContract.AUTHORITY, FavoritesContract.PATH_FAVORITES + "/#",
                 FAVORITE_WITH_ID);
+        uriMatcher.addURI(FavoritesContract.AUTHORITY, FavoritesContract.PATH_FAVORITES + "/"
+                + FavoritesContract.PATH_FAVORITE_DETAILS + "/#", FAVORITE_DETAILS_WITH_ID);
+        uriMatcher.addURI(FavoritesContract.AUTHORITY, FavoritesContract.PATH_FAVORITES + "/"
+                + FavoritesContract.PATH_FAVORITE_GENRES + "/#", FAVORITE_GENRES_WITH_ID);
+        uriMatcher.addURI(FavoritesContract.AUTHORITY, FavoritesContract.PATH_FAVORITES + "/"
+                + FavoritesContract.PATH_FAVORITE_VIDEOS + "/#", FAVORITE_VIDEOS_WITH_ID);
+        uriMatcher.addURI(FavoritesContract.AUTHORITY, FavoritesContract.PATH_FAVORITES + "/"
+                + FavoritesContract.PATH_FAVORITE_REVIEWS + "/#", FAVORITE_REVIEWS_WITH_ID);
 
         return uriMatcher;
     }
 
     /**
      * Handles requests to insert a set of new rows. In Popular Movies, we are not inserting
-     * multiple rows. There is no use case for this, but just to provide complete functionality.
+     * multiple favorites. There is no use case for this, but just to provide complete
+     * functionality.
+     * On the genres, videos or reviews of a favorite, the values replace the rows of the
+     * movie and only the rows that changed are written, see
+     * {@link FavoritesDbHelper#replaceDetailRows}.
      *
      * @param uri    The content:// URI of the insertion request.
      * @param values An array of sets of column_name/value pairs to add to the database.
      *               This must not be {@code null}.
-     * @return The number of values that were inserted.
+     * @return The number of values that were inserted, for the rows of a favorite the number
+     * of rows inserted, replaced or deleted
      */
     @Override
     public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] values) {
         final SQLiteDatabase db = mFavoritesDbHelper.getWritableDatabase();
 
-        switch (sUriMatcher.match(uri)) {
+        int match = sUriMatcher.match(uri);
+        switch (match) {
 
             // Only perform our implementation of bulkInsert if the URI matches the FAVORITES code
             case FAVORITES:
@@ -73,7 +105,7 @@ public class FavoritesContentProvider extends ContentProvider {
                 int rowsInserted = 0;
                 try {
                     for (ContentValues value : values) {
-                        long _id = db.insert(FavoritesContract.FavoritesEntry.TABLE_NAME, null, value);
+                        long _id = FavoritesDbHelper.insertFavorite(db, value);
                         if (_id != -1) {
                             rowsInserted++;
                         }
@@ -84,18 +116,73 @@ public class FavoritesContentProvider extends ContentProvider {
                 }
 
                 if (rowsInserted > 0) {
-                    getContext().getContentResolver().notifyChange(uri, null);
+                    notifyChange(uri);
                 }
 
                 // Return the number of rows inserted from our implementation of bulkInsert
                 return rowsInserted;
 
+            case FAVORITE_GENRES_WITH_ID:
+            case FAVORITE_VIDEOS_WITH_ID:
+            case FAVORITE_REVIEWS_WITH_ID:
+                //uri: content://<authority>/favorites/<genres|videos|reviews>/#, # is the movie id
+                int rowsChanged = FavoritesDbHelper.replaceDetailRows(db,
+                        detailRowsTableFor(match), detailRowsKeyFor(match),
+                        Integer.parseInt(uri.getPathSegments().get(2)), values);
+                if (rowsChanged > 0) {
+                    notifyChange(uri);
+                }
+                return rowsChanged;
+
             // If the URI does match match FAVORITE, return the super implementation of bulkInsert
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /**
+     * Applies all the operations in one transaction, so a batch of favorite changes costs one
+     * commit, and observers are notified once instead of once per operation.
+     * If any operation fails none of them is applied.
+     *
+     * @param operations The operations to apply, all on favorites uris
+     * @return The results of the operations
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mFavoritesDbHelper.getWritableDatabase();
+        boolean[] changed = new boolean[1];
+        mBatchChanged.set(changed);
+        ContentProviderResult[] results;
+        db.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mBatchChanged.remove();
+        }
+        if (changed[0]) {
+            getContext().getContentResolver().notifyChange(
+                    FavoritesContract.FavoritesEntry.CONTENT_URI, null);
+        }
+        return results;
+    }
+
+    /**
+     * Notifies the observers of uri, or only remembers the change if a batch is being applied.
+     */
+    private void notifyChange(Uri uri) {
+        boolean[] batchChanged = mBatchChanged.get();
+        if (batchChanged != null) {
+            batchChanged[0] = true;
+        } else {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
     // Implement insert to handle requests to insert a single new row of data
     @Override
     public Uri insert(@NonNull Uri uri, ContentValues values) {
@@ -110,7 +197,8 @@ public class FavoritesContentProvider extends ContentProvider {
             case FAVORITES:
                 // Insert new values into the database
                 // Inserting values into favorites table (long id is the new id auto-generated)
-                long id = db.insert(FavoritesContract.FavoritesEntry.TABLE_NAME, null, values);
+                // the overview and genres are written to the details table
+                long id = FavoritesDbHelper.insertFavorite(db, values);
                 if (id > 0) {
                     returnUri = ContentUris.withAppendedId(FavoritesContract.FavoritesEntry.CONTENT_URI, id);
                 } else {
@@ -124,7 +212,7 @@ public class FavoritesContentProvider extends ContentProvider {
         }
 
         // Notify the resolver if the uri has been changed, and return the newly inserted URI
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
 
         // Return constructed uri (this points to the newly inserted row of data)
         return returnUri;
@@ -133,7 +221,8 @@ public class FavoritesContentProvider extends ContentProvider {
     @Override
     public boolean onCreate() {
         Context context = getContext();
-        mFavoritesDbHelper = new FavoritesDbHelper(context);
+        // the process wide helper, shared with FavoritesIndex
+        mFavoritesDbHelper = FavoritesDbHelper.getInstance(context);
         return true;
     }
 
@@ -153,7 +242,8 @@ public class FavoritesContentProvider extends ContentProvider {
         switch (match) {
             // Query for the tasks directory
             case FAVORITES:
-                retCursor = db.query(FavoritesContract.FavoritesEntry.TABLE_NAME,
+                // the grid asks for GRID_PROJECTION, which is read from the timestamp index only
+                retCursor = db.query(favoritesTableFor(projection),
                         projection,
                         selection,
                         selectionArgs,
@@ -174,7 +264,7 @@ public class FavoritesContentProvider extends ContentProvider {
                 //selection is the "_id=?" and the selection args is the row id from the uri
                 String mSelection = "_id=?";
                 String[] mSelectionArgs = new String[]{id};
-                retCursor = db.query(FavoritesContract.FavoritesEntry.TABLE_NAME,
+                retCursor = db.query(favoritesTableFor(projection),
                         projection,
                         mSelection,
                         mSelectionArgs,
@@ -182,6 +272,30 @@ public class FavoritesContentProvider extends ContentProvider {
                         null,
                         sortOrder);
                 break;
+            case FAVORITE_DETAILS_WITH_ID:
+                //uri: content://<authority>/favorites/details/#, # is the movie id
+                retCursor = db.query(FavoritesContract.FavoriteDetailsEntry.TABLE_NAME,
+                        projection,
+                        FavoritesContract.FavoriteDetailsEntry.COLUMN_NAME_MOVIE_ID + "=?",
+                        new String[]{uri.getPathSegments().get(2)},
+                        null,
+                        null,
+                        sortOrder);
+                break;
+            case FAVORITE_GENRES_WITH_ID:
+            case FAVORITE_VIDEOS_WITH_ID:
+            case FAVORITE_REVIEWS_WITH_ID:
+                //uri: content://<authority>/favorites/<genres|videos|reviews>/#, # is the movie id
+                //the rows are in the order tmdb lists them unless asked otherwise
+                retCursor = db.query(detailRowsTableFor(match),
+                        projection,
+                        FavoritesContract.FavoriteGenresEntry.COLUMN_NAME_MOVIE_ID + "=?",
+                        new String[]{uri.getPathSegments().get(2)},
+                        null,
+                        null,
+                        sortOrder != null ? sortOrder
+                                : FavoritesContract.FavoriteGenresEntry.COLUMN_NAME_POSITION);
+                break;
             // Default exception
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
@@ -242,7 +356,7 @@ public class FavoritesContentProvider extends ContentProvider {
         // Notify the resolver of a change and return the number of items deleted
         if (favoritesDeleted != 0) {
             // A task was deleted, set notification
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
 
         // Return the number of tasks deleted
@@ -264,19 +378,13 @@ public class FavoritesContentProvider extends ContentProvider {
 
         switch (match) {
             case FAVORITES:
-                favoritesUpdated = mFavoritesDbHelper.getWritableDatabase()
-                        .update(FavoritesContract.FavoritesEntry.TABLE_NAME,
-                                values,
-                                selection,
-                                selectionArgs);
-
+                favoritesUpdated = updateFavorites(values, selection, selectionArgs);
                 break;
             case FAVORITE_WITH_ID:
                 //update a single task by getting the id
                 String id = uri.getPathSegments().get(1);
                 //using selections
-                favoritesUpdated = mFavoritesDbHelper.getWritableDatabase()
-                        .update(FavoritesContract.FavoritesEntry.TABLE_NAME, values, "_id=?", new String[]{id});
+                favoritesUpdated = updateFavorites(values, "_id=?", new String[]{id});
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
@@ -284,11 +392,89 @@ public class FavoritesContentProvider extends ContentProvider {
 
         if (favoritesUpdated != 0) {
             //set notifications if a task was updated
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
 
         // return number of favorites updated
         return favoritesUpdated;
     }
 
+    /**
+     * Updates the favorites matching selection, the overview and genre_list in values are
+     * written to their rows in the details table.
+     *
+     * @return The number of favorites updated
+     */
+    private int updateFavorites(ContentValues values, String selection, String[] selectionArgs) {
+        final SQLiteDatabase db = mFavoritesDbHelper.getWritableDatabase();
+        ContentValues favoriteValues = new ContentValues(values);
+        ContentValues detailValues = FavoritesDbHelper.splitDetails(favoriteValues);
+
+        db.beginTransaction();
+        try {
+            int favoritesUpdated = 0;
+            if (detailValues.size() > 0) {
+                String detailSelection = FavoritesContract.FavoriteDetailsEntry.COLUMN_NAME_MOVIE_ID
+                        + " IN (SELECT " + FavoritesContract.FavoritesEntry.COLUMN_NAME_MOVIE_ID
+                        + " FROM " + FavoritesContract.FavoritesEntry.TABLE_NAME
+                        + (TextUtils.isEmpty(selection) ? "" : " WHERE " + selection) + ")";
+                favoritesUpdated = db.update(FavoritesContract.FavoriteDetailsEntry.TABLE_NAME,
+                        detailValues, detailSelection, selectionArgs);
+            }
+            if (favoriteValues.size() > 0) {
+                favoritesUpdated = db.update(FavoritesContract.FavoritesEntry.TABLE_NAME,
+                        favoriteValues, selection, selectionArgs);
+            }
+            db.setTransactionSuccessful();
+            return favoritesUpdated;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * @return The table of the genres, videos or reviews of a favorite for their match code
+     */
+    private static String detailRowsTableFor(int match) {
+        switch (match) {
+            case FAVORITE_GENRES_WITH_ID:
+                return FavoritesContract.FavoriteGenresEntry.TABLE_NAME;
+            case FAVORITE_VIDEOS_WITH_ID:
+                return FavoritesContract.FavoriteVideosEntry.TABLE_NAME;
+            default:
+                return FavoritesContract.FavoriteReviewsEntry.TABLE_NAME;
+        }
+    }
+
+    /**
+     * @return The column telling the rows of one favorite apart in detailRowsTableFor(match)
+     */
+    private static String detailRowsKeyFor(int match) {
+        switch (match) {
+            case FAVORITE_GENRES_WITH_ID:
+                return FavoritesContract.FavoriteGenresEntry.COLUMN_NAME_POSITION;
+            case FAVORITE_VIDEOS_WITH_ID:
+                return FavoritesContract.FavoriteVideosEntry.COLUMN_NAME_VIDEO_ID;
+            default:
+                return FavoritesContract.FavoriteReviewsEntry.COLUMN_NAME_REVIEW_ID;
+        }
+    }
+
+    /**
+     * @return The favorites table alone if projection only has its columns, else the favorites
+     * joined with their details
+     */
+    private static String favoritesTableFor(String[] projection) {
+        if (projection == null) {
+            return FAVORITES_WITH_DETAILS;
+        }
+        for (String column : projection) {
+            if (FavoritesContract.FavoritesEntry.COLUMN_NAME_OVERVIEW.equals(column)
+                    || FavoritesContract.FavoritesEntry.COLUMN_NAME_GENRE_LIST.equals(column)) {
+                return FAVORITES_WITH_DETAILS;
+            }
+        }
+        return FavoritesContract.FavoritesEntry.TABLE_NAME;
+    }
+
 }
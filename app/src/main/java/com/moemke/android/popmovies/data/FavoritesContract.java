@@ -26,6 +26,12 @@ public final class FavoritesContract {
     // Define the possible paths for accessing data in this contract
     // This is the path for the "favorites" directory
     public static final String PATH_FAVORITES = "favorites";
+    // This is the path for the overview and genres of a favorite, read by the detail screen
+    public static final String PATH_FAVORITE_DETAILS = "details";
+    // These are the paths for the genres, videos and reviews of a favorite, kept for offline use
+    public static final String PATH_FAVORITE_GENRES = "genres";
+    public static final String PATH_FAVORITE_VIDEOS = "videos";
+    public static final String PATH_FAVORITE_REVIEWS = "reviews";
 
     // To prevent someone from accidentally instantiating the contract class,
     // make the constructor private.
@@ -47,15 +53,127 @@ public final class FavoritesContract {
         // "_ID" column in addition to the two below
         public static final String COLUMN_NAME_MOVIE_ID = "movie_id";
         public static final String COLUMN_NAME_POSTER_PATH = "poster_path";
-        public static final String COLUMN_NAME_OVERVIEW = "overview";
         public static final String COLUMN_NAME_RELEASE_DATE = "release_date";
         public static final String COLUMN_NAME_ORIGINAL_TITLE = "original_title";
         public static final String COLUMN_NAME_ORIGINAL_LANGUAGE = "original_language";
         public static final String COLUMN_NAME_BACKDROP_PATH = "backdrop_path";
         public static final String COLUMN_NAME_VOTE_COUNT = "vote_count";
         public static final String COLUMN_NAME_VOTE_AVERAGE = "vote_average";
-        public static final String COLUMN_NAME_GENRE_LIST = "genre_list";
         public static final String COLUMN_NAME_TIMESTAMP = "timestamp";
+        // The long text columns are stored in FavoriteDetailsEntry.TABLE_NAME. They can still be
+        // inserted and updated through CONTENT_URI, and a query that asks for them (or for all
+        // columns) joins the details table.
+        public static final String COLUMN_NAME_OVERVIEW = FavoriteDetailsEntry.COLUMN_NAME_OVERVIEW;
+        public static final String COLUMN_NAME_GENRE_LIST = FavoriteDetailsEntry.COLUMN_NAME_GENRE_LIST;
+
+        // Index on the grid columns in timestamp order, the grid query reads only this index
+        public static final String INDEX_NAME_TIMESTAMP = "favorites_timestamp_index";
+
+        // The columns shown in the grid, all in INDEX_NAME_TIMESTAMP (_ID is the rowid)
+        public static final String[] GRID_PROJECTION = {
+                _ID,
+                COLUMN_NAME_MOVIE_ID,
+                COLUMN_NAME_POSTER_PATH,
+                COLUMN_NAME_RELEASE_DATE,
+                COLUMN_NAME_ORIGINAL_TITLE,
+                COLUMN_NAME_ORIGINAL_LANGUAGE,
+                COLUMN_NAME_BACKDROP_PATH,
+                COLUMN_NAME_VOTE_COUNT,
+                COLUMN_NAME_VOTE_AVERAGE
+        };
+
+    }
+
+    /* The overview and genres of a favorite, one row per favorite */
+    public static class FavoriteDetailsEntry {
+
+        // Details content URI = favorites content URI + "/details", followed by the movie id
+        public static final Uri CONTENT_URI = FavoritesEntry.CONTENT_URI.buildUpon()
+                .appendPath(PATH_FAVORITE_DETAILS).build();
+
+        public static final String TABLE_NAME = "favorite_details";
+
+        public static final String COLUMN_NAME_MOVIE_ID = "movie_id";
+        public static final String COLUMN_NAME_OVERVIEW = "overview";
+        public static final String COLUMN_NAME_GENRE_LIST = "genre_list";
+        // When the genres, videos and reviews of the favorite were last written, in milliseconds
+        // since the epoch; null until they are written the first time
+        public static final String COLUMN_NAME_ROWS_UPDATED = "rows_updated";
+
+        public static Uri buildDetailsUri(int movieId) {
+            return CONTENT_URI.buildUpon().appendPath(Integer.toString(movieId)).build();
+        }
+    }
+
+    /*
+     * The genres, videos and reviews of a favorite, one row each, in the order tmdb lists them.
+     * Query the uri of a movie for its rows in COLUMN_NAME_POSITION order. bulkInsert on it
+     * makes the rows of the movie the given ones: rows that are unchanged are not written and
+     * rows that are no longer given are deleted. Rows are only kept for favorites, they are
+     * deleted with the favorite.
+     */
+
+    public static class FavoriteGenresEntry {
+
+        // Genres content URI = favorites content URI + "/genres", followed by the movie id
+        public static final Uri CONTENT_URI = FavoritesEntry.CONTENT_URI.buildUpon()
+                .appendPath(PATH_FAVORITE_GENRES).build();
+
+        public static final String TABLE_NAME = "favorite_genres";
+
+        // The key of a genre is its position
+        public static final String COLUMN_NAME_MOVIE_ID = "movie_id";
+        public static final String COLUMN_NAME_POSITION = "position";
+        public static final String COLUMN_NAME_NAME = "name";
+
+        public static Uri buildGenresUri(int movieId) {
+            return CONTENT_URI.buildUpon().appendPath(Integer.toString(movieId)).build();
+        }
+    }
+
+    public static class FavoriteVideosEntry {
+
+        // Videos content URI = favorites content URI + "/videos", followed by the movie id
+        public static final Uri CONTENT_URI = FavoritesEntry.CONTENT_URI.buildUpon()
+                .appendPath(PATH_FAVORITE_VIDEOS).build();
+
+        public static final String TABLE_NAME = "favorite_videos";
+
+        // The key of a video is its tmdb id
+        public static final String COLUMN_NAME_MOVIE_ID = "movie_id";
+        public static final String COLUMN_NAME_VIDEO_ID = "video_id";
+        public static final String COLUMN_NAME_POSITION = "position";
+        public static final String COLUMN_NAME_KEY = "video_key";
+        public static final String COLUMN_NAME_NAME = "name";
+        public static final String COLUMN_NAME_SITE = "site";
+        public static final String COLUMN_NAME_SIZE = "size";
+        public static final String COLUMN_NAME_TYPE = "type";
+
+        public static Uri buildVideosUri(int movieId) {
+            return CONTENT_URI.buildUpon().appendPath(Integer.toString(movieId)).build();
+        }
+    }
+
+    public static class FavoriteReviewsEntry {
+
+        // Reviews content URI = favorites content URI + "/reviews", followed by the movie id
+        public static final Uri CONTENT_URI = FavoritesEntry.CONTENT_URI.buildUpon()
+                .appendPath(PATH_FAVORITE_REVIEWS).build();
+
+        public static final String TABLE_NAME = "favorite_reviews";
+
+        // The key of a review is its tmdb id
+        public static final String COLUMN_NAME_MOVIE_ID = "movie_id";
+        public static final String COLUMN_NAME_REVIEW_ID = "review_id";
+        public static final String COLUMN_NAME_POSITION = "position";
+        public static final String COLUMN_NAME_AUTHOR = "author";
+        public static final String COLUMN_NAME_CONTENT = "content";
+        public static final String COLUMN_NAME_URL = "url";
+        // 1 if the content is only the preview, see MoviePreferences.REVIEW_PREVIEW_LENGTH
+        public static final String COLUMN_NAME_TRUNCATED = "truncated";
 
+        public static Uri buildReviewsUri(int movieId) {
+            return CONTENT_URI.buildUpon().appendPath(Integer.toString(movieId)).build();
+        }
     }
 }
@@ -1,11 +1,23 @@
 package com.moemke.android.popmovies.data;
 
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.text.TextUtils;
 
+import com.moemke.android.popmovies.data.FavoritesContract.FavoriteDetailsEntry;
+import com.moemke.android.popmovies.data.FavoritesContract.FavoriteGenresEntry;
+import com.moemke.android.popmovies.data.FavoritesContract.FavoriteReviewsEntry;
+import com.moemke.android.popmovies.data.FavoritesContract.FavoriteVideosEntry;
 import com.moemke.android.popmovies.data.FavoritesContract.FavoritesEntry;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * Created by aureamoemke on 27/02/2017.
  */
@@ -16,30 +28,247 @@ public class FavoritesDbHelper extends SQLiteOpenHelper {
 
     // DATABASE_VERSION initially set to 1
     // If you change the database schema, you must increment the database version
-    private static final int DATABASE_VERSION = 3;
+    // Version 4: overview and genre_list moved to favorite_details, covering index on timestamp
+    // Version 5: genres, videos and reviews of the favorites in their own tables
+    private static final int DATABASE_VERSION = 5;
+
+    // The columns of the favorites table, without _ID
+    private static final String FAVORITES_COLUMNS = FavoritesEntry.COLUMN_NAME_MOVIE_ID + ", " +
+            FavoritesEntry.COLUMN_NAME_POSTER_PATH + ", " +
+            FavoritesEntry.COLUMN_NAME_RELEASE_DATE + ", " +
+            FavoritesEntry.COLUMN_NAME_ORIGINAL_TITLE + ", " +
+            FavoritesEntry.COLUMN_NAME_ORIGINAL_LANGUAGE + ", " +
+            FavoritesEntry.COLUMN_NAME_BACKDROP_PATH + ", " +
+            FavoritesEntry.COLUMN_NAME_VOTE_COUNT + ", " +
+            FavoritesEntry.COLUMN_NAME_VOTE_AVERAGE + ", " +
+            FavoritesEntry.COLUMN_NAME_TIMESTAMP;
+
+    // Pages of 4KB cached by the writing connection, the default is 2000KB
+    private static final int PAGE_CACHE_PAGES = 1000;
+
+    // Prepared statements kept per connection, the maximum allowed by SQLiteDatabase
+    private static final int STATEMENT_CACHE_SIZE = 100;
+
+    private static FavoritesDbHelper sInstance;
+
+    /**
+     * Returns the helper shared by the whole process. There is a single owner of the database,
+     * so its connections (one writer and, with write-ahead logging, several readers) are pooled
+     * instead of several helpers locking each other out.
+     */
+    public static synchronized FavoritesDbHelper getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new FavoritesDbHelper(context.getApplicationContext());
+        }
+        return sInstance;
+    }
 
     // Create a Constructor that takes a context and calls the parent constructor
-    // Constructor
+    // Constructor, use getInstance in the app
     public FavoritesDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            // readers no longer wait for a writer, and a commit is one append to the log
+            setWriteAheadLoggingEnabled(true);
+        }
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (db.isReadOnly()) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            db.enableWriteAheadLogging();
+        }
+        // with WAL, NORMAL only syncs at checkpoints and is still safe from corruption; a crash
+        // can lose the last commits, which for favorites is acceptable
+        db.execSQL("PRAGMA synchronous = NORMAL");
+        db.execSQL("PRAGMA cache_size = " + PAGE_CACHE_PAGES);
+        db.execSQL("PRAGMA temp_store = MEMORY");
+        db.setMaxSqlCacheSize(STATEMENT_CACHE_SIZE);
     }
 
     // Override the onCreate method
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
-        // Create a table to hold favorites data
+        createFavoritesTable(sqLiteDatabase);
+        createDetailsTable(sqLiteDatabase);
+        createIndexAndTrigger(sqLiteDatabase);
+        createDetailRowTables(sqLiteDatabase);
+    }
+
+    // Override the onUpgrade method
+    @Override
+    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        // SQLiteOpenHelper runs onUpgrade in a transaction, a failed migration leaves the
+        // database at oldVersion
+        if (oldVersion < 3) {
+            // The schemas before version 3 were never migrated, drop them and start over
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + FavoriteGenresEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + FavoriteVideosEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + FavoriteReviewsEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + FavoriteDetailsEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + FavoritesEntry.TABLE_NAME);
+            onCreate(sqLiteDatabase);
+            return;
+        }
+        if (oldVersion < 4) {
+            migrateToVersion4(sqLiteDatabase);
+        }
+        if (oldVersion < 5) {
+            createDetailRowTables(sqLiteDatabase);
+        }
+    }
+
+    /**
+     * Inserts a favorite, the overview and genre_list in values go to the details table.
+     * Like the favorites table, an existing favorite with the same movie id is replaced.
+     *
+     * @param db     The database to write to
+     * @param values Columns of FavoritesEntry, including the overview and genre_list
+     * @return The _ID of the new row, or -1 if it could not be inserted
+     */
+    static long insertFavorite(SQLiteDatabase db, ContentValues values) {
+        ContentValues favoriteValues = new ContentValues(values);
+        ContentValues detailValues = splitDetails(favoriteValues);
+
+        db.beginTransaction();
+        try {
+            long id = db.insert(FavoritesEntry.TABLE_NAME, null, favoriteValues);
+            if (id == -1) {
+                return -1;
+            }
+            detailValues.put(FavoriteDetailsEntry.COLUMN_NAME_MOVIE_ID,
+                    favoriteValues.getAsInteger(FavoritesEntry.COLUMN_NAME_MOVIE_ID));
+            db.insertWithOnConflict(FavoriteDetailsEntry.TABLE_NAME, null, detailValues,
+                    SQLiteDatabase.CONFLICT_REPLACE);
+            db.setTransactionSuccessful();
+            return id;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Makes rows the rows of a favorite in one of the detail row tables, writing only what
+     * changed. Rows are matched by keyColumn: unchanged rows are not written, changed and new
+     * rows are replaced and the rows that are not in rows anymore are deleted. Nothing is
+     * written if the movie is not a favorite.
+     *
+     * @param db        The database to write to
+     * @param table     The table of FavoriteGenresEntry, FavoriteVideosEntry or
+     *                  FavoriteReviewsEntry
+     * @param keyColumn The column that tells the rows of one movie apart
+     * @param movieId   The tmdb id of the movie
+     * @param rows      The rows in the order they are shown, their movie_id and position are
+     *                  set here
+     * @return The number of rows inserted, replaced or deleted
+     */
+    static int replaceDetailRows(SQLiteDatabase db, String table, String keyColumn,
+                                 int movieId, ContentValues[] rows) {
+        // all the detail row tables name these two columns the same
+        final String movieIdColumn = FavoriteGenresEntry.COLUMN_NAME_MOVIE_ID;
+        final String positionColumn = FavoriteGenresEntry.COLUMN_NAME_POSITION;
+        String[] movieIdArgs = new String[]{Integer.toString(movieId)};
+
+        db.beginTransaction();
+        try {
+            // rows of a movie that is not a favorite would never be deleted
+            if (DatabaseUtils.queryNumEntries(db, FavoritesEntry.TABLE_NAME,
+                    FavoritesEntry.COLUMN_NAME_MOVIE_ID + "=?", movieIdArgs) == 0) {
+                return 0;
+            }
+
+            Map<String, ContentValues> storedRows = new HashMap<String, ContentValues>();
+            Cursor cursor = db.query(table, null, movieIdColumn + "=?", movieIdArgs,
+                    null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    // every column is read as a string, the values are compared as strings
+                    ContentValues storedRow = new ContentValues();
+                    DatabaseUtils.cursorRowToContentValues(cursor, storedRow);
+                    storedRows.put(storedRow.getAsString(keyColumn), storedRow);
+                }
+            } finally {
+                cursor.close();
+            }
+
+            int rowsChanged = 0;
+            for (int i = 0; i < rows.length; i++) {
+                ContentValues row = new ContentValues(rows[i]);
+                row.put(movieIdColumn, movieId);
+                row.put(positionColumn, i);
+                ContentValues storedRow = storedRows.remove(row.getAsString(keyColumn));
+                if (storedRow != null && sameValues(row, storedRow)) {
+                    continue;
+                }
+                db.insertWithOnConflict(table, null, row, SQLiteDatabase.CONFLICT_REPLACE);
+                rowsChanged++;
+            }
+            for (String key : storedRows.keySet()) {
+                db.delete(table, movieIdColumn + "=? AND " + keyColumn + "=?",
+                        new String[]{movieIdArgs[0], key});
+                rowsChanged++;
+            }
+
+            ContentValues updated = new ContentValues();
+            updated.put(FavoriteDetailsEntry.COLUMN_NAME_ROWS_UPDATED, System.currentTimeMillis());
+            db.update(FavoriteDetailsEntry.TABLE_NAME, updated,
+                    FavoriteDetailsEntry.COLUMN_NAME_MOVIE_ID + "=?", movieIdArgs);
+            db.setTransactionSuccessful();
+            return rowsChanged;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * @return True if every column of row has the same value in storedRow
+     */
+    private static boolean sameValues(ContentValues row, ContentValues storedRow) {
+        for (String column : row.keySet()) {
+            if (!TextUtils.equals(row.getAsString(column), storedRow.getAsString(column))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Moves the overview and genre_list out of values.
+     *
+     * @param values Columns of FavoritesEntry, the detail columns are removed
+     * @return The detail columns that were in values
+     */
+    static ContentValues splitDetails(ContentValues values) {
+        ContentValues detailValues = new ContentValues();
+        if (values.containsKey(FavoritesEntry.COLUMN_NAME_OVERVIEW)) {
+            detailValues.put(FavoriteDetailsEntry.COLUMN_NAME_OVERVIEW,
+                    values.getAsString(FavoritesEntry.COLUMN_NAME_OVERVIEW));
+            values.remove(FavoritesEntry.COLUMN_NAME_OVERVIEW);
+        }
+        if (values.containsKey(FavoritesEntry.COLUMN_NAME_GENRE_LIST)) {
+            detailValues.put(FavoriteDetailsEntry.COLUMN_NAME_GENRE_LIST,
+                    values.getAsString(FavoritesEntry.COLUMN_NAME_GENRE_LIST));
+            values.remove(FavoritesEntry.COLUMN_NAME_GENRE_LIST);
+        }
+        return detailValues;
+    }
+
+    private static void createFavoritesTable(SQLiteDatabase sqLiteDatabase) {
+        // Create a table to hold the favorites data shown in the grid
         final String SQL_CREATE_FAVORITES_TABLE = "CREATE TABLE " + FavoritesEntry.TABLE_NAME + " (" +
                 FavoritesEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
                 FavoritesEntry.COLUMN_NAME_MOVIE_ID + " INTEGER NOT NULL, " +
                 FavoritesEntry.COLUMN_NAME_POSTER_PATH + " TEXT, " +
-                FavoritesEntry.COLUMN_NAME_OVERVIEW + " TEXT, " +
                 FavoritesEntry.COLUMN_NAME_RELEASE_DATE + " TEXT, " +
                 FavoritesEntry.COLUMN_NAME_ORIGINAL_TITLE + " TEXT NOT NULL, " +
                 FavoritesEntry.COLUMN_NAME_ORIGINAL_LANGUAGE + " TEXT, " +
                 FavoritesEntry.COLUMN_NAME_BACKDROP_PATH + " TEXT, " +
                 FavoritesEntry.COLUMN_NAME_VOTE_COUNT + " INTEGER, " +
                 FavoritesEntry.COLUMN_NAME_VOTE_AVERAGE + " FLOAT, " +
-                FavoritesEntry.COLUMN_NAME_GENRE_LIST + " TEXT, " +
                 FavoritesEntry.COLUMN_NAME_TIMESTAMP + " TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
                 "UNIQUE (" + FavoritesEntry.COLUMN_NAME_MOVIE_ID + ") ON CONFLICT REPLACE" +
                 ");";
@@ -48,15 +277,117 @@ public class FavoritesDbHelper extends SQLiteOpenHelper {
         sqLiteDatabase.execSQL(SQL_CREATE_FAVORITES_TABLE);
     }
 
-    // Override the onUpgrade method
-    @Override
-    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int i, int i1) {
-        // For now simply drop the table and create a new one. This means if you change the
-        // DATABASE_VERSION the table will be dropped.
-        // In a production app, this method might be modified to ALTER the table
-        // instead of dropping it, so that existing data is not deleted.
-        // Inside, execute a drop table query, and then call onCreate to re-create it
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + FavoritesEntry.TABLE_NAME);
-        onCreate(sqLiteDatabase);
+    private static void createDetailsTable(SQLiteDatabase sqLiteDatabase) {
+        // The long text of each favorite, only read by the detail screen
+        sqLiteDatabase.execSQL("CREATE TABLE " + FavoriteDetailsEntry.TABLE_NAME + " (" +
+                FavoriteDetailsEntry.COLUMN_NAME_MOVIE_ID + " INTEGER PRIMARY KEY, " +
+                FavoriteDetailsEntry.COLUMN_NAME_OVERVIEW + " TEXT, " +
+                FavoriteDetailsEntry.COLUMN_NAME_GENRE_LIST + " TEXT" +
+                ");");
+    }
+
+    private static void createIndexAndTrigger(SQLiteDatabase sqLiteDatabase) {
+        // Starts with the timestamp for ORDER BY timestamp and holds every grid column, so
+        // listing the favorites never reads the table (_ID is the rowid, always in the index)
+        sqLiteDatabase.execSQL("CREATE INDEX " + FavoritesEntry.INDEX_NAME_TIMESTAMP +
+                " ON " + FavoritesEntry.TABLE_NAME + " (" +
+                FavoritesEntry.COLUMN_NAME_TIMESTAMP + ", " +
+                FavoritesEntry.COLUMN_NAME_MOVIE_ID + ", " +
+                FavoritesEntry.COLUMN_NAME_POSTER_PATH + ", " +
+                FavoritesEntry.COLUMN_NAME_RELEASE_DATE + ", " +
+                FavoritesEntry.COLUMN_NAME_ORIGINAL_TITLE + ", " +
+                FavoritesEntry.COLUMN_NAME_ORIGINAL_LANGUAGE + ", " +
+                FavoritesEntry.COLUMN_NAME_BACKDROP_PATH + ", " +
+                FavoritesEntry.COLUMN_NAME_VOTE_COUNT + ", " +
+                FavoritesEntry.COLUMN_NAME_VOTE_AVERAGE + ");");
+
+        // Removing a favorite, however it is deleted, removes its details too
+        sqLiteDatabase.execSQL("CREATE TRIGGER favorites_delete_details AFTER DELETE ON " +
+                FavoritesEntry.TABLE_NAME + " BEGIN " +
+                "DELETE FROM " + FavoriteDetailsEntry.TABLE_NAME + " WHERE " +
+                FavoriteDetailsEntry.COLUMN_NAME_MOVIE_ID + " = OLD." +
+                FavoritesEntry.COLUMN_NAME_MOVIE_ID + "; END;");
+    }
+
+    /**
+     * Adds the tables of the genres, videos and reviews of the favorites (version 5), and the
+     * time they were last written to the details table. Run by onCreate as well, after the
+     * version 4 schema is created.
+     */
+    private static void createDetailRowTables(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("ALTER TABLE " + FavoriteDetailsEntry.TABLE_NAME + " ADD COLUMN " +
+                FavoriteDetailsEntry.COLUMN_NAME_ROWS_UPDATED + " INTEGER");
+
+        // The primary keys start with the movie id, so the rows of a favorite are read (in
+        // position order, there are only a few) and deleted from them
+        sqLiteDatabase.execSQL("CREATE TABLE " + FavoriteGenresEntry.TABLE_NAME + " (" +
+                FavoriteGenresEntry.COLUMN_NAME_MOVIE_ID + " INTEGER NOT NULL, " +
+                FavoriteGenresEntry.COLUMN_NAME_POSITION + " INTEGER NOT NULL, " +
+                FavoriteGenresEntry.COLUMN_NAME_NAME + " TEXT, " +
+                "PRIMARY KEY (" + FavoriteGenresEntry.COLUMN_NAME_MOVIE_ID + ", " +
+                FavoriteGenresEntry.COLUMN_NAME_POSITION + ")" +
+                ");");
+        sqLiteDatabase.execSQL("CREATE TABLE " + FavoriteVideosEntry.TABLE_NAME + " (" +
+                FavoriteVideosEntry.COLUMN_NAME_MOVIE_ID + " INTEGER NOT NULL, " +
+                FavoriteVideosEntry.COLUMN_NAME_VIDEO_ID + " TEXT NOT NULL, " +
+                FavoriteVideosEntry.COLUMN_NAME_POSITION + " INTEGER NOT NULL, " +
+                FavoriteVideosEntry.COLUMN_NAME_KEY + " TEXT, " +
+                FavoriteVideosEntry.COLUMN_NAME_NAME + " TEXT, " +
+                FavoriteVideosEntry.COLUMN_NAME_SITE + " TEXT, " +
+                FavoriteVideosEntry.COLUMN_NAME_SIZE + " INTEGER, " +
+                FavoriteVideosEntry.COLUMN_NAME_TYPE + " TEXT, " +
+                "PRIMARY KEY (" + FavoriteVideosEntry.COLUMN_NAME_MOVIE_ID + ", " +
+                FavoriteVideosEntry.COLUMN_NAME_VIDEO_ID + ")" +
+                ");");
+        sqLiteDatabase.execSQL("CREATE TABLE " + FavoriteReviewsEntry.TABLE_NAME + " (" +
+                FavoriteReviewsEntry.COLUMN_NAME_MOVIE_ID + " INTEGER NOT NULL, " +
+                FavoriteReviewsEntry.COLUMN_NAME_REVIEW_ID + " TEXT NOT NULL, " +
+                FavoriteReviewsEntry.COLUMN_NAME_POSITION + " INTEGER NOT NULL, " +
+                FavoriteReviewsEntry.COLUMN_NAME_AUTHOR + " TEXT, " +
+                FavoriteReviewsEntry.COLUMN_NAME_CONTENT + " TEXT, " +
+                FavoriteReviewsEntry.COLUMN_NAME_URL + " TEXT, " +
+                FavoriteReviewsEntry.COLUMN_NAME_TRUNCATED + " INTEGER NOT NULL DEFAULT 0, " +
+                "PRIMARY KEY (" + FavoriteReviewsEntry.COLUMN_NAME_MOVIE_ID + ", " +
+                FavoriteReviewsEntry.COLUMN_NAME_REVIEW_ID + ")" +
+                ");");
+
+        // Removing a favorite removes its genres, videos and reviews too
+        sqLiteDatabase.execSQL("CREATE TRIGGER favorites_delete_detail_rows AFTER DELETE ON " +
+                FavoritesEntry.TABLE_NAME + " BEGIN " +
+                "DELETE FROM " + FavoriteGenresEntry.TABLE_NAME + " WHERE " +
+                FavoriteGenresEntry.COLUMN_NAME_MOVIE_ID + " = OLD." +
+                FavoritesEntry.COLUMN_NAME_MOVIE_ID + "; " +
+                "DELETE FROM " + FavoriteVideosEntry.TABLE_NAME + " WHERE " +
+                FavoriteVideosEntry.COLUMN_NAME_MOVIE_ID + " = OLD." +
+                FavoritesEntry.COLUMN_NAME_MOVIE_ID + "; " +
+                "DELETE FROM " + FavoriteReviewsEntry.TABLE_NAME + " WHERE " +
+                FavoriteReviewsEntry.COLUMN_NAME_MOVIE_ID + " = OLD." +
+                FavoritesEntry.COLUMN_NAME_MOVIE_ID + "; END;");
+    }
+
+    /**
+     * Version 3 kept the overview and genre_list in the favorites table. They are copied to the
+     * details table and the favorites table is rebuilt without them, keeping every favorite,
+     * its _ID and its timestamp.
+     */
+    private static void migrateToVersion4(SQLiteDatabase sqLiteDatabase) {
+        createDetailsTable(sqLiteDatabase);
+        sqLiteDatabase.execSQL("INSERT INTO " + FavoriteDetailsEntry.TABLE_NAME + " (" +
+                FavoriteDetailsEntry.COLUMN_NAME_MOVIE_ID + ", " +
+                FavoriteDetailsEntry.COLUMN_NAME_OVERVIEW + ", " +
+                FavoriteDetailsEntry.COLUMN_NAME_GENRE_LIST + ") SELECT " +
+                FavoritesEntry.COLUMN_NAME_MOVIE_ID + ", " +
+                FavoritesEntry.COLUMN_NAME_OVERVIEW + ", " +
+                FavoritesEntry.COLUMN_NAME_GENRE_LIST + " FROM " + FavoritesEntry.TABLE_NAME);
+
+        // SQLite cannot drop columns, the table is copied instead
+        final String oldTable = FavoritesEntry.TABLE_NAME + "_v3";
+        sqLiteDatabase.execSQL("ALTER TABLE " + FavoritesEntry.TABLE_NAME + " RENAME TO " + oldTable);
+        createFavoritesTable(sqLiteDatabase);
+        sqLiteDatabase.execSQL("INSERT INTO " + FavoritesEntry.TABLE_NAME + " (" +
+                FavoritesEntry._ID + ", " + FAVORITES_COLUMNS + ") SELECT " +
+                FavoritesEntry._ID + ", " + FAVORITES_COLUMNS + " FROM " + oldTable);
+        sqLiteDatabase.execSQL("DROP TABLE " + oldTable);
+        createIndexAndTrigger(sqLiteDatabase);
     }
 }
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moemke.android.popmovies.data;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The ids of all favorite movies, kept in memory for the whole process.
+ * <p>
+ * The ids are loaded once from the {@link FavoritesContentProvider} and loaded again on a
+ * background thread whenever the provider calls notifyChange on the favorites. Every load
+ * publishes a new immutable {@link FavoriteIdSet} through a volatile field, so
+ * {@link #isFavorite(int)} can be called from any thread without locking or allocating.
+ */
+public class FavoritesIndex {
+
+    private static final String TAG = FavoritesIndex.class.getSimpleName();
+
+    /**
+     * Called on the main thread after the favorites changed.
+     */
+    public interface OnFavoritesChangedListener {
+        void onFavoritesChanged();
+    }
+
+    private static FavoritesIndex sInstance;
+
+    private final Context mContext;
+    private final Handler mLoadHandler;
+    private final Handler mMainHandler;
+    private final CopyOnWriteArrayList<OnFavoritesChangedListener> mListeners =
+            new CopyOnWriteArrayList<OnFavoritesChangedListener>();
+
+    // null until the first load finished
+    private volatile FavoriteIdSet mIds;
+
+    private final Runnable mLoad = new Runnable() {
+        @Override
+        public void run() {
+            load();
+        }
+    };
+
+    private final Runnable mNotifyListeners = new Runnable() {
+        @Override
+        public void run() {
+            for (OnFavoritesChangedListener listener : mListeners) {
+                listener.onFavoritesChanged();
+            }
+        }
+    };
+
+    /**
+     * @return The index of the application, which starts loading on the first call
+     */
+    public static synchronized FavoritesIndex getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new FavoritesIndex(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private FavoritesIndex(Context context) {
+        mContext = context;
+        HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mLoadHandler = new Handler(thread.getLooper());
+        mMainHandler = new Handler(Looper.getMainLooper());
+
+        // notifyForDescendants, so changes to favorites/# are seen as well
+        mContext.getContentResolver().registerContentObserver(
+                FavoritesContract.FavoritesEntry.CONTENT_URI, true,
+                new ContentObserver(mLoadHandler) {
+                    @Override
+                    public void onChange(boolean selfChange) {
+                        // a burst of changes is read back once
+                        mLoadHandler.removeCallbacks(mLoad);
+                        mLoadHandler.post(mLoad);
+                    }
+                });
+        mLoadHandler.post(mLoad);
+    }
+
+    /**
+     * O(1), lock free and allocation free. A call made before the first load finished returns
+     * false; the listeners are notified once the load is done so bound views can be refreshed.
+     *
+     * @param movieId The tmdb id of the movie
+     * @return True if the movie is a favorite
+     */
+    public boolean isFavorite(int movieId) {
+        FavoriteIdSet ids = mIds;
+        return ids != null && ids.contains(movieId);
+    }
+
+    /**
+     * @return The number of favorites
+     */
+    public int size() {
+        return getIds().size();
+    }
+
+    public void addOnFavoritesChangedListener(OnFavoritesChangedListener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeOnFavoritesChangedListener(OnFavoritesChangedListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Loads the favorite ids again on the calling thread, for writers that need the index up to
+     * date before they go on.
+     */
+    void reload() {
+        mLoadHandler.removeCallbacks(mLoad);
+        load();
+    }
+
+    private FavoriteIdSet getIds() {
+        FavoriteIdSet ids = mIds;
+        if (ids == null) {
+            load();
+            ids = mIds;
+        }
+        return ids;
+    }
+
+    /**
+     * Reads all the favorite ids and publishes them. Loads can run on the load thread and on a
+     * reader that came before the first load, so they are serialized.
+     */
+    private synchronized void load() {
+        FavoriteIdSet ids = queryIds();
+        if (ids == null) {
+            // keep the previous ids, or start empty if there are none
+            if (mIds == null) {
+                mIds = FavoriteIdSet.EMPTY;
+            }
+            return;
+        }
+        mIds = ids;
+        mMainHandler.post(mNotifyListeners);
+    }
+
+    private FavoriteIdSet queryIds() {
+        Cursor cursor;
+        try {
+            cursor = mContext.getContentResolver().query(
+                    FavoritesContract.FavoritesEntry.CONTENT_URI,
+                    new String[]{FavoritesContract.FavoritesEntry.COLUMN_NAME_MOVIE_ID},
+                    null, null, null);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Failed to load the favorite ids", e);
+            return null;
+        }
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            int[] ids = new int[cursor.getCount()];
+            int count = 0;
+            while (cursor.moveToNext() && count < ids.length) {
+                ids[count++] = cursor.getInt(0);
+            }
+            return new FavoriteIdSet(ids, count);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,374 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moemke.android.popmovies.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.RemoteException;
+import android.util.Log;
+
+import com.moemke.android.popmovies.utilities.ImagePersistenceExecutor;
+import com.moemke.android.popmovies.utilities.OfflineImageStore;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Write-behind queue for adding and removing favorites, so the favorite button never waits for
+ * SQLite or the file system.
+ * <p>
+ * Changes are kept in memory and written on a background thread a short time after the last
+ * one. Only the last change of each movie is written (toggling a movie ten times writes once),
+ * the changes are written in the order the movies were last changed, and each flush is applied
+ * with {@link FavoritesContentProvider#applyBatch} in a single transaction. A flush that fails
+ * is tried again later, with a longer delay after each failure.
+ * Until a change is written, {@link #isFavorite(int)} already answers with its new state.
+ * <p>
+ * The genres, videos and reviews of a favorite are queued with it or on their own, and written
+ * after the favorites, each with one bulkInsert per table that only writes the rows that
+ * changed.
+ */
+public class FavoritesWriteQueue {
+
+    private static final String TAG = FavoritesWriteQueue.class.getSimpleName();
+
+    // long enough to absorb a burst of taps on the favorite button
+    private static final long FLUSH_DELAY_MILLIS = 500;
+
+    // after a failed write the next flush waits twice as long as the last one, up to this
+    private static final long MAX_RETRY_DELAY_MILLIS = 5 * 60 * 1000;
+
+    private static FavoritesWriteQueue sInstance;
+
+    /**
+     * The last change of one movie.
+     */
+    private static class PendingWrite {
+        final int movieId;
+        // null for a removal
+        final ContentValues values;
+        // offline images of the favorite to unpin once it is removed
+        final String[] files;
+
+        PendingWrite(int movieId, ContentValues values, String[] files) {
+            this.movieId = movieId;
+            this.values = values;
+            this.files = files;
+        }
+    }
+
+    /**
+     * The genres, videos and reviews of a favorite, see
+     * {@link FavoritesContract.FavoriteGenresEntry}, {@link FavoritesContract.FavoriteVideosEntry}
+     * and {@link FavoritesContract.FavoriteReviewsEntry}. The movie_id and position columns are
+     * set when they are written.
+     */
+    public static class DetailRows {
+        final ContentValues[] genres;
+        final ContentValues[] videos;
+        final ContentValues[] reviews;
+
+        public DetailRows(ContentValues[] genres, ContentValues[] videos,
+                          ContentValues[] reviews) {
+            this.genres = genres;
+            this.videos = videos;
+            this.reviews = reviews;
+        }
+    }
+
+    private final Context mContext;
+    private final FavoritesIndex mFavoritesIndex;
+    private final Handler mWriteHandler;
+    private final long mFlushDelayMillis;
+
+    // guarded by this, in the order the movies were last changed
+    private final LinkedHashMap<Integer, PendingWrite> mPending =
+            new LinkedHashMap<Integer, PendingWrite>();
+    // guarded by this, the last rows queued for each movie
+    private final LinkedHashMap<Integer, DetailRows> mPendingDetailRows =
+            new LinkedHashMap<Integer, DetailRows>();
+    private boolean mFlushScheduled;
+    // 0 unless the last flush failed
+    private long mRetryDelayMillis;
+    private int mTransactionCount;
+
+    // only one flush writes at a time, so the writes stay in order
+    private final Object mFlushLock = new Object();
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    public static synchronized FavoritesWriteQueue getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new FavoritesWriteQueue(context.getApplicationContext(),
+                    FLUSH_DELAY_MILLIS);
+        }
+        return sInstance;
+    }
+
+    FavoritesWriteQueue(Context context, long flushDelayMillis) {
+        mContext = context;
+        mFavoritesIndex = FavoritesIndex.getInstance(context);
+        mFlushDelayMillis = flushDelayMillis;
+        HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mWriteHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Queues adding a favorite.
+     *
+     * @param movieId The tmdb id of the movie
+     * @param values  The row to insert, see {@link FavoritesContract.FavoritesEntry}
+     */
+    public void addFavorite(int movieId, ContentValues values) {
+        addFavorite(movieId, values, null);
+    }
+
+    /**
+     * Queues adding a favorite with its genres, videos and reviews, so it can be shown offline.
+     *
+     * @param movieId    The tmdb id of the movie
+     * @param values     The row to insert, see {@link FavoritesContract.FavoritesEntry}
+     * @param detailRows The rows of the movie, null if they are not known yet
+     */
+    public void addFavorite(int movieId, ContentValues values, DetailRows detailRows) {
+        enqueue(new PendingWrite(movieId, new ContentValues(values), null), detailRows);
+    }
+
+    /**
+     * Queues writing newer genres, videos and reviews of a favorite. They are written after
+     * the favorites queued before, and not at all if the movie is no longer a favorite then.
+     *
+     * @param movieId    The tmdb id of the movie
+     * @param detailRows The rows of the movie
+     */
+    public void updateDetailRows(int movieId, DetailRows detailRows) {
+        synchronized (this) {
+            mPendingDetailRows.put(movieId, detailRows);
+        }
+        scheduleFlush();
+    }
+
+    /**
+     * Queues removing a favorite.
+     *
+     * @param movieId The tmdb id of the movie
+     * @param files   Keys of the images saved with the favorite (poster, backdrop), unpinned in
+     *                the {@link OfflineImageStore} after the row is removed
+     */
+    public void removeFavorite(int movieId, String... files) {
+        enqueue(new PendingWrite(movieId, null, files), null);
+    }
+
+    /**
+     * @param movieId The tmdb id of the movie
+     * @return The state of the movie including the changes not written yet
+     */
+    public boolean isFavorite(int movieId) {
+        synchronized (this) {
+            PendingWrite pending = mPending.get(movieId);
+            if (pending != null) {
+                return pending.values != null;
+            }
+        }
+        return mFavoritesIndex.isFavorite(movieId);
+    }
+
+    /**
+     * @return The number of transactions written so far
+     */
+    public synchronized int getTransactionCount() {
+        return mTransactionCount;
+    }
+
+    /**
+     * @return The delay of the flush scheduled after a failed write, 0 if the last write worked
+     */
+    synchronized long getRetryDelayMillis() {
+        return mRetryDelayMillis;
+    }
+
+    private void enqueue(PendingWrite write, DetailRows detailRows) {
+        synchronized (this) {
+            // removed first so the movie moves to the end of the order
+            mPending.remove(write.movieId);
+            mPending.put(write.movieId, write);
+            if (write.values == null) {
+                mPendingDetailRows.remove(write.movieId);
+            } else if (detailRows != null) {
+                mPendingDetailRows.put(write.movieId, detailRows);
+            }
+        }
+        scheduleFlush();
+    }
+
+    private void scheduleFlush() {
+        synchronized (this) {
+            if (mFlushScheduled) {
+                return;
+            }
+            mFlushScheduled = true;
+        }
+        mWriteHandler.postDelayed(mFlush, mFlushDelayMillis);
+    }
+
+    /**
+     * Schedules the next flush after a failed write, replacing a flush scheduled by a change
+     * made while writing, so the database is not hammered while it keeps failing.
+     */
+    private void scheduleRetry() {
+        long delay;
+        synchronized (this) {
+            mRetryDelayMillis = mRetryDelayMillis == 0
+                    ? mFlushDelayMillis * 2
+                    : mRetryDelayMillis * 2;
+            mRetryDelayMillis = Math.min(mRetryDelayMillis, MAX_RETRY_DELAY_MILLIS);
+            delay = mRetryDelayMillis;
+            mFlushScheduled = true;
+        }
+        mWriteHandler.removeCallbacks(mFlush);
+        mWriteHandler.postDelayed(mFlush, delay);
+    }
+
+    /**
+     * Writes all pending changes in one transaction, then the pending genres, videos and
+     * reviews, on the calling thread.
+     */
+    void flush() {
+        synchronized (mFlushLock) {
+            ArrayList<PendingWrite> writes;
+            LinkedHashMap<Integer, DetailRows> detailRows;
+            synchronized (this) {
+                mFlushScheduled = false;
+                if (mPending.isEmpty() && mPendingDetailRows.isEmpty()) {
+                    return;
+                }
+                writes = new ArrayList<PendingWrite>(mPending.values());
+                detailRows = new LinkedHashMap<Integer, DetailRows>(mPendingDetailRows);
+            }
+
+            if (!writes.isEmpty() && !writeFavorites(writes)) {
+                // the rows may be of favorites that are not written yet, they stay pending too
+                scheduleRetry();
+                return;
+            }
+
+            for (Map.Entry<Integer, DetailRows> entry : detailRows.entrySet()) {
+                writeDetailRows(entry.getKey(), entry.getValue());
+                synchronized (this) {
+                    // rows queued while writing stay pending
+                    if (mPendingDetailRows.get(entry.getKey()) == entry.getValue()) {
+                        mPendingDetailRows.remove(entry.getKey());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the changes of favorites in one transaction.
+     *
+     * @return False if they could not be written, they are then still pending
+     */
+    private boolean writeFavorites(ArrayList<PendingWrite> writes) {
+        ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>(writes.size());
+        for (PendingWrite write : writes) {
+            if (write.values != null) {
+                operations.add(ContentProviderOperation
+                        .newInsert(FavoritesContract.FavoritesEntry.CONTENT_URI)
+                        .withValues(write.values)
+                        .build());
+            } else {
+                operations.add(ContentProviderOperation
+                        .newDelete(FavoritesContract.FavoritesEntry.CONTENT_URI)
+                        .withSelection(FavoritesContract.FavoritesEntry.COLUMN_NAME_MOVIE_ID + "= ?",
+                                new String[]{String.valueOf(write.movieId)})
+                        .build());
+            }
+        }
+
+        try {
+            mContext.getContentResolver()
+                    .applyBatch(FavoritesContract.AUTHORITY, operations);
+        } catch (RemoteException | OperationApplicationException | RuntimeException e) {
+            // the changes stay pending, flush schedules the next try
+            Log.e(TAG, "Failed to write " + writes.size() + " favorite changes", e);
+            return false;
+        }
+
+        // the index has to show the written state before the pending state is forgotten
+        mFavoritesIndex.reload();
+
+        synchronized (this) {
+            mTransactionCount++;
+            mRetryDelayMillis = 0;
+            // changes made while writing stay pending
+            for (PendingWrite write : writes) {
+                if (mPending.get(write.movieId) == write) {
+                    mPending.remove(write.movieId);
+                }
+            }
+        }
+
+        ImagePersistenceExecutor images = ImagePersistenceExecutor.getInstance();
+        OfflineImageStore offlineImages = OfflineImageStore.getInstance();
+        for (PendingWrite write : writes) {
+            if (write.files != null) {
+                for (String file : write.files) {
+                    // a write still queued would pin the image again
+                    if (images != null) {
+                        images.cancel(file);
+                    }
+                    if (offlineImages != null) {
+                        offlineImages.unpin(file);
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the genres, videos and reviews of a favorite, the provider skips the rows that did
+     * not change. Rows that cannot be written are dropped, the next refresh writes them again.
+     */
+    private void writeDetailRows(int movieId, DetailRows detailRows) {
+        try {
+            ContentResolver resolver = mContext.getContentResolver();
+            resolver.bulkInsert(FavoritesContract.FavoriteGenresEntry.buildGenresUri(movieId),
+                    detailRows.genres);
+            resolver.bulkInsert(FavoritesContract.FavoriteVideosEntry.buildVideosUri(movieId),
+                    detailRows.videos);
+            resolver.bulkInsert(FavoritesContract.FavoriteReviewsEntry.buildReviewsUri(movieId),
+                    detailRows.reviews);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Failed to write the details of favorite " + movieId, e);
+        }
+    }
+}
@@ -22,6 +22,13 @@ public class MoviePreferences {
      */
     private static final String DEFAULT_POSTER_RESOLUTION = "w500";
 
+    /*
+     * Resolutions of the images saved with a favorite: the poster is shown in the grid and the
+     * detail screen, the backdrop across the width of the detail screen.
+     */
+    private static final String OFFLINE_POSTER_RESOLUTION = "w342";
+    private static final String OFFLINE_BACKDROP_RESOLUTION = "w780";
+
     public static final int WIFI_REQUEST_CODE = 1;
 
     public static final int DETAIL_REQUEST_CODE = 2;
@@ -33,10 +40,24 @@ public class MoviePreferences {
 
     private static final String DEFAULT_DISPLAY_DATE_FORMAT ="MMM d, yyyy";
 
+    /*
+     * Number of characters of each review kept when the movie detail is parsed,
+     * the full review is loaded when the user taps "read more"
+     */
+    public static final int REVIEW_PREVIEW_LENGTH = 600;
+
     public static String getDefaultMoviePosterResolution() {
         return DEFAULT_POSTER_RESOLUTION;
     }
 
+    public static String getOfflinePosterResolution() {
+        return OFFLINE_POSTER_RESOLUTION;
+    }
+
+    public static String getOfflineBackdropResolution() {
+        return OFFLINE_BACKDROP_RESOLUTION;
+    }
+
     public static String getDefaultSortOrder() {
         return DEFAULT_SORT_ORDER;
     }
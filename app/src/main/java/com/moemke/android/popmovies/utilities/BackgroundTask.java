@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moemke.android.popmovies.utilities;
+
+/**
+ * Work run in the background by {@link TaskRunner}.
+ *
+ * @param <T> The type of the result
+ */
+public interface BackgroundTask<T> {
+
+    /**
+     * Runs on a pool thread. Long running tasks should check token between steps; requests made
+     * through the http engines are cancelled with the token without further work.
+     *
+     * @param token Cancels the task
+     * @return The result, delivered to the callback on the main thread
+     * @throws Exception Delivered to the callback on the main thread
+     */
+    T run(CancellationToken token) throws Exception;
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moemke.android.popmovies.utilities;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Cancels a task started by {@link TaskRunner}. Cancelling sets a flag the task can check,
+ * closes the sockets and streams registered by the task and interrupts its thread, so a task
+ * blocked reading from the network fails right away instead of at its read timeout.
+ * <p>
+ * While a task runs its token is available to the code it calls through {@link #current()},
+ * so the http engines can register their sockets without the token being passed down.
+ */
+public final class CancellationToken {
+
+    private static final ThreadLocal<CancellationToken> sCurrent =
+            new ThreadLocal<CancellationToken>();
+
+    private volatile boolean mCancelled;
+    // guarded by this
+    private final List<Closeable> mCloseables = new ArrayList<Closeable>();
+    private Thread mThread;
+
+    /**
+     * @return The token of the task running on this thread, null if no task is running
+     */
+    public static CancellationToken current() {
+        return sCurrent.get();
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * @throws CancellationException If the task was cancelled
+     */
+    public void throwIfCancelled() {
+        if (mCancelled) {
+            throw new CancellationException();
+        }
+    }
+
+    /**
+     * Closes closeable when the task is cancelled, right away if it already is.
+     *
+     * @param closeable I.e. the socket of a running request
+     */
+    public void register(Closeable closeable) {
+        synchronized (this) {
+            if (!mCancelled) {
+                mCloseables.add(closeable);
+                return;
+            }
+        }
+        closeQuietly(closeable);
+    }
+
+    /**
+     * @param closeable A closeable passed to register that is done, i.e. a socket returned to
+     *                  the pool
+     */
+    public synchronized void unregister(Closeable closeable) {
+        mCloseables.remove(closeable);
+    }
+
+    /**
+     * Cancels the task. Its result is not delivered.
+     */
+    public void cancel() {
+        List<Closeable> closeables;
+        synchronized (this) {
+            if (mCancelled) {
+                return;
+            }
+            mCancelled = true;
+            closeables = new ArrayList<Closeable>(mCloseables);
+            mCloseables.clear();
+            if (mThread != null) {
+                mThread.interrupt();
+            }
+        }
+        for (Closeable closeable : closeables) {
+            closeQuietly(closeable);
+        }
+    }
+
+    /**
+     * Makes this the token of the current thread while a task runs, see TaskRunner.
+     *
+     * @return The token that was current before, to be passed to detach
+     */
+    synchronized CancellationToken attach() {
+        mThread = Thread.currentThread();
+        CancellationToken previous = sCurrent.get();
+        sCurrent.set(this);
+        return previous;
+    }
+
+    void detach(CancellationToken previous) {
+        synchronized (this) {
+            mThread = null;
+            mCloseables.clear();
+        }
+        // an interrupt from a cancel must not hit the next task on this thread
+        Thread.interrupted();
+        if (previous != null) {
+            sCurrent.set(previous);
+        } else {
+            sCurrent.remove();
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        } catch (RuntimeException ignored) {
+            // closing a socket in use by another thread may throw on some platform versions
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moemke.android.popmovies.utilities;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * The transport used by {@link NetworkUtils} to talk to the movie and image servers.
+ * Implementations decide how sockets are opened and reused, so the rest of the app only
+ * deals with URLs and {@link HttpResponse}s.
+ */
+public interface HttpEngine {
+
+    /**
+     * Performs a GET request.
+     *
+     * @param url            The URL to fetch.
+     * @param requestHeaders Extra request headers, may be null.
+     * @return The response. The caller must close it so the connection can be reused.
+     * @throws IOException Related to network and stream reading
+     */
+    HttpResponse execute(URL url, Map<String, String> requestHeaders) throws IOException;
+
+    /**
+     * Closes all idle connections and releases any resources held by the engine.
+     */
+    void shutdown();
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moemke.android.popmovies.utilities;
+
+import android.net.Uri;
+
+import com.squareup.picasso.Downloader;
+import com.squareup.picasso.NetworkPolicy;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Lets Picasso download posters through the app's {@link HttpEngine}, so images share the
+ * kept-alive connections to image.tmdb.org instead of opening a new socket per poster.
+ * Images of some hosts can be kept in a {@link ResponseCache} of their own, so they are read
+ * from disk after a restart and don't compete with the other images for space.
+ */
+public class HttpEngineDownloader implements Downloader {
+
+    private final HttpEngine mEngine;
+    private final Map<String, ResponseCache> mHostCaches;
+
+    public HttpEngineDownloader(HttpEngine engine) {
+        this(engine, Collections.<String, ResponseCache>emptyMap());
+    }
+
+    /**
+     * @param engine     The engine all images are downloaded with
+     * @param hostCaches The cache of each host whose images are cached on disk
+     */
+    public HttpEngineDownloader(HttpEngine engine, Map<String, ResponseCache> hostCaches) {
+        mEngine = engine;
+        mHostCaches = hostCaches;
+    }
+
+    @Override
+    public Response load(Uri uri, int networkPolicy) throws IOException {
+        URL url = new URL(uri.toString());
+        ResponseCache cache = mHostCaches.get(url.getHost());
+        HttpResponse response;
+        if (NetworkPolicy.isOfflineOnly(networkPolicy)) {
+            // i.e. Picasso retrying without network: only a cached copy will do
+            response = cache != null ? cache.getCached(url) : null;
+            if (response == null) {
+                throw new ResponseException("Offline only request for " + uri + " not cached",
+                        networkPolicy, HttpURLConnection.HTTP_GATEWAY_TIMEOUT);
+            }
+        } else {
+            response = cache != null
+                    ? cache.execute(mEngine, url)
+                    : mEngine.execute(url, null);
+        }
+        if (response.getCode() >= HttpURLConnection.HTTP_MULT_CHOICE) {
+            response.close();
+            throw new ResponseException(response.getCode() + " " + response.getMessage(),
+                    networkPolicy, response.getCode());
+        }
+        boolean fromCache = cache != null && ResponseCache.isFromCache(response);
+        return new Response(response.getBody(), fromCache, response.getContentLength());
+    }
+
+    @Override
+    public void shutdown() {
+        // the engine is shared with NetworkUtils
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moemke.android.popmovies.utilities;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A response returned by an {@link HttpEngine}. The body is exposed as a stream; closing the
+ * response (or the stream) hands the underlying connection back to the engine.
+ */
+public class HttpResponse implements Closeable {
+
+    private static final String CHARSET_UTF8 = "UTF-8";
+
+    private final int mCode;
+    private final String mMessage;
+    // header names are stored lower case
+    private final Map<String, String> mHeaders;
+    private final long mContentLength;
+    private final InputStream mBody;
+
+    public HttpResponse(int code, String message, Map<String, String> headers,
+                        long contentLength, InputStream body) {
+        mCode = code;
+        mMessage = message;
+        mHeaders = headers;
+        mContentLength = contentLength;
+        mBody = body;
+    }
+
+    /**
+     * Creates a response whose body is already in memory, i.e. one shared by coalesced requests.
+     */
+    public static HttpResponse buffered(int code, String message, Map<String, String> headers,
+                                        byte[] body) {
+        return new HttpResponse(code, message, headers, body.length, new ByteArrayInputStream(body));
+    }
+
+    public int getCode() {
+        return mCode;
+    }
+
+    public String getMessage() {
+        return mMessage;
+    }
+
+    /**
+     * @param name The header name, case insensitive.
+     * @return The header value or null if the response has no such header.
+     */
+    public String getHeader(String name) {
+        return mHeaders.get(name.toLowerCase(Locale.US));
+    }
+
+    public Map<String, String> getHeaders() {
+        return mHeaders;
+    }
+
+    /**
+     * @return The body length or -1 if unknown (chunked or read until close).
+     */
+    public long getContentLength() {
+        return mContentLength;
+    }
+
+    public InputStream getBody() {
+        return mBody;
+    }
+
+    /**
+     * Reads the whole body and closes the response.
+     *
+     * @return The body as an array, empty if there is no body.
+     * @throws IOException Related to network and stream reading
+     */
+    public byte[] bodyAsBytes() throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(
+                    mContentLength > 0 ? (int) mContentLength : 8192);
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = mBody.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Reads the whole body as UTF-8 text and closes the response.
+     *
+     * @return The body or null if the body is empty.
+     * @throws IOException Related to network and stream reading
+     */
+    public String bodyAsString() throws IOException {
+        byte[] body = bodyAsBytes();
+        if (body.length == 0) {
+            return null;
+        }
+        return new String(body, CHARSET_UTF8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        mBody.close();
+    }
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moemke.android.popmovies.utilities;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes the images saved with favorites (poster, backdrop) to the {@link OfflineImageStore} on
+ * a small, fixed number of threads, instead of one thread per image.
+ * <p>
+ * Waiting writes are ordered by priority, so the poster shown in the grid is written before
+ * the backdrop. Submitting a file that is still waiting replaces the waiting write, a failed
+ * write is queued again up to maxAttempts times, and {@link #cancel(String)} drops a write that
+ * has not finished. Each image is written to a temporary file which is committed to the store
+ * once it is complete, so a reader never sees a partly written file.
+ */
+public class ImagePersistenceExecutor {
+
+    private static final String TAG = ImagePersistenceExecutor.class.getSimpleName();
+
+    /** Images that are on screen, i.e. the poster shown in the favorites grid. */
+    public static final int PRIORITY_VISIBLE = 0;
+    /** Images that are only shown later, i.e. the backdrop on the detail screen. */
+    public static final int PRIORITY_BACKGROUND = 1;
+
+    private static ImagePersistenceExecutor sInstance;
+
+    /**
+     * Produces the bytes of one image.
+     */
+    public interface ImageWriter {
+        /**
+         * @param out The stream to write the image to, closed by the caller
+         * @throws IOException If the image could not be written
+         */
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    private final OfflineImageStore mStore;
+    private final int mMaxAttempts;
+    private final ThreadPoolExecutor mExecutor;
+
+    // guarded by this, the write of each file that has not finished yet
+    private final HashMap<String, WriteTask> mTasks = new HashMap<String, WriteTask>();
+    private long mNextSequence;
+
+    private final AtomicLong mWriteCount = new AtomicLong();
+    private final AtomicLong mRetryCount = new AtomicLong();
+    private final AtomicLong mFailureCount = new AtomicLong();
+    private final AtomicLong mCancelCount = new AtomicLong();
+    private final AtomicLong mTotalWriteNanos = new AtomicLong();
+    private final AtomicLong mMaxWriteNanos = new AtomicLong();
+
+    /**
+     * @param store       Store the images are written to, as pinned images
+     * @param threads     Number of images written at the same time
+     * @param maxAttempts Number of times a write is tried before it is given up
+     */
+    public ImagePersistenceExecutor(OfflineImageStore store, int threads, int maxAttempts) {
+        mStore = store;
+        mMaxAttempts = maxAttempts;
+        final AtomicInteger threadNumber = new AtomicInteger();
+        mExecutor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, TAG + "-" + threadNumber.incrementAndGet());
+                // behind the UI thread and the network
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    public static synchronized void setInstance(ImagePersistenceExecutor executor) {
+        sInstance = executor;
+    }
+
+    public static synchronized ImagePersistenceExecutor getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Queues writing an image. A write of the same file that has not started yet is replaced.
+     *
+     * @param filename Name of the file in the directory
+     * @param priority {@link #PRIORITY_VISIBLE} or {@link #PRIORITY_BACKGROUND}
+     * @param writer   Produces the image, called on a background thread
+     */
+    public void submit(String filename, int priority, ImageWriter writer) {
+        WriteTask task;
+        synchronized (this) {
+            WriteTask previous = mTasks.get(filename);
+            if (previous != null) {
+                previous.cancelled = true;
+                mExecutor.remove(previous);
+            }
+            task = new WriteTask(filename, priority, writer, mNextSequence++);
+            mTasks.put(filename, task);
+        }
+        mExecutor.execute(task);
+    }
+
+    /**
+     * Drops the write of filename if it has not finished. Once this returns the file is not
+     * created or replaced by a write submitted before.
+     *
+     * @param filename Name of the file in the directory
+     * @return True if a write was dropped
+     */
+    public boolean cancel(String filename) {
+        WriteTask task;
+        synchronized (this) {
+            task = mTasks.remove(filename);
+            if (task == null) {
+                return false;
+            }
+            task.cancelled = true;
+        }
+        mExecutor.remove(task);
+        mCancelCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * @return The number of writes waiting for a thread
+     */
+    public int getQueueDepth() {
+        return mExecutor.getQueue().size();
+    }
+
+    /**
+     * @return The number of writes that have not finished, including the running ones
+     */
+    public synchronized int getPendingCount() {
+        return mTasks.size();
+    }
+
+    /**
+     * @return The number of images written
+     */
+    public long getWriteCount() {
+        return mWriteCount.get();
+    }
+
+    /**
+     * @return The number of failed writes that were queued again
+     */
+    public long getRetryCount() {
+        return mRetryCount.get();
+    }
+
+    /**
+     * @return The number of writes given up after maxAttempts
+     */
+    public long getFailureCount() {
+        return mFailureCount.get();
+    }
+
+    /**
+     * @return The number of writes dropped by {@link #cancel(String)}
+     */
+    public long getCancelCount() {
+        return mCancelCount.get();
+    }
+
+    /**
+     * @return The average time to write and rename one image, in milliseconds
+     */
+    public long getAverageWriteMillis() {
+        long writes = mWriteCount.get();
+        return writes == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(mTotalWriteNanos.get() / writes);
+    }
+
+    /**
+     * @return The longest time to write and rename one image, in milliseconds
+     */
+    public long getMaxWriteMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(mMaxWriteNanos.get());
+    }
+
+    /**
+     * Stops the threads once the queued writes are done.
+     */
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    /**
+     * Waits for the threads to stop after {@link #shutdown()}.
+     *
+     * @return False if the timeout elapsed first
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return mExecutor.awaitTermination(timeout, unit);
+    }
+
+    private void write(WriteTask task) {
+        if (task.cancelled) {
+            return;
+        }
+        long start = System.nanoTime();
+        OfflineImageStore.PendingImage image;
+        try {
+            image = mStore.write(task.writer);
+        } catch (IOException | RuntimeException e) {
+            retryOrGiveUp(task);
+            return;
+        }
+
+        synchronized (this) {
+            // checked under the lock, so a cancel either comes before the commit or after it
+            if (task.cancelled) {
+                mStore.discard(image);
+                return;
+            }
+            try {
+                mStore.commit(task.filename, image, true);
+                forget(task);
+                long nanos = System.nanoTime() - start;
+                mWriteCount.incrementAndGet();
+                mTotalWriteNanos.addAndGet(nanos);
+                updateMax(nanos);
+                return;
+            } catch (IOException e) {
+                // retried below, outside the lock
+            }
+        }
+        retryOrGiveUp(task);
+    }
+
+    private void retryOrGiveUp(WriteTask task) {
+        synchronized (this) {
+            if (task.cancelled) {
+                return;
+            }
+            if (++task.attempts >= mMaxAttempts) {
+                forget(task);
+                mFailureCount.incrementAndGet();
+                return;
+            }
+            // behind the writes already waiting with the same priority
+            task.sequence = mNextSequence++;
+        }
+        mRetryCount.incrementAndGet();
+        try {
+            mExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // shut down
+            synchronized (this) {
+                forget(task);
+            }
+            mFailureCount.incrementAndGet();
+        }
+    }
+
+    // guarded by this
+    private void forget(WriteTask task) {
+        if (mTasks.get(task.filename) == task) {
+            mTasks.remove(task.filename);
+        }
+    }
+
+    private void updateMax(long nanos) {
+        long max;
+        do {
+            max = mMaxWriteNanos.get();
+        } while (nanos > max && !mMaxWriteNanos.compareAndSet(max, nanos));
+    }
+
+    /**
+     * One queued image, ordered by priority and then by the order it was queued.
+     */
+    private class WriteTask implements Runnable, Comparable<WriteTask> {
+        final String filename;
+        final int priority;
+        final ImageWriter writer;
+        volatile long sequence;
+        volatile boolean cancelled;
+        int attempts;
+
+        WriteTask(String filename, int priority, ImageWriter writer, long sequence) {
+            this.filename = filename;
+            this.priority = priority;
+            this.writer = writer;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            write(this);
+        }
+
+        @Override
+        public int compareTo(WriteTask other) {
+            if (priority != other.priority) {
+                return priority < other.priority ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moemke.android.popmovies.utilities;
+
+/**
+ * Picks the tmdb image size for the width an image is shown at, so a phone does not download
+ * more pixels than it shows.
+ * <p>
+ * The smallest size at least as wide as the view is chosen. For posters that size is only taken
+ * if it is at most 25% wider than the view; otherwise the nearer of the sizes around the view
+ * width is taken, so a 540px cell gets w500 scaled up slightly rather than w780, which has 2.4
+ * times the pixels. "original" is never chosen because its width is unbounded (posters are
+ * often 2000px or more); a view wider than the largest fixed size gets the largest fixed size,
+ * scaled up slightly.
+ */
+public final class ImageSizeSelector {
+
+    // widths of the tmdb "poster_sizes" and "backdrop_sizes", see /configuration
+    private static final int[] POSTER_WIDTHS = {92, 154, 185, 342, 500, 780};
+    private static final int[] BACKDROP_WIDTHS = {300, 780, 1280};
+
+    // a poster size wider than the view by more than this is only taken if it is the nearer one
+    private static final float POSTER_MAX_OVERSIZE = 1.25f;
+
+    private ImageSizeSelector() {
+    }
+
+    /**
+     * @param widthPx Width of the poster view in pixels, i.e. the measured width or the width in
+     *                dp times the display density
+     * @return The tmdb poster size, i.e. "w342"
+     */
+    public static String selectPosterSize(int widthPx) {
+        return select(POSTER_WIDTHS, widthPx, POSTER_MAX_OVERSIZE);
+    }
+
+    /**
+     * @param widthPx Width of the backdrop view in pixels
+     * @return The tmdb backdrop size, i.e. "w780"
+     */
+    public static String selectBackdropSize(int widthPx) {
+        // a backdrop spans the screen, so it is never scaled up
+        return select(BACKDROP_WIDTHS, widthPx, Float.POSITIVE_INFINITY);
+    }
+
+    /**
+     * @param parentWidthPx Width of the grid in pixels
+     * @param spanCount     Number of columns
+     * @return The width of one cell in pixels, rounded up
+     */
+    public static int cellWidthPx(int parentWidthPx, int spanCount) {
+        return (parentWidthPx + spanCount - 1) / spanCount;
+    }
+
+    /**
+     * @param size A size returned by this class, i.e. "w185"
+     * @return The width of size in pixels
+     */
+    public static int widthOf(String size) {
+        return Integer.parseInt(size.substring(1));
+    }
+
+    private static String select(int[] widths, int widthPx, float maxOversize) {
+        for (int i = 0; i < widths.length; i++) {
+            int width = widths[i];
+            if (width >= widthPx) {
+                if (i > 0 && width > widthPx * maxOversize
+                        && widthPx - widths[i - 1] < width - widthPx) {
+                    return "w" + widths[i - 1];
+                }
+                return "w" + width;
+            }
+        }
+        return "w" + widths[widths.length - 1];
+    }
+}
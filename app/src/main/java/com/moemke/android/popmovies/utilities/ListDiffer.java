@@ -0,0 +1,342 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moemke.android.popmovies.utilities;
+
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
+import android.support.v7.widget.RecyclerView;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Works out what changed between the list an adapter shows and its new list, on the CPU pool of
+ * the {@link TaskRunner}, so the adapter only rebinds the items that were inserted, removed,
+ * moved or changed instead of calling notifyDataSetChanged.
+ * <p>
+ * Items are matched by key, i.e. the tmdb id. Rows without a key are the placeholders of
+ * dropped pages, they match each other. Only the last list submitted is applied, the diff of an
+ * older one is cancelled. Until the listener is called the adapter keeps showing the old list
+ * and must not change it: an adapter that has to change its list first calls {@link #cancel()}
+ * and shows the new list with notifyDataSetChanged.
+ */
+public class ListDiffer {
+
+    private static final String TAG = ListDiffer.class.getSimpleName();
+
+    private static final boolean DETECT_MOVES = true;
+
+    /**
+     * A list to diff, read by position. Read in the background, so it must not change while
+     * the diff runs.
+     */
+    public interface Rows {
+        int size();
+
+        /**
+         * @return The key of the row, equal for the same item in the old and the new list, null
+         * for a placeholder
+         */
+        Object getKey(int position);
+
+        /**
+         * Only called for rows with the same key.
+         *
+         * @param newRows     The rows of the new list
+         * @param newPosition The position of the row in newRows
+         * @return true if the row is shown the same as the row of newRows, i.e. same poster
+         */
+        boolean isContentTheSame(int position, Rows newRows, int newPosition);
+    }
+
+    /**
+     * Identifies the items of a List and tells if an item has to be rebound.
+     *
+     * @param <T> The type of the items, never called with null
+     */
+    public interface ItemCallback<T> {
+        /**
+         * @return The key of item, equal for the same item in the old and the new list
+         */
+        Object getKey(T item);
+
+        /**
+         * @return true if the item with the same key is shown the same
+         */
+        boolean areContentsTheSame(T oldItem, T newItem);
+    }
+
+    /**
+     * Receives the changes on the main thread. Replace the list, then dispatch the changes.
+     */
+    public interface Listener {
+        void onDiffed(Result result);
+    }
+
+    private final TaskRunner mRunner;
+
+    // the diff that is running, null if none is
+    private CancellationToken mPending;
+
+    /**
+     * @param runner Runs the diffs, null to diff on the calling thread
+     */
+    public ListDiffer(TaskRunner runner) {
+        mRunner = runner;
+    }
+
+    /**
+     * Diffs the lists and hands the changes to listener, on the main thread. An empty list on
+     * either side, or the same list, needs no diff and is handed over right away.
+     *
+     * @param oldList      The list the adapter shows, not changed until listener is called
+     * @param newList      The list to show, not changed afterwards
+     * @param itemCallback Identifies and compares the items
+     * @param listener     Replaces the list and dispatches the changes
+     */
+    public <T> void submit(List<T> oldList, List<T> newList, ItemCallback<T> itemCallback,
+                           Listener listener) {
+        if (oldList == newList) {
+            cancel();
+            listener.onDiffed(new Result(null, 0, 0));
+            return;
+        }
+        submit(rowsOf(oldList, itemCallback), rowsOf(newList, itemCallback), listener);
+    }
+
+    /**
+     * Like submit for Lists, for lists that are not Lists.
+     */
+    public void submit(final Rows oldRows, final Rows newRows, final Listener listener) {
+        cancel();
+        if (oldRows == newRows) {
+            listener.onDiffed(new Result(null, 0, 0));
+            return;
+        }
+        if (mRunner == null || oldRows.size() == 0 || newRows.size() == 0) {
+            listener.onDiffed(calculate(oldRows, newRows));
+            return;
+        }
+        mPending = mRunner.submit(TaskRunner.POOL_CPU, new BackgroundTask<Result>() {
+            @Override
+            public Result run(CancellationToken token) {
+                return calculate(oldRows, newRows);
+            }
+        }, new TaskRunner.Callback<Result>() {
+            @Override
+            public void onResult(Result result) {
+                mPending = null;
+                listener.onDiffed(result);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                // replacing everything is correct for any two lists
+                mPending = null;
+                listener.onDiffed(new Result(null, oldRows.size(), newRows.size()));
+            }
+        });
+    }
+
+    /**
+     * @return true if a diff is running, its listener has not been called yet
+     */
+    public boolean isPending() {
+        return mPending != null;
+    }
+
+    /**
+     * Cancels the running diff, its listener is not called.
+     */
+    public void cancel() {
+        if (mPending != null) {
+            mPending.cancel();
+            mPending = null;
+        }
+    }
+
+    /**
+     * @param list         The items, null items are placeholders
+     * @param itemCallback Identifies and compares the items
+     * @return The rows of list
+     */
+    public static <T> Rows rowsOf(final List<T> list, final ItemCallback<T> itemCallback) {
+        return new ListRows<T>(list, itemCallback);
+    }
+
+    /**
+     * Diffs the lists on the calling thread.
+     *
+     * @return The changes that turn oldList into newList
+     */
+    public static <T> Result calculate(List<T> oldList, List<T> newList,
+                                       ItemCallback<T> itemCallback) {
+        return calculate(rowsOf(oldList, itemCallback), rowsOf(newList, itemCallback));
+    }
+
+    /**
+     * Diffs the rows on the calling thread.
+     *
+     * @return The changes that turn oldRows into newRows
+     */
+    public static Result calculate(final Rows oldRows, final Rows newRows) {
+        final Object[] oldKeys = keysOf(oldRows);
+        final Object[] newKeys = keysOf(newRows);
+        if (!shareItems(oldKeys, newKeys)) {
+            // i.e. another sort order: removing and inserting everything is what the diff
+            // would find, without the cost of it
+            return new Result(null, oldKeys.length, newKeys.length);
+        }
+        DiffUtil.DiffResult diffResult = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return oldKeys.length;
+            }
+
+            @Override
+            public int getNewListSize() {
+                return newKeys.length;
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+                Object oldKey = oldKeys[oldItemPosition];
+                return oldKey == null
+                        ? newKeys[newItemPosition] == null
+                        : oldKey.equals(newKeys[newItemPosition]);
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+                // placeholders all look the same
+                return oldKeys[oldItemPosition] == null
+                        || oldRows.isContentTheSame(oldItemPosition, newRows, newItemPosition);
+            }
+        }, DETECT_MOVES);
+        return new Result(diffResult, oldKeys.length, newKeys.length);
+    }
+
+    private static Object[] keysOf(Rows rows) {
+        Object[] keys = new Object[rows.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = rows.getKey(i);
+        }
+        return keys;
+    }
+
+    private static boolean shareItems(Object[] oldKeys, Object[] newKeys) {
+        if (oldKeys.length == 0 || newKeys.length == 0) {
+            return false;
+        }
+        Set<Object> keys = new HashSet<Object>(oldKeys.length * 2);
+        for (Object key : oldKeys) {
+            keys.add(key);
+        }
+        for (Object key : newKeys) {
+            if (keys.contains(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class ListRows<T> implements Rows {
+        private final List<T> mList;
+        private final ItemCallback<T> mItemCallback;
+
+        ListRows(List<T> list, ItemCallback<T> itemCallback) {
+            mList = list;
+            mItemCallback = itemCallback;
+        }
+
+        @Override
+        public int size() {
+            return mList.size();
+        }
+
+        @Override
+        public Object getKey(int position) {
+            T item = mList.get(position);
+            return item == null ? null : mItemCallback.getKey(item);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean isContentTheSame(int position, Rows newRows, int newPosition) {
+            return mItemCallback.areContentsTheSame(mList.get(position),
+                    ((ListRows<T>) newRows).mList.get(newPosition));
+        }
+    }
+
+    /**
+     * The changes between two lists.
+     */
+    public static class Result {
+
+        // null if the lists have no item in common
+        private final DiffUtil.DiffResult mDiffResult;
+        private final int mOldSize;
+        private final int mNewSize;
+
+        Result(DiffUtil.DiffResult diffResult, int oldSize, int newSize) {
+            mDiffResult = diffResult;
+            mOldSize = oldSize;
+            mNewSize = newSize;
+        }
+
+        /**
+         * Notifies adapter of the changes, call right after the adapter switched to the new
+         * list.
+         */
+        public void dispatchUpdatesTo(final RecyclerView.Adapter adapter) {
+            dispatchUpdatesTo(new ListUpdateCallback() {
+                @Override
+                public void onInserted(int position, int count) {
+                    adapter.notifyItemRangeInserted(position, count);
+                }
+
+                @Override
+                public void onRemoved(int position, int count) {
+                    adapter.notifyItemRangeRemoved(position, count);
+                }
+
+                @Override
+                public void onMoved(int fromPosition, int toPosition) {
+                    adapter.notifyItemMoved(fromPosition, toPosition);
+                }
+
+                @Override
+                public void onChanged(int position, int count, Object payload) {
+                    adapter.notifyItemRangeChanged(position, count, payload);
+                }
+            });
+        }
+
+        public void dispatchUpdatesTo(ListUpdateCallback callback) {
+            if (mDiffResult != null) {
+                mDiffResult.dispatchUpdatesTo(callback);
+                return;
+            }
+            if (mOldSize > 0) {
+                callback.onRemoved(0, mOldSize);
+            }
+            if (mNewSize > 0) {
+                callback.onInserted(0, mNewSize);
+            }
+        }
+    }
+}
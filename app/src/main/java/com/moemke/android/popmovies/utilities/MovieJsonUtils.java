@@ -17,9 +17,12 @@ package com.moemke.android.popmovies.utilities;
 
 import android.content.ContentValues;
 import android.content.Context;
+import android.util.JsonReader;
+import android.util.JsonToken;
 
 import com.moemke.android.popmovies.Movie;
 import com.moemke.android.popmovies.MovieDetail;
+import com.moemke.android.popmovies.MoviePage;
 import com.moemke.android.popmovies.MovieReview;
 import com.moemke.android.popmovies.MovieVideo;
 
@@ -27,6 +30,9 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 import java.util.ArrayList;
 
@@ -59,6 +65,8 @@ public final class MovieJsonUtils {
     private static final String TMDB_REVIEWS_RESULT = "reviews";
     private static final String TMDB_VIDEOS_RESULT = "videos";
     private static final String TMDB_RESULTS = "results";
+    private static final String TMDB_PAGE = "page";                 //"page": 1,
+    private static final String TMDB_TOTAL_PAGES = "total_pages";   //"total_pages": 982
 
     //Movie Video Information
     private static final String TMDB_TRAILER_ID = "id";         //"id": "571cdc239251414a8700191e",
@@ -76,6 +84,16 @@ public final class MovieJsonUtils {
     private static final String TMDB_CONTENT = "content";   //"content": "A SCREEN ZEALOTS REVIEW www.screenzealots.com\r\n\r\nAnyone who is fortunate..."
     private static final String TMDB_REVIEW_URL = "url";    //"url": "https://www.themoviedb.org/review/579cfaac9251411b36008316"
 
+    private static final String CHARSET_UTF8 = "UTF-8";
+
+    /**
+     * Receives movies from {@link #readMovieDataFromJson(InputStream, OnMovieParsedListener)}
+     * one at a time, as soon as each one has been read.
+     */
+    public interface OnMovieParsedListener {
+        void onMovieParsed(Movie movie);
+    }
+
     /**
      * This method parses JSON from a web response and returns an ArrayList of movies
      * describing movies (According to a specified sort order)
@@ -167,6 +185,176 @@ public final class MovieJsonUtils {
         return movies;
     }
 
+    /**
+     * Streaming version of {@link #getMovieDataFromJson(String)}. The response is read straight
+     * from the stream token by token, without building the whole response as a String or as a
+     * JSONObject tree first. Fields the app doesn't use (popularity, adult, genre_ids, ...) are
+     * skipped without being materialized.
+     *
+     * @param in JSON response from server, i.e. the body of the http response
+     * @return The movies or null if the server reported an error
+     * @throws IOException If the stream cannot be read or the JSON is malformed
+     */
+    public static ArrayList<Movie> getMovieDataFromJsonStream(InputStream in) throws IOException {
+        final ArrayList<Movie> movies = new ArrayList<Movie>();
+        boolean ok = readMovieDataFromJson(in, new OnMovieParsedListener() {
+            @Override
+            public void onMovieParsed(Movie movie) {
+                movies.add(movie);
+            }
+        });
+        return ok ? movies : null;
+    }
+
+    /**
+     * Reads a list response (popular, top_rated) and hands each movie to the listener as soon as
+     * its closing brace has been read.
+     *
+     * @param in       JSON response from server
+     * @param listener Receives each movie
+     * @return false if the server reported an error
+     * @throws IOException If the stream cannot be read or the JSON is malformed
+     */
+    public static boolean readMovieDataFromJson(InputStream in, OnMovieParsedListener listener)
+            throws IOException {
+        return readMovieList(in, listener, null);
+    }
+
+    /**
+     * Reads one page of a list response (popular, top_rated) including its page number and the
+     * total number of pages, which are needed to page through the whole list.
+     *
+     * @param in JSON response from server
+     * @return The page or null if the server reported an error
+     * @throws IOException If the stream cannot be read or the JSON is malformed
+     */
+    public static MoviePage getMoviePageFromJsonStream(InputStream in) throws IOException {
+        final ArrayList<Movie> movies = new ArrayList<Movie>();
+        int[] pageNumbers = new int[]{1, 1};
+        boolean ok = readMovieList(in, new OnMovieParsedListener() {
+            @Override
+            public void onMovieParsed(Movie movie) {
+                movies.add(movie);
+            }
+        }, pageNumbers);
+        return ok ? new MoviePage(pageNumbers[0], pageNumbers[1], movies) : null;
+    }
+
+    /**
+     * @param pageNumbers If not null, receives the page number at [0] and total pages at [1]
+     */
+    private static boolean readMovieList(InputStream in, OnMovieParsedListener listener,
+                                         int[] pageNumbers) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, CHARSET_UTF8));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals(TMDB_RESULTS)) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        listener.onMovieParsed(readMovie(reader));
+                    }
+                    reader.endArray();
+                } else if (name.equals(TMDB_MESSAGE_CODE)) {
+                    /* Is there an error? */
+                    if (reader.nextInt() != HttpURLConnection.HTTP_OK) {
+                        return false;
+                    }
+                } else if (pageNumbers != null && name.equals(TMDB_PAGE)) {
+                    pageNumbers[0] = nextInt(reader);
+                } else if (pageNumbers != null && name.equals(TMDB_TOTAL_PAGES)) {
+                    pageNumbers[1] = nextInt(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            return true;
+        } catch (IllegalStateException e) {
+            // JsonReader reports unexpected tokens this way
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    private static Movie readMovie(JsonReader reader) throws IOException {
+        String pp = null;
+        String ov = null;
+        String rd = null;
+        String gs = "";
+        int id = 0;
+        String ot = null;
+        String ol = null;
+        String bp = null;
+        int vc = 0;
+        float va = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case TMDB_POSTER_PATH:
+                    pp = nextString(reader);
+                    break;
+                case TMDB_OVERVIEW:
+                    ov = nextString(reader);
+                    break;
+                case TMDB_RELEASE_DATE:
+                    rd = nextString(reader);
+                    break;
+                case TMDB_ID:
+                    id = nextInt(reader);
+                    break;
+                case TMDB_ORIGINAL_TITLE:
+                    ot = nextString(reader);
+                    break;
+                case TMDB_ORIGINAL_LANGUAGE:
+                    ol = nextString(reader);
+                    break;
+                case TMDB_BACKDROP_PATH:
+                    bp = nextString(reader);
+                    break;
+                case TMDB_VOTE_COUNT:
+                    vc = nextInt(reader);
+                    break;
+                case TMDB_VOTE_AVERAGE:
+                    va = (float) nextDouble(reader);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return new Movie(pp, ov, rd, id, ot, ol, bp, vc, va, 0, gs);  // 0 is a marker for is_favorite
+    }
+
+    /**
+     * Reads a string the same way JSONObject.getString does, a null value reads as "null".
+     */
+    private static String nextString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return "null";
+        }
+        return reader.nextString();
+    }
+
+    private static int nextInt(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return 0;
+        }
+        return reader.nextInt();
+    }
+
+    private static double nextDouble(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return 0;
+        }
+        return reader.nextDouble();
+    }
+
     /**
      * Parse the JSON and convert it into ContentValues that can be inserted into our database.
      *
@@ -386,4 +574,219 @@ public final class MovieJsonUtils {
         return movieDetail;
     }
 
-}
\ No newline at end of file
+    /**
+     * Streaming version of {@link #getMovieDetailDataFromJson(String)}. Genres, videos and
+     * reviews are added to the MovieDetail in one pass over the stream while it is read. Review
+     * bodies longer than reviewPreviewLength are cut down as soon as they are read, so only one
+     * full review is held in memory at a time; those reviews are marked as truncated and the
+     * full text can be loaded with {@link NetworkUtils#buildReviewDetailUrl(String)}.
+     *
+     * @param in                  JSON response from server
+     * @param reviewPreviewLength Maximum number of characters kept of each review
+     * @return The movie detail or null if the server reported an error
+     * @throws IOException If the stream cannot be read or the JSON is malformed
+     */
+    public static MovieDetail getMovieDetailDataFromJsonStream(InputStream in,
+                                                               int reviewPreviewLength)
+            throws IOException {
+        int movieId = 0;
+        ArrayList<String> movieGenresArray = new ArrayList<String>();
+        ArrayList<MovieVideo> movieVideosArray = new ArrayList<MovieVideo>();
+        ArrayList<MovieReview> movieReviewsArray = new ArrayList<MovieReview>();
+
+        JsonReader reader = new JsonReader(new InputStreamReader(in, CHARSET_UTF8));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case TMDB_ID:
+                        movieId = nextInt(reader);
+                        break;
+                    case TMDB_MESSAGE_CODE:
+                        /* Is there an error? */
+                        if (reader.nextInt() != HttpURLConnection.HTTP_OK) {
+                            return null;
+                        }
+                        break;
+                    case TMDB_GENRES_RESULT:
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            movieGenresArray.add(readGenre(reader));
+                        }
+                        reader.endArray();
+                        break;
+                    case TMDB_VIDEOS_RESULT:
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            if (reader.nextName().equals(TMDB_RESULTS)) {
+                                reader.beginArray();
+                                while (reader.hasNext()) {
+                                    movieVideosArray.add(readVideo(reader));
+                                }
+                                reader.endArray();
+                            } else {
+                                reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                        break;
+                    case TMDB_REVIEWS_RESULT:
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            if (reader.nextName().equals(TMDB_RESULTS)) {
+                                reader.beginArray();
+                                while (reader.hasNext()) {
+                                    movieReviewsArray.add(readReview(reader, reviewPreviewLength));
+                                }
+                                reader.endArray();
+                            } else {
+                                reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException e) {
+            throw new IOException(e.getMessage());
+        }
+        return new MovieDetail(movieId, movieGenresArray, movieVideosArray, movieReviewsArray);
+    }
+
+    /**
+     * Reads the fields a movie has in a list from a movie detail response, the genres, videos
+     * and reviews are skipped.
+     * https://api.themoviedb.org/3/movie/328111?api_key=YOUR_API_KEY
+     *
+     * @param in JSON response from server
+     * @return The movie or null if the response has no movie id
+     * @throws IOException If the stream cannot be read or the JSON is malformed
+     */
+    public static Movie getMovieFromJsonStream(InputStream in) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, CHARSET_UTF8));
+        try {
+            Movie movie = readMovie(reader);
+            return movie.getId() == 0 ? null : movie;
+        } catch (IllegalStateException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    /**
+     * Reads a single review with its full text.
+     * https://api.themoviedb.org/3/review/579cfaac9251411b36008316?api_key=YOUR_API_KEY
+     *
+     * @param in JSON response from server
+     * @return The review, which is never truncated
+     * @throws IOException If the stream cannot be read or the JSON is malformed
+     */
+    public static MovieReview getMovieReviewFromJsonStream(InputStream in) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, CHARSET_UTF8));
+        try {
+            return readReview(reader, Integer.MAX_VALUE);
+        } catch (IllegalStateException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    private static String readGenre(JsonReader reader) throws IOException {
+        String gnm = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals(TMDB_NAME)) {
+                gnm = nextString(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return gnm;
+    }
+
+    private static MovieVideo readVideo(JsonReader reader) throws IOException {
+        String ti = null;
+        String ke = null;
+        String na = null;
+        String st = null;
+        int sz = 0;
+        String ty = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case TMDB_TRAILER_ID:
+                    ti = nextString(reader);
+                    break;
+                case TMDB_KEY:
+                    ke = nextString(reader);
+                    break;
+                case TMDB_NAME:
+                    na = nextString(reader);
+                    break;
+                case TMDB_SITE:
+                    st = nextString(reader);
+                    break;
+                case TMDB_SIZE:
+                    sz = nextInt(reader);
+                    break;
+                case TMDB_TYPE:
+                    ty = nextString(reader);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new MovieVideo(ti, ke, na, st, sz, ty);
+    }
+
+    private static MovieReview readReview(JsonReader reader, int previewLength)
+            throws IOException {
+        String ri = null;
+        String au = null;
+        String co = null;
+        String ru = null;
+        boolean truncated = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case TMDB_REVIEW_ID:
+                    ri = nextString(reader);
+                    break;
+                case TMDB_AUTHOR:
+                    au = nextString(reader);
+                    break;
+                case TMDB_CONTENT:
+                    co = nextString(reader);
+                    if (co.length() > previewLength) {
+                        co = truncate(co, previewLength);
+                        truncated = true;
+                    }
+                    break;
+                case TMDB_REVIEW_URL:
+                    ru = nextString(reader);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new MovieReview(ri, au, co, ru, truncated);
+    }
+
+    /**
+     * Cuts text down to length characters without splitting a surrogate pair. The result is
+     * copied, since substring can share the char array of the full text on older devices.
+     */
+    private static String truncate(String text, int length) {
+        if (length > 0 && Character.isHighSurrogate(text.charAt(length - 1))) {
+            length--;
+        }
+        return new String(text.substring(0, length));
+    }
+
+}
@@ -19,13 +19,12 @@ import android.content.Context;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.net.Uri;
+import android.support.v4.net.ConnectivityManagerCompat;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.Scanner;
 
 /**
  * These utilities will be used to communicate with the movie server.
@@ -45,11 +44,17 @@ public final class NetworkUtils {
     //http://api.themoviedb.org/3/movie/popular?api_key=your-api-key-here
     private static final String TMDB_BASE_URL = "http://api.themoviedb.org/3/movie";
 
+    // https://api.themoviedb.org/3/review/579cfaac9251411b36008316?api_key=YOUR_API_KEY
+    private static final String TMDB_REVIEW_BASE_URL = "http://api.themoviedb.org/3/review";
+
     //Access movie detail using append_to_response (rather than 2 separate calls to videos and reviews)
     //Refer: https://developers.themoviedb.org/3/getting-started/append-to-response
     //https://api.themoviedb.org/3/movie/328111?api_key=YOUR_API_KEY&append_to_response=videos,reviews
     private static final String TMDB_APPEND_TO_RESPONSE = "append_to_response";
 
+    // Lists are returned 20 movies at a time, ex. &page=2
+    private static final String TMDB_PAGE_PARAM = "page";
+
     //access videos
     //To fetch trailers you will want to make a request to the /movie/{id}/videos endpoint.
     //You should use an Intent to open a youtube link in either the native app or a web browser of choice.
@@ -77,6 +82,155 @@ public final class NetworkUtils {
     private static final String YOUTUBE_IMG_BASE_URL = "http://img.youtube.com/vi";
     private static final String YOUTUBE_IMG_SUFFIX = "0.jpg";
 
+    // Hosts whose connections are kept alive and reused by the pooled http engine
+    private static final String TMDB_API_HOST = "api.themoviedb.org";
+    private static final String TMDB_IMG_HOST = "image.tmdb.org";
+    private static final String YOUTUBE_IMG_HOST = "img.youtube.com";
+
+    private static HttpEngine sHttpEngine = new PooledHttpEngine(
+            new String[]{TMDB_API_HOST, TMDB_IMG_HOST, YOUTUBE_IMG_HOST},
+            new UrlConnectionHttpEngine());
+
+    // How long cached tmdb responses are used before they are revalidated
+    private static final long LIST_TTL_MILLIS = 10 * 60 * 1000;          // popular, top_rated
+    private static final long DETAIL_TTL_MILLIS = 6 * 60 * 60 * 1000;    // videos, reviews
+    private static final long REVIEW_TTL_MILLIS = 24 * 60 * 60 * 1000;   // full review text
+
+    private static final String TMDB_MOVIE_PATH = "/3/movie/";
+    private static final String TMDB_REVIEW_PATH = "/3/review/";
+
+    private static final ResponseCache.TtlPolicy TMDB_TTL_POLICY = new ResponseCache.TtlPolicy() {
+        @Override
+        public long getTtlMillis(URL url) {
+            String path = url.getPath();
+            if (path.startsWith(TMDB_REVIEW_PATH)) {
+                return REVIEW_TTL_MILLIS;
+            }
+            if (!path.startsWith(TMDB_MOVIE_PATH)) {
+                return LIST_TTL_MILLIS;
+            }
+            // /3/movie/<id> and everything below it, i.e. /videos and /reviews, is the detail
+            // of one movie; /3/movie/popular and /3/movie/top_rated are lists
+            String movieSegment = path.substring(TMDB_MOVIE_PATH.length());
+            int end = movieSegment.indexOf('/');
+            if (end != -1) {
+                movieSegment = movieSegment.substring(0, end);
+            }
+            try {
+                Integer.parseInt(movieSegment);
+                return DETAIL_TTL_MILLIS;
+            } catch (NumberFormatException e) {
+                return LIST_TTL_MILLIS;
+            }
+        }
+    };
+
+    private static final RequestCoalescer sRequestCoalescer = new RequestCoalescer();
+
+    // A thumbnail of a video id does not change, it is only revalidated once a week
+    private static final long YOUTUBE_THUMBNAIL_TTL_MILLIS = 7 * 24 * 60 * 60 * 1000L;
+
+    private static final ResponseCache.TtlPolicy YOUTUBE_THUMBNAIL_TTL_POLICY =
+            new ResponseCache.TtlPolicy() {
+                @Override
+                public long getTtlMillis(URL url) {
+                    return YOUTUBE_THUMBNAIL_TTL_MILLIS;
+                }
+            };
+
+    // A tmdb image path names one image, a new poster gets a new path
+    private static final long TMDB_IMAGE_TTL_MILLIS = 30 * 24 * 60 * 60 * 1000L;
+
+    private static final ResponseCache.TtlPolicy TMDB_IMAGE_TTL_POLICY =
+            new ResponseCache.TtlPolicy() {
+                @Override
+                public long getTtlMillis(URL url) {
+                    return TMDB_IMAGE_TTL_MILLIS;
+                }
+            };
+
+    // null until the application sets it up, requests then go straight to the engine
+    private static ResponseCache sResponseCache;
+
+    /**
+     * @return The engine used for all requests to the tmdb servers.
+     */
+    public static HttpEngine getHttpEngine() {
+        return sHttpEngine;
+    }
+
+    /**
+     * Replaces the engine used for all requests, i.e. with a fake one in tests.
+     *
+     * @param engine The new engine, the previous one is shut down.
+     */
+    public static void setHttpEngine(HttpEngine engine) {
+        HttpEngine previous = sHttpEngine;
+        sHttpEngine = engine;
+        if (previous != null && previous != engine) {
+            previous.shutdown();
+        }
+    }
+
+    /**
+     * @return The coalescer of the tmdb requests, i.e. to read how many were merged.
+     */
+    public static RequestCoalescer getRequestCoalescer() {
+        return sRequestCoalescer;
+    }
+
+    /**
+     * @return The freshness of each tmdb endpoint, used by the response cache.
+     */
+    public static ResponseCache.TtlPolicy getTtlPolicy() {
+        return TMDB_TTL_POLICY;
+    }
+
+    /**
+     * @return The freshness of YouTube thumbnails, used by the thumbnail cache.
+     */
+    public static ResponseCache.TtlPolicy getYoutubeThumbnailTtlPolicy() {
+        return YOUTUBE_THUMBNAIL_TTL_POLICY;
+    }
+
+    /**
+     * @return The freshness of tmdb posters and backdrops, used by the image cache.
+     */
+    public static ResponseCache.TtlPolicy getTmdbImageTtlPolicy() {
+        return TMDB_IMAGE_TTL_POLICY;
+    }
+
+    /**
+     * @return The host of the tmdb posters and backdrops, see buildImageUrlString.
+     */
+    public static String getTmdbImageHost() {
+        return TMDB_IMG_HOST;
+    }
+
+    /**
+     * @return The host of the YouTube thumbnails, see buildYoutubeImageUrlString.
+     */
+    public static String getYoutubeImageHost() {
+        return YOUTUBE_IMG_HOST;
+    }
+
+    /**
+     * @return The cache for tmdb json responses, or null if responses are not cached.
+     */
+    public static ResponseCache getResponseCache() {
+        return sResponseCache;
+    }
+
+    /**
+     * Sets the cache used by {@link #getHttpResponse(URL)} and
+     * {@link #getResponseFromHttpUrl(URL)}.
+     *
+     * @param responseCache The cache, or null to always go to the network.
+     */
+    public static void setResponseCache(ResponseCache responseCache) {
+        sResponseCache = responseCache;
+    }
+
     public static String getTMDBDateFormat() {
         return TMDB_DATE_FORMAT;
     }
@@ -97,9 +251,22 @@ public final class NetworkUtils {
      * @return The URL to use to query the tmdb server.
      */
     public static URL buildUrl(String sortOrder) {
+        return buildUrl(sortOrder, 1);
+    }
+
+    /**
+     * Builds the URL for one page of a sorted movie list.
+     * https://api.themoviedb.org/3/movie/popular?api_key=YOUR_API_KEY_HERE&page=2
+     *
+     * @param sortOrder The sort order that will be queried for, "popular" or "top_rated"
+     * @param page      The page to load, starting at 1
+     * @return The URL to use to query the tmdb server.
+     */
+    public static URL buildUrl(String sortOrder, int page) {
         Uri builtUri = Uri.parse(TMDB_BASE_URL).buildUpon()
                 .appendPath(sortOrder)
                 .appendQueryParameter(TMDB_APIKEY_PARAM, TMDB_API_KEY)
+                .appendQueryParameter(TMDB_PAGE_PARAM, Integer.toString(page))
                 .build();
 
         URL url = null;
@@ -187,10 +354,16 @@ public final class NetworkUtils {
     //// ex. http://img.youtube.com/vi/bvu-zlR5A8Q/0.jpg
     // http://img.youtube.com/vi/<VideoId>/0.jpg
     public static String buildYoutubeImageUrlString(String videoId) {
+        return buildYoutubeImageUrlString(videoId, YOUTUBE_IMG_SUFFIX);
+    }
+
+    // ex. http://img.youtube.com/vi/bvu-zlR5A8Q/mqdefault.jpg
+    // variant is one of the file names picked by YoutubeThumbnails.selectVariant
+    public static String buildYoutubeImageUrlString(String videoId, String variant) {
 
         Uri builtUri = Uri.parse(YOUTUBE_IMG_BASE_URL).buildUpon()
                 .appendPath(videoId)
-                .appendPath(YOUTUBE_IMG_SUFFIX)
+                .appendPath(variant)
                 .build();
 
         URL url = null;
@@ -252,6 +425,28 @@ public final class NetworkUtils {
         return url;
     }
 
+    /**
+     * Builds the URL used to load the full text of a single review.
+     * https://api.themoviedb.org/3/review/579cfaac9251411b36008316?api_key=YOUR_API_KEY_HERE
+     *
+     * @param reviewId The id of the review, i.e. 579cfaac9251411b36008316
+     * @return The URL to use to query the tmdb server.
+     */
+    public static URL buildReviewDetailUrl(String reviewId) {
+        Uri builtUri = Uri.parse(TMDB_REVIEW_BASE_URL).buildUpon()
+                .appendPath(reviewId)
+                .appendQueryParameter(TMDB_APIKEY_PARAM, TMDB_API_KEY)
+                .build();
+
+        URL url = null;
+        try {
+            url = new URL(builtUri.toString());
+        } catch (MalformedURLException e) {
+            e.printStackTrace();
+        }
+        return url;
+    }
+
     /**
      * Builds the youtube URL to play the youtube video.
      *
@@ -275,7 +470,8 @@ public final class NetworkUtils {
     }
 
     /**
-     * This method returns the entire result from the HTTP response.
+     * This method returns the entire result from the HTTP response. The connection is handed
+     * back to the http engine afterwards so the next request can reuse it.
      *
      * @param url The URL to fetch the HTTP response from.
      * @return The contents of the HTTP response.
@@ -283,22 +479,35 @@ public final class NetworkUtils {
      */
     public static String getResponseFromHttpUrl(URL url) throws IOException {
         //Log.v(TAG, "Built URI passed to getResponseFromHttpUrl" + url);
-        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
-        try {
-            InputStream in = urlConnection.getInputStream();
-
-            Scanner scanner = new Scanner(in);
-            scanner.useDelimiter("\\A");
+        return getHttpResponse(url).bodyAsString();
+    }
 
-            boolean hasInput = scanner.hasNext();
-            if (hasInput) {
-                return scanner.next();
-            } else {
-                return null;
-            }
-        } finally {
-            urlConnection.disconnect();
+    /**
+     * This method returns the HTTP response. If a response cache is set, a fresh cached copy is
+     * returned instead and expired copies are revalidated. Concurrent requests for the same url
+     * are made once, see {@link RequestCoalescer}, so the body is always read into memory.
+     *
+     * @param url The URL to fetch the HTTP response from.
+     * @return The HTTP response, which has to be closed by the caller.
+     * @throws IOException Related to network and stream reading, or an error status
+     */
+    public static HttpResponse getHttpResponse(final URL url) throws IOException {
+        // concurrent requests for the same url share one call
+        HttpResponse response = sRequestCoalescer.execute(url.toString(),
+                new RequestCoalescer.Call() {
+                    @Override
+                    public HttpResponse execute() throws IOException {
+                        ResponseCache responseCache = sResponseCache;
+                        return responseCache != null
+                                ? responseCache.execute(sHttpEngine, url)
+                                : sHttpEngine.execute(url, null);
+                    }
+                });
+        if (response.getCode() >= HttpURLConnection.HTTP_BAD_REQUEST) {
+            response.close();
+            throw new IOException("HTTP " + response.getCode() + " " + response.getMessage());
         }
+        return response;
     }
 
     //Refer: http://stackoverflow.com/questions/1560788/
@@ -310,4 +519,12 @@ public final class NetworkUtils {
         return netInfo != null && netInfo.isConnectedOrConnecting();
     }
 
+    // true on wifi and other networks that are not billed by the byte, used to decide how much
+    // is prefetched
+    public static boolean isOnUnmeteredNetwork(Context context) {
+        ConnectivityManager cm =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        return isOnline(context) && !ConnectivityManagerCompat.isActiveNetworkMetered(cm);
+    }
+
 }
\ No newline at end of file
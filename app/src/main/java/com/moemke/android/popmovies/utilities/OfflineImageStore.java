@@ -0,0 +1,651 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moemke.android.popmovies.utilities;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Images kept for offline use (favorite posters and backdrops), stored by the SHA-1 of their
+ * bytes so identical images are kept once.
+ * <p>
+ * A manifest maps each key (the tmdb image path without the leading '/') to the hash of its
+ * file and records whether the key is pinned. Pinned images belong to favorites and are never
+ * evicted; once a favorite is removed its images are unpinned and the least recently used ones
+ * are deleted whenever the files exceed the byte budget.
+ * <p>
+ * {@link #verify()} has to run once before {@link #getFile(String)} returns anything. It reads
+ * the manifest, drops entries whose file is missing or does not match its hash, and deletes
+ * files the manifest does not know about, so a caller never gets a broken file. Files are only
+ * hashed again if their length or modification time differs from the manifest, or if the
+ * process died between changing the files and writing the manifest.
+ */
+public class OfflineImageStore {
+
+    private static final String TAG = OfflineImageStore.class.getSimpleName();
+
+    // version 1 had no modification times, its files are all hashed once
+    private static final int MANIFEST_VERSION = 2;
+    private static final int MANIFEST_VERSION_WITHOUT_MODIFIED = 1;
+    private static final long UNKNOWN_MODIFIED = -1;
+    private static final String MANIFEST_FILE = "manifest";
+    // exists while the files may differ from the manifest
+    private static final String DIRTY_FILE = "dirty";
+    private static final String IMAGE_FILE_SUFFIX = ".jpg";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private static OfflineImageStore sInstance;
+
+    /**
+     * Called once {@link #verify()} finished, when {@link #getFile(String)} starts returning
+     * the stored images.
+     */
+    public interface OnVerifiedListener {
+        void onImagesVerified();
+    }
+
+    /**
+     * An image written to a temporary file, not visible under any key until it is committed.
+     */
+    public static final class PendingImage {
+        final File temp;
+        final String hash;
+        final long length;
+
+        PendingImage(File temp, String hash, long length) {
+            this.temp = temp;
+            this.hash = hash;
+            this.length = length;
+        }
+    }
+
+    /**
+     * One stored file, shared by every key with the same bytes.
+     */
+    private static class Blob {
+        final String hash;
+        final long length;
+        long modified;
+        int references;
+        boolean verified;
+
+        Blob(String hash, long length, long modified) {
+            this.hash = hash;
+            this.length = length;
+            this.modified = modified;
+        }
+    }
+
+    private static class Entry {
+        final String hash;
+        boolean pinned;
+
+        Entry(String hash, boolean pinned) {
+            this.hash = hash;
+            this.pinned = pinned;
+        }
+    }
+
+    private final File mDirectory;
+    private final long mMaxBytes;
+    private final Executor mNotifyExecutor;
+    private final AtomicLong mNextTemp = new AtomicLong();
+    private final CopyOnWriteArrayList<OnVerifiedListener> mListeners =
+            new CopyOnWriteArrayList<OnVerifiedListener>();
+
+    // guarded by this; access ordered, so iteration starts at the least recently used key
+    private final LinkedHashMap<String, Entry> mEntries =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private final HashMap<String, Blob> mBlobs = new HashMap<String, Blob>();
+    private long mBytes;
+    private boolean mLoaded;
+    // the previous process left the dirty file, so verify hashes every file
+    private boolean mHashAll;
+    private boolean mDirty;
+
+    private final AtomicLong mDedupCount = new AtomicLong();
+    private final AtomicLong mEvictionCount = new AtomicLong();
+    private final AtomicLong mCorruptCount = new AtomicLong();
+
+    /**
+     * A store that notifies its listeners on the thread that ran {@link #verify()}.
+     *
+     * @param directory Directory of the images and the manifest, i.e. a folder in
+     *                  Context.getFilesDir()
+     * @param maxBytes  Budget for the image files. Pinned images are kept even above it.
+     */
+    public OfflineImageStore(File directory, long maxBytes) {
+        this(directory, maxBytes, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+    }
+
+    /**
+     * @param directory      Directory of the images and the manifest, i.e. a folder in
+     *                       Context.getFilesDir()
+     * @param maxBytes       Budget for the image files. Pinned images are kept even above it.
+     * @param notifyExecutor Runs the {@link OfflineImageStore.OnVerifiedListener}s, i.e. on the
+     *                       main thread
+     */
+    public OfflineImageStore(File directory, long maxBytes, Executor notifyExecutor) {
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+        mNotifyExecutor = notifyExecutor;
+    }
+
+    public static synchronized void setInstance(OfflineImageStore store) {
+        sInstance = store;
+    }
+
+    public static synchronized OfflineImageStore getInstance() {
+        return sInstance;
+    }
+
+    public void addOnVerifiedListener(OnVerifiedListener listener) {
+        mListeners.addIfAbsent(listener);
+    }
+
+    public void removeOnVerifiedListener(OnVerifiedListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Returns the file of key if it is stored and verified. Does not touch the disk, so it can
+     * be called while binding views.
+     *
+     * @param key The tmdb image path without the leading '/'
+     * @return The file, or null if the image is not available offline
+     */
+    public synchronized File getFile(String key) {
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        Blob blob = mBlobs.get(entry.hash);
+        return blob != null && blob.verified ? blobFile(blob.hash) : null;
+    }
+
+    /**
+     * Writes an image to a temporary file in the store directory and hashes it on the way.
+     *
+     * @param writer Produces the image
+     * @return The written image, to be passed to {@link #commit} or {@link #discard}
+     * @throws IOException If the image could not be written
+     */
+    public PendingImage write(ImagePersistenceExecutor.ImageWriter writer) throws IOException {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Cannot create " + mDirectory);
+        }
+        File temp = new File(mDirectory, "image-" + mNextTemp.incrementAndGet() + TEMP_FILE_SUFFIX);
+        MessageDigest digest = sha1();
+        FileOutputStream fileStream = new FileOutputStream(temp);
+        try {
+            OutputStream out = new DigestOutputStream(
+                    new BufferedOutputStream(fileStream, BUFFER_SIZE), digest);
+            writer.writeTo(out);
+            out.flush();
+            // on disk before the rename, or a crash could leave an empty file under the hash
+            fileStream.getFD().sync();
+        } catch (IOException | RuntimeException e) {
+            closeQuietly(fileStream);
+            temp.delete();
+            throw e;
+        }
+        fileStream.close();
+        return new PendingImage(temp, hex(digest.digest()), temp.length());
+    }
+
+    /**
+     * Stores a written image under key. If the same bytes are stored already the temporary
+     * file is dropped and the key shares the existing file.
+     *
+     * @param key    The tmdb image path without the leading '/'
+     * @param image  The image returned by {@link #write}
+     * @param pinned True for images of favorites, which are never evicted
+     * @throws IOException If the image could not be moved into place
+     */
+    public synchronized void commit(String key, PendingImage image, boolean pinned)
+            throws IOException {
+        load();
+        markDirty();
+        Blob blob = mBlobs.get(image.hash);
+        if (blob != null && blob.verified) {
+            image.temp.delete();
+            mDedupCount.incrementAndGet();
+        } else {
+            File file = blobFile(image.hash);
+            if (!image.temp.renameTo(file)) {
+                image.temp.delete();
+                throw new IOException("Cannot store " + key);
+            }
+            if (blob == null) {
+                blob = new Blob(image.hash, image.length, file.lastModified());
+                mBlobs.put(image.hash, blob);
+                mBytes += blob.length;
+            } else {
+                blob.modified = file.lastModified();
+            }
+            blob.verified = true;
+        }
+        blob.references++;
+        Entry previous = mEntries.put(key, new Entry(image.hash, pinned));
+        if (previous != null) {
+            release(previous.hash);
+        }
+        trim();
+        writeManifest();
+    }
+
+    /**
+     * Drops an image returned by {@link #write} that is not committed.
+     */
+    public void discard(PendingImage image) {
+        image.temp.delete();
+    }
+
+    /**
+     * Copies a file into the store and deletes the original, for images saved before the store
+     * existed.
+     *
+     * @return False if the file could not be read
+     */
+    public boolean importFile(String key, final File source, boolean pinned) {
+        try {
+            commit(key, write(new ImagePersistenceExecutor.ImageWriter() {
+                @Override
+                public void writeTo(OutputStream out) throws IOException {
+                    copy(source, out);
+                }
+            }), pinned);
+        } catch (IOException e) {
+            return false;
+        }
+        source.delete();
+        return true;
+    }
+
+    /**
+     * Makes the image of key evictable, i.e. once its favorite is removed.
+     *
+     * @param key The tmdb image path without the leading '/'
+     */
+    public synchronized void unpin(String key) {
+        load();
+        Entry entry = mEntries.get(key);
+        if (entry == null || !entry.pinned) {
+            return;
+        }
+        entry.pinned = false;
+        markDirty();
+        trim();
+        writeManifest();
+    }
+
+    /**
+     * Checks the stored images and removes the broken ones and the files the manifest does not
+     * reference, then notifies the listeners. Until this has run {@link #getFile(String)}
+     * returns null. An image whose length and modification time match the manifest is trusted,
+     * any other one is hashed again. May read every image, so it has to run on a background
+     * thread.
+     */
+    public void verify() {
+        long start = System.currentTimeMillis();
+        ArrayList<Blob> blobs;
+        boolean hashAll;
+        synchronized (this) {
+            load();
+            blobs = new ArrayList<Blob>(mBlobs.values());
+            hashAll = mHashAll;
+        }
+
+        // checked without the lock, so getFile is not blocked
+        HashSet<String> broken = new HashSet<String>();
+        for (Blob blob : blobs) {
+            if (blob.verified) {
+                continue;
+            }
+            File file = blobFile(blob.hash);
+            if (!hashAll && isUnchanged(file, blob)) {
+                continue;
+            }
+            if (!matches(file, blob)) {
+                broken.add(blob.hash);
+            }
+        }
+
+        synchronized (this) {
+            markDirty();
+            for (Blob blob : blobs) {
+                // a commit of the same bytes since the check replaced the file
+                if (blob.verified || !broken.contains(blob.hash)) {
+                    if (!blob.verified) {
+                        blob.modified = blobFile(blob.hash).lastModified();
+                    }
+                    blob.verified = true;
+                    broken.remove(blob.hash);
+                } else if (mBlobs.get(blob.hash) == blob) {
+                    mBlobs.remove(blob.hash);
+                    mBytes -= blob.length;
+                    blobFile(blob.hash).delete();
+                    mCorruptCount.incrementAndGet();
+                }
+            }
+            Iterator<Map.Entry<String, Entry>> entries = mEntries.entrySet().iterator();
+            while (entries.hasNext()) {
+                if (broken.contains(entries.next().getValue().hash)) {
+                    entries.remove();
+                }
+            }
+            deleteUnknownFiles(start);
+            writeManifest();
+            mHashAll = false;
+        }
+        mNotifyExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (OnVerifiedListener listener : mListeners) {
+                    listener.onImagesVerified();
+                }
+            }
+        });
+    }
+
+    /**
+     * @return The bytes of all stored images
+     */
+    public synchronized long getSize() {
+        return mBytes;
+    }
+
+    public long getMaxSize() {
+        return mMaxBytes;
+    }
+
+    /**
+     * @return The number of keys with an image
+     */
+    public synchronized int getImageCount() {
+        return mEntries.size();
+    }
+
+    /**
+     * @return The number of images that were not stored again because their bytes were
+     */
+    public long getDedupCount() {
+        return mDedupCount.get();
+    }
+
+    /**
+     * @return The number of unpinned images deleted to stay within the budget
+     */
+    public long getEvictionCount() {
+        return mEvictionCount.get();
+    }
+
+    /**
+     * @return The number of images dropped by {@link #verify()}
+     */
+    public long getCorruptCount() {
+        return mCorruptCount.get();
+    }
+
+    // guarded by this
+    private void trim() {
+        Iterator<Map.Entry<String, Entry>> entries = mEntries.entrySet().iterator();
+        while (mBytes > mMaxBytes && entries.hasNext()) {
+            Entry entry = entries.next().getValue();
+            if (!entry.pinned) {
+                entries.remove();
+                release(entry.hash);
+                mEvictionCount.incrementAndGet();
+            }
+        }
+    }
+
+    // guarded by this
+    private void release(String hash) {
+        Blob blob = mBlobs.get(hash);
+        if (blob != null && --blob.references <= 0) {
+            mBlobs.remove(hash);
+            mBytes -= blob.length;
+            blobFile(hash).delete();
+        }
+    }
+
+    // guarded by this
+    private void load() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        mHashAll = new File(mDirectory, DIRTY_FILE).exists();
+        File manifest = new File(mDirectory, MANIFEST_FILE);
+        if (!manifest.exists()) {
+            return;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(manifest)));
+            int version = in.readInt();
+            if (version != MANIFEST_VERSION && version != MANIFEST_VERSION_WITHOUT_MODIFIED) {
+                return;
+            }
+            int blobCount = in.readInt();
+            for (int i = 0; i < blobCount; i++) {
+                String hash = in.readUTF();
+                long length = in.readLong();
+                Blob blob = new Blob(hash, length, version == MANIFEST_VERSION
+                        ? in.readLong() : UNKNOWN_MODIFIED);
+                mBlobs.put(blob.hash, blob);
+                mBytes += blob.length;
+            }
+            int entryCount = in.readInt();
+            for (int i = 0; i < entryCount; i++) {
+                String key = in.readUTF();
+                Entry entry = new Entry(in.readUTF(), in.readBoolean());
+                Blob blob = mBlobs.get(entry.hash);
+                if (blob != null) {
+                    blob.references++;
+                    mEntries.put(key, entry);
+                }
+            }
+        } catch (IOException e) {
+            // verify deletes the files of a manifest that cannot be read
+            mEntries.clear();
+            mBlobs.clear();
+            mBytes = 0;
+        } finally {
+            closeQuietly(in);
+        }
+        // files no key references any more
+        Iterator<Blob> blobs = mBlobs.values().iterator();
+        while (blobs.hasNext()) {
+            Blob blob = blobs.next();
+            if (blob.references == 0) {
+                blobs.remove();
+                mBytes -= blob.length;
+            }
+        }
+    }
+
+    // guarded by this
+    private void writeManifest() {
+        File manifest = new File(mDirectory, MANIFEST_FILE);
+        File temp = new File(mDirectory, MANIFEST_FILE + TEMP_FILE_SUFFIX);
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeInt(MANIFEST_VERSION);
+            out.writeInt(mBlobs.size());
+            for (Blob blob : mBlobs.values()) {
+                out.writeUTF(blob.hash);
+                out.writeLong(blob.length);
+                out.writeLong(blob.modified);
+            }
+            // least recently used first, so the order survives a restart
+            out.writeInt(mEntries.size());
+            for (Map.Entry<String, Entry> entry : mEntries.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeUTF(entry.getValue().hash);
+                out.writeBoolean(entry.getValue().pinned);
+            }
+            out.close();
+            out = null;
+            if (!temp.renameTo(manifest)) {
+                temp.delete();
+            } else if (mDirty && new File(mDirectory, DIRTY_FILE).delete()) {
+                mDirty = false;
+            }
+        } catch (IOException e) {
+            temp.delete();
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    // guarded by this; the mark stays until the next manifest is written, so if the process
+    // dies in between the next start hashes every file instead of trusting their times
+    private void markDirty() {
+        if (mDirty || !mDirectory.isDirectory()) {
+            return;
+        }
+        File dirty = new File(mDirectory, DIRTY_FILE);
+        try {
+            dirty.createNewFile();
+        } catch (IOException e) {
+            // the files are still checked against their length and modification time
+        }
+        mDirty = dirty.exists();
+    }
+
+    // guarded by this
+    private void deleteUnknownFiles(long startedAt) {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (name.equals(MANIFEST_FILE) || name.equals(DIRTY_FILE)) {
+                continue;
+            }
+            if (name.endsWith(TEMP_FILE_SUFFIX)) {
+                // temp files of writes that started before verify are left by a crash
+                if (file.lastModified() < startedAt) {
+                    file.delete();
+                }
+            } else if (!name.endsWith(IMAGE_FILE_SUFFIX) || !mBlobs.containsKey(
+                    name.substring(0, name.length() - IMAGE_FILE_SUFFIX.length()))) {
+                file.delete();
+            }
+        }
+    }
+
+    private static boolean isUnchanged(File file, Blob blob) {
+        return blob.modified != UNKNOWN_MODIFIED && file.length() == blob.length
+                && file.lastModified() == blob.modified;
+    }
+
+    private static boolean matches(File file, Blob blob) {
+        if (file.length() != blob.length) {
+            return false;
+        }
+        MessageDigest digest = sha1();
+        OutputStream out = new DigestOutputStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }, digest);
+        try {
+            copy(file, out);
+        } catch (IOException e) {
+            return false;
+        }
+        return blob.hash.equals(hex(digest.digest()));
+    }
+
+    private File blobFile(String hash) {
+        return new File(mDirectory, hash + IMAGE_FILE_SUFFIX);
+    }
+
+    private static void copy(File source, OutputStream out) throws IOException {
+        InputStream in = new FileInputStream(source);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String hex(byte[] digest) {
+        StringBuilder hex = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+            hex.append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
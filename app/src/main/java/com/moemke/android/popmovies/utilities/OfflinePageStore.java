@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moemke.android.popmovies.utilities;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The first pages of the tmdb lists (popular, top_rated) as they were last fetched, so the grid
+ * can be shown right away on launch and without a network. Unlike the {@link ResponseCache},
+ * which is in the cache directory and evicts by size, the pages are kept in a folder of
+ * Context.getFilesDir() until they are replaced by a newer copy.
+ * <p>
+ * A page is stored as its json response, one file per sort order and page number, and read
+ * back with the same parser as a page from the network.
+ */
+public class OfflinePageStore {
+
+    private static final String TAG = OfflinePageStore.class.getSimpleName();
+
+    private static final int FORMAT_VERSION = 1;
+    private static final String PAGE_FILE_SUFFIX = ".json";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    private static OfflinePageStore sInstance;
+
+    private final File mDirectory;
+    private final int mMaxPages;
+    private final AtomicLong mNextTemp = new AtomicLong();
+
+    /**
+     * @param directory Directory of the pages, i.e. a folder in Context.getFilesDir()
+     * @param maxPages  Pages kept of each sort order, pages after it are not stored
+     */
+    public OfflinePageStore(File directory, int maxPages) {
+        mDirectory = directory;
+        mMaxPages = maxPages;
+    }
+
+    public static synchronized void setInstance(OfflinePageStore store) {
+        sInstance = store;
+    }
+
+    public static synchronized OfflinePageStore getInstance() {
+        return sInstance;
+    }
+
+    public int getMaxPages() {
+        return mMaxPages;
+    }
+
+    /**
+     * Stores a page in place of the stored copy, if page is one of the first maxPages.
+     *
+     * @param sortOrder The list, "popular" or "top_rated"
+     * @param page      The page number, starting at 1
+     * @param body      The json response of the page
+     * @return Whether the page was stored
+     */
+    public boolean put(String sortOrder, int page, byte[] body) {
+        if (page < 1 || page > mMaxPages) {
+            return false;
+        }
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            return false;
+        }
+        File file = pageFile(sortOrder, page);
+        // pages are written from several threads, each into a temp file of its own
+        File temp = new File(mDirectory, file.getName() + "." + mNextTemp.incrementAndGet()
+                + TEMP_FILE_SUFFIX);
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(body.length);
+            out.write(body);
+            out.close();
+            out = null;
+            // readers never see a half written file
+            if (!temp.renameTo(file)) {
+                temp.delete();
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            temp.delete();
+            return false;
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    /**
+     * @param sortOrder The list, "popular" or "top_rated"
+     * @param page      The page number, starting at 1
+     * @return The json response of the page, or null if it is not stored or cannot be read
+     */
+    public byte[] get(String sortOrder, int page) {
+        File file = pageFile(sortOrder, page);
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            int length = in.readInt();
+            // a corrupt length must not allocate more than the file holds
+            if (length < 0 || length > file.length()) {
+                throw new IOException("Corrupt page " + file);
+            }
+            byte[] body = new byte[length];
+            in.readFully(body);
+            return body;
+        } catch (IOException e) {
+            // cut short, i.e. the disk was full, or corrupt
+            file.delete();
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * @param sortOrder The list, "popular" or "top_rated"
+     * @return The number of pages stored without a gap from page 1
+     */
+    public int getPageCount(String sortOrder) {
+        int pages = 0;
+        while (pages < mMaxPages && pageFile(sortOrder, pages + 1).exists()) {
+            pages++;
+        }
+        return pages;
+    }
+
+    private File pageFile(String sortOrder, int page) {
+        return new File(mDirectory, sortOrder + "-" + page + PAGE_FILE_SUFFIX);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,810 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moemke.android.popmovies.utilities;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * {@link HttpEngine} that keeps HTTP/1.1 connections alive and reuses them across requests.
+ * <ul>
+ * <li>at most {@code maxConnectionsPerHost} sockets are open per host, extra callers wait</li>
+ * <li>idle sockets are closed after {@code keepAliveMillis}</li>
+ * </ul>
+ * Hosts that are not in the pooled set are handed to a fallback engine.
+ */
+public class PooledHttpEngine implements HttpEngine {
+
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 4;
+    public static final long DEFAULT_KEEP_ALIVE_MILLIS = 30 * 1000;
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 15000;
+    private static final int READ_TIMEOUT_MILLIS = 20000;
+    private static final int MAX_REDIRECTS = 5;
+    private static final int MAX_LINE_LENGTH = 8192;
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+    private static final String USER_AGENT = "PopMovies";
+
+    private final Set<String> mPooledHosts;
+    private final HttpEngine mFallback;
+    private final int mMaxConnectionsPerHost;
+    private final long mKeepAliveMillis;
+
+    // guarded by this
+    private final Map<String, HostPool> mHostPools = new HashMap<String, HostPool>();
+    private boolean mCleanupRunning;
+    private boolean mShutdown;
+
+    private final AtomicInteger mSocketsOpened = new AtomicInteger();
+    private final AtomicInteger mRequestsExecuted = new AtomicInteger();
+
+    /**
+     * Creates an engine that pools connections to the given hosts only.
+     *
+     * @param pooledHosts Hosts to pool, i.e. "api.themoviedb.org". Null pools every host.
+     * @param fallback    The engine used for all other hosts.
+     */
+    public PooledHttpEngine(String[] pooledHosts, HttpEngine fallback) {
+        this(pooledHosts, fallback, DEFAULT_MAX_CONNECTIONS_PER_HOST, DEFAULT_KEEP_ALIVE_MILLIS);
+    }
+
+    public PooledHttpEngine(String[] pooledHosts, HttpEngine fallback, int maxConnectionsPerHost,
+                            long keepAliveMillis) {
+        mPooledHosts = pooledHosts == null ? null : new HashSet<String>(Arrays.asList(pooledHosts));
+        mFallback = fallback;
+        mMaxConnectionsPerHost = maxConnectionsPerHost;
+        mKeepAliveMillis = keepAliveMillis;
+    }
+
+    /**
+     * @return The number of sockets opened since the engine was created.
+     */
+    public int getSocketsOpened() {
+        return mSocketsOpened.get();
+    }
+
+    /**
+     * @return The number of requests written to pooled sockets.
+     */
+    public int getRequestsExecuted() {
+        return mRequestsExecuted.get();
+    }
+
+    /**
+     * @return The number of sockets currently waiting in the pool for a new request.
+     */
+    public synchronized int getIdleConnectionCount() {
+        int count = 0;
+        for (HostPool pool : mHostPools.values()) {
+            count += pool.idle.size();
+        }
+        return count;
+    }
+
+    private boolean isPooled(URL url) {
+        String protocol = url.getProtocol();
+        if (!"http".equals(protocol) && !"https".equals(protocol)) {
+            return false;
+        }
+        return mPooledHosts == null || mPooledHosts.contains(url.getHost());
+    }
+
+    @Override
+    public HttpResponse execute(URL url, Map<String, String> requestHeaders) throws IOException {
+        URL current = url;
+        for (int redirects = 0; ; redirects++) {
+            if (!isPooled(current)) {
+                return mFallback.execute(current, requestHeaders);
+            }
+            HttpResponse response = executeOnce(current, requestHeaders);
+            String location = response.getHeader("Location");
+            if (isRedirect(response.getCode()) && location != null && redirects < MAX_REDIRECTS) {
+                response.close();
+                current = new URL(current, location);
+                continue;
+            }
+            return response;
+        }
+    }
+
+    private HttpResponse executeOnce(URL url, Map<String, String> requestHeaders)
+            throws IOException {
+        boolean decodeGzip = requestHeaders == null || !containsIgnoreCase(requestHeaders,
+                "Accept-Encoding");
+        // a cancelled task closes the socket, so a blocked read fails right away
+        CancellationToken token = CancellationToken.current();
+        while (true) {
+            Connection connection = acquire(url);
+            if (token != null) {
+                connection.cancelToken = token;
+                token.register(connection);
+            }
+            try {
+                writeRequest(connection, url, requestHeaders, decodeGzip);
+                connection.out.flush();
+                ResponseHead head = readHead(connection);
+                return openResponse(connection, head, decodeGzip);
+            } catch (IOException e) {
+                release(connection, false);
+                // A reused socket may have been closed by the server while it sat in the pool,
+                // try again on another one. A fresh socket failing is a real error, and so is
+                // any failure once the task was cancelled: the cancel closed the socket.
+                if (!connection.reused || Thread.currentThread().isInterrupted()
+                        || (token != null && token.isCancelled())) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        List<Connection> toClose = new ArrayList<Connection>();
+        synchronized (this) {
+            mShutdown = true;
+            for (HostPool pool : mHostPools.values()) {
+                pool.total -= pool.idle.size();
+                toClose.addAll(pool.idle);
+                pool.idle.clear();
+            }
+            notifyAll();
+        }
+        for (Connection connection : toClose) {
+            connection.closeQuietly();
+        }
+    }
+
+    /**
+     * Closes sockets that have been idle for longer than the keep alive duration.
+     *
+     * @return Milliseconds until the next socket expires, or -1 if the pool is empty.
+     */
+    public long evictIdleConnections() {
+        List<Connection> toClose = new ArrayList<Connection>();
+        long next = -1;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            for (HostPool pool : mHostPools.values()) {
+                Iterator<Connection> it = pool.idle.iterator();
+                while (it.hasNext()) {
+                    Connection connection = it.next();
+                    long expires = connection.idleSince + mKeepAliveMillis;
+                    if (expires <= now) {
+                        it.remove();
+                        pool.total--;
+                        toClose.add(connection);
+                    } else if (next == -1 || expires - now < next) {
+                        next = expires - now;
+                    }
+                }
+            }
+            if (!toClose.isEmpty()) {
+                notifyAll();
+            }
+        }
+        for (Connection connection : toClose) {
+            connection.closeQuietly();
+        }
+        return next;
+    }
+
+    private Connection acquire(URL url) throws IOException {
+        String key = addressKey(url);
+        HostPool pool;
+        synchronized (this) {
+            pool = mHostPools.get(key);
+            if (pool == null) {
+                pool = new HostPool();
+                mHostPools.put(key, pool);
+            }
+        }
+        long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MILLIS;
+        while (true) {
+            Connection idle = null;
+            synchronized (this) {
+                while (true) {
+                    if (mShutdown) {
+                        throw new IOException("HTTP engine has been shut down");
+                    }
+                    idle = pool.idle.pollFirst();
+                    if (idle != null) {
+                        break;
+                    }
+                    if (pool.total < mMaxConnectionsPerHost) {
+                        // reserve the slot, connect outside the lock
+                        pool.total++;
+                        break;
+                    }
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        throw new SocketTimeoutException("Timed out waiting for a connection to "
+                                + key);
+                    }
+                    try {
+                        wait(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted waiting for a connection");
+                    }
+                }
+            }
+
+            if (idle == null) {
+                break;
+            }
+            if (System.currentTimeMillis() - idle.idleSince < mKeepAliveMillis
+                    && idle.isHealthy()) {
+                idle.reused = true;
+                idle.released = false;
+                return idle;
+            }
+            synchronized (this) {
+                pool.total--;
+                notifyAll();
+            }
+            idle.closeQuietly();
+        }
+
+        try {
+            Connection connection = connect(url, key);
+            mSocketsOpened.incrementAndGet();
+            return connection;
+        } catch (IOException e) {
+            synchronized (this) {
+                pool.total--;
+                notifyAll();
+            }
+            throw e;
+        }
+    }
+
+    private void release(Connection connection, boolean reusable) {
+        if (connection.released) {
+            return;
+        }
+        connection.released = true;
+        if (connection.cancelToken != null) {
+            connection.cancelToken.unregister(connection);
+            connection.cancelToken = null;
+        }
+        boolean close;
+        synchronized (this) {
+            HostPool pool = mHostPools.get(connection.key);
+            close = !reusable || mShutdown;
+            if (close) {
+                pool.total--;
+            } else {
+                connection.idleSince = System.currentTimeMillis();
+                pool.idle.addFirst(connection);
+                startCleanupLocked();
+            }
+            notifyAll();
+        }
+        if (close) {
+            connection.closeQuietly();
+        }
+    }
+
+    private void startCleanupLocked() {
+        if (mCleanupRunning) {
+            return;
+        }
+        mCleanupRunning = true;
+        Thread cleanup = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    long waitMillis = evictIdleConnections();
+                    synchronized (PooledHttpEngine.this) {
+                        if (waitMillis == -1 || mShutdown) {
+                            mCleanupRunning = false;
+                            return;
+                        }
+                        try {
+                            PooledHttpEngine.this.wait(waitMillis);
+                        } catch (InterruptedException e) {
+                            mCleanupRunning = false;
+                            return;
+                        }
+                    }
+                }
+            }
+        }, "PooledHttpEngine cleanup");
+        cleanup.setDaemon(true);
+        cleanup.start();
+    }
+
+    private Connection connect(URL url, String key) throws IOException {
+        boolean https = "https".equals(url.getProtocol());
+        int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            socket.connect(new InetSocketAddress(url.getHost(), port), CONNECT_TIMEOUT_MILLIS);
+            socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+            if (https) {
+                SSLSocket sslSocket = (SSLSocket) ((SSLSocketFactory) SSLSocketFactory.getDefault())
+                        .createSocket(socket, url.getHost(), port, true);
+                sslSocket.startHandshake();
+                if (!HttpsURLConnection.getDefaultHostnameVerifier()
+                        .verify(url.getHost(), sslSocket.getSession())) {
+                    throw new IOException("Hostname " + url.getHost() + " not verified");
+                }
+                socket = sslSocket;
+            }
+            return new Connection(key, socket);
+        } catch (IOException e) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+            throw e;
+        }
+    }
+
+    private void writeRequest(Connection connection, URL url, Map<String, String> requestHeaders,
+                              boolean acceptGzip) throws IOException {
+        String file = url.getFile();
+        StringBuilder request = new StringBuilder(256)
+                .append("GET ").append(file.isEmpty() ? "/" : file).append(" HTTP/1.1\r\n")
+                .append("Host: ").append(url.getHost());
+        if (url.getPort() != -1 && url.getPort() != url.getDefaultPort()) {
+            request.append(':').append(url.getPort());
+        }
+        request.append("\r\nConnection: keep-alive\r\nUser-Agent: ").append(USER_AGENT)
+                .append("\r\n");
+        if (acceptGzip) {
+            request.append("Accept-Encoding: gzip\r\n");
+        }
+        if (requestHeaders != null) {
+            for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+                request.append(header.getKey()).append(": ").append(header.getValue())
+                        .append("\r\n");
+            }
+        }
+        request.append("\r\n");
+        connection.out.write(request.toString().getBytes("ISO-8859-1"));
+        mRequestsExecuted.incrementAndGet();
+    }
+
+    private ResponseHead readHead(Connection connection) throws IOException {
+        String statusLine;
+        int code;
+        while (true) {
+            statusLine = readLine(connection.in);
+            if (statusLine == null) {
+                throw new EOFException("Connection closed before the response");
+            }
+            // "HTTP/1.1 200 OK"
+            if (!statusLine.startsWith("HTTP/1.") || statusLine.length() < 12) {
+                throw new IOException("Unexpected status line: " + statusLine);
+            }
+            try {
+                code = Integer.parseInt(statusLine.substring(9, 12));
+            } catch (NumberFormatException e) {
+                throw new IOException("Unexpected status line: " + statusLine);
+            }
+            Map<String, String> headers = readHeaders(connection.in);
+            if (code / 100 == 1) {
+                // skip "100 Continue" and friends
+                continue;
+            }
+            String message = statusLine.length() > 13 ? statusLine.substring(13) : "";
+            boolean http10 = statusLine.startsWith("HTTP/1.0");
+            String connectionHeader = headers.get("connection");
+            boolean keepAlive = http10
+                    ? "keep-alive".equalsIgnoreCase(connectionHeader)
+                    : !"close".equalsIgnoreCase(connectionHeader);
+
+            InputStream body;
+            long contentLength = -1;
+            String transferEncoding = headers.get("transfer-encoding");
+            String lengthHeader = headers.get("content-length");
+            if (code == HttpURLConnection.HTTP_NO_CONTENT
+                    || code == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                contentLength = 0;
+                body = new FixedLengthInputStream(connection.in, 0);
+            } else if ("chunked".equalsIgnoreCase(transferEncoding)) {
+                body = new ChunkedInputStream(connection.in);
+            } else if (lengthHeader != null) {
+                try {
+                    contentLength = Long.parseLong(lengthHeader.trim());
+                } catch (NumberFormatException e) {
+                    throw new IOException("Unexpected Content-Length: " + lengthHeader);
+                }
+                body = new FixedLengthInputStream(connection.in, contentLength);
+            } else {
+                // the body ends when the server closes the socket
+                keepAlive = false;
+                body = connection.in;
+            }
+            boolean gzip = "gzip".equalsIgnoreCase(headers.get("content-encoding"));
+            return new ResponseHead(code, message, headers, contentLength, body, keepAlive, gzip);
+        }
+    }
+
+    private HttpResponse openResponse(Connection connection, ResponseHead head, boolean decodeGzip)
+            throws IOException {
+        InputStream body = new ReleasingInputStream(head.body, connection, head.keepAlive);
+        long contentLength = head.contentLength;
+        if (head.gzip && decodeGzip) {
+            if (contentLength == 0) {
+                body.close();
+            } else {
+                head.headers.remove("content-encoding");
+                head.headers.remove("content-length");
+                contentLength = -1;
+                body = new GZIPInputStream(body);
+            }
+        } else if (contentLength == 0) {
+            // nothing to read, give the socket back right away
+            body.close();
+        }
+        return new HttpResponse(head.code, head.message, head.headers, contentLength, body);
+    }
+
+    private static Map<String, String> readHeaders(InputStream in) throws IOException {
+        Map<String, String> headers = new HashMap<String, String>();
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+            String name = line.substring(0, colon).trim().toLowerCase(Locale.US);
+            if (!headers.containsKey(name)) {
+                headers.put(name, line.substring(colon + 1).trim());
+            }
+        }
+        if (line == null) {
+            throw new EOFException("Connection closed while reading headers");
+        }
+        return headers;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder(64);
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            if (line.length() >= MAX_LINE_LENGTH) {
+                throw new IOException("Header line too long");
+            }
+            line.append((char) c);
+        }
+        return line.length() == 0 ? null : line.toString();
+    }
+
+    private static boolean isRedirect(int code) {
+        return code == HttpURLConnection.HTTP_MOVED_PERM || code == HttpURLConnection.HTTP_MOVED_TEMP
+                || code == HttpURLConnection.HTTP_SEE_OTHER || code == 307 || code == 308;
+    }
+
+    private static boolean containsIgnoreCase(Map<String, String> headers, String name) {
+        for (String key : headers.keySet()) {
+            if (key.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String addressKey(URL url) {
+        int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+        return url.getProtocol() + "://" + url.getHost() + ":" + port;
+    }
+
+    private static class HostPool {
+        // most recently used first
+        final ArrayDeque<Connection> idle = new ArrayDeque<Connection>();
+        // idle plus in use
+        int total;
+    }
+
+    private static class Connection implements Closeable {
+        final String key;
+        final Socket socket;
+        final BufferedInputStream in;
+        final OutputStream out;
+        long idleSince;
+        boolean reused;
+        volatile boolean released;
+        // the task using the connection, closes it when cancelled
+        volatile CancellationToken cancelToken;
+
+        Connection(String key, Socket socket) throws IOException {
+            this.key = key;
+            this.socket = socket;
+            this.in = new BufferedInputStream(socket.getInputStream(), 8192);
+            this.out = new BufferedOutputStream(socket.getOutputStream(), 1024);
+        }
+
+        /**
+         * A socket the server has closed reads end of stream right away.
+         */
+        boolean isHealthy() {
+            if (socket.isClosed() || socket.isInputShutdown() || socket.isOutputShutdown()) {
+                return false;
+            }
+            try {
+                int readTimeout = socket.getSoTimeout();
+                try {
+                    socket.setSoTimeout(1);
+                    // end of stream, or unexpected data before a request was sent
+                    in.read();
+                    return false;
+                } finally {
+                    socket.setSoTimeout(readTimeout);
+                }
+            } catch (SocketTimeoutException e) {
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        void closeQuietly() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        @Override
+        public void close() {
+            closeQuietly();
+        }
+    }
+
+    private static class ResponseHead {
+        final int code;
+        final String message;
+        final Map<String, String> headers;
+        final long contentLength;
+        final InputStream body;
+        final boolean keepAlive;
+        final boolean gzip;
+
+        ResponseHead(int code, String message, Map<String, String> headers, long contentLength,
+                     InputStream body, boolean keepAlive, boolean gzip) {
+            this.code = code;
+            this.message = message;
+            this.headers = headers;
+            this.contentLength = contentLength;
+            this.body = body;
+            this.keepAlive = keepAlive;
+            this.gzip = gzip;
+        }
+    }
+
+    /**
+     * Hands the connection back to the pool once the body has been read to the end or closed.
+     */
+    private class ReleasingInputStream extends InputStream {
+        private final InputStream mSource;
+        private final Connection mConnection;
+        private final boolean mKeepAlive;
+        private boolean mDone;
+
+        ReleasingInputStream(InputStream source, Connection connection, boolean keepAlive) {
+            mSource = source;
+            mConnection = connection;
+            mKeepAlive = keepAlive;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int read = read(single, 0, 1);
+            return read == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            if (mDone) {
+                return -1;
+            }
+            int read;
+            try {
+                read = mSource.read(buffer, offset, count);
+            } catch (IOException e) {
+                finish(false);
+                throw e;
+            }
+            if (read == -1) {
+                finish(mKeepAlive);
+            }
+            return read;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return mDone ? 0 : mSource.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mDone) {
+                return;
+            }
+            if (!mKeepAlive) {
+                finish(false);
+                return;
+            }
+            // read what is left so the next response starts at the right place
+            byte[] buffer = new byte[4096];
+            int drained = 0;
+            try {
+                int read;
+                while (drained < MAX_DRAIN_BYTES && (read = mSource.read(buffer)) != -1) {
+                    drained += read;
+                }
+                finish(drained < MAX_DRAIN_BYTES);
+            } catch (IOException e) {
+                finish(false);
+            }
+        }
+
+        private void finish(boolean reusable) {
+            if (!mDone) {
+                mDone = true;
+                release(mConnection, reusable);
+            }
+        }
+    }
+
+    private static class FixedLengthInputStream extends InputStream {
+        private final InputStream mIn;
+        private long mRemaining;
+
+        FixedLengthInputStream(InputStream in, long length) {
+            mIn = in;
+            mRemaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int read = read(single, 0, 1);
+            return read == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            if (mRemaining == 0) {
+                return -1;
+            }
+            int read = mIn.read(buffer, offset, (int) Math.min(count, mRemaining));
+            if (read == -1) {
+                throw new EOFException("Connection closed with " + mRemaining + " bytes left");
+            }
+            mRemaining -= read;
+            return read;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(mIn.available(), mRemaining);
+        }
+
+        @Override
+        public void close() {
+            // the socket belongs to the pool
+        }
+    }
+
+    private static class ChunkedInputStream extends InputStream {
+        private final InputStream mIn;
+        private long mChunkRemaining = -1;
+        private boolean mFirstChunk = true;
+        private boolean mEnd;
+
+        ChunkedInputStream(InputStream in) {
+            mIn = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int read = read(single, 0, 1);
+            return read == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            if (mEnd) {
+                return -1;
+            }
+            if (mChunkRemaining <= 0) {
+                readChunkSize();
+                if (mEnd) {
+                    return -1;
+                }
+            }
+            int read = mIn.read(buffer, offset, (int) Math.min(count, mChunkRemaining));
+            if (read == -1) {
+                throw new EOFException("Connection closed inside a chunk");
+            }
+            mChunkRemaining -= read;
+            return read;
+        }
+
+        private void readChunkSize() throws IOException {
+            if (!mFirstChunk) {
+                // CRLF after the previous chunk
+                readLine(mIn);
+            }
+            mFirstChunk = false;
+            String line = readLine(mIn);
+            if (line == null) {
+                throw new EOFException("Connection closed before chunk size");
+            }
+            int extension = line.indexOf(';');
+            if (extension != -1) {
+                line = line.substring(0, extension);
+            }
+            try {
+                mChunkRemaining = Long.parseLong(line.trim(), 16);
+            } catch (NumberFormatException e) {
+                throw new IOException("Unexpected chunk size: " + line);
+            }
+            if (mChunkRemaining == 0) {
+                // skip trailers up to the empty line
+                readHeaders(mIn);
+                mEnd = true;
+            }
+        }
+
+        @Override
+        public void close() {
+            // the socket belongs to the pool
+        }
+    }
+}
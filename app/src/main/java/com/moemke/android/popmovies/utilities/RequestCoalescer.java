@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moemke.android.popmovies.utilities;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Merges concurrent requests for the same URL into one call. The first caller for a key makes
+ * the call, callers for the same key arriving before it finishes wait for it and get a copy of
+ * its response, or its exception.
+ * <p>
+ * If the first caller is cancelled or interrupted the waiting callers don't get its
+ * cancellation: one of them makes the call again and the others wait for that one.
+ * <p>
+ * Duplicates come from loaders restarted by a rotation or a spinner switch, a movie tapped
+ * twice, or the DetailPrefetcher fetching the movie that was just opened. The response body is
+ * read into memory to hand it to every caller; with the {@link ResponseCache} the body of a
+ * 200 is read into memory anyway.
+ */
+public class RequestCoalescer {
+
+    /**
+     * The request that is made once for all callers of a key.
+     */
+    public interface Call {
+        /**
+         * @return The response, its body is read and closed by the coalescer
+         * @throws IOException Related to network and stream reading
+         */
+        HttpResponse execute() throws IOException;
+    }
+
+    // guarded by this
+    private final Map<String, Flight> mFlights = new HashMap<String, Flight>();
+
+    private final AtomicLong mCalls = new AtomicLong();
+    private final AtomicLong mCoalesced = new AtomicLong();
+
+    /**
+     * @param key  Identifies the request, i.e. the URL
+     * @param call Makes the request if no request for key is in flight
+     * @return The response, with its body in memory
+     * @throws IOException The exception of the call, or InterruptedIOException if the thread
+     *                     was interrupted while waiting for another caller's call
+     */
+    public HttpResponse execute(String key, Call call) throws IOException {
+        while (true) {
+            Flight flight;
+            boolean leader = false;
+            synchronized (this) {
+                flight = mFlights.get(key);
+                if (flight == null) {
+                    flight = new Flight();
+                    mFlights.put(key, flight);
+                    leader = true;
+                }
+            }
+
+            if (leader) {
+                mCalls.incrementAndGet();
+                try {
+                    HttpResponse response = call.execute();
+                    flight.mCode = response.getCode();
+                    flight.mMessage = response.getMessage();
+                    flight.mHeaders = response.getHeaders();
+                    flight.mBody = response.bodyAsBytes();
+                } catch (IOException e) {
+                    flight.mException = e;
+                    flight.mCancelled = isCancellation(e);
+                    throw e;
+                } catch (RuntimeException e) {
+                    flight.mException = new IOException(e);
+                    flight.mCancelled = isCancellation(e);
+                    throw e;
+                } finally {
+                    synchronized (this) {
+                        mFlights.remove(key);
+                    }
+                    flight.mDone.countDown();
+                }
+                return flight.toResponse();
+            }
+
+            mCoalesced.incrementAndGet();
+            try {
+                flight.mDone.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for " + key);
+            }
+            if (!flight.mCancelled) {
+                return flight.toResponse();
+            }
+            // the leader's caller gave up, that is no answer for this one: make the call again,
+            // or join the caller that already did
+        }
+    }
+
+    /**
+     * @param e The exception of a leader's call
+     * @return True if the call failed because the leader was cancelled or interrupted, not
+     * because of the request
+     */
+    private static boolean isCancellation(Exception e) {
+        if (e instanceof CancellationException) {
+            return true;
+        }
+        if (e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException)) {
+            return true;
+        }
+        // a cancel closes the socket, the read then fails with a plain SocketException
+        CancellationToken token = CancellationToken.current();
+        return Thread.currentThread().isInterrupted() || (token != null && token.isCancelled());
+    }
+
+    /**
+     * @return The number of calls made
+     */
+    public long getCallCount() {
+        return mCalls.get();
+    }
+
+    /**
+     * @return The number of requests answered by another caller's call
+     */
+    public long getCoalescedCount() {
+        return mCoalesced.get();
+    }
+
+    /**
+     * @return The number of keys with a call in flight
+     */
+    public synchronized int getInFlightCount() {
+        return mFlights.size();
+    }
+
+    private static class Flight {
+        // written by the leader before mDone is counted down
+        final CountDownLatch mDone = new CountDownLatch(1);
+        int mCode;
+        String mMessage;
+        Map<String, String> mHeaders;
+        byte[] mBody;
+        IOException mException;
+        // the leader was cancelled, its waiters make the call again
+        boolean mCancelled;
+
+        HttpResponse toResponse() throws IOException {
+            if (mException != null) {
+                // a new exception per caller, with the call's as cause
+                throw new IOException(mException.getMessage(), mException);
+            }
+            // the body is only read, so all callers share it
+            return HttpResponse.buffered(mCode, mMessage, mHeaders, mBody);
+        }
+    }
+}
@@ -0,0 +1,562 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moemke.android.popmovies.utilities;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Two level cache for tmdb json responses, keyed by request URL. Recently used responses are
+ * kept in a memory LRU, everything else in files in a cache directory. Each entry is fresh for
+ * the time given by the {@link TtlPolicy} for its URL; once it expires it is revalidated with
+ * If-None-Match / If-Modified-Since, so an unchanged response only costs a 304.
+ * <p>
+ * The memory tier is guarded by the cache. Files are read and written outside that lock, under
+ * a lock picked by the key, so a slow disk does not block memory hits and two requests for the
+ * same URL never write its file at once.
+ */
+public class ResponseCache {
+
+    private static final String TAG = ResponseCache.class.getSimpleName();
+
+    private static final int DISK_FORMAT_VERSION = 1;
+    private static final String DISK_FILE_SUFFIX = ".json";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    private static final int DISK_LOCKS = 16;
+
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+    // set on the responses answered from the cache, see isFromCache
+    private static final String HEADER_RESPONSE_SOURCE = "x-response-source";
+    private static final String RESPONSE_SOURCE_CACHE = "cache";
+
+    /**
+     * Decides how long a cached response stays fresh.
+     */
+    public interface TtlPolicy {
+        /**
+         * @param url The request URL
+         * @return Milliseconds the response for url may be used without revalidation
+         */
+        long getTtlMillis(URL url);
+    }
+
+    private final File mDirectory;
+    private final long mMaxMemoryBytes;
+    private final long mMaxDiskBytes;
+    private final TtlPolicy mTtlPolicy;
+
+    // guarded by this; access ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<String, Entry> mMemory =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private long mMemoryBytes;
+
+    // the file of a key is only read or written while holding the lock of its key
+    private final Object[] mDiskLocks = new Object[DISK_LOCKS];
+    // -1 until the files are counted
+    private final AtomicLong mDiskBytes = new AtomicLong(-1);
+    private final AtomicBoolean mTrimming = new AtomicBoolean();
+
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mDiskReads = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    private final AtomicLong mRevalidations = new AtomicLong();
+    private final AtomicLong mStaleHits = new AtomicLong();
+    private final AtomicLong mBytesFromCache = new AtomicLong();
+    private final AtomicLong mBytesFromNetwork = new AtomicLong();
+
+    /**
+     * @param directory      Directory for the disk tier, i.e. a folder in Context.getCacheDir().
+     *                       May be null to keep responses in memory only.
+     * @param maxMemoryBytes Size limit of the response bodies kept in memory
+     * @param maxDiskBytes   Size limit of the files in directory
+     * @param ttlPolicy      Freshness of each endpoint
+     */
+    public ResponseCache(File directory, long maxMemoryBytes, long maxDiskBytes,
+                         TtlPolicy ttlPolicy) {
+        mDirectory = directory;
+        mMaxMemoryBytes = maxMemoryBytes;
+        mMaxDiskBytes = maxDiskBytes;
+        mTtlPolicy = ttlPolicy;
+        for (int i = 0; i < DISK_LOCKS; i++) {
+            mDiskLocks[i] = new Object();
+        }
+    }
+
+    /**
+     * Returns the response for url from the cache if it is still fresh, otherwise fetches or
+     * revalidates it with engine. Only 200 responses are stored. If the network fails and an
+     * expired copy is cached, the expired copy is returned.
+     *
+     * @param engine The engine used on a miss or to revalidate
+     * @param url    The URL to fetch
+     * @return The response, which has to be closed by the caller
+     * @throws IOException Related to network and stream reading
+     */
+    public HttpResponse execute(HttpEngine engine, URL url) throws IOException {
+        String key = url.toString();
+        long now = System.currentTimeMillis();
+
+        Entry entry = get(key);
+        if (entry != null && now - entry.storedAt < mTtlPolicy.getTtlMillis(url)) {
+            mHits.incrementAndGet();
+            mBytesFromCache.addAndGet(entry.body.length);
+            return entry.toResponse(true);
+        }
+
+        Map<String, String> requestHeaders = null;
+        if (entry != null) {
+            requestHeaders = new HashMap<String, String>();
+            if (entry.etag != null) {
+                requestHeaders.put(HEADER_IF_NONE_MATCH, entry.etag);
+            }
+            if (entry.lastModified != null) {
+                requestHeaders.put(HEADER_IF_MODIFIED_SINCE, entry.lastModified);
+            }
+        }
+
+        HttpResponse response;
+        try {
+            response = engine.execute(url, requestHeaders);
+        } catch (IOException e) {
+            if (entry == null) {
+                throw e;
+            }
+            mStaleHits.incrementAndGet();
+            mBytesFromCache.addAndGet(entry.body.length);
+            return entry.toResponse(true);
+        }
+
+        if (entry != null && response.getCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            response.close();
+            mRevalidations.incrementAndGet();
+            mBytesFromCache.addAndGet(entry.body.length);
+            Entry refreshed = new Entry(key, now, entry.etag, entry.lastModified, entry.body);
+            put(refreshed);
+            return refreshed.toResponse(true);
+        }
+
+        mMisses.incrementAndGet();
+        if (response.getCode() != HttpURLConnection.HTTP_OK) {
+            return response;
+        }
+        byte[] body = response.bodyAsBytes();
+        mBytesFromNetwork.addAndGet(body.length);
+        Entry stored = new Entry(key, now, response.getHeader(HEADER_ETAG),
+                response.getHeader(HEADER_LAST_MODIFIED), body);
+        put(stored);
+        return stored.toResponse(false);
+    }
+
+    /**
+     * Returns the cached response for url without going to the network, however old it is.
+     *
+     * @param url The URL to look up
+     * @return The response, which has to be closed by the caller, or null if url is not cached
+     */
+    public HttpResponse getCached(URL url) {
+        String key = url.toString();
+        Entry entry = get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() - entry.storedAt < mTtlPolicy.getTtlMillis(url)) {
+            mHits.incrementAndGet();
+        } else {
+            mStaleHits.incrementAndGet();
+        }
+        mBytesFromCache.addAndGet(entry.body.length);
+        return entry.toResponse(true);
+    }
+
+    /**
+     * @param response A response returned by a ResponseCache
+     * @return True if response was read from memory or disk, fresh, revalidated or expired;
+     * false if its body came from the network
+     */
+    public static boolean isFromCache(HttpResponse response) {
+        return RESPONSE_SOURCE_CACHE.equals(response.getHeader(HEADER_RESPONSE_SOURCE));
+    }
+
+    /**
+     * Drops all cached responses from memory and disk.
+     */
+    public void evictAll() {
+        synchronized (this) {
+            mMemory.clear();
+            mMemoryBytes = 0;
+        }
+        File[] files = listDiskFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDiskBytes.set(0);
+    }
+
+    /**
+     * @return Requests answered from memory or disk without going to the network
+     */
+    public long getHitCount() {
+        return mHits.get();
+    }
+
+    /**
+     * @return Entries that were not in memory and were loaded from the disk tier
+     */
+    public long getDiskReadCount() {
+        return mDiskReads.get();
+    }
+
+    /**
+     * @return Requests that needed a full response from the network
+     */
+    public long getMissCount() {
+        return mMisses.get();
+    }
+
+    /**
+     * @return Expired entries the server answered with 304 Not Modified
+     */
+    public long getRevalidationCount() {
+        return mRevalidations.get();
+    }
+
+    /**
+     * @return Expired entries returned because the network failed
+     */
+    public long getStaleHitCount() {
+        return mStaleHits.get();
+    }
+
+    public long getBytesFromCache() {
+        return mBytesFromCache.get();
+    }
+
+    public long getBytesFromNetwork() {
+        return mBytesFromNetwork.get();
+    }
+
+    public synchronized long getMemorySize() {
+        return mMemoryBytes;
+    }
+
+    public long getDiskSize() {
+        ensureDiskSize();
+        return mDiskBytes.get();
+    }
+
+    private Entry get(String key) {
+        synchronized (this) {
+            Entry entry = mMemory.get(key);
+            if (entry != null) {
+                return entry;
+            }
+        }
+        Entry entry;
+        synchronized (diskLock(key)) {
+            entry = readFromDisk(key);
+        }
+        if (entry == null) {
+            return null;
+        }
+        mDiskReads.incrementAndGet();
+        synchronized (this) {
+            // a response stored while the file was read is newer
+            Entry current = mMemory.get(key);
+            if (current != null) {
+                return current;
+            }
+            putInMemory(entry);
+        }
+        return entry;
+    }
+
+    private void put(Entry entry) {
+        synchronized (this) {
+            putInMemory(entry);
+        }
+        synchronized (diskLock(entry.key)) {
+            writeToDisk(entry);
+        }
+        trimDisk();
+    }
+
+    private Object diskLock(String key) {
+        return mDiskLocks[(key.hashCode() & 0x7fffffff) % DISK_LOCKS];
+    }
+
+    // guarded by this
+    private void putInMemory(Entry entry) {
+        if (entry.body.length > mMaxMemoryBytes) {
+            return;
+        }
+        Entry previous = mMemory.put(entry.key, entry);
+        if (previous != null) {
+            mMemoryBytes -= previous.body.length;
+        }
+        mMemoryBytes += entry.body.length;
+
+        Iterator<Entry> eldest = mMemory.values().iterator();
+        while (mMemoryBytes > mMaxMemoryBytes && eldest.hasNext()) {
+            mMemoryBytes -= eldest.next().body.length;
+            eldest.remove();
+        }
+    }
+
+    private Entry readFromDisk(String key) {
+        if (mDirectory == null) {
+            return null;
+        }
+        File file = diskFile(key);
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != DISK_FORMAT_VERSION || !key.equals(in.readUTF())) {
+                return null;
+            }
+            long storedAt = in.readLong();
+            String etag = readOptionalString(in);
+            String lastModified = readOptionalString(in);
+            int length = in.readInt();
+            // a corrupt length must not allocate more than the file holds
+            if (length < 0 || length > file.length()) {
+                throw new IOException("Corrupt cache file " + file);
+            }
+            byte[] body = new byte[length];
+            in.readFully(body);
+            // the modification time orders the disk tier for eviction
+            file.setLastModified(System.currentTimeMillis());
+            return new Entry(key, storedAt, etag, lastModified, body);
+        } catch (IOException e) {
+            file.delete();
+            mDiskBytes.set(-1);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private void writeToDisk(Entry entry) {
+        if (mDirectory == null || entry.body.length > mMaxDiskBytes) {
+            return;
+        }
+        ensureDiskSize();
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            return;
+        }
+        File file = diskFile(entry.key);
+        File temp = new File(mDirectory, file.getName() + TEMP_FILE_SUFFIX);
+        long previousLength = file.length();
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeInt(DISK_FORMAT_VERSION);
+            out.writeUTF(entry.key);
+            out.writeLong(entry.storedAt);
+            writeOptionalString(out, entry.etag);
+            writeOptionalString(out, entry.lastModified);
+            out.writeInt(entry.body.length);
+            out.write(entry.body);
+            out.close();
+            out = null;
+            // readers never see a half written file
+            if (!temp.renameTo(file)) {
+                temp.delete();
+                return;
+            }
+            addDiskBytes(file.length() - previousLength);
+        } catch (IOException e) {
+            temp.delete();
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    /**
+     * Deletes the least recently used files until the disk tier fits its budget. Runs on one
+     * thread at a time; a file deleted while it is read stays readable until it is closed.
+     */
+    private void trimDisk() {
+        if (mDiskBytes.get() <= mMaxDiskBytes || !mTrimming.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            trimDiskFiles();
+        } finally {
+            mTrimming.set(false);
+        }
+    }
+
+    private void trimDiskFiles() {
+        File[] files = listDiskFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+        for (File file : files) {
+            if (mDiskBytes.get() <= mMaxDiskBytes) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                addDiskBytes(-length);
+            }
+        }
+    }
+
+    // leaves the size uncounted if a failed read reset it meanwhile
+    private void addDiskBytes(long delta) {
+        long bytes;
+        do {
+            bytes = mDiskBytes.get();
+        } while (bytes >= 0 && !mDiskBytes.compareAndSet(bytes, bytes + delta));
+    }
+
+    private void ensureDiskSize() {
+        if (mDiskBytes.get() >= 0) {
+            return;
+        }
+        long bytes = 0;
+        File[] files = listDiskFiles();
+        if (files != null) {
+            for (File file : files) {
+                bytes += file.length();
+            }
+        }
+        // another thread may have counted them first
+        mDiskBytes.compareAndSet(-1, bytes);
+    }
+
+    private File[] listDiskFiles() {
+        if (mDirectory == null) {
+            return null;
+        }
+        return mDirectory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.getName().endsWith(DISK_FILE_SUFFIX);
+            }
+        });
+    }
+
+    private File diskFile(String key) {
+        return new File(mDirectory, sha1Hex(key) + DISK_FILE_SUFFIX);
+    }
+
+    private static String sha1Hex(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+                hex.append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String readOptionalString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeOptionalString(DataOutputStream out, String value)
+            throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * A cached 200 response.
+     */
+    private static class Entry {
+        final String key;
+        final long storedAt;
+        final String etag;
+        final String lastModified;
+        final byte[] body;
+
+        Entry(String key, long storedAt, String etag, String lastModified, byte[] body) {
+            this.key = key;
+            this.storedAt = storedAt;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.body = body;
+        }
+
+        HttpResponse toResponse(boolean fromCache) {
+            Map<String, String> headers = new HashMap<String, String>();
+            if (fromCache) {
+                headers.put(HEADER_RESPONSE_SOURCE, RESPONSE_SOURCE_CACHE);
+            }
+            if (etag != null) {
+                headers.put(HEADER_ETAG.toLowerCase(Locale.US), etag);
+            }
+            if (lastModified != null) {
+                headers.put(HEADER_LAST_MODIFIED.toLowerCase(Locale.US), lastModified);
+            }
+            return HttpResponse.buffered(HttpURLConnection.HTTP_OK, "OK", headers, body);
+        }
+    }
+}
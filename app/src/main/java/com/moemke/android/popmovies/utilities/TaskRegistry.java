@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moemke.android.popmovies.utilities;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The tasks of one screen, by key. Takes the place of the LoaderManager: it is handed from the
+ * old activity to the new one across a configuration change (see
+ * onRetainCustomNonConfigurationInstance), so running tasks keep running and finished results
+ * are delivered again instead of being loaded again.
+ * <p>
+ * Callbacks usually reference the activity, so they are dropped with {@link #detachAll()}
+ * before the activity goes away and the new activity attaches its own. Tasks should not
+ * reference the activity for the same reason. Only used on the main thread.
+ */
+public class TaskRegistry {
+
+    private static final String TAG = TaskRegistry.class.getSimpleName();
+
+    private final TaskRunner mRunner;
+    private final Map<String, Entry<?>> mEntries = new HashMap<String, Entry<?>>();
+
+    public TaskRegistry(TaskRunner runner) {
+        mRunner = runner;
+    }
+
+    /**
+     * Starts task under key, cancelling the task that ran under key before.
+     *
+     * @param key      Identifies the task on the screen
+     * @param argument What the task loads, i.e. its URL, compared by startOrAttach
+     * @param pool     TaskRunner.POOL_IO or TaskRunner.POOL_CPU
+     * @param task     The task, should not reference the activity
+     * @param callback Receives the outcome, on the main thread
+     */
+    public <T> void start(String key, String argument, int pool, BackgroundTask<T> task,
+                          TaskRunner.Callback<T> callback) {
+        cancel(key);
+        final Entry<T> entry = new Entry<T>(argument, callback);
+        mEntries.put(key, entry);
+        entry.token = mRunner.submit(pool, task, new TaskRunner.Callback<T>() {
+            @Override
+            public void onResult(T result) {
+                entry.finish(result, null);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                entry.finish(null, e);
+            }
+        });
+    }
+
+    /**
+     * Like start, unless the task under key was started with an equal argument: then callback
+     * is attached to it, and gets its outcome right away if it has finished.
+     */
+    public <T> void startOrAttach(String key, String argument, int pool, BackgroundTask<T> task,
+                                  TaskRunner.Callback<T> callback) {
+        Entry<?> entry = mEntries.get(key);
+        if (entry != null && (argument == null
+                ? entry.argument == null : argument.equals(entry.argument))) {
+            attach(key, callback);
+            return;
+        }
+        start(key, argument, pool, task, callback);
+    }
+
+    /**
+     * @return true if a task was started under key and not cancelled
+     */
+    public boolean contains(String key) {
+        return mEntries.containsKey(key);
+    }
+
+    /**
+     * @return true if the task under key has not finished yet
+     */
+    public boolean isRunning(String key) {
+        Entry<?> entry = mEntries.get(key);
+        return entry != null && !entry.finished;
+    }
+
+    /**
+     * Drops all callbacks, i.e. before the activity is destroyed for a configuration change.
+     * The tasks keep running, their outcome is kept for the next attach.
+     */
+    public void detachAll() {
+        for (Entry<?> entry : mEntries.values()) {
+            entry.callback = null;
+        }
+    }
+
+    /**
+     * Cancels the task under key, its outcome is not delivered.
+     */
+    public void cancel(String key) {
+        Entry<?> entry = mEntries.remove(key);
+        if (entry != null) {
+            entry.callback = null;
+            entry.token.cancel();
+        }
+    }
+
+    /**
+     * Cancels all tasks, i.e. when the activity finishes.
+     */
+    public void cancelAll() {
+        for (Entry<?> entry : mEntries.values()) {
+            entry.callback = null;
+            entry.token.cancel();
+        }
+        mEntries.clear();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> void attach(String key, TaskRunner.Callback<T> callback) {
+        Entry<T> entry = (Entry<T>) mEntries.get(key);
+        entry.callback = callback;
+        if (entry.finished) {
+            entry.deliver();
+        }
+    }
+
+    private static class Entry<T> {
+        final String argument;
+        TaskRunner.Callback<T> callback;
+        CancellationToken token;
+        boolean finished;
+        T result;
+        Exception error;
+
+        Entry(String argument, TaskRunner.Callback<T> callback) {
+            this.argument = argument;
+            this.callback = callback;
+        }
+
+        void finish(T result, Exception error) {
+            this.finished = true;
+            this.result = result;
+            this.error = error;
+            deliver();
+        }
+
+        void deliver() {
+            if (callback == null) {
+                return;
+            }
+            if (error != null) {
+                callback.onError(error);
+            } else {
+                callback.onResult(result);
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moemke.android.popmovies.utilities;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs {@link BackgroundTask}s on one of two pools and delivers their results on the main
+ * thread.
+ * <p>
+ * Network requests run on the IO pool, where a slow response only holds up one of its threads.
+ * Local work (database queries, mapping cursors) runs on the CPU pool, so it never waits behind
+ * network reads. The executors are passed in, the application creates the real ones and JVM
+ * tests pass executors they run by hand.
+ */
+public class TaskRunner {
+
+    private static final String TAG = TaskRunner.class.getSimpleName();
+
+    public static final int POOL_IO = 0;
+    public static final int POOL_CPU = 1;
+
+    /**
+     * Receives the outcome of a task on the main thread. Nothing is delivered once the task is
+     * cancelled.
+     *
+     * @param <T> The type of the result
+     */
+    public interface Callback<T> {
+        void onResult(T result);
+
+        void onError(Exception e);
+    }
+
+    private static TaskRunner sInstance;
+
+    private final Executor mIoExecutor;
+    private final Executor mCpuExecutor;
+    private final Executor mMainExecutor;
+
+    /**
+     * @param ioExecutor   Runs network requests
+     * @param cpuExecutor  Runs local work
+     * @param mainExecutor Delivers results, i.e. posts to the main thread
+     */
+    public TaskRunner(Executor ioExecutor, Executor cpuExecutor, Executor mainExecutor) {
+        mIoExecutor = ioExecutor;
+        mCpuExecutor = cpuExecutor;
+        mMainExecutor = mainExecutor;
+    }
+
+    public static synchronized void setInstance(TaskRunner taskRunner) {
+        sInstance = taskRunner;
+    }
+
+    /**
+     * @return The runner set up by the application
+     */
+    public static synchronized TaskRunner getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * @param pool     POOL_IO or POOL_CPU
+     * @param task     The task
+     * @param callback Receives the result or the exception of task, on the main thread
+     * @return The token that cancels task
+     */
+    public <T> CancellationToken submit(int pool, final BackgroundTask<T> task,
+                                        final Callback<T> callback) {
+        final CancellationToken token = new CancellationToken();
+        Executor executor = pool == POOL_CPU ? mCpuExecutor : mIoExecutor;
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (token.isCancelled()) {
+                        return;
+                    }
+                    T result = null;
+                    Exception error = null;
+                    CancellationToken previous = token.attach();
+                    try {
+                        result = task.run(token);
+                    } catch (Exception e) {
+                        error = e;
+                    } finally {
+                        token.detach(previous);
+                    }
+                    deliver(token, callback, result, error);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            deliver(token, callback, null, e);
+        }
+        return token;
+    }
+
+    private <T> void deliver(final CancellationToken token, final Callback<T> callback,
+                             final T result, final Exception error) {
+        if (token.isCancelled()) {
+            return;
+        }
+        mMainExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // cancelled while the delivery was queued
+                if (token.isCancelled()) {
+                    return;
+                }
+                if (error != null) {
+                    callback.onError(error);
+                } else {
+                    callback.onResult(result);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moemke.android.popmovies.utilities;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * {@link HttpEngine} backed by the platform {@link HttpURLConnection}. Used for hosts that are
+ * not handled by {@link PooledHttpEngine}. The connection is not disconnected after the body is
+ * read, so the platform can keep the socket alive for the next request.
+ */
+public class UrlConnectionHttpEngine implements HttpEngine {
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 15000;
+    private static final int READ_TIMEOUT_MILLIS = 20000;
+
+    @Override
+    public HttpResponse execute(URL url, Map<String, String> requestHeaders) throws IOException {
+        final HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        urlConnection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        urlConnection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        if (requestHeaders != null) {
+            for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+                urlConnection.setRequestProperty(header.getKey(), header.getValue());
+            }
+        }
+
+        // a cancelled task disconnects, so a blocked read fails right away
+        CancellationToken token = CancellationToken.current();
+        Closeable disconnect = null;
+        if (token != null) {
+            disconnect = new Closeable() {
+                @Override
+                public void close() {
+                    urlConnection.disconnect();
+                }
+            };
+            token.register(disconnect);
+        }
+        try {
+            return readResponse(urlConnection, token, disconnect);
+        } catch (IOException e) {
+            if (token != null) {
+                token.unregister(disconnect);
+            }
+            throw e;
+        }
+    }
+
+    private static HttpResponse readResponse(HttpURLConnection urlConnection,
+                                             CancellationToken token, Closeable disconnect)
+            throws IOException {
+        int code = urlConnection.getResponseCode();
+        Map<String, String> headers = new HashMap<String, String>();
+        for (Map.Entry<String, List<String>> field : urlConnection.getHeaderFields().entrySet()) {
+            // the status line is reported with a null key
+            if (field.getKey() != null && !field.getValue().isEmpty()) {
+                headers.put(field.getKey().toLowerCase(Locale.US), field.getValue().get(0));
+            }
+        }
+
+        InputStream body = code >= HttpURLConnection.HTTP_BAD_REQUEST
+                ? urlConnection.getErrorStream() : urlConnection.getInputStream();
+        if (body == null) {
+            body = new ByteArrayInputStream(new byte[0]);
+        }
+        return new HttpResponse(code, urlConnection.getResponseMessage(), headers,
+                urlConnection.getContentLength(),
+                new DrainOnCloseInputStream(body, token, disconnect));
+    }
+
+    @Override
+    public void shutdown() {
+        // the platform owns the connection pool
+    }
+
+    /**
+     * HttpURLConnection only returns a socket to its pool once the body has been read to the
+     * end, so read whatever the caller left behind before closing. Large leftovers are not worth
+     * reading just to save a handshake.
+     */
+    private static class DrainOnCloseInputStream extends FilterInputStream {
+
+        private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+        private final CancellationToken mToken;
+        private final Closeable mDisconnect;
+
+        DrainOnCloseInputStream(InputStream in, CancellationToken token, Closeable disconnect) {
+            super(in);
+            mToken = token;
+            mDisconnect = disconnect;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                byte[] buffer = new byte[4096];
+                int drained = 0;
+                int read;
+                while (drained < MAX_DRAIN_BYTES && (read = read(buffer)) != -1) {
+                    drained += read;
+                }
+            } finally {
+                if (mToken != null) {
+                    mToken.unregister(mDisconnect);
+                }
+                super.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moemke.android.popmovies.utilities;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads something for the ids that are on screen, on a small executor, and cancels what is not
+ * on screen anymore.
+ * <p>
+ * Each call to {@link #setVisible} replaces the visible ids: loads of ids that scrolled away
+ * are cancelled (a queued load is dropped, a running one is interrupted), and up to limit of
+ * the visible ids that are neither loading nor loaded are started. Loaded ids are remembered
+ * and not loaded again, failed ones are retried the next time they are visible.
+ */
+public class VisiblePrefetcher {
+
+    private static final String TAG = VisiblePrefetcher.class.getSimpleName();
+
+    /**
+     * Loads the data of one id, i.e. into a cache. Runs on the executor.
+     */
+    public interface Loader {
+        /**
+         * @param id The id to load
+         * @throws IOException Related to network and stream reading, the id is retried later
+         */
+        void load(int id) throws IOException;
+    }
+
+    private final ExecutorService mExecutor;
+    private final Loader mLoader;
+    private final int mMaxLoaded;
+
+    // guarded by this
+    private final Map<Integer, LoadTask> mInFlight = new HashMap<Integer, LoadTask>();
+    private final Set<Integer> mLoaded = new HashSet<Integer>();
+
+    private final AtomicLong mStarted = new AtomicLong();
+    private final AtomicLong mCompleted = new AtomicLong();
+    private final AtomicLong mFailed = new AtomicLong();
+    private final AtomicLong mCancelled = new AtomicLong();
+
+    /**
+     * @param executor  The executor the loads run on, its thread count limits parallel loads
+     * @param loader    Loads one id
+     * @param maxLoaded Number of loaded ids remembered, older ones may be loaded again
+     */
+    public VisiblePrefetcher(ExecutorService executor, Loader loader, int maxLoaded) {
+        mExecutor = executor;
+        mLoader = loader;
+        mMaxLoaded = maxLoaded;
+    }
+
+    /**
+     * @param ids   The ids on screen, most important first
+     * @param limit The number of ids to start loading, 0 to only cancel the ids not in ids
+     */
+    public synchronized void setVisible(int[] ids, int limit) {
+        Set<Integer> visible = new HashSet<Integer>();
+        for (int id : ids) {
+            visible.add(id);
+        }
+        Iterator<Map.Entry<Integer, LoadTask>> it = mInFlight.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Integer, LoadTask> entry = it.next();
+            if (!visible.contains(entry.getKey())) {
+                entry.getValue().mFuture.cancel(true);
+                it.remove();
+                mCancelled.incrementAndGet();
+            }
+        }
+
+        int started = 0;
+        for (int id : ids) {
+            if (started >= limit) {
+                break;
+            }
+            if (mInFlight.containsKey(id) || mLoaded.contains(id)) {
+                continue;
+            }
+            LoadTask task = new LoadTask(id);
+            try {
+                task.mFuture = mExecutor.submit(task);
+            } catch (RejectedExecutionException e) {
+                // shut down
+                return;
+            }
+            mInFlight.put(id, task);
+            mStarted.incrementAndGet();
+            started++;
+        }
+    }
+
+    /**
+     * Cancels all loads, i.e. when the screen is left. Loaded ids are still remembered.
+     */
+    public void cancelAll() {
+        setVisible(new int[0], 0);
+    }
+
+    /**
+     * Cancels all loads and stops the executor.
+     */
+    public void shutdown() {
+        cancelAll();
+        mExecutor.shutdownNow();
+    }
+
+    public synchronized int getInFlightCount() {
+        return mInFlight.size();
+    }
+
+    public synchronized boolean isLoaded(int id) {
+        return mLoaded.contains(id);
+    }
+
+    public long getStartedCount() {
+        return mStarted.get();
+    }
+
+    public long getCompletedCount() {
+        return mCompleted.get();
+    }
+
+    public long getFailedCount() {
+        return mFailed.get();
+    }
+
+    public long getCancelledCount() {
+        return mCancelled.get();
+    }
+
+    private synchronized void finish(LoadTask task, boolean loaded) {
+        // a cancelled task may finish after its id was started again
+        if (mInFlight.get(task.mId) == task) {
+            mInFlight.remove(task.mId);
+        }
+        if (!loaded) {
+            return;
+        }
+        if (mLoaded.size() >= mMaxLoaded) {
+            // the response cache drops old entries too, start over
+            mLoaded.clear();
+        }
+        mLoaded.add(task.mId);
+    }
+
+    private class LoadTask implements Runnable {
+
+        private final int mId;
+        // set under the lock before the task is put in mInFlight
+        private Future<?> mFuture;
+
+        LoadTask(int id) {
+            mId = id;
+        }
+
+        @Override
+        public void run() {
+            if (Thread.currentThread().isInterrupted()) {
+                finish(this, false);
+                return;
+            }
+            boolean loaded = false;
+            try {
+                mLoader.load(mId);
+                loaded = true;
+                mCompleted.incrementAndGet();
+            } catch (IOException e) {
+                mFailed.incrementAndGet();
+            } catch (RuntimeException e) {
+                mFailed.incrementAndGet();
+            } finally {
+                finish(this, loaded);
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.moemke.android.popmovies.utilities;
+
+/**
+ * Picks the YouTube thumbnail variant for the width a video row shows it at.
+ * <p>
+ * Only the variants every video has are used: sddefault and maxresdefault are missing for many
+ * clips and would cost a 404 first. "0.jpg" is the same 480x360 image as hqdefault. The choice
+ * only depends on the row width, so clips shared by several movies resolve to the same URL and
+ * are downloaded and cached once.
+ */
+public final class YoutubeThumbnails {
+
+    // site of the tmdb videos that have YouTube thumbnails
+    private static final String SITE_YOUTUBE = "YouTube";
+
+    private static final String[] VARIANTS = {"default.jpg", "mqdefault.jpg", "hqdefault.jpg"};
+    private static final int[] WIDTHS = {120, 320, 480};
+    private static final int[] HEIGHTS = {90, 180, 360};
+
+    private YoutubeThumbnails() {
+    }
+
+    /**
+     * @param site The site of a tmdb video, i.e. "YouTube"
+     * @return true if the video has a YouTube thumbnail
+     */
+    public static boolean hasThumbnail(String site) {
+        return SITE_YOUTUBE.equalsIgnoreCase(site);
+    }
+
+    /**
+     * @param widthPx Width of the thumbnail view in pixels, 0 if unknown
+     * @return The file name of the smallest variant at least widthPx wide, the largest variant
+     * if none is
+     */
+    public static String selectVariant(int widthPx) {
+        return VARIANTS[indexOf(widthPx)];
+    }
+
+    /**
+     * @param widthPx Width of the thumbnail view in pixels, 0 if unknown
+     * @return Height divided by width of the variant selectVariant returns
+     */
+    public static float aspectOf(int widthPx) {
+        int index = indexOf(widthPx);
+        return (float) HEIGHTS[index] / WIDTHS[index];
+    }
+
+    private static int indexOf(int widthPx) {
+        if (widthPx <= 0) {
+            return VARIANTS.length - 1;
+        }
+        for (int i = 0; i < WIDTHS.length; i++) {
+            if (WIDTHS[i] >= widthPx) {
+                return i;
+            }
+        }
+        return VARIANTS.length - 1;
+    }
+}
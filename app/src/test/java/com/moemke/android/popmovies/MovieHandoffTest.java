@@ -0,0 +1,52 @@
+package com.moemke.android.popmovies;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks that {@link MovieHandoff} hands movies over by reference under unique keys and only
+ * keeps the most recent ones.
+ */
+public class MovieHandoffTest {
+
+    @Test
+    public void put_returnsSameMovie() {
+        Movie movie = movie(328111);
+
+        String key = MovieHandoff.put(movie);
+
+        assertSame(movie, MovieHandoff.get(key));
+    }
+
+    @Test
+    public void put_sameMovieTwice_getsTwoKeys() {
+        Movie movie = movie(328111);
+
+        assertNotEquals(MovieHandoff.put(movie), MovieHandoff.put(movie));
+    }
+
+    @Test
+    public void put_beyondMax_dropsOldest() {
+        String first = MovieHandoff.put(movie(1));
+        for (int i = 0; i < MovieHandoff.MAX_MOVIES; i++) {
+            MovieHandoff.put(movie(100 + i));
+        }
+
+        assertNull(MovieHandoff.get(first));
+    }
+
+    @Test
+    public void get_unknownKey_returnsNull() {
+        // a key of an earlier process
+        assertNull(MovieHandoff.get("j2x1k9:0"));
+        assertNull(MovieHandoff.get(null));
+    }
+
+    private static Movie movie(int id) {
+        return new Movie("/poster.jpg", "overview", "2016-06-18", id, "title", "en",
+                "/backdrop.jpg", 100, 7.5f, 0, null);
+    }
+}
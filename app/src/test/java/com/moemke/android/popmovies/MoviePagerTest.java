@@ -0,0 +1,232 @@
+package com.moemke.android.popmovies;
+
+import com.moemke.android.popmovies.utilities.TaskRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Drives {@link MoviePager} through a TaskRunner whose executors only run when the test says so,
+ * against a fake list of 5 pages of 20 movies.
+ */
+public class MoviePagerTest {
+
+    private static final int PAGE_SIZE = 20;
+    private static final int TOTAL_PAGES = 5;
+
+    private final ManualExecutor mBackground = new ManualExecutor();
+    private final ManualExecutor mMain = new ManualExecutor();
+    private final ArrayList<Movie> mGrid = new ArrayList<Movie>();
+    private final ArrayList<Integer> mRequestedPages = new ArrayList<Integer>();
+
+    private MoviePager mPager;
+
+    @Before
+    public void setUp() {
+        MoviePager.PageSource source = new MoviePager.PageSource() {
+            @Override
+            public MoviePage loadPage(String sortOrder, int page) throws IOException {
+                mRequestedPages.add(page);
+                return page(page);
+            }
+        };
+        MoviePager.Listener grid = new MoviePager.Listener() {
+            @Override
+            public void onMoviesAppended(int positionStart, ArrayList<Movie> movies) {
+                assertEquals(mGrid.size(), positionStart);
+                mGrid.addAll(movies);
+            }
+
+            @Override
+            public void onMoviesRestored(int positionStart, ArrayList<Movie> movies) {
+                for (int i = 0; i < movies.size(); i++) {
+                    assertNull(mGrid.get(positionStart + i));
+                    mGrid.set(positionStart + i, movies.get(i));
+                }
+            }
+
+            @Override
+            public void onMoviesDropped(int positionStart, int itemCount) {
+                for (int i = 0; i < itemCount; i++) {
+                    mGrid.set(positionStart + i, null);
+                }
+            }
+        };
+        mPager = new MoviePager(source, new TaskRunner(mBackground, mBackground, mMain), grid,
+                2, 10, 1);
+
+        MoviePage first = page(1);
+        mGrid.addAll(first.getMovies());
+        mPager.reset("popular", first);
+    }
+
+    @Test
+    public void nothingIsLoaded_untilTheEndIsClose() {
+        mPager.onVisibleRangeChanged(0, 5);
+        assertEquals(0, mPager.getPagesInFlight());
+
+        mPager.onVisibleRangeChanged(4, 11);
+        assertEquals(2, mPager.getPagesInFlight());
+    }
+
+    @Test
+    public void requestsInFlight_areBounded() {
+        mPager.onVisibleRangeChanged(10, 19);
+        mPager.onVisibleRangeChanged(12, 19);
+        mPager.onVisibleRangeChanged(14, 19);
+
+        assertEquals(2, mPager.getPagesInFlight());
+        assertEquals(2, mBackground.size());
+    }
+
+    @Test
+    public void pagesArrivingOutOfOrder_areAppendedInOrder() {
+        mPager.onVisibleRangeChanged(10, 19);
+        // page 2 and page 3 are requested, page 3 finishes first
+        Runnable page2 = mBackground.poll();
+        mBackground.runAll();
+        mMain.runAll();
+        assertEquals(PAGE_SIZE, mGrid.size());
+
+        page2.run();
+        mMain.runAll();
+        assertEquals(3 * PAGE_SIZE, mGrid.size());
+        for (int i = 0; i < mGrid.size(); i++) {
+            assertEquals(i, mGrid.get(i).getId());
+        }
+    }
+
+    @Test
+    public void paging_stopsAtTheLastPage() {
+        for (int i = 0; i < 20; i++) {
+            mPager.onVisibleRangeChanged(Math.max(0, mGrid.size() - 8), mGrid.size() - 1);
+            mBackground.runAll();
+            mMain.runAll();
+        }
+        assertEquals(TOTAL_PAGES * PAGE_SIZE, mGrid.size());
+        assertEquals(TOTAL_PAGES - 1, mRequestedPages.size());
+        assertEquals(0, mPager.getPagesInFlight());
+    }
+
+    @Test
+    public void farPages_areDroppedAndRestored() {
+        for (int i = 0; i < 20; i++) {
+            mPager.onVisibleRangeChanged(Math.max(0, mGrid.size() - 8), mGrid.size() - 1);
+            mBackground.runAll();
+            mMain.runAll();
+        }
+        // looking at page 5 with a window of 1 page keeps pages 4 and 5
+        assertEquals(2, mPager.getResidentPageCount());
+        assertNull(mGrid.get(0));
+        assertNotNull(mGrid.get(TOTAL_PAGES * PAGE_SIZE - 1));
+
+        mRequestedPages.clear();
+        mPager.onVisibleRangeChanged(0, 7);
+        mBackground.runAll();
+        mMain.runAll();
+
+        assertEquals(1, mRequestedPages.size());
+        assertEquals(Integer.valueOf(1), mRequestedPages.get(0));
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            assertEquals(i, mGrid.get(i).getId());
+        }
+        // the pages around page 5 were dropped in turn
+        assertNull(mGrid.get(TOTAL_PAGES * PAGE_SIZE - 1));
+        assertEquals(TOTAL_PAGES * PAGE_SIZE, mGrid.size());
+    }
+
+    @Test
+    public void resultsAfterReset_areIgnored() {
+        mPager.onVisibleRangeChanged(10, 19);
+        mPager.reset("top_rated", page(1));
+        mBackground.runAll();
+        mMain.runAll();
+
+        assertEquals(PAGE_SIZE, mGrid.size());
+        assertEquals(0, mPager.getPagesInFlight());
+    }
+
+    @Test
+    public void stop_cancelsRequestsInFlight() {
+        mPager.onVisibleRangeChanged(10, 19);
+        mPager.stop();
+        mBackground.runAll();
+        mMain.runAll();
+
+        assertEquals(0, mRequestedPages.size());
+        assertEquals(PAGE_SIZE, mGrid.size());
+        assertEquals(0, mPager.getPagesInFlight());
+    }
+
+    @Test
+    public void resetWithFirstPages_pagesOnAfterThem() {
+        // pages 1 to 3 shown at once, as read from the offline store
+        ArrayList<Movie> movies = new ArrayList<Movie>();
+        for (int page = 1; page <= 3; page++) {
+            movies.addAll(page(page).getMovies());
+        }
+        mGrid.clear();
+        mGrid.addAll(movies);
+        mPager.reset("popular", new MoviePage(3, TOTAL_PAGES, movies));
+
+        mPager.onVisibleRangeChanged(50, 59);
+        mBackground.runAll();
+        mMain.runAll();
+
+        assertEquals(Integer.valueOf(4), mRequestedPages.get(0));
+        assertEquals(TOTAL_PAGES * PAGE_SIZE, mGrid.size());
+        // page 1 is out of the window of page 3
+        assertNull(mGrid.get(0));
+        for (int i = PAGE_SIZE; i < mGrid.size(); i++) {
+            assertEquals(i, mGrid.get(i).getId());
+        }
+    }
+
+    /**
+     * Page p holds the movies with ids (p - 1) * 20 to p * 20 - 1.
+     */
+    private static MoviePage page(int page) {
+        ArrayList<Movie> movies = new ArrayList<Movie>();
+        if (page <= TOTAL_PAGES) {
+            for (int i = 0; i < PAGE_SIZE; i++) {
+                int id = (page - 1) * PAGE_SIZE + i;
+                movies.add(new Movie("/" + id + ".jpg", "", "2016-06-18", id, "Movie " + id, "en",
+                        "/" + id + "_backdrop.jpg", 0, 0, 0, ""));
+            }
+        }
+        return new MoviePage(page, TOTAL_PAGES, movies);
+    }
+
+    private static class ManualExecutor implements Executor {
+        private final ArrayDeque<Runnable> mTasks = new ArrayDeque<Runnable>();
+
+        @Override
+        public void execute(Runnable command) {
+            mTasks.add(command);
+        }
+
+        Runnable poll() {
+            return mTasks.poll();
+        }
+
+        int size() {
+            return mTasks.size();
+        }
+
+        void runAll() {
+            Runnable task;
+            while ((task = mTasks.poll()) != null) {
+                task.run();
+            }
+        }
+    }
+}
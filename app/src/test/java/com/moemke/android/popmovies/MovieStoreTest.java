@@ -0,0 +1,128 @@
+package com.moemke.android.popmovies;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link MovieStore} gives back the movies it was given, keeps the positions of
+ * emptied movies and shares repeated strings.
+ */
+public class MovieStoreTest {
+
+    @Test
+    public void getMovie_returnsAllFields() {
+        Movie movie = new Movie("/WLQN5aiQG8wc9SeKwixW7pAR8K.jpg",
+                "The quiet life of a terrier named Max is upended \u2014 by Duke.", "2016-06-18",
+                328111, "The Secret Life of Pets", "en", "/lubzBMQLLmG88CLQ4F3TxZr2Q7N.jpg",
+                1960, 5.8f, 1, "Adventure | Animation");
+        MovieStore store = MovieStore.of(Arrays.asList(movie));
+
+        Movie copy = store.getMovie(0);
+
+        assertEquals(movie.getPoster_path(), copy.getPoster_path());
+        assertEquals(movie.getOverview(), copy.getOverview());
+        assertEquals(movie.getRelease_date(), copy.getRelease_date());
+        assertEquals(movie.getId(), copy.getId());
+        assertEquals(movie.getOriginal_title(), copy.getOriginal_title());
+        assertEquals(movie.getOriginal_language(), copy.getOriginal_language());
+        assertEquals(movie.getBackdrop_path(), copy.getBackdrop_path());
+        assertEquals(movie.getVote_count(), copy.getVote_count());
+        assertEquals(movie.getVote_average(), copy.getVote_average(), 0f);
+        assertEquals(movie.getIs_favorite(), copy.getIs_favorite());
+        assertEquals(movie.getGenre_str(), copy.getGenre_str());
+    }
+
+    @Test
+    public void addAll_growsAndKeepsOrder() {
+        MovieStore store = new MovieStore();
+        for (int page = 0; page < 10; page++) {
+            store.addAll(movies(page * 20, 20));
+        }
+
+        assertEquals(200, store.size());
+        for (int i = 0; i < 200; i++) {
+            assertEquals(i, store.getId(i));
+            assertEquals("/poster" + i + ".jpg", store.getPosterPath(i));
+        }
+    }
+
+    @Test
+    public void clear_keepsPositionWithoutMovie() {
+        MovieStore store = MovieStore.of(movies(0, 40));
+
+        for (int i = 0; i < 20; i++) {
+            store.clear(i);
+        }
+
+        assertEquals(40, store.size());
+        assertFalse(store.isLoaded(0));
+        assertEquals(MovieStore.NO_ID, store.getId(19));
+        assertNull(store.getMovie(19));
+        assertNull(store.getPosterPath(19));
+        assertNull(store.getOriginalLanguage(19));
+        assertTrue(store.isLoaded(20));
+
+        store.set(0, movies(0, 1).get(0));
+        assertEquals(0, store.getId(0));
+    }
+
+    @Test
+    public void nullMovies_areEmptyPositions() {
+        ArrayList<Movie> movies = movies(0, 3);
+        movies.set(1, null);
+
+        MovieStore store = MovieStore.of(movies);
+
+        assertEquals(3, store.size());
+        assertFalse(store.isLoaded(1));
+        assertNull(store.getKey(1));
+        assertEquals(2, store.getKey(2));
+    }
+
+    @Test
+    public void repeatedStrings_areShared() {
+        ArrayList<Movie> movies = new ArrayList<Movie>();
+        for (int i = 0; i < 2; i++) {
+            // distinct String instances, like the parser returns them
+            movies.add(new Movie("/p" + i + ".jpg", null, null, i, "t", new String("en"),
+                    null, 0, 0f, 1, new String("Action | Comedy")));
+        }
+        MovieStore store = MovieStore.of(movies);
+
+        assertSame(store.getOriginalLanguage(0), store.getOriginalLanguage(1));
+        assertSame(store.getGenres(0), store.getGenres(1));
+    }
+
+    @Test
+    public void contentTheSame_comparesPosters() {
+        MovieStore oldStore = MovieStore.of(movies(0, 2));
+        ArrayList<Movie> newMovies = movies(0, 2);
+        newMovies.set(1, new Movie("/new.jpg", null, null, 1, "t", "en", null, 0, 0f, 0, null));
+        MovieStore newStore = MovieStore.of(newMovies);
+
+        assertTrue(oldStore.isContentTheSame(0, newStore, 0));
+        assertFalse(oldStore.isContentTheSame(1, newStore, 1));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void getPosterPath_outOfRange_throws() {
+        MovieStore.of(movies(0, 1)).getPosterPath(1);
+    }
+
+    private static ArrayList<Movie> movies(int firstId, int count) {
+        ArrayList<Movie> movies = new ArrayList<Movie>();
+        for (int id = firstId; id < firstId + count; id++) {
+            movies.add(new Movie("/poster" + id + ".jpg", "Overview " + id, "2017-02-02", id,
+                    "Title " + id, "en", "/backdrop" + id + ".jpg", id, 7.5f, 0, null));
+        }
+        return movies;
+    }
+}
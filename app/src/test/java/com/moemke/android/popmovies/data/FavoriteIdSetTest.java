@@ -0,0 +1,58 @@
+package com.moemke.android.popmovies.data;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks {@link FavoriteIdSet} against a HashSet of the same ids.
+ */
+public class FavoriteIdSetTest {
+
+    @Test
+    public void emptySet_containsNothing() {
+        assertEquals(0, FavoriteIdSet.EMPTY.size());
+        assertFalse(FavoriteIdSet.EMPTY.contains(0));
+        assertFalse(FavoriteIdSet.EMPTY.contains(328111));
+    }
+
+    @Test
+    public void duplicates_areCountedOnce() {
+        FavoriteIdSet set = new FavoriteIdSet(new int[]{7, 7, 0, 0, 328111, 7}, 6);
+        assertEquals(3, set.size());
+        assertTrue(set.contains(0));
+        assertTrue(set.contains(7));
+        assertTrue(set.contains(328111));
+        assertFalse(set.contains(8));
+    }
+
+    @Test
+    public void onlyCountIdsAreUsed() {
+        FavoriteIdSet set = new FavoriteIdSet(new int[]{1, 2, 3}, 2);
+        assertEquals(2, set.size());
+        assertFalse(set.contains(3));
+    }
+
+    @Test
+    public void matchesHashSet() {
+        Random random = new Random(42);
+        int[] ids = new int[10000];
+        HashSet<Integer> expected = new HashSet<Integer>();
+        for (int i = 0; i < ids.length; i++) {
+            // consecutive and negative ids as well as random ones
+            ids[i] = i % 3 == 0 ? i : random.nextInt(1000000) - 1000;
+            expected.add(ids[i]);
+        }
+        FavoriteIdSet set = new FavoriteIdSet(ids, ids.length);
+
+        assertEquals(expected.size(), set.size());
+        for (int id = -2000; id < 1000000; id++) {
+            assertEquals(expected.contains(id), set.contains(id));
+        }
+    }
+}
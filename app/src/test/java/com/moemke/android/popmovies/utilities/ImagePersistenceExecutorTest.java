@@ -0,0 +1,249 @@
+package com.moemke.android.popmovies.utilities;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the ordering, retries, cancellation and atomic writes of
+ * {@link ImagePersistenceExecutor}, using a store in a temporary directory and writers that
+ * write bytes.
+ */
+public class ImagePersistenceExecutorTest {
+
+    private static final byte[] IMAGE = {(byte) 0xFF, (byte) 0xD8, 1, 2, 3, (byte) 0xFF, (byte) 0xD9};
+
+    private static final long MAX_BYTES = 1024 * 1024;
+
+    private File mDirectory;
+    private OfflineImageStore mStore;
+    private ImagePersistenceExecutor mExecutor;
+
+    @Before
+    public void setUp() throws Exception {
+        mDirectory = File.createTempFile("images", "");
+        mDirectory.delete();
+        mDirectory.mkdirs();
+        mStore = new OfflineImageStore(mDirectory, MAX_BYTES);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (mExecutor != null) {
+            mExecutor.shutdown();
+            mExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        }
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void write_commitsCompleteFileAndLeavesNoTempFile() throws Exception {
+        mExecutor = new ImagePersistenceExecutor(mStore, 2, 3);
+        mExecutor.submit("poster.jpg", ImagePersistenceExecutor.PRIORITY_VISIBLE,
+                bytesWriter(IMAGE));
+        drain();
+
+        assertArrayEquals(IMAGE, read(mStore.getFile("poster.jpg")));
+        assertEquals(0, tempFileCount());
+        assertEquals(1, mExecutor.getWriteCount());
+    }
+
+    @Test
+    public void failedWrite_neverLeavesPartialFile() throws Exception {
+        mExecutor = new ImagePersistenceExecutor(mStore, 1, 2);
+        mExecutor.submit("poster.jpg", ImagePersistenceExecutor.PRIORITY_VISIBLE,
+                new ImagePersistenceExecutor.ImageWriter() {
+                    @Override
+                    public void writeTo(OutputStream out) throws IOException {
+                        out.write(IMAGE, 0, 3);
+                        throw new IOException("disk full");
+                    }
+                });
+        drain();
+
+        assertNull(mStore.getFile("poster.jpg"));
+        assertEquals(0, tempFileCount());
+        assertEquals(1, mExecutor.getRetryCount());
+        assertEquals(1, mExecutor.getFailureCount());
+        assertEquals(0, mExecutor.getWriteCount());
+    }
+
+    @Test
+    public void failedWrite_isRetried() throws Exception {
+        mExecutor = new ImagePersistenceExecutor(mStore, 1, 3);
+        final int[] calls = new int[1];
+        mExecutor.submit("poster.jpg", ImagePersistenceExecutor.PRIORITY_VISIBLE,
+                new ImagePersistenceExecutor.ImageWriter() {
+                    @Override
+                    public void writeTo(OutputStream out) throws IOException {
+                        if (calls[0]++ == 0) {
+                            throw new IOException("busy");
+                        }
+                        out.write(IMAGE);
+                    }
+                });
+        drain();
+
+        assertArrayEquals(IMAGE, read(mStore.getFile("poster.jpg")));
+        assertEquals(1, mExecutor.getRetryCount());
+        assertEquals(0, mExecutor.getFailureCount());
+    }
+
+    @Test
+    public void visibleImages_areWrittenBeforeBackgroundImages() throws Exception {
+        mExecutor = new ImagePersistenceExecutor(mStore, 1, 1);
+        CountDownLatch release = block();
+        final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        mExecutor.submit("backdrop1.jpg", ImagePersistenceExecutor.PRIORITY_BACKGROUND,
+                recordingWriter("backdrop1.jpg", order));
+        mExecutor.submit("poster1.jpg", ImagePersistenceExecutor.PRIORITY_VISIBLE,
+                recordingWriter("poster1.jpg", order));
+        mExecutor.submit("backdrop2.jpg", ImagePersistenceExecutor.PRIORITY_BACKGROUND,
+                recordingWriter("backdrop2.jpg", order));
+        mExecutor.submit("poster2.jpg", ImagePersistenceExecutor.PRIORITY_VISIBLE,
+                recordingWriter("poster2.jpg", order));
+        assertEquals(4, mExecutor.getQueueDepth());
+
+        release.countDown();
+        drain();
+
+        List<String> expected = new ArrayList<String>();
+        Collections.addAll(expected, "poster1.jpg", "poster2.jpg", "backdrop1.jpg", "backdrop2.jpg");
+        assertEquals(expected, order);
+    }
+
+    @Test
+    public void cancel_dropsQueuedWrite() throws Exception {
+        mExecutor = new ImagePersistenceExecutor(mStore, 1, 1);
+        CountDownLatch release = block();
+        mExecutor.submit("poster.jpg", ImagePersistenceExecutor.PRIORITY_VISIBLE,
+                bytesWriter(IMAGE));
+
+        assertTrue(mExecutor.cancel("poster.jpg"));
+        assertFalse(mExecutor.cancel("poster.jpg"));
+        release.countDown();
+        drain();
+
+        assertNull(mStore.getFile("poster.jpg"));
+        assertEquals(1, mExecutor.getCancelCount());
+    }
+
+    @Test
+    public void submit_replacesQueuedWriteOfSameFile() throws Exception {
+        mExecutor = new ImagePersistenceExecutor(mStore, 1, 1);
+        CountDownLatch release = block();
+        mExecutor.submit("poster.jpg", ImagePersistenceExecutor.PRIORITY_VISIBLE,
+                bytesWriter(new byte[]{1}));
+        mExecutor.submit("poster.jpg", ImagePersistenceExecutor.PRIORITY_VISIBLE,
+                bytesWriter(IMAGE));
+        assertEquals(1, mExecutor.getQueueDepth());
+
+        release.countDown();
+        drain();
+
+        assertArrayEquals(IMAGE, read(mStore.getFile("poster.jpg")));
+        // the blocking write and the replacement
+        assertEquals(2, mExecutor.getWriteCount());
+    }
+
+    /**
+     * Occupies the single thread until the returned latch is released.
+     */
+    private CountDownLatch block() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        mExecutor.submit("blocker.jpg", ImagePersistenceExecutor.PRIORITY_VISIBLE,
+                new ImagePersistenceExecutor.ImageWriter() {
+                    @Override
+                    public void writeTo(OutputStream out) throws IOException {
+                        started.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            throw new IOException(e.toString());
+                        }
+                    }
+                });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        return release;
+    }
+
+    private void drain() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (mExecutor.getPendingCount() > 0) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        assertEquals(0, mExecutor.getQueueDepth());
+    }
+
+    private int tempFileCount() {
+        int count = 0;
+        for (File file : mDirectory.listFiles()) {
+            if (file.getName().endsWith(".tmp")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static ImagePersistenceExecutor.ImageWriter bytesWriter(final byte[] bytes) {
+        return new ImagePersistenceExecutor.ImageWriter() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                out.write(bytes);
+            }
+        };
+    }
+
+    private static ImagePersistenceExecutor.ImageWriter recordingWriter(
+            final String name, final List<String> order) {
+        return new ImagePersistenceExecutor.ImageWriter() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                order.add(name);
+                out.write(IMAGE);
+            }
+        };
+    }
+
+    private static byte[] read(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < bytes.length) {
+                int read = in.read(bytes, offset, bytes.length - offset);
+                if (read < 0) {
+                    break;
+                }
+                offset += read;
+            }
+        } finally {
+            in.close();
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,126 @@
+package com.moemke.android.popmovies.utilities;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the sizes {@link ImageSizeSelector} picks for the 2 column grid and the detail screen
+ * on common screens, and the poster pixels the grid downloads compared to always loading w500.
+ */
+public class ImageSizeSelectorTest {
+
+    private static final int GRID_COLUMNS = 2;
+
+    // screen width in dp, density, expected grid poster size
+    private static final Object[][] GRID_MATRIX = {
+            {320, 1f, "w185"},
+            {320, 1.5f, "w185"},
+            {320, 2f, "w342"},
+            {360, 2f, "w342"},
+            {360, 3f, "w500"},
+            {384, 2f, "w342"},
+            {411, 2.625f, "w500"},
+            {411, 3.5f, "w780"},
+            {600, 1f, "w342"},
+            {800, 1f, "w500"},
+            {1280, 2f, "w780"},
+    };
+
+    // screen width in dp, density, expected backdrop size
+    private static final Object[][] BACKDROP_MATRIX = {
+            {320, 1f, "w780"},
+            {320, 0.75f, "w300"},
+            {360, 3f, "w1280"},
+            {780, 1f, "w780"},
+            {800, 1f, "w1280"},
+            {1280, 2f, "w1280"},
+    };
+
+    // tmdb posters are 2:3
+    private static final double POSTER_ASPECT = 1.5;
+
+    @Test
+    public void gridPosterSize_fitsCellWidth() {
+        for (Object[] row : GRID_MATRIX) {
+            int cellWidth = ImageSizeSelector.cellWidthPx(
+                    px((Integer) row[0], (Float) row[1]), GRID_COLUMNS);
+            String size = ImageSizeSelector.selectPosterSize(cellWidth);
+            assertEquals(row[0] + "dp @" + row[1], row[2], size);
+        }
+    }
+
+    @Test
+    public void backdropSize_coversScreenWidth() {
+        for (Object[] row : BACKDROP_MATRIX) {
+            String size = ImageSizeSelector.selectBackdropSize(px((Integer) row[0], (Float) row[1]));
+            assertEquals(row[0] + "dp @" + row[1], row[2], size);
+        }
+    }
+
+    @Test
+    public void selectedSize_isSmallestCoveringSizeUnlessMuchWider() {
+        assertEquals("w92", ImageSizeSelector.selectPosterSize(1));
+        assertEquals("w92", ImageSizeSelector.selectPosterSize(92));
+        // w154 is more than 25% wider and further away than w92
+        assertEquals("w92", ImageSizeSelector.selectPosterSize(93));
+        assertEquals("w154", ImageSizeSelector.selectPosterSize(130));
+        // w500 is exactly 25% wider
+        assertEquals("w500", ImageSizeSelector.selectPosterSize(400));
+        assertEquals("w500", ImageSizeSelector.selectPosterSize(541));
+        assertEquals("w780", ImageSizeSelector.selectPosterSize(700));
+        assertEquals("w780", ImageSizeSelector.selectPosterSize(780));
+        // backdrops always cover the screen
+        assertEquals("w780", ImageSizeSelector.selectBackdropSize(301));
+        // wider than every fixed size
+        assertEquals("w780", ImageSizeSelector.selectPosterSize(2000));
+        assertEquals(342, ImageSizeSelector.widthOf("w342"));
+        assertEquals(181, ImageSizeSelector.cellWidthPx(361, 2));
+    }
+
+    /**
+     * Checks the poster pixels (and so roughly the JPEG bytes) each grid cell downloads on the
+     * screens of GRID_MATRIX compared to always loading w500. Cells up to 500px never download
+     * more than w500, and xxhdpi phones with cells a little wider than 500px keep w500 instead
+     * of w780, which has 2.4 times the pixels.
+     */
+    @Test
+    public void gridPixels_comparedToW500() {
+        long w500Pixels = posterPixels(500);
+        long fixedPixels = 0;
+        long selectedPixels = 0;
+        for (Object[] row : GRID_MATRIX) {
+            int cellWidth = ImageSizeSelector.cellWidthPx(
+                    px((Integer) row[0], (Float) row[1]), GRID_COLUMNS);
+            String size = ImageSizeSelector.selectPosterSize(cellWidth);
+            long pixels = posterPixels(ImageSizeSelector.widthOf(size));
+            if (cellWidth <= 500) {
+                assertTrue(size, pixels <= w500Pixels);
+            }
+            fixedPixels += w500Pixels;
+            selectedPixels += pixels;
+        }
+
+        // a 360dp xxhdpi phone: 540px cells keep w500, scaled up by 8%
+        int xxhdpiCell = ImageSizeSelector.cellWidthPx(px(360, 3f), GRID_COLUMNS);
+        assertEquals(540, xxhdpiCell);
+        assertEquals("w500", ImageSizeSelector.selectPosterSize(xxhdpiCell));
+        assertEquals(375000, w500Pixels);
+        assertEquals(912600, posterPixels(780));
+
+        // over the whole matrix the grid never downloads more than with w500 everywhere
+        assertEquals(4125000, fixedPixels);
+        assertEquals(3754844, selectedPixels);
+        assertTrue(selectedPixels <= fixedPixels);
+        assertEquals(9, Math.round(100.0 * (fixedPixels - selectedPixels) / fixedPixels));
+    }
+
+    private static int px(int dp, float density) {
+        return (int) (dp * density + 0.5f);
+    }
+
+    private static long posterPixels(int width) {
+        return (long) width * (long) Math.round(width * POSTER_ASPECT);
+    }
+}
@@ -0,0 +1,45 @@
+package com.moemke.android.popmovies.utilities;
+
+import org.junit.Test;
+
+import java.net.URL;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link NetworkUtils#getTtlPolicy()} gives the movie lists, the detail of a movie
+ * and full reviews their own freshness.
+ */
+public class NetworkUtilsTest {
+
+    private static final String API = "http://api.themoviedb.org";
+
+    private final ResponseCache.TtlPolicy mTtlPolicy = NetworkUtils.getTtlPolicy();
+
+    @Test
+    public void movieDetail_andItsVideosAndReviews_shareTheDetailTtl() throws Exception {
+        long detailTtl = ttl("/3/movie/328111?api_key=key");
+        assertEquals(detailTtl, ttl("/3/movie/328111/videos?api_key=key"));
+        assertEquals(detailTtl, ttl("/3/movie/328111/reviews?api_key=key"));
+        assertEquals(detailTtl, ttl("/3/movie/328111/"));
+        assertTrue(detailTtl > ttl("/3/movie/popular?api_key=key&page=1"));
+    }
+
+    @Test
+    public void lists_useTheListTtl() throws Exception {
+        long listTtl = ttl("/3/movie/popular?api_key=key&page=1");
+        assertEquals(listTtl, ttl("/3/movie/top_rated?api_key=key&page=3"));
+        assertEquals(listTtl, ttl("/3/movie/popular/"));
+    }
+
+    @Test
+    public void fullReview_outlivesTheDetail() throws Exception {
+        long reviewTtl = ttl("/3/review/579cfaac9251411b36008316?api_key=key");
+        assertTrue(reviewTtl > ttl("/3/movie/328111/reviews?api_key=key"));
+    }
+
+    private long ttl(String pathAndQuery) throws Exception {
+        return mTtlPolicy.getTtlMillis(new URL(API + pathAndQuery));
+    }
+}
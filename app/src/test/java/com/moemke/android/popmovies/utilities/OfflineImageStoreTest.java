@@ -0,0 +1,246 @@
+package com.moemke.android.popmovies.utilities;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the deduplication, eviction, manifest and integrity check of {@link OfflineImageStore}
+ * in a temporary directory.
+ */
+public class OfflineImageStoreTest {
+
+    private static final int IMAGE_BYTES = 1000;
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws Exception {
+        mDirectory = File.createTempFile("offline", "");
+        mDirectory.delete();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void identicalImages_areStoredOnce() throws Exception {
+        OfflineImageStore store = new OfflineImageStore(mDirectory, 10 * IMAGE_BYTES);
+        put(store, "a.jpg", 1, true);
+        put(store, "b.jpg", 1, true);
+
+        assertEquals(2, store.getImageCount());
+        assertEquals(IMAGE_BYTES, store.getSize());
+        assertEquals(1, store.getDedupCount());
+        assertEquals(store.getFile("a.jpg"), store.getFile("b.jpg"));
+    }
+
+    @Test
+    public void unpinnedImages_areEvictedLeastRecentlyUsedFirst() throws Exception {
+        OfflineImageStore store = new OfflineImageStore(mDirectory, 2 * IMAGE_BYTES);
+        put(store, "a.jpg", 1, true);
+        put(store, "b.jpg", 2, true);
+        store.unpin("a.jpg");
+        store.unpin("b.jpg");
+        // a is used again, so b is the least recently used
+        assertNotNull(store.getFile("a.jpg"));
+
+        put(store, "c.jpg", 3, true);
+
+        assertNotNull(store.getFile("a.jpg"));
+        assertNull(store.getFile("b.jpg"));
+        assertNotNull(store.getFile("c.jpg"));
+        assertEquals(2 * IMAGE_BYTES, store.getSize());
+        assertEquals(1, store.getEvictionCount());
+    }
+
+    @Test
+    public void pinnedImages_areKeptAboveTheBudget() throws Exception {
+        OfflineImageStore store = new OfflineImageStore(mDirectory, IMAGE_BYTES);
+        put(store, "a.jpg", 1, true);
+        put(store, "b.jpg", 2, true);
+
+        assertNotNull(store.getFile("a.jpg"));
+        assertNotNull(store.getFile("b.jpg"));
+        assertEquals(0, store.getEvictionCount());
+    }
+
+    @Test
+    public void sharedFile_isKeptWhileAnyKeyUsesIt() throws Exception {
+        OfflineImageStore store = new OfflineImageStore(mDirectory, IMAGE_BYTES);
+        put(store, "a.jpg", 1, true);
+        put(store, "b.jpg", 1, false);
+        put(store, "c.jpg", 2, true);
+
+        assertNull(store.getFile("b.jpg"));
+        assertTrue(store.getFile("a.jpg").exists());
+    }
+
+    @Test
+    public void manifest_survivesRestartAfterVerify() throws Exception {
+        OfflineImageStore store = new OfflineImageStore(mDirectory, 10 * IMAGE_BYTES);
+        put(store, "a.jpg", 1, true);
+        put(store, "b.jpg", 2, false);
+
+        OfflineImageStore reopened = new OfflineImageStore(mDirectory, 10 * IMAGE_BYTES);
+        assertNull(reopened.getFile("a.jpg"));
+        reopened.verify();
+
+        assertNotNull(reopened.getFile("a.jpg"));
+        assertNotNull(reopened.getFile("b.jpg"));
+        assertEquals(2 * IMAGE_BYTES, reopened.getSize());
+        assertEquals(0, reopened.getCorruptCount());
+    }
+
+    @Test
+    public void verify_dropsBrokenImagesAndUnknownFiles() throws Exception {
+        OfflineImageStore store = new OfflineImageStore(mDirectory, 10 * IMAGE_BYTES);
+        put(store, "a.jpg", 1, true);
+        put(store, "b.jpg", 2, true);
+        put(store, "c.jpg", 3, true);
+        // a half written file, a changed file and a file left by the old flat layout
+        truncate(store.getFile("a.jpg"));
+        File changed = store.getFile("b.jpg");
+        long modified = changed.lastModified();
+        overwrite(changed, 9);
+        changed.setLastModified(modified + 1000);
+        File stray = new File(mDirectory, "stray.jpg");
+        overwrite(stray, 4);
+        File staleTemp = new File(mDirectory, "image-99.tmp");
+        overwrite(staleTemp, 5);
+        staleTemp.setLastModified(System.currentTimeMillis() - 60 * 1000);
+
+        OfflineImageStore reopened = new OfflineImageStore(mDirectory, 10 * IMAGE_BYTES);
+        reopened.verify();
+
+        assertNull(reopened.getFile("a.jpg"));
+        assertNull(reopened.getFile("b.jpg"));
+        assertNotNull(reopened.getFile("c.jpg"));
+        assertEquals(2, reopened.getCorruptCount());
+        assertEquals(IMAGE_BYTES, reopened.getSize());
+        assertFalse(stray.exists());
+        assertFalse(staleTemp.exists());
+    }
+
+    @Test
+    public void verify_trustsFilesWithTheirLengthAndModificationTime() throws Exception {
+        OfflineImageStore store = new OfflineImageStore(mDirectory, 10 * IMAGE_BYTES);
+        put(store, "a.jpg", 1, true);
+        // same length and time, so it is not read again
+        File file = store.getFile("a.jpg");
+        long modified = file.lastModified();
+        overwrite(file, 9);
+        file.setLastModified(modified);
+
+        OfflineImageStore reopened = new OfflineImageStore(mDirectory, 10 * IMAGE_BYTES);
+        reopened.verify();
+
+        assertNotNull(reopened.getFile("a.jpg"));
+        assertEquals(0, reopened.getCorruptCount());
+    }
+
+    @Test
+    public void verify_hashesEveryFileAfterAnUnfinishedWrite() throws Exception {
+        OfflineImageStore store = new OfflineImageStore(mDirectory, 10 * IMAGE_BYTES);
+        put(store, "a.jpg", 1, true);
+        File file = store.getFile("a.jpg");
+        long modified = file.lastModified();
+        overwrite(file, 9);
+        file.setLastModified(modified);
+        // left when the process dies between changing the files and writing the manifest
+        assertTrue(new File(mDirectory, "dirty").createNewFile());
+
+        OfflineImageStore reopened = new OfflineImageStore(mDirectory, 10 * IMAGE_BYTES);
+        reopened.verify();
+
+        assertNull(reopened.getFile("a.jpg"));
+        assertEquals(1, reopened.getCorruptCount());
+        assertFalse(new File(mDirectory, "dirty").exists());
+    }
+
+    @Test
+    public void verify_notifiesListeners() throws Exception {
+        OfflineImageStore store = new OfflineImageStore(mDirectory, 10 * IMAGE_BYTES);
+        put(store, "a.jpg", 1, true);
+        final OfflineImageStore reopened = new OfflineImageStore(mDirectory, 10 * IMAGE_BYTES);
+        final File[] fileWhenNotified = new File[1];
+        reopened.addOnVerifiedListener(new OfflineImageStore.OnVerifiedListener() {
+            @Override
+            public void onImagesVerified() {
+                fileWhenNotified[0] = reopened.getFile("a.jpg");
+            }
+        });
+
+        reopened.verify();
+
+        assertNotNull(fileWhenNotified[0]);
+    }
+
+    @Test
+    public void importFile_movesFileIntoStore() throws Exception {
+        mDirectory.mkdirs();
+        File legacy = new File(mDirectory.getParentFile(), mDirectory.getName() + "-legacy.jpg");
+        overwrite(legacy, 7);
+        OfflineImageStore store = new OfflineImageStore(mDirectory, 10 * IMAGE_BYTES);
+
+        assertTrue(store.importFile("legacy.jpg", legacy, true));
+
+        assertFalse(legacy.exists());
+        assertEquals(IMAGE_BYTES, store.getFile("legacy.jpg").length());
+    }
+
+    private static void put(OfflineImageStore store, String key, final int fill, boolean pinned)
+            throws IOException {
+        store.commit(key, store.write(new ImagePersistenceExecutor.ImageWriter() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                out.write(image(fill));
+            }
+        }), pinned);
+    }
+
+    private static byte[] image(int fill) {
+        byte[] bytes = new byte[IMAGE_BYTES];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (fill + i);
+        }
+        return bytes;
+    }
+
+    private static void overwrite(File file, int fill) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(image(fill));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void truncate(File file) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(image(0), 0, IMAGE_BYTES / 2);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.moemke.android.popmovies.utilities;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link OfflinePageStore} keeps the first pages of each sort order across
+ * instances, replaces them with newer copies and drops files it cannot read.
+ */
+public class OfflinePageStoreTest {
+
+    private static final int MAX_PAGES = 3;
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws Exception {
+        mDirectory = File.createTempFile("pages", "");
+        mDirectory.delete();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void put_outlivesTheStoreInstance() {
+        assertTrue(new OfflinePageStore(mDirectory, MAX_PAGES).put("popular", 1, bytes("p1")));
+
+        OfflinePageStore store = new OfflinePageStore(mDirectory, MAX_PAGES);
+
+        assertArrayEquals(bytes("p1"), store.get("popular", 1));
+        assertNull(store.get("top_rated", 1));
+    }
+
+    @Test
+    public void put_replacesStoredPage() {
+        OfflinePageStore store = new OfflinePageStore(mDirectory, MAX_PAGES);
+        store.put("popular", 1, bytes("p1 v1"));
+        store.put("popular", 1, bytes("p1 v2"));
+
+        assertArrayEquals(bytes("p1 v2"), store.get("popular", 1));
+        // no temp files are left behind
+        assertEquals(1, mDirectory.listFiles().length);
+    }
+
+    @Test
+    public void put_pageBeyondMax_isNotStored() {
+        OfflinePageStore store = new OfflinePageStore(mDirectory, MAX_PAGES);
+
+        assertFalse(store.put("popular", MAX_PAGES + 1, bytes("p4")));
+        assertNull(store.get("popular", MAX_PAGES + 1));
+    }
+
+    @Test
+    public void getPageCount_stopsAtFirstGap() {
+        OfflinePageStore store = new OfflinePageStore(mDirectory, MAX_PAGES);
+        store.put("popular", 1, bytes("p1"));
+        store.put("popular", 2, bytes("p2"));
+        store.put("top_rated", 1, bytes("t1"));
+        store.put("top_rated", 3, bytes("t3"));
+
+        assertEquals(2, store.getPageCount("popular"));
+        assertEquals(1, store.getPageCount("top_rated"));
+    }
+
+    @Test
+    public void truncatedFile_isDropped() throws Exception {
+        OfflinePageStore store = new OfflinePageStore(mDirectory, MAX_PAGES);
+        store.put("popular", 1, bytes("p1"));
+        File file = mDirectory.listFiles()[0];
+        FileOutputStream out = new FileOutputStream(file);
+        // the version and a length longer than what follows
+        out.write(new byte[]{0, 0, 0, 1, 0, 0, 1, 0, 'p'});
+        out.close();
+
+        assertNull(store.get("popular", 1));
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void corruptLength_isDropped() throws Exception {
+        OfflinePageStore store = new OfflinePageStore(mDirectory, MAX_PAGES);
+        store.put("popular", 1, bytes("p1"));
+        store.put("popular", 2, bytes("p2"));
+        File[] files = mDirectory.listFiles();
+        FileOutputStream out = new FileOutputStream(files[0]);
+        // the version and a negative length
+        out.write(new byte[]{0, 0, 0, 1, (byte) 0x80, 0, 0, 0, 'p'});
+        out.close();
+        out = new FileOutputStream(files[1]);
+        // the version and a length far beyond the file
+        out.write(new byte[]{0, 0, 0, 1, 0x7f, (byte) 0xff, (byte) 0xff, (byte) 0xff, 'p'});
+        out.close();
+
+        assertNull(store.get("popular", 1));
+        assertNull(store.get("popular", 2));
+        assertFalse(files[0].exists());
+        assertFalse(files[1].exists());
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes();
+    }
+}
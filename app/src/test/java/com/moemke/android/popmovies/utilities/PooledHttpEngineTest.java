@@ -0,0 +1,248 @@
+package com.moemke.android.popmovies.utilities;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs {@link PooledHttpEngine} against a local stand-in for the tmdb server and checks that
+ * sockets are reused across requests.
+ */
+public class PooledHttpEngineTest {
+
+    private static final int REQUEST_COUNT = 100;
+
+    private LocalServer mServer;
+    private PooledHttpEngine mEngine;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new LocalServer();
+        mServer.start();
+        mEngine = new PooledHttpEngine(null, new UrlConnectionHttpEngine(), 2, 30 * 1000);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mEngine.shutdown();
+        mServer.stop();
+    }
+
+    @Test
+    public void sequentialRequests_reuseOneSocket() throws Exception {
+        for (int i = 0; i < REQUEST_COUNT; i++) {
+            String body = fetch(mServer.url("/3/movie/popular?page=" + i));
+            assertEquals("/3/movie/popular?page=" + i, body);
+        }
+        assertEquals(1, mServer.getSocketsAccepted());
+        assertEquals(1, mEngine.getSocketsOpened());
+    }
+
+    @Test
+    public void chunkedResponses_reuseOneSocket() throws Exception {
+        for (int i = 0; i < REQUEST_COUNT; i++) {
+            String body = fetch(mServer.url("/chunked/" + i));
+            assertEquals("/chunked/" + i, body);
+        }
+        assertEquals(1, mServer.getSocketsAccepted());
+    }
+
+    @Test
+    public void concurrentRequests_boundedByMaxConnectionsPerHost() throws Exception {
+        final int threads = 8;
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicInteger failures = new AtomicInteger();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < REQUEST_COUNT / threads; i++) {
+                            String path = "/3/movie/" + thread + "_" + i;
+                            if (!path.equals(fetch(mServer.url(path)))) {
+                                failures.incrementAndGet();
+                            }
+                        }
+                    } catch (IOException e) {
+                        failures.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        done.await();
+
+        assertEquals(0, failures.get());
+        assertTrue("opened " + mServer.getSocketsAccepted() + " sockets",
+                mServer.getSocketsAccepted() <= 2);
+    }
+
+    @Test
+    public void serverClosingConnection_isRetriedOnNewSocket() throws Exception {
+        mServer.setCloseAfter(10);
+        for (int i = 0; i < REQUEST_COUNT; i++) {
+            assertEquals("/" + i, fetch(mServer.url("/" + i)));
+        }
+        assertEquals(REQUEST_COUNT / 10, mServer.getSocketsAccepted());
+    }
+
+    @Test
+    public void cancelledRequest_isNotRetriedOnNewSocket() throws Exception {
+        fetch(mServer.url("/first"));
+        CancellationToken token = new CancellationToken();
+        CancellationToken previous = token.attach();
+        try {
+            token.cancel();
+            // the reused socket is closed as soon as the request registers it
+            fetch(mServer.url("/second"));
+            fail("cancelled request succeeded");
+        } catch (IOException expected) {
+        } finally {
+            token.detach(previous);
+        }
+        assertEquals(1, mServer.getSocketsAccepted());
+        assertEquals(1, mEngine.getSocketsOpened());
+    }
+
+    @Test
+    public void idleSockets_areEvicted() throws Exception {
+        mEngine.shutdown();
+        mEngine = new PooledHttpEngine(null, new UrlConnectionHttpEngine(), 2, 50);
+
+        fetch(mServer.url("/first"));
+        assertEquals(1, mEngine.getIdleConnectionCount());
+        Thread.sleep(300);
+        assertEquals(0, mEngine.getIdleConnectionCount());
+
+        fetch(mServer.url("/second"));
+        assertEquals(2, mServer.getSocketsAccepted());
+    }
+
+    private String fetch(URL url) throws IOException {
+        return mEngine.execute(url, null).bodyAsString();
+    }
+
+    /**
+     * Minimal keep-alive HTTP/1.1 server. Paths starting with /chunked are answered with a
+     * chunked body, everything else with a Content-Length. The body is the request path.
+     */
+    private static class LocalServer {
+        private final ServerSocket mServerSocket;
+        private final AtomicInteger mSocketsAccepted = new AtomicInteger();
+        private volatile int mCloseAfter = Integer.MAX_VALUE;
+
+        LocalServer() throws IOException {
+            mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        }
+
+        URL url(String path) throws IOException {
+            return new URL("http://127.0.0.1:" + mServerSocket.getLocalPort() + path);
+        }
+
+        int getSocketsAccepted() {
+            return mSocketsAccepted.get();
+        }
+
+        void setCloseAfter(int requests) {
+            mCloseAfter = requests;
+        }
+
+        void start() {
+            Thread acceptor = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (!mServerSocket.isClosed()) {
+                        try {
+                            final Socket socket = mServerSocket.accept();
+                            mSocketsAccepted.incrementAndGet();
+                            new Thread(new Runnable() {
+                                @Override
+                                public void run() {
+                                    serve(socket);
+                                }
+                            }).start();
+                        } catch (IOException e) {
+                            return;
+                        }
+                    }
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        void stop() throws IOException {
+            mServerSocket.close();
+        }
+
+        private void serve(Socket socket) {
+            try {
+                BufferedReader in = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+                OutputStream out = socket.getOutputStream();
+                int served = 0;
+                String requestLine;
+                while ((requestLine = in.readLine()) != null) {
+                    String line;
+                    while ((line = in.readLine()) != null && !line.isEmpty()) {
+                        // ignore request headers
+                    }
+                    String path = requestLine.split(" ")[1];
+                    byte[] body = path.getBytes("UTF-8");
+                    served++;
+                    boolean close = served >= mCloseAfter;
+                    StringBuilder head = new StringBuilder("HTTP/1.1 200 OK\r\n");
+                    if (close) {
+                        head.append("Connection: close\r\n");
+                    }
+                    if (path.startsWith("/chunked")) {
+                        head.append("Transfer-Encoding: chunked\r\n\r\n");
+                        out.write(head.toString().getBytes("ISO-8859-1"));
+                        int half = body.length / 2;
+                        writeChunk(out, body, 0, half);
+                        writeChunk(out, body, half, body.length - half);
+                        out.write("0\r\n\r\n".getBytes("ISO-8859-1"));
+                    } else {
+                        head.append("Content-Length: ").append(body.length).append("\r\n\r\n");
+                        out.write(head.toString().getBytes("ISO-8859-1"));
+                        out.write(body);
+                    }
+                    out.flush();
+                    if (close) {
+                        break;
+                    }
+                }
+            } catch (IOException ignored) {
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        private static void writeChunk(OutputStream out, byte[] body, int offset, int length)
+                throws IOException {
+            out.write((Integer.toHexString(length) + "\r\n").getBytes("ISO-8859-1"));
+            out.write(body, offset, length);
+            out.write("\r\n".getBytes("ISO-8859-1"));
+        }
+    }
+}
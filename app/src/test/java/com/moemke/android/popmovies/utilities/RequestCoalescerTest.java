@@ -0,0 +1,225 @@
+package com.moemke.android.popmovies.utilities;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that {@link RequestCoalescer} makes one call for concurrent requests of the same key
+ * and hands its response or exception to every caller, but not the cancellation of the caller
+ * that made it.
+ */
+public class RequestCoalescerTest {
+
+    private static final int WAITERS = 4;
+    private static final long TIMEOUT_MILLIS = 5000;
+    private static final String URL = "https://api.themoviedb.org/3/movie/328111";
+
+    @Test
+    public void concurrentRequests_shareOneCall() throws Exception {
+        final RequestCoalescer coalescer = new RequestCoalescer();
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        final RequestCoalescer.Call call = new RequestCoalescer.Call() {
+            @Override
+            public HttpResponse execute() throws IOException {
+                calls.incrementAndGet();
+                await(release);
+                return HttpResponse.buffered(200, "OK", new HashMap<String, String>(),
+                        "{\"id\":328111}".getBytes("UTF-8"));
+            }
+        };
+        final List<String> bodies = Collections.synchronizedList(new ArrayList<String>());
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i <= WAITERS; i++) {
+            threads.add(start(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        bodies.add(coalescer.execute(URL, call).bodyAsString());
+                    } catch (IOException e) {
+                        bodies.add(e.toString());
+                    }
+                }
+            }));
+        }
+        waitFor(coalescer, WAITERS);
+        release.countDown();
+        join(threads);
+
+        assertEquals(1, calls.get());
+        assertEquals(1, coalescer.getCallCount());
+        assertEquals(WAITERS, coalescer.getCoalescedCount());
+        assertEquals(WAITERS + 1, bodies.size());
+        for (String body : bodies) {
+            assertEquals("{\"id\":328111}", body);
+        }
+        assertEquals(0, coalescer.getInFlightCount());
+    }
+
+    @Test
+    public void failedCall_isReportedToEveryCaller() throws Exception {
+        final RequestCoalescer coalescer = new RequestCoalescer();
+        final CountDownLatch release = new CountDownLatch(1);
+        final RequestCoalescer.Call call = new RequestCoalescer.Call() {
+            @Override
+            public HttpResponse execute() throws IOException {
+                await(release);
+                throw new IOException("connection reset");
+            }
+        };
+        final AtomicInteger failures = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i <= WAITERS; i++) {
+            threads.add(start(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        coalescer.execute(URL, call);
+                    } catch (IOException e) {
+                        if (e.getMessage().equals("connection reset")) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                }
+            }));
+        }
+        waitFor(coalescer, WAITERS);
+        release.countDown();
+        join(threads);
+
+        assertEquals(WAITERS + 1, failures.get());
+    }
+
+    @Test
+    public void cancelledLeader_waitersMakeANewCall() throws Exception {
+        final RequestCoalescer coalescer = new RequestCoalescer();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        final RequestCoalescer.Call call = new RequestCoalescer.Call() {
+            @Override
+            public HttpResponse execute() throws IOException {
+                if (calls.incrementAndGet() == 1) {
+                    started.countDown();
+                    try {
+                        Thread.sleep(TIMEOUT_MILLIS);
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException("cancelled");
+                    }
+                }
+                await(release);
+                return HttpResponse.buffered(200, "OK", new HashMap<String, String>(),
+                        "{\"id\":328111}".getBytes("UTF-8"));
+            }
+        };
+        final List<String> bodies = Collections.synchronizedList(new ArrayList<String>());
+        final AtomicInteger cancelled = new AtomicInteger();
+        Thread leader = start(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    coalescer.execute(URL, call);
+                } catch (InterruptedIOException e) {
+                    cancelled.incrementAndGet();
+                } catch (IOException e) {
+                    bodies.add(e.toString());
+                }
+            }
+        });
+        await(started);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < WAITERS; i++) {
+            threads.add(start(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        bodies.add(coalescer.execute(URL, call).bodyAsString());
+                    } catch (IOException e) {
+                        bodies.add(e.toString());
+                    }
+                }
+            }));
+        }
+        waitFor(coalescer, WAITERS);
+        leader.interrupt();
+        // one waiter makes the new call, the others join it
+        waitFor(coalescer, WAITERS + WAITERS - 1);
+        release.countDown();
+        threads.add(leader);
+        join(threads);
+
+        assertEquals(1, cancelled.get());
+        assertEquals(2, calls.get());
+        assertEquals(2, coalescer.getCallCount());
+        assertEquals(WAITERS, bodies.size());
+        for (String body : bodies) {
+            assertEquals("{\"id\":328111}", body);
+        }
+        assertEquals(0, coalescer.getInFlightCount());
+    }
+
+    @Test
+    public void laterRequests_makeANewCall() throws Exception {
+        RequestCoalescer coalescer = new RequestCoalescer();
+        final AtomicInteger calls = new AtomicInteger();
+        RequestCoalescer.Call call = new RequestCoalescer.Call() {
+            @Override
+            public HttpResponse execute() throws IOException {
+                return HttpResponse.buffered(200, "OK", new HashMap<String, String>(),
+                        String.valueOf(calls.incrementAndGet()).getBytes("UTF-8"));
+            }
+        };
+
+        assertEquals("1", coalescer.execute(URL, call).bodyAsString());
+        assertEquals("2", coalescer.execute(URL, call).bodyAsString());
+        assertEquals("3", coalescer.execute(URL + "/videos", call).bodyAsString());
+        assertEquals(0, coalescer.getCoalescedCount());
+    }
+
+    private static Thread start(Runnable runnable) {
+        Thread thread = new Thread(runnable);
+        thread.start();
+        return thread;
+    }
+
+    private static void join(List<Thread> threads) throws InterruptedException {
+        for (Thread thread : threads) {
+            thread.join(TIMEOUT_MILLIS);
+        }
+    }
+
+    private static void await(CountDownLatch latch) throws IOException {
+        try {
+            if (!latch.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                throw new IOException("timeout");
+            }
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static void waitFor(RequestCoalescer coalescer, long coalesced)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (coalescer.getCoalescedCount() < coalesced) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("only " + coalescer.getCoalescedCount() + " requests joined the call");
+            }
+            Thread.sleep(5);
+        }
+        assertTrue(coalescer.getInFlightCount() == 1);
+    }
+}
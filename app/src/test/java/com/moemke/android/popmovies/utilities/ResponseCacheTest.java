@@ -0,0 +1,243 @@
+package com.moemke.android.popmovies.utilities;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the memory and disk tiers of {@link ResponseCache} and its revalidation, using a fake
+ * engine that answers with an ETag and honours If-None-Match.
+ */
+public class ResponseCacheTest {
+
+    private static final long MAX_BYTES = 1024 * 1024;
+
+    private File mDirectory;
+    private FakeEngine mEngine;
+    private long mTtl;
+
+    private final ResponseCache.TtlPolicy mTtlPolicy = new ResponseCache.TtlPolicy() {
+        @Override
+        public long getTtlMillis(URL url) {
+            return mTtl;
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        mDirectory = File.createTempFile("responses", "");
+        mDirectory.delete();
+        mEngine = new FakeEngine();
+        mTtl = 60 * 1000;
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void freshResponse_isServedFromMemory() throws Exception {
+        ResponseCache cache = new ResponseCache(mDirectory, MAX_BYTES, MAX_BYTES, mTtlPolicy);
+        URL url = new URL("http://api.themoviedb.org/3/movie/popular");
+
+        assertEquals("popular v1", cache.execute(mEngine, url).bodyAsString());
+        assertEquals("popular v1", cache.execute(mEngine, url).bodyAsString());
+
+        assertEquals(1, mEngine.requests.size());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(0, cache.getDiskReadCount());
+        assertEquals("popular v1".length(), cache.getBytesFromNetwork());
+        assertEquals("popular v1".length(), cache.getBytesFromCache());
+    }
+
+    @Test
+    public void diskTier_outlivesTheCacheInstance() throws Exception {
+        URL url = new URL("http://api.themoviedb.org/3/movie/328111");
+        new ResponseCache(mDirectory, MAX_BYTES, MAX_BYTES, mTtlPolicy)
+                .execute(mEngine, url).close();
+
+        ResponseCache cache = new ResponseCache(mDirectory, MAX_BYTES, MAX_BYTES, mTtlPolicy);
+        assertEquals("328111 v1", cache.execute(mEngine, url).bodyAsString());
+
+        assertEquals(1, mEngine.requests.size());
+        assertEquals(1, cache.getDiskReadCount());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void corruptFile_isDroppedAndFetchedAgain() throws Exception {
+        URL url = new URL("http://api.themoviedb.org/3/movie/328111");
+        new ResponseCache(mDirectory, MAX_BYTES, MAX_BYTES, mTtlPolicy)
+                .execute(mEngine, url).close();
+        File file = mDirectory.listFiles()[0];
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        // a readable header followed by a body length far beyond the file
+        out.writeInt(1);
+        out.writeUTF(url.toString());
+        out.writeLong(System.currentTimeMillis());
+        out.writeBoolean(false);
+        out.writeBoolean(false);
+        out.writeInt(Integer.MAX_VALUE);
+        out.close();
+
+        ResponseCache cache = new ResponseCache(mDirectory, MAX_BYTES, MAX_BYTES, mTtlPolicy);
+        assertEquals("328111 v1", cache.execute(mEngine, url).bodyAsString());
+
+        assertEquals(2, mEngine.requests.size());
+        assertEquals(0, cache.getDiskReadCount());
+    }
+
+    @Test
+    public void expiredResponse_isRevalidatedWithEtag() throws Exception {
+        mTtl = 0;
+        ResponseCache cache = new ResponseCache(mDirectory, MAX_BYTES, MAX_BYTES, mTtlPolicy);
+        URL url = new URL("http://api.themoviedb.org/3/movie/top_rated");
+
+        cache.execute(mEngine, url).close();
+        assertEquals("top_rated v1", cache.execute(mEngine, url).bodyAsString());
+
+        assertEquals(2, mEngine.requests.size());
+        assertEquals("\"top_rated v1\"", mEngine.requests.get(1).get("If-None-Match"));
+        assertEquals(1, cache.getRevalidationCount());
+        assertEquals(1, cache.getMissCount());
+
+        // a changed response replaces the cached one
+        mEngine.version = 2;
+        assertEquals("top_rated v2", cache.execute(mEngine, url).bodyAsString());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void memoryTier_isBoundedBySize() throws Exception {
+        ResponseCache cache = new ResponseCache(null, 30, MAX_BYTES, mTtlPolicy);
+        for (int i = 0; i < 10; i++) {
+            cache.execute(mEngine, new URL("http://api.themoviedb.org/3/movie/" + i)).close();
+            assertTrue(cache.getMemorySize() <= 30);
+        }
+        // the most recent responses are still cached, the oldest were evicted
+        cache.execute(mEngine, new URL("http://api.themoviedb.org/3/movie/9")).close();
+        assertEquals(10, mEngine.requests.size());
+        cache.execute(mEngine, new URL("http://api.themoviedb.org/3/movie/0")).close();
+        assertEquals(11, mEngine.requests.size());
+    }
+
+    @Test
+    public void diskTier_isBoundedBySize() throws Exception {
+        ResponseCache cache = new ResponseCache(mDirectory, MAX_BYTES, 500, mTtlPolicy);
+        for (int i = 0; i < 20; i++) {
+            cache.execute(mEngine, new URL("http://api.themoviedb.org/3/movie/" + i)).close();
+        }
+        assertTrue(cache.getDiskSize() <= 500);
+        long onDisk = 0;
+        for (File file : mDirectory.listFiles()) {
+            onDisk += file.length();
+        }
+        assertEquals(cache.getDiskSize(), onDisk);
+    }
+
+    @Test
+    public void networkFailure_servesExpiredCopy() throws Exception {
+        mTtl = 0;
+        ResponseCache cache = new ResponseCache(mDirectory, MAX_BYTES, MAX_BYTES, mTtlPolicy);
+        URL url = new URL("http://api.themoviedb.org/3/movie/popular");
+        cache.execute(mEngine, url).close();
+
+        mEngine.offline = true;
+        assertEquals("popular v1", cache.execute(mEngine, url).bodyAsString());
+        assertEquals(1, cache.getStaleHitCount());
+    }
+
+    @Test(expected = IOException.class)
+    public void networkFailure_withoutCopy_throws() throws Exception {
+        ResponseCache cache = new ResponseCache(mDirectory, MAX_BYTES, MAX_BYTES, mTtlPolicy);
+        mEngine.offline = true;
+        cache.execute(mEngine, new URL("http://api.themoviedb.org/3/movie/popular"));
+    }
+
+    @Test
+    public void cachedCopy_isServedWithoutNetwork() throws Exception {
+        mTtl = 0;
+        ResponseCache cache = new ResponseCache(mDirectory, MAX_BYTES, MAX_BYTES, mTtlPolicy);
+        URL url = new URL("http://image.tmdb.org/t/p/w185/poster.jpg");
+        assertNull(cache.getCached(url));
+        cache.execute(mEngine, url).close();
+
+        mEngine.offline = true;
+        HttpResponse response = cache.getCached(url);
+        assertTrue(ResponseCache.isFromCache(response));
+        assertEquals("poster.jpg v1", response.bodyAsString());
+        assertEquals(1, cache.getStaleHitCount());
+    }
+
+    @Test
+    public void responses_tellWhetherTheyCameFromTheCache() throws Exception {
+        ResponseCache cache = new ResponseCache(mDirectory, MAX_BYTES, MAX_BYTES, mTtlPolicy);
+        URL url = new URL("http://api.themoviedb.org/3/movie/popular");
+
+        HttpResponse miss = cache.execute(mEngine, url);
+        assertFalse(ResponseCache.isFromCache(miss));
+        miss.close();
+        HttpResponse hit = cache.execute(mEngine, url);
+        assertTrue(ResponseCache.isFromCache(hit));
+        hit.close();
+    }
+
+    /**
+     * Answers every request with "<last path segment> v<version>" and an ETag of the body.
+     */
+    private static class FakeEngine implements HttpEngine {
+        final List<Map<String, String>> requests = new ArrayList<Map<String, String>>();
+        int version = 1;
+        boolean offline;
+
+        @Override
+        public HttpResponse execute(URL url, Map<String, String> requestHeaders)
+                throws IOException {
+            if (offline) {
+                throw new IOException("offline");
+            }
+            requests.add(requestHeaders == null
+                    ? new HashMap<String, String>() : requestHeaders);
+            String path = url.getPath();
+            String body = path.substring(path.lastIndexOf('/') + 1) + " v" + version;
+            String etag = "\"" + body + "\"";
+
+            Map<String, String> headers = new HashMap<String, String>();
+            headers.put("etag", etag);
+            if (requestHeaders != null && etag.equals(requestHeaders.get("If-None-Match"))) {
+                return HttpResponse.buffered(HttpURLConnection.HTTP_NOT_MODIFIED, "Not Modified",
+                        headers, new byte[0]);
+            }
+            return HttpResponse.buffered(HttpURLConnection.HTTP_OK, "OK", headers,
+                    body.getBytes("UTF-8"));
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.moemke.android.popmovies.utilities;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks {@link TaskRunner} and {@link TaskRegistry} with a {@link TestScheduler} for each pool
+ * and the main thread: results arrive on the main executor, cancelled tasks deliver nothing and
+ * close what they registered, and a detached task hands its result to the next callback.
+ */
+public class TaskRegistryTest {
+
+    private static final String KEY = "movies";
+    private static final String URL = "https://api.themoviedb.org/3/movie/popular?page=1";
+
+    private TestScheduler mIo;
+    private TestScheduler mCpu;
+    private TestScheduler mMain;
+    private TaskRunner mRunner;
+
+    @Before
+    public void setUp() {
+        mIo = new TestScheduler();
+        mCpu = new TestScheduler();
+        mMain = new TestScheduler();
+        mRunner = new TaskRunner(mIo, mCpu, mMain);
+    }
+
+    @Test
+    public void submit_runsOnPoolAndDeliversOnMain() {
+        RecordingCallback<String> callback = new RecordingCallback<String>();
+        mRunner.submit(TaskRunner.POOL_CPU, new ValueTask("page"), callback);
+
+        assertEquals(0, mIo.getQueuedCount());
+        assertEquals(1, mCpu.runAll());
+        assertTrue(callback.results.isEmpty());
+        assertEquals(1, mMain.runAll());
+        assertEquals(1, callback.results.size());
+        assertEquals("page", callback.results.get(0));
+        assertNull(CancellationToken.current());
+    }
+
+    @Test
+    public void submit_deliversException() {
+        RecordingCallback<String> callback = new RecordingCallback<String>();
+        mRunner.submit(TaskRunner.POOL_IO, new BackgroundTask<String>() {
+            @Override
+            public String run(CancellationToken token) throws Exception {
+                throw new IOException("timeout");
+            }
+        }, callback);
+        mIo.runAll();
+        mMain.runAll();
+
+        assertTrue(callback.results.isEmpty());
+        assertEquals(1, callback.errors.size());
+        assertEquals("timeout", callback.errors.get(0).getMessage());
+    }
+
+    @Test
+    public void cancel_whileRunning_closesRegisteredAndDeliversNothing() {
+        final AtomicBoolean closed = new AtomicBoolean();
+        final CancellationToken[] tokens = new CancellationToken[1];
+        RecordingCallback<String> callback = new RecordingCallback<String>();
+        tokens[0] = mRunner.submit(TaskRunner.POOL_IO, new BackgroundTask<String>() {
+            @Override
+            public String run(CancellationToken token) throws Exception {
+                // what an http engine does with its socket
+                CancellationToken.current().register(new Closeable() {
+                    @Override
+                    public void close() {
+                        closed.set(true);
+                    }
+                });
+                tokens[0].cancel();
+                assertTrue(Thread.currentThread().isInterrupted());
+                return "page";
+            }
+        }, callback);
+        mIo.runAll();
+        mMain.runAll();
+
+        assertTrue(closed.get());
+        assertTrue(callback.results.isEmpty());
+        assertTrue(callback.errors.isEmpty());
+        // the interrupt does not leak to the next task on the thread
+        assertFalse(Thread.currentThread().isInterrupted());
+    }
+
+    @Test
+    public void cancel_afterRegister_closesRightAway() {
+        CancellationToken token = new CancellationToken();
+        final AtomicInteger closes = new AtomicInteger();
+        token.cancel();
+        token.register(new Closeable() {
+            @Override
+            public void close() {
+                closes.incrementAndGet();
+            }
+        });
+        token.cancel();
+
+        assertEquals(1, closes.get());
+    }
+
+    @Test
+    public void cancel_beforeDelivery_deliversNothing() {
+        RecordingCallback<String> callback = new RecordingCallback<String>();
+        CancellationToken token = mRunner.submit(TaskRunner.POOL_IO, new ValueTask("page"),
+                callback);
+        mIo.runAll();
+        token.cancel();
+        mMain.runAll();
+
+        assertTrue(callback.results.isEmpty());
+    }
+
+    @Test
+    public void detachAll_keepsResultForNextCallback() {
+        TaskRegistry registry = new TaskRegistry(mRunner);
+        RecordingCallback<String> oldActivity = new RecordingCallback<String>();
+        CountingTask task = new CountingTask("page");
+        registry.startOrAttach(KEY, URL, TaskRunner.POOL_IO, task, oldActivity);
+
+        // rotation while the request is running
+        registry.detachAll();
+        mIo.runAll();
+        mMain.runAll();
+        assertTrue(oldActivity.results.isEmpty());
+        assertFalse(registry.isRunning(KEY));
+
+        RecordingCallback<String> newActivity = new RecordingCallback<String>();
+        registry.startOrAttach(KEY, URL, TaskRunner.POOL_IO, task, newActivity);
+
+        assertEquals(0, mIo.getQueuedCount());
+        assertEquals(1, task.runs.get());
+        assertEquals(1, newActivity.results.size());
+        assertEquals("page", newActivity.results.get(0));
+    }
+
+    @Test
+    public void startOrAttach_whileRunning_attachesWithoutSecondRun() {
+        TaskRegistry registry = new TaskRegistry(mRunner);
+        CountingTask task = new CountingTask("page");
+        registry.startOrAttach(KEY, URL, TaskRunner.POOL_IO, task,
+                new RecordingCallback<String>());
+        registry.detachAll();
+        RecordingCallback<String> newActivity = new RecordingCallback<String>();
+        registry.startOrAttach(KEY, URL, TaskRunner.POOL_IO, task, newActivity);
+        assertTrue(registry.isRunning(KEY));
+
+        mIo.runAll();
+        mMain.runAll();
+
+        assertEquals(1, task.runs.get());
+        assertEquals(1, newActivity.results.size());
+    }
+
+    @Test
+    public void start_cancelsPreviousTaskOfKey() {
+        TaskRegistry registry = new TaskRegistry(mRunner);
+        RecordingCallback<String> popular = new RecordingCallback<String>();
+        RecordingCallback<String> topRated = new RecordingCallback<String>();
+        registry.startOrAttach(KEY, URL, TaskRunner.POOL_IO, new ValueTask("popular"), popular);
+        registry.startOrAttach(KEY, URL + "&top_rated", TaskRunner.POOL_IO,
+                new ValueTask("top_rated"), topRated);
+        mIo.runAll();
+        mMain.runAll();
+
+        assertTrue(popular.results.isEmpty());
+        assertEquals(1, topRated.results.size());
+        assertEquals("top_rated", topRated.results.get(0));
+    }
+
+    @Test
+    public void cancelAll_deliversNothing() {
+        TaskRegistry registry = new TaskRegistry(mRunner);
+        RecordingCallback<String> callback = new RecordingCallback<String>();
+        registry.start(KEY, URL, TaskRunner.POOL_IO, new ValueTask("page"), callback);
+        registry.cancelAll();
+        mIo.runAll();
+        mMain.runAll();
+
+        assertTrue(callback.results.isEmpty());
+        assertFalse(registry.contains(KEY));
+    }
+
+    private static class ValueTask implements BackgroundTask<String> {
+        private final String mValue;
+
+        ValueTask(String value) {
+            mValue = value;
+        }
+
+        @Override
+        public String run(CancellationToken token) {
+            return mValue;
+        }
+    }
+
+    private static class CountingTask extends ValueTask {
+        final AtomicInteger runs = new AtomicInteger();
+
+        CountingTask(String value) {
+            super(value);
+        }
+
+        @Override
+        public String run(CancellationToken token) {
+            runs.incrementAndGet();
+            return super.run(token);
+        }
+    }
+
+    private static class RecordingCallback<T> implements TaskRunner.Callback<T> {
+        final List<T> results = new ArrayList<T>();
+        final List<Exception> errors = new ArrayList<Exception>();
+
+        @Override
+        public void onResult(T result) {
+            results.add(result);
+        }
+
+        @Override
+        public void onError(Exception e) {
+            errors.add(e);
+        }
+    }
+}
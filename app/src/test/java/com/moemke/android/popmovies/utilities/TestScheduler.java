@@ -0,0 +1,53 @@
+package com.moemke.android.popmovies.utilities;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+/**
+ * An executor that runs nothing until told to, on the calling thread. Used in place of the
+ * pools and the main thread of {@link TaskRunner} in JVM tests, so the order in which tasks run
+ * and results arrive is decided by the test.
+ */
+public class TestScheduler implements Executor {
+
+    private final ArrayDeque<Runnable> mQueue = new ArrayDeque<Runnable>();
+
+    @Override
+    public synchronized void execute(Runnable command) {
+        mQueue.addLast(command);
+    }
+
+    /**
+     * Runs the oldest queued command.
+     *
+     * @return false if nothing was queued
+     */
+    public boolean runNext() {
+        Runnable command;
+        synchronized (this) {
+            command = mQueue.pollFirst();
+        }
+        if (command == null) {
+            return false;
+        }
+        command.run();
+        return true;
+    }
+
+    /**
+     * Runs queued commands, including the ones they queue, until none are left.
+     *
+     * @return The number of commands run
+     */
+    public int runAll() {
+        int count = 0;
+        while (runNext()) {
+            count++;
+        }
+        return count;
+    }
+
+    public synchronized int getQueuedCount() {
+        return mQueue.size();
+    }
+}
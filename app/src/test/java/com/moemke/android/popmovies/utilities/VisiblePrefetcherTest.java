@@ -0,0 +1,124 @@
+package com.moemke.android.popmovies.utilities;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link VisiblePrefetcher} loads visible ids once, respects the limit and cancels
+ * ids that scrolled away, with a single loader thread that can be held.
+ */
+public class VisiblePrefetcherTest {
+
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    private final List<Integer> mLoadedIds = Collections.synchronizedList(new ArrayList<Integer>());
+    private CountDownLatch mRelease;
+    private CountDownLatch mFirstLoadStarted;
+    private volatile boolean mFail;
+    private VisiblePrefetcher mPrefetcher;
+
+    @Before
+    public void setUp() {
+        mRelease = new CountDownLatch(0);
+        mFirstLoadStarted = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        mPrefetcher = new VisiblePrefetcher(executor, new VisiblePrefetcher.Loader() {
+            @Override
+            public void load(int id) throws IOException {
+                mFirstLoadStarted.countDown();
+                try {
+                    mRelease.await();
+                } catch (InterruptedException e) {
+                    throw new IOException("interrupted");
+                }
+                if (mFail) {
+                    throw new IOException("offline");
+                }
+                mLoadedIds.add(id);
+            }
+        }, 100);
+    }
+
+    @After
+    public void tearDown() {
+        mPrefetcher.shutdown();
+    }
+
+    @Test
+    public void visibleIds_areLoadedOnce() throws Exception {
+        mPrefetcher.setVisible(new int[]{1, 2, 3}, 3);
+        drain();
+        mPrefetcher.setVisible(new int[]{1, 2, 3}, 3);
+        drain();
+
+        assertEquals(3, mLoadedIds.size());
+        assertEquals(3, mPrefetcher.getStartedCount());
+        assertTrue(mPrefetcher.isLoaded(2));
+    }
+
+    @Test
+    public void limit_capsStartedLoads() throws Exception {
+        mPrefetcher.setVisible(new int[]{1, 2, 3, 4}, 2);
+        drain();
+
+        assertEquals(2, mLoadedIds.size());
+        assertEquals(Integer.valueOf(1), mLoadedIds.get(0));
+        assertFalse(mPrefetcher.isLoaded(3));
+
+        // the next idle state loads the rest
+        mPrefetcher.setVisible(new int[]{1, 2, 3, 4}, 2);
+        drain();
+        assertTrue(mPrefetcher.isLoaded(4));
+    }
+
+    @Test
+    public void idsScrolledAway_areCancelled() throws Exception {
+        mRelease = new CountDownLatch(1);
+        mPrefetcher.setVisible(new int[]{1, 2, 3}, 3);
+        assertTrue(mFirstLoadStarted.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+
+        // scrolled on, 1 is loading, 2 and 3 are queued
+        mPrefetcher.setVisible(new int[]{3, 4}, 0);
+        mRelease.countDown();
+        drain();
+
+        assertEquals(2, mPrefetcher.getCancelledCount());
+        assertEquals(Collections.singletonList(3), mLoadedIds);
+    }
+
+    @Test
+    public void failedIds_areRetriedWhenVisibleAgain() throws Exception {
+        mFail = true;
+        mPrefetcher.setVisible(new int[]{1}, 1);
+        drain();
+        assertEquals(1, mPrefetcher.getFailedCount());
+        assertFalse(mPrefetcher.isLoaded(1));
+
+        mFail = false;
+        mPrefetcher.setVisible(new int[]{1}, 1);
+        drain();
+        assertTrue(mPrefetcher.isLoaded(1));
+    }
+
+    private void drain() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (mPrefetcher.getInFlightCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(0, mPrefetcher.getInFlightCount());
+    }
+}
@@ -0,0 +1,40 @@
+package com.moemke.android.popmovies.utilities;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the thumbnail variants {@link YoutubeThumbnails} picks for the width of a video row.
+ */
+public class YoutubeThumbnailsTest {
+
+    @Test
+    public void selectedVariant_isSmallestCoveringVariant() {
+        assertEquals("default.jpg", YoutubeThumbnails.selectVariant(100));
+        assertEquals("default.jpg", YoutubeThumbnails.selectVariant(120));
+        assertEquals("mqdefault.jpg", YoutubeThumbnails.selectVariant(121));
+        assertEquals("mqdefault.jpg", YoutubeThumbnails.selectVariant(320));
+        assertEquals("hqdefault.jpg", YoutubeThumbnails.selectVariant(321));
+        // wider than every variant that always exists
+        assertEquals("hqdefault.jpg", YoutubeThumbnails.selectVariant(1040));
+        assertEquals("hqdefault.jpg", YoutubeThumbnails.selectVariant(0));
+    }
+
+    @Test
+    public void aspect_matchesSelectedVariant() {
+        assertEquals(0.75f, YoutubeThumbnails.aspectOf(100), 0.001f);
+        assertEquals(0.5625f, YoutubeThumbnails.aspectOf(300), 0.001f);
+        assertEquals(0.75f, YoutubeThumbnails.aspectOf(1040), 0.001f);
+    }
+
+    @Test
+    public void onlyYoutubeVideos_haveThumbnails() {
+        assertTrue(YoutubeThumbnails.hasThumbnail("YouTube"));
+        assertTrue(YoutubeThumbnails.hasThumbnail("youtube"));
+        assertFalse(YoutubeThumbnails.hasThumbnail("Vimeo"));
+        assertFalse(YoutubeThumbnails.hasThumbnail(null));
+    }
+}